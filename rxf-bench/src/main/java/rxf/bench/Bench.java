@@ -0,0 +1,33 @@
+package rxf.bench;
+
+import rxf.core.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * benchmarks.jar entry point: plain {@link org.openjdk.jmh.Main}, except the results are written as JSON unless
+ * -rf/-rff say otherwise, so every release leaves a file the next one can be compared against (jmh.morethan.io, or
+ * any JSON diff).
+ * <p/>
+ * system properties: RXF_BENCH_RESULT output file, default jmh-result-&lt;version&gt;.json in the working dir.
+ */
+public class Bench {
+  public static final String VERSION = null == Bench.class.getPackage().getImplementationVersion()
+      ? "SNAPSHOT" : Bench.class.getPackage().getImplementationVersion();
+  public static final String BENCH_RESULT = Config.get("RXF_BENCH_RESULT", "jmh-result-" + VERSION
+      + ".json");
+
+  public static void main(String... args) throws Exception {
+    List<String> argv = new ArrayList<>(Arrays.asList(args));
+    if (!argv.contains("-rf") && !argv.contains("-rff") && !argv.contains("-l")
+        && !argv.contains("-h")) {
+      argv.add(0, "-rf");
+      argv.add(1, "json");
+      argv.add(2, "-rff");
+      argv.add(3, BENCH_RESULT);
+    }
+    org.openjdk.jmh.Main.main(argv.toArray(new String[argv.size()]));
+  }
+}
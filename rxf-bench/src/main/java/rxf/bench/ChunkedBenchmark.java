@@ -0,0 +1,83 @@
+package rxf.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rxf.core.ChunkedDecoder;
+import rxf.core.Tx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link Tx#getNextChunk}, {@link Tx#decodeChunkedEncoding} and {@link ChunkedDecoder} on a chunked body that is already entirely in the
+ * payload buffer, the way couch answers a small view: no reads, so only the chunk framing is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkedBenchmark {
+  @Param( {"16", "512", "8192"})
+  public int chunkSize;
+
+  @Param( {"8"})
+  public int chunks;
+
+  ByteBuffer body;
+  ByteBuffer payload;
+  Tx tx;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder();
+    char[] data = new char[chunkSize];
+    for (int i = 0; i < data.length; i++)
+      data[i] = (char) ('a' + i % 26);
+    for (int i = 0; i < chunks; i++)
+      sb.append(Integer.toHexString(chunkSize)).append("\r\n").append(data).append("\r\n");
+    sb.append("0\r\n\r\n");
+    body = UTF_8.encode(sb.toString());
+    payload = ByteBuffer.allocate(body.limit());
+    tx = new Tx();
+  }
+
+  /**
+   * the payload as Tx leaves it after a read: filled, not flipped
+   */
+  ByteBuffer fill() {
+    payload.clear();
+    payload.put(body.duplicate());
+    tx.payload(payload);
+    return payload;
+  }
+
+  @Benchmark
+  public void getNextChunk(Blackhole bh) {
+    fill();
+    for (ByteBuffer chunk; Tx.NIL != (chunk = tx.getNextChunk());)
+      bh.consume(chunk);
+  }
+
+  /**
+   * the streaming decoder finishPayload and ViewFetch use, handing out slices of the read buffer
+   */
+  @Benchmark
+  public void chunkedDecoder(Blackhole bh) throws Exception {
+    new ChunkedDecoder(bh::consume).apply(body.duplicate());
+  }
+
+  @Benchmark
+  public List<ByteBuffer> decodeChunkedEncoding() {
+    fill();
+    List<ByteBuffer> res = new ArrayList<>(chunks);
+    tx.decodeChunkedEncoding(res, key -> {
+    });
+    return res;
+  }
+}
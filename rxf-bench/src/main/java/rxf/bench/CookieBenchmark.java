@@ -0,0 +1,58 @@
+package rxf.bench;
+
+import org.openjdk.jmh.annotations.*;
+import rxf.core.CookieRfc6265Util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link CookieRfc6265Util} on the Cookie a browser sends back and the Set-Cookie a login answers with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CookieBenchmark {
+  public static final String COOKIE =
+      "_ga=GA1.2.1234567890.1600000000; session=0f1e2d3c4b5a69788796a5b4c3d2e1f0; theme=dark; "
+          + "_gid=GA1.2.987654321.1600000000; locale=en-US";
+  public static final String SET_COOKIE =
+      "session=0f1e2d3c4b5a69788796a5b4c3d2e1f0; Expires=Wed, 09 Jun 2021 10:18:14 GMT; "
+          + "Max-Age=3600; Domain=example.com; Path=/; Secure; HttpOnly";
+
+  ByteBuffer cookie;
+  ByteBuffer setCookie;
+  ByteBuffer session;
+
+  @Setup
+  public void setup() {
+    cookie = UTF_8.encode(COOKIE);
+    setCookie = UTF_8.encode(SET_COOKIE);
+    session = UTF_8.encode("session");
+  }
+
+  @Benchmark
+  public Object parseCookie() {
+    return CookieRfc6265Util.parseCookie(cookie.duplicate());
+  }
+
+  /**
+   * the usual case, one cookie wanted out of the header
+   */
+  @Benchmark
+  public Object parseCookieFiltered() {
+    return CookieRfc6265Util.parseCookie(cookie.duplicate(), session);
+  }
+
+  @Benchmark
+  public EnumMap<CookieRfc6265Util, Serializable> parseSetCookie() {
+    return CookieRfc6265Util.parseSetCookie(setCookie.duplicate());
+  }
+}
@@ -0,0 +1,42 @@
+package rxf.bench;
+
+import org.openjdk.jmh.annotations.*;
+import rxf.core.DateHeaderParser;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DateHeaderParser} as If-Modified-Since, Expires and cookie dates hit it: the RFC 1123 form parses on the
+ * first format, asctime falls through every format before it.
+ * <p/>
+ * the formats are shared SimpleDateFormats, so this stays single threaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateHeaderBenchmark {
+  @Param( {"Sun, 06 Nov 1994 08:49:37 GMT", "Sunday, 06-Nov-94 08:49:37 GMT",
+      "Sun Nov 6 08:49:37 1994"})
+  public String date;
+
+  Date now;
+
+  @Setup
+  public void setup() {
+    now = new Date();
+  }
+
+  @Benchmark
+  public Date parseDate() {
+    return DateHeaderParser.parseDate(date);
+  }
+
+  @Benchmark
+  public String formatHttpHeaderDate() {
+    return DateHeaderParser.formatHttpHeaderDate(now);
+  }
+}
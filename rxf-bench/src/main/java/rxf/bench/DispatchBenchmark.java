@@ -0,0 +1,64 @@
+package rxf.bench;
+
+import org.openjdk.jmh.annotations.*;
+import rxf.web.inf.ContentRootCacheImpl;
+import rxf.web.inf.ContentRootNoCacheImpl;
+import rxf.web.inf.Router;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * picking the visitor for a request path: the first-match scan ProtocolMethodDispatch used to run over its
+ * LinkedHashMap of regexes against the {@link Router} it compiles that map into now. the table is the stock GET map
+ * fronted by the kind of rest routes an application adds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DispatchBenchmark {
+  @Param( {"/app/0123456789ABCDEF0123456789ABCDEF.cache.html", "/app/app.nocache.js",
+      "/api/v1/users/42", "/i/some/proxied/path", "/index.html"})
+  public String path;
+
+  final Map<Pattern, String> routes = new LinkedHashMap<>();
+  Router<String> router;
+
+  @Setup
+  public void setup() {
+    routes.put(Pattern.compile("^/gwtRequest"), "rf");
+    routes.put(Pattern.compile("^/api/v1/users$"), "users");
+    routes.put(Pattern.compile("^/api/v1/users/([0-9]+)$"), "user");
+    routes.put(Pattern.compile("^/api/v1/orders(/.*)?$"), "orders");
+    routes.put(Pattern.compile("^/api/v1/search"), "search");
+    routes.put(Pattern.compile("^/i(/.*)$"), "proxy");
+    routes.put(ContentRootCacheImpl.CACHE_PATTERN, "cache");
+    routes.put(ContentRootNoCacheImpl.NOCACHE_PATTERN, "nocache");
+    routes.put(Pattern.compile(".*"), "root");
+    router = new Router<>();
+    for (Map.Entry<Pattern, String> e : routes.entrySet())
+      router.add(e.getKey(), e.getValue());
+  }
+
+  /**
+   * the pre-router loop, a fresh Matcher per pattern tried
+   */
+  @Benchmark
+  public String linear() {
+    for (Map.Entry<Pattern, String> e : routes.entrySet())
+      if (e.getKey().matcher(path).matches())
+        return e.getValue();
+    return null;
+  }
+
+  @Benchmark
+  public String router() {
+    int route = router.route(path);
+    return -1 == route ? null : router.target(route);
+  }
+}
@@ -0,0 +1,137 @@
+package rxf.bench;
+
+import one.xio.HttpHeaders;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rxf.core.HeaderIndex;
+import rxf.core.Rfc822HeaderState;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * the pre-{@link HeaderIndex} parse (three decoded first-line tokens, HttpHeaders.getHeaders, a LinkedHashMap per
+ * request) against {@link Rfc822HeaderState#apply} and a reused {@link HeaderIndex}, on a desktop browser's GET.
+ * <p/>
+ * each benchmark reads what ProtocolMethodDispatch and Tx read per request: method, path, Content-Length and
+ * Connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HeaderParserBenchmark {
+  public static final String CHROME_GET =
+      "GET /app/0123456789ABCDEF0123456789ABCDEF.cache.html?v=42 HTTP/1.1\r\n"
+          + "Host: www.example.com\r\n"
+          + "Connection: keep-alive\r\n"
+          + "Cache-Control: max-age=0\r\n"
+          + "Upgrade-Insecure-Requests: 1\r\n"
+          + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) "
+          + "Chrome/118.0.0.0 Safari/537.36\r\n"
+          + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,"
+          + "image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n"
+          + "Sec-Fetch-Site: same-origin\r\n" + "Sec-Fetch-Mode: navigate\r\n"
+          + "Sec-Fetch-Dest: document\r\n" + "Referer: https://www.example.com/app/\r\n"
+          + "Accept-Encoding: gzip, deflate, br\r\n" + "Accept-Language: en-US,en;q=0.9\r\n"
+          + "Cookie: _ga=GA1.2.1234567890.1600000000; session=0f1e2d3c4b5a69788796a5b4c3d2e1f0; "
+          + "theme=dark\r\n" + "If-None-Match: \"5e1f-18b2c3d4e5f\"\r\n" + "\r\n";
+
+  static final String[] INTEREST = Rfc822HeaderState.staticHeaderStrings(
+      HttpHeaders.Content$2dLength, HttpHeaders.Transfer$2dEncoding, HttpHeaders.Connection,
+      HttpHeaders.Accept$2dEncoding, HttpHeaders.If$2dNone$2dMatch);
+
+  ByteBuffer request;
+  HeaderIndex index;
+  Rfc822HeaderState parsed;
+
+  @Setup
+  public void setup() {
+    byte[] bytes = CHROME_GET.getBytes(UTF_8);
+    request = ByteBuffer.allocateDirect(bytes.length);
+    request.put(bytes).flip();
+    index = new HeaderIndex().interest(INTEREST);
+    parsed = new Rfc822HeaderState(INTEREST).read(request.duplicate());
+  }
+
+  @Benchmark
+  public void legacy(Blackhole bh) {
+    ByteBuffer cursor = request.duplicate();
+    ByteBuffer slice = cursor.duplicate().slice();
+    while (slice.hasRemaining() && ' ' != slice.get()) {
+    }
+    String method = UTF_8.decode((ByteBuffer) slice.flip()).toString().trim();
+    while (cursor.hasRemaining() && ' ' != cursor.get()) {
+    }
+    slice = cursor.slice();
+    while (slice.hasRemaining() && ' ' != slice.get()) {
+    }
+    String path = UTF_8.decode((ByteBuffer) slice.flip()).toString().trim();
+    while (cursor.hasRemaining() && ' ' != cursor.get()) {
+    }
+    slice = cursor.slice();
+    while (slice.hasRemaining() && '\n' != slice.get()) {
+    }
+    bh.consume(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
+    Rfc822HeaderState.moveCaretToDoubleEol(cursor);
+    ByteBuffer headerBuf = (ByteBuffer) cursor.duplicate().flip();
+    Map<String, int[]> headerMap = HttpHeaders.getHeaders((ByteBuffer) headerBuf.rewind());
+    Map<String, String> strings = new LinkedHashMap<>();
+    for (String o : INTEREST) {
+      int[] o1 = headerMap.get(o);
+      if (null != o1)
+        strings.put(o, UTF_8.decode(
+            (ByteBuffer) headerBuf.duplicate().clear().position(o1[0]).limit(o1[1])).toString()
+            .trim());
+    }
+    bh.consume(method);
+    bh.consume(path);
+    bh.consume(strings.get(INTEREST[0]));
+    bh.consume(strings.get(INTEREST[2]));
+  }
+
+  @Benchmark
+  public void rfc822HeaderState(Blackhole bh) {
+    Rfc822HeaderState state = new Rfc822HeaderState(INTEREST);
+    bh.consume(state.apply(request.duplicate()));
+    bh.consume(state.methodProtocol());
+    bh.consume(state.pathResCode());
+    bh.consume(state.headerString(INTEREST[0]));
+    bh.consume(state.headerString(INTEREST[2]));
+  }
+
+  /**
+   * the unconditional form Tx.current().hdr() callers use on a buffer already known to hold the whole block
+   */
+  @Benchmark
+  public void read(Blackhole bh) {
+    Rfc822HeaderState state = new Rfc822HeaderState(INTEREST).read(request.duplicate());
+    bh.consume(state.methodProtocol());
+    bh.consume(state.pathResCode());
+    bh.consume(state.headerString(INTEREST[2]));
+  }
+
+  /**
+   * the grep over the whole block that multi-valued headers (Cookie, Set-Cookie) go through
+   */
+  @Benchmark
+  public List<String> getHeadersNamed() {
+    return parsed.getHeadersNamed(HttpHeaders.Cookie);
+  }
+
+  @Benchmark
+  public void headerIndex(Blackhole bh) {
+    bh.consume(index.apply(request));
+    bh.consume(index.equalsIgnoreCase(HeaderIndex.METHOD, "GET"));
+    bh.consume(index.string(HeaderIndex.PATH));
+    bh.consume(index.present(HeaderIndex.HEADERS));
+    bh.consume(index.equalsIgnoreCase(HeaderIndex.HEADERS + 2, "keep-alive"));
+  }
+}
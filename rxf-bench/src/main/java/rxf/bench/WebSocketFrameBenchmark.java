@@ -0,0 +1,60 @@
+package rxf.bench;
+
+import org.openjdk.jmh.annotations.*;
+import rxf.core.WebSocketFrame;
+import rxf.core.WebSocketFrame.OpCode;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WebSocketFrame} framing: decoding a masked client frame header, encoding a server frame header and the
+ * per-byte masking every client payload goes through, at a small and a large message size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WebSocketFrameBenchmark {
+  static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+  @Param( {"125", "65536"})
+  public int size;
+
+  ByteBuffer frame;
+  ByteBuffer payload;
+  WebSocketFrame out;
+  WebSocketFrame in;
+
+  @Setup
+  public void setup() {
+    payload = ByteBuffer.allocateDirect(size);
+    while (payload.hasRemaining())
+      payload.put((byte) ('a' + payload.position() % 26));
+    payload.flip();
+    frame = new WebSocketFrame(MASK, size, true, OpCode.text, true).as(payload.duplicate());
+    out = new WebSocketFrame(null, size, false, OpCode.text, true);
+    in = new WebSocketFrame();
+  }
+
+  @Benchmark
+  public boolean apply() {
+    return in.apply(frame.duplicate());
+  }
+
+  @Benchmark
+  public ByteBuffer as() {
+    return out.as(payload.duplicate());
+  }
+
+  /**
+   * in place, so every other invocation unmasks again
+   */
+  @Benchmark
+  public ByteBuffer applyMask() {
+    WebSocketFrame.applyMask(MASK, payload.duplicate());
+    return payload;
+  }
+}
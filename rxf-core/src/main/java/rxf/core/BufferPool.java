@@ -0,0 +1,203 @@
+package rxf.core;
+
+import com.google.common.collect.MapMaker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * size-classed pool of direct buffers for the reactor's read, header and pipe buffers.
+ * <p/>
+ * classes are powers of two from 1k to RXF_POOL_MAX_BUFFER. a miss carves a whole slab of its class out of one
+ * allocateDirect, so direct allocation happens a slab at a time instead of per request. released buffers go to a
+ * small per-thread stack first (the selector thread recycles its own buffers without contention) and to a shared queue
+ * past that. the shared queues are capped at RXF_POOL_BYTES, beyond which released buffers are left to the GC. a
+ * thread's stack isn't counted against that, it holds at most RXF_POOL_THREAD_CACHE per class and is collected with
+ * the thread.
+ * <p/>
+ * release is explicit and optional: a buffer that is never released is simply collected the way allocateDirect
+ * buffers always were. only release what acquire handed out, never a slice of it, and don't touch it or its views
+ * afterwards.
+ * <p/>
+ * a buffer released twice would later be handed to two owners at once. releasing the one the thread just released is
+ * always refused; with RXF_POOL_CHECK, on by default when assertions are, every idle buffer is tracked and any second
+ * release throws.
+ * <p/>
+ * system properties: RXF_POOL_MAX_BUFFER largest pooled class, RXF_POOL_BYTES shared budget, RXF_POOL_SLAB slab size,
+ * RXF_POOL_THREAD_CACHE buffers per class each thread keeps.
+ */
+public class BufferPool {
+  public static final int POOL_MAX_BUFFER = Integer.parseInt(Config.get("RXF_POOL_MAX_BUFFER",
+      String.valueOf(1 << 20)));
+  public static final long POOL_BYTES = Long.parseLong(Config.get("RXF_POOL_BYTES", String
+      .valueOf(64 << 20)));
+  public static final int POOL_SLAB = Integer.parseInt(Config.get("RXF_POOL_SLAB", String
+      .valueOf(256 << 10)));
+  public static final int POOL_THREAD_CACHE = Integer.parseInt(Config.get(
+      "RXF_POOL_THREAD_CACHE", "16"));
+  public static final boolean POOL_CHECK = "true".equals(Config.get("RXF_POOL_CHECK", String
+      .valueOf(BufferPool.class.desiredAssertionStatus())));
+
+  static final int MIN_SHIFT = 10;
+  static final int CLASSES = shift(POOL_MAX_BUFFER) - MIN_SHIFT + 1;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer>[] shared = queues();
+  private static final ThreadLocal<ArrayDeque<ByteBuffer>[]> local = ThreadLocal
+      .withInitial(BufferPool::stacks);
+  /**
+   * the buffers sitting in the pool, by identity since ByteBuffer.equals compares contents; only with POOL_CHECK. weak,
+   * so a dead thread's stack isn't pinned by it
+   */
+  private static final Set<ByteBuffer> idle = Collections.newSetFromMap(new MapMaker().weakKeys()
+      .<ByteBuffer, Boolean> makeMap());
+
+  public static final AtomicLong hits = new AtomicLong();
+  public static final AtomicLong misses = new AtomicLong();
+  /**
+   * releases turned away because the shared queues were at {@link #POOL_BYTES}
+   */
+  public static final AtomicLong drops = new AtomicLong();
+  /**
+   * bytes sitting idle in the shared queues
+   */
+  public static final AtomicLong pooled = new AtomicLong();
+  /**
+   * bytes ever carved into slabs
+   */
+  public static final AtomicLong reserved = new AtomicLong();
+
+  /**
+   * @return a cleared direct buffer, limit size, capacity the next class up
+   */
+  public static ByteBuffer acquire(int size) {
+    int c = classOf(size);
+    if (c >= CLASSES) {
+      misses.incrementAndGet();
+      return ByteBuffer.allocateDirect(size);
+    }
+    ArrayDeque<ByteBuffer> stack = local.get()[c];
+    ByteBuffer buf = stack.pollFirst();
+    if (null == buf && null != (buf = shared[c].poll()))
+      pooled.addAndGet(-buf.capacity());
+    if (null != buf) {
+      hits.incrementAndGet();
+      if (POOL_CHECK)
+        idle.remove(buf);
+    } else {
+      misses.incrementAndGet();
+      buf = carve(c, stack);
+    }
+    buf.clear().limit(size);
+    return buf;
+  }
+
+  /**
+   * returns a buffer to its class. heap, read-only and odd-sized buffers aren't the pool's and are ignored.
+   *
+   * @throws IllegalStateException when buf is already in the pool
+   */
+  public static void release(ByteBuffer buf) {
+    if (null == buf || !buf.isDirect() || buf.isReadOnly())
+      return;
+    int capacity = buf.capacity();
+    int c = classOf(capacity);
+    if (c >= CLASSES || capacity != 1 << c + MIN_SHIFT)
+      return;
+    ArrayDeque<ByteBuffer> stack = local.get()[c];
+    if (stack.peekFirst() == buf || POOL_CHECK && !idle.add(buf))
+      throw new IllegalStateException("released twice: " + buf);
+    buf.clear();
+    // lifo, the buffer just released is the one most likely still in cache
+    if (!stack.isEmpty() && stack.size() >= POOL_THREAD_CACHE)
+      share(c, stack.pollLast());
+    stack.addFirst(buf);
+  }
+
+  /**
+   * the geometric growth the header readers do when a buffer fills: twice the capacity holding full's contents, full
+   * goes back to the pool.
+   */
+  public static ByteBuffer grow(ByteBuffer full) {
+    ByteBuffer buf = acquire(full.capacity() << 1);
+    buf.put((ByteBuffer) full.flip());
+    release(full);
+    return buf;
+  }
+
+  public static String stats() {
+    return "BufferPool{hits=" + hits + ", misses=" + misses + ", drops=" + drops + ", pooled="
+        + pooled + ", reserved=" + reserved + '}';
+  }
+
+  /**
+   * offers buf to every thread, or leaves it to the GC when the shared queues are at {@link #POOL_BYTES}
+   */
+  static void share(int c, ByteBuffer buf) {
+    int capacity = buf.capacity();
+    if (pooled.addAndGet(capacity) > POOL_BYTES) {
+      pooled.addAndGet(-capacity);
+      drops.incrementAndGet();
+      if (POOL_CHECK)
+        idle.remove(buf);
+      return;
+    }
+    shared[c].offer(buf);
+  }
+
+  static ByteBuffer carve(int c, ArrayDeque<ByteBuffer> stack) {
+    int size = 1 << c + MIN_SHIFT;
+    int n = Math.max(1, POOL_SLAB / size);
+    ByteBuffer slab = ByteBuffer.allocateDirect(n * size);
+    reserved.addAndGet(n * size);
+    ByteBuffer first = null;
+    for (int i = 0; i < n; i++) {
+      slab.limit((i + 1) * size).position(i * size);
+      ByteBuffer buf = slab.slice();
+      if (null == first)
+        first = buf;
+      else {
+        if (POOL_CHECK)
+          idle.add(buf);
+        if (stack.size() < POOL_THREAD_CACHE)
+          stack.addLast(buf);
+        else
+          share(c, buf);
+      }
+    }
+    return first;
+  }
+
+  /**
+   * @return the class holding size, CLASSES or more when it's too big to pool
+   */
+  static int classOf(int size) {
+    return Math.max(0, shift(size) - MIN_SHIFT);
+  }
+
+  /**
+   * @return ceil(log2(size))
+   */
+  static int shift(int size) {
+    return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  static ConcurrentLinkedQueue<ByteBuffer>[] queues() {
+    ConcurrentLinkedQueue<ByteBuffer>[] queues = new ConcurrentLinkedQueue[CLASSES];
+    for (int i = 0; i < queues.length; i++)
+      queues[i] = new ConcurrentLinkedQueue<>();
+    return queues;
+  }
+
+  @SuppressWarnings("unchecked")
+  static ArrayDeque<ByteBuffer>[] stacks() {
+    ArrayDeque<ByteBuffer>[] stacks = new ArrayDeque[CLASSES];
+    for (int i = 0; i < stacks.length; i++)
+      stacks[i] = new ArrayDeque<>();
+    return stacks;
+  }
+}
@@ -0,0 +1,162 @@
+package rxf.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * incremental Transfer-Encoding: chunked decoder. feed it whatever the socket produced, in pieces of any size down to a
+ * byte at a time; each chunk's data goes to the {@link Sink} as a slice of the buffer it arrived in, the hex sizes are
+ * parsed from the bytes without decoding Strings, and nothing is buffered in between.
+ * <p/>
+ * chunk extensions and trailers are skipped. the body only exists as a whole if the sink builds it, see {@link Body}.
+ */
+public class ChunkedDecoder {
+  /**
+   * receives chunk data in arrival order
+   */
+  public interface Sink {
+    /**
+     * @param data a view of the caller's read buffer, only valid for the duration of the call
+     */
+    void chunk(ByteBuffer data) throws Exception;
+  }
+
+  enum State {
+    size, ext, data, dataEol, trailer, done
+  }
+
+  private static final byte CR = '\r', LF = '\n';
+  /**
+   * 15 hex digits, a chunk can't be larger than a long anyway
+   */
+  private static final int MAX_SIZE_DIGITS = 15;
+
+  private final Sink sink;
+  private State state = State.size;
+  private long left;
+  private int digits;
+  /**
+   * bytes on the current trailer line, an empty line ends the body
+   */
+  private int lineLength;
+  private long total;
+
+  public ChunkedDecoder(Sink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * consumes in up to the end of the body.
+   *
+   * @return true once the last chunk and its trailers are through; in is then positioned just past them, anything
+   *         left belongs to the next message.
+   * @throws IOException on a malformed chunk size line
+   */
+  public boolean apply(ByteBuffer in) throws Exception {
+    while (State.done != state && in.hasRemaining()) {
+      switch (state) {
+        case data: {
+          int n = (int) Math.min(left, in.remaining());
+          ByteBuffer slice = in.slice();
+          slice.limit(n);
+          in.position(in.position() + n);
+          left -= n;
+          total += n;
+          sink.chunk(slice);
+          if (0 == left)
+            state = State.dataEol;
+          break;
+        }
+        case dataEol: {
+          byte b = in.get();
+          if (LF == b)
+            state = State.size;
+          else if (CR != b)
+            throw new IOException("chunk not terminated by CRLF");
+          break;
+        }
+        case size: {
+          byte b = in.get();
+          int hex = Character.digit(b, 16);
+          if (-1 != hex) {
+            if (++digits > MAX_SIZE_DIGITS)
+              throw new IOException("chunk size too large");
+            left = left << 4 | hex;
+          } else if (LF == b)
+            endSizeLine();
+          else if (';' == b || ' ' == b || '\t' == b || CR == b)
+            state = State.ext;
+          else
+            throw new IOException("bad chunk size byte: " + (b & 0xff));
+          break;
+        }
+        case ext:
+          if (LF == in.get())
+            endSizeLine();
+          break;
+        case trailer: {
+          byte b = in.get();
+          if (LF == b) {
+            if (0 == lineLength)
+              state = State.done;
+            lineLength = 0;
+          } else if (CR != b)
+            lineLength++;
+          break;
+        }
+      }
+    }
+    return State.done == state;
+  }
+
+  void endSizeLine() throws IOException {
+    if (0 == digits)
+      throw new IOException("missing chunk size");
+    digits = 0;
+    state = 0 == left ? State.trailer : State.data;
+  }
+
+  public boolean done() {
+    return State.done == state;
+  }
+
+  /**
+   * @return data bytes delivered so far
+   */
+  public long total() {
+    return total;
+  }
+
+  /**
+   * for callers that do want the whole body: copies each chunk once into a heap buffer grown geometrically.
+   */
+  public static class Body implements Sink {
+    private ByteBuffer body;
+
+    public Body() {
+      this(4 << 10);
+    }
+
+    public Body(int initialCapacity) {
+      body = ByteBuffer.allocate(initialCapacity);
+    }
+
+    @Override
+    public void chunk(ByteBuffer data) {
+      if (body.remaining() < data.remaining()) {
+        int capacity = Math.max(16, body.capacity());
+        while (capacity - body.position() < data.remaining())
+          capacity <<= 1;
+        body = ByteBuffer.allocate(capacity).put((ByteBuffer) body.flip());
+      }
+      body.put(data);
+    }
+
+    /**
+     * @return the decoded body, flipped
+     */
+    public ByteBuffer body() {
+      return (ByteBuffer) body.duplicate().flip();
+    }
+  }
+}
@@ -50,15 +50,26 @@ public class Errors {
     error(key, HttpStatus.$404, "Not Found: " + path);
   }
 
+  /**
+   * @param after runs once the response is written, e.g. to keep the connection alive for the next request
+   */
+  public static void $404(SelectionKey key, String path, F after) {
+    error(key, HttpStatus.$404, "Not Found: " + path, after);
+  }
+
   public static void $500(SelectionKey key) {
     error(key, HttpStatus.$500, "Internal Server Error");
   }
 
   private static void error(SelectionKey key, final HttpStatus code, String message) {
-    final String html = message;
-    finishWrite(key, key1 -> key1.interestOps(SelectionKey.OP_READ).attach(null), bb((ByteBuffer) new Rfc822HeaderState().$res().status(code).headerString(
+    error(key, code, message, key1 -> key1.interestOps(SelectionKey.OP_READ).attach(null));
+  }
+
+  private static void error(SelectionKey key, final HttpStatus code, String message, F after) {
+    ByteBuffer html = bb(message);
+    finishWrite(key, after, bb((ByteBuffer) new Rfc822HeaderState().$res().status(code).headerString(
         HttpHeaders.Content$2dType, "text/html").headerString(HttpHeaders.Content$2dLength,
-        String.valueOf(html.length())).asByteBuffer(), Cursive.pre.debug, Cursive.pre.rewind));
+        String.valueOf(html.limit())).asByteBuffer(), Cursive.pre.debug, Cursive.pre.rewind), html);
 
   }
 }
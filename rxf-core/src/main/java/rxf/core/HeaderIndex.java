@@ -0,0 +1,260 @@
+package rxf.core;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * flyweight over a header block: one pass records the three first-line tokens and the values of the interesting
+ * headers as offset/length pairs in a reusable int[], nothing is decoded until somebody asks for a String.
+ * <p/>
+ * slots 0..2 are {@link #METHOD}/{@link #PATH}/{@link #PROTOCOL} for a request, protocol/rescode/status for a
+ * response; slot {@link #HEADERS}+i is the i'th name handed to {@link #interest}. header names match
+ * case-insensitively, the first occurrence wins, values are trimmed of surrounding whitespace.
+ * <p/>
+ * offsets are absolute in the buffer given to {@link #apply}, which must not be compacted or reused while the index
+ * is being read -- the same contract {@link Rfc822HeaderState#headerBuf()} has always had.
+ */
+public class HeaderIndex {
+  public static final int METHOD = 0;
+  public static final int PATH = 1;
+  public static final int PROTOCOL = 2;
+  public static final int HEADERS = 3;
+
+  private static final byte SP = ' ', HT = '\t', CR = '\r', LF = '\n', COLON = ':';
+
+  private String[] interest = {};
+  private byte[][] names = {};
+  /**
+   * offset, length per slot, offset -1 when absent
+   */
+  private int[] slots = new int[HEADERS * 2];
+  private ByteBuffer buf;
+  private int end;
+
+  /**
+   * replaces the header names to index, arrays are only reallocated when the count grows
+   */
+  public HeaderIndex interest(String... interest) {
+    if (interest == this.interest)
+      return this;
+    this.interest = interest;
+    if (names.length < interest.length)
+      names = new byte[interest.length][];
+    for (int i = 0; i < interest.length; i++) {
+      String s = interest[i];
+      byte[] b = names[i];
+      if (null == b || b.length != s.length())
+        b = new byte[s.length()];
+      for (int j = 0; j < b.length; j++)
+        b[j] = lower((byte) s.charAt(j));
+      names[i] = b;
+    }
+    int n = (HEADERS + interest.length) * 2;
+    if (slots.length < n)
+      slots = new int[n];
+    return this;
+  }
+
+  public String[] interest() {
+    return interest;
+  }
+
+  /**
+   * indexes buf from its position without moving it.
+   *
+   * @return true when the block is terminated by an empty line, {@link #end} then points at the body. on false every
+   *         complete line seen so far is indexed and end is the limit.
+   */
+  public boolean apply(ByteBuffer buf) {
+    this.buf = buf;
+    int n = (HEADERS + interest.length) * 2;
+    for (int i = 0; i < n; i += 2)
+      slots[i] = -1;
+    int p = buf.position(), limit = buf.limit();
+    end = limit;
+
+    // first line: three tokens, the last runs to eol
+    p = token(METHOD, p, limit, false);
+    p = token(PATH, p, limit, false);
+    p = token(PROTOCOL, p, limit, true);
+    if (p >= limit)
+      return false;
+    p++;
+
+    int last = -1;
+    while (p < limit) {
+      byte b = buf.get(p);
+      if (LF == b || CR == b && p + 1 < limit && LF == buf.get(p + 1)) {
+        end = p + (LF == b ? 1 : 2);
+        return true;
+      }
+      int eol = eol(p, limit);
+      if (eol >= limit)
+        return false;
+      if (SP == b || HT == b) {
+        // obs-fold continues the previous value
+        if (-1 != last)
+          slots[last + 1] = trimEnd(slots[last], eol) - slots[last];
+      } else {
+        last = -1;
+        int colon = p;
+        while (colon < eol && COLON != buf.get(colon))
+          colon++;
+        if (colon < eol) {
+          int slot = match(p, colon);
+          if (-1 != slot && -1 == slots[slot]) {
+            int v = colon + 1;
+            while (v < eol && (SP == buf.get(v) || HT == buf.get(v)))
+              v++;
+            slots[slot] = v;
+            slots[slot + 1] = trimEnd(v, eol) - v;
+            last = slot;
+          }
+        }
+      }
+      p = eol + 1;
+    }
+    return false;
+  }
+
+  /**
+   * forgets the last block but keeps the interest and the arrays, every slot reads absent until the next
+   * {@link #apply}
+   */
+  public HeaderIndex clear() {
+    buf = null;
+    end = 0;
+    for (int i = 0; i < slots.length; i += 2)
+      slots[i] = -1;
+    return this;
+  }
+
+  /**
+   * @return position just past the terminating empty line, or the limit when there wasn't one
+   */
+  public int end() {
+    return end;
+  }
+
+  public ByteBuffer buf() {
+    return buf;
+  }
+
+  public int size() {
+    return HEADERS + interest.length;
+  }
+
+  public boolean present(int slot) {
+    return -1 != slots[slot * 2];
+  }
+
+  public int offset(int slot) {
+    return slots[slot * 2];
+  }
+
+  public int length(int slot) {
+    return slots[slot * 2 + 1];
+  }
+
+  /**
+   * @return the slot for a name passed to {@link #interest}, compared as given, or -1
+   */
+  public int slot(String name) {
+    for (int i = 0; i < interest.length; i++)
+      if (interest[i].equals(name))
+        return HEADERS + i;
+    return -1;
+  }
+
+  /**
+   * decodes a slot, the only place a String gets made
+   */
+  public String string(int slot) {
+    int offset = slots[slot * 2];
+    if (-1 == offset)
+      return null;
+    ByteBuffer dup = buf.duplicate();
+    dup.limit(offset + slots[slot * 2 + 1]).position(offset);
+    return UTF_8.decode(dup).toString();
+  }
+
+  public String header(String name) {
+    int slot = slot(name);
+    return -1 == slot ? null : string(slot);
+  }
+
+  /**
+   * ascii compare without decoding
+   */
+  public boolean equalsIgnoreCase(int slot, CharSequence s) {
+    int offset = slots[slot * 2], len = slots[slot * 2 + 1];
+    if (-1 == offset || len != s.length())
+      return false;
+    for (int i = 0; i < len; i++)
+      if (lower(buf.get(offset + i)) != lower((byte) s.charAt(i)))
+        return false;
+    return true;
+  }
+
+  /**
+   * the interesting headers that were present, for callers that still want the map
+   */
+  public Map<String, String> toMap() {
+    Map<String, String> map = new LinkedHashMap<>();
+    for (int i = 0; i < interest.length; i++)
+      if (present(HEADERS + i))
+        map.put(interest[i], string(HEADERS + i));
+    return map;
+  }
+
+  int token(int slot, int p, int limit, boolean toEol) {
+    while (p < limit && SP == buf.get(p))
+      p++;
+    int start = p;
+    if (toEol)
+      p = eol(p, limit);
+    else
+      while (p < limit && SP != buf.get(p) && LF != buf.get(p) && CR != buf.get(p))
+        p++;
+    slots[slot * 2] = start;
+    slots[slot * 2 + 1] = trimEnd(start, p) - start;
+    return p;
+  }
+
+  int eol(int p, int limit) {
+    while (p < limit && LF != buf.get(p))
+      p++;
+    return p;
+  }
+
+  int trimEnd(int start, int p) {
+    while (p > start && (CR == buf.get(p - 1) || SP == buf.get(p - 1) || HT == buf.get(p - 1)))
+      p--;
+    return p;
+  }
+
+  /**
+   * @return the slot's offset index in {@link #slots}, or -1
+   */
+  int match(int start, int colon) {
+    int len = colon - start;
+    for (int i = 0; i < interest.length; i++) {
+      byte[] name = names[i];
+      if (name.length != len)
+        continue;
+      int j = 0;
+      while (j < len && name[j] == lower(buf.get(start + j)))
+        j++;
+      if (j == len)
+        return (HEADERS + i) * 2;
+    }
+    return -1;
+  }
+
+  static byte lower(byte b) {
+    return 'A' <= b && b <= 'Z' ? (byte) (b + 32) : b;
+  }
+}
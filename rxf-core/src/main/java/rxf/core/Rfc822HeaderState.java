@@ -12,6 +12,7 @@ import rxf.web.inf.ProtocolMethodDispatch;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.ReadableByteChannel;
@@ -75,7 +76,7 @@ public class Rfc822HeaderState implements WantsZeroCopy {
   }
 
   /**
-   * byte-compare of suffixes
+   * byte-compare of suffixes, each buffer ends at its limit, so a flipped {@link #headerBuf()} can be passed as is
    * 
    * @param terminator the token used to terminate presumably unbounded growth of a list of buffers
    * @param currentBuff current ByteBuffer which does not necessarily require a list to perform suffix checks.
@@ -91,7 +92,7 @@ public class Rfc822HeaderState implements WantsZeroCopy {
     int i = bl - 1;
     while (0 <= i) {
       rskip++;
-      int comparisonOffset = tb.position() - rskip;
+      int comparisonOffset = tb.limit() - rskip;
       if (0 > comparisonOffset) {
         prevMark--;
         if (0 <= prevMark) {
@@ -325,17 +326,66 @@ public class Rfc822HeaderState implements WantsZeroCopy {
   }
 
   /**
-   * simple wrapper for HttpRequest setters
+   * simple wrapper for HttpRequest setters. the view is kept and handed out again while it still looks at the same
+   * bytes as this.
    */
   public HttpRequest $req() {
-    return HttpRequest.class == this.getClass() ? (HttpRequest) this : new HttpRequest(this);
+    if (HttpRequest.class == this.getClass())
+      return (HttpRequest) this;
+    if (null == req || !adopt(req))
+      req = new HttpRequest(this);
+    return req;
   }
 
   /**
    * simple wrapper for HttpRequest setters
+   *
+   * @see #$req()
    */
   public HttpResponse $res() {
-    return HttpResponse.class == this.getClass() ? (HttpResponse) this : new HttpResponse(this);
+    if (HttpResponse.class == this.getClass())
+      return (HttpResponse) this;
+    if (null == res || !adopt(res))
+      res = new HttpResponse(this);
+    return res;
+  }
+
+  /**
+   * a cached view shares every reference but headerBuf and cookies; it is only reused when whoever holds it hasn't
+   * pointed those somewhere else.
+   */
+  boolean adopt(Rfc822HeaderState view) {
+    if (null != view.headerBuf && headerBuf != view.headerBuf || null != view.cookies
+        && cookies != view.cookies)
+      return false;
+    view.headerBuf = headerBuf;
+    view.cookies = cookies;
+    return true;
+  }
+
+  /**
+   * readies this state, its index and its cached views for the next message on the same connection. header interest
+   * and the source key stay.
+   */
+  public Rfc822HeaderState recycle() {
+    headerBuf = null;
+    cookies = null;
+    headerStrings.set(null);
+    methodProtocol.set(null);
+    pathRescode.set(null);
+    protocolStatus.set(null);
+    HeaderIndex headerIndex = index.get();
+    if (null != headerIndex)
+      headerIndex.clear();
+    if (null != req) {
+      req.headerBuf = null;
+      req.cookies = null;
+    }
+    if (null != res) {
+      res.headerBuf = null;
+      res.cookies = null;
+    }
+    return this;
   }
 
   public String toString() {
@@ -397,6 +447,25 @@ public class Rfc822HeaderState implements WantsZeroCopy {
     protocolStatus = proto.protocolStatus;
     sourceKey = proto.sourceKey;
     sourceRoute = proto.sourceRoute;
+    index = proto.index;
+  }
+
+  /**
+   * unlike the copy ctor, which shares every reference with proto, a copy that shares no mutable state: the first line
+   * and the headers are decoded into it and the header buffer is duplicated, so either can be read, rewritten or
+   * recycled without the other noticing.
+   */
+  public Rfc822HeaderState snapshot() {
+    Rfc822HeaderState copy = new Rfc822HeaderState(headerInterest());
+    copy.methodProtocol.set(methodProtocol());
+    copy.pathRescode.set(pathResCode());
+    copy.protocolStatus.set(protocolStatus());
+    copy.headerStrings.set(new LinkedHashMap<>(headerStrings()));
+    copy.headerBuf = null == headerBuf ? null : headerBuf.duplicate();
+    copy.cookies = cookies;
+    copy.sourceRoute = null == sourceRoute ? null : new AtomicReference<>(sourceRoute.get());
+    copy.sourceKey = null == sourceKey ? null : new AtomicReference<>(sourceKey.get());
+    return copy;
   }
 
   public AtomicReference<String[]> headerInterest = new AtomicReference<>();
@@ -447,6 +516,20 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    * lookup up the incoming source route
    */
   AtomicReference<SelectionKey> sourceKey;
+  /**
+   * offsets recorded by the last {@link #apply(ByteBuffer)}/{@link #read(ByteBuffer)}; the first line tokens and
+   * {@link #headerStrings} are decoded from it on first use.
+   */
+  AtomicReference<HeaderIndex> index = new AtomicReference<>();
+  /**
+   * the views {@link #$req()} and {@link #$res()} last made of this, not shared with them
+   */
+  private HttpRequest req;
+  private HttpResponse res;
+  /**
+   * marks a first line token that is still only an offset in {@link #index}, compared by identity
+   */
+  private static final String UNPARSED = new String("");
 
   /**
    * terminates header keys
@@ -482,8 +565,8 @@ public class Rfc822HeaderState implements WantsZeroCopy {
       sourceKey = Atomics.newReference(key);
     }
     SocketChannel channel = (SocketChannel) sourceKey.get().channel();
-    sourceRoute.set(channel.socket().getInetAddress());
-    return this;
+    InetSocketAddress origin = SecureChannel.origin(channel);
+    return sourceRoute(null == origin ? null : origin.getAddress());
   }
 
   /**
@@ -577,46 +660,8 @@ public class Rfc822HeaderState implements WantsZeroCopy {
     if (!cursor.hasRemaining()) {
       cursor.flip();
     }
-    int anchor = cursor.position();
-    ByteBuffer slice = cursor.duplicate().slice();
-    while (slice.hasRemaining() && SPC != slice.get()) {
-    }
-    methodProtocol.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
-
-    while (cursor.hasRemaining() && SPC != cursor.get()) {
-      // method/proto
-    }
-    slice = cursor.slice();
-    while (slice.hasRemaining() && SPC != slice.get()) {
-    }
-    pathRescode.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
-
-    while (cursor.hasRemaining() && SPC != cursor.get()) {
-    }
-    slice = cursor.slice();
-    while (slice.hasRemaining() && LF != slice.get()) {
-    }
-    protocolStatus.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
-
-    boolean wantsCookies = null != cookies;
-    boolean wantsHeaders = wantsCookies || 0 < headerInterest.get().length;
-    moveCaretToDoubleEol(cursor);
-    headerBuf = (ByteBuffer) (cursor).duplicate().flip();
-    headerStrings().clear();
-    if (wantsHeaders) {
-      Map<String, int[]> headerMap = HttpHeaders.getHeaders((ByteBuffer) headerBuf.rewind());
-      headerStrings.set(new LinkedHashMap<String, String>());
-      for (String o : headerInterest.get()) {
-        int[] o1 = headerMap.get(o);
-        if (null != o1) {
-          headerStrings.get().put(
-              o,
-              UTF_8.decode((ByteBuffer) headerBuf.duplicate().clear().position(o1[0]).limit(o1[1]))
-                  .toString().trim());
-        }
-      }
-
-    }
+    index(cursor);
+    headerBuf = (ByteBuffer) cursor.duplicate().flip();
     return this;
   }
 
@@ -635,53 +680,37 @@ public class Rfc822HeaderState implements WantsZeroCopy {
     if (!cursor.hasRemaining()) {
       cursor.flip();
     }
-    int anchor = cursor.position();
-    ByteBuffer slice = cursor.duplicate().slice();
-    while (slice.hasRemaining() && SPC != slice.get()) {
-    }
-    methodProtocol.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
-
-    while (cursor.hasRemaining() && SPC != cursor.get()) {
-      // method/proto
-    }
-    slice = cursor.slice();
-    while (slice.hasRemaining() && SPC != slice.get()) {
-    }
-    pathRescode.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
-
-    while (cursor.hasRemaining() && SPC != cursor.get()) {
-    }
-    slice = cursor.slice();
-    while (slice.hasRemaining() && LF != slice.get()) {
-    }
-    protocolStatus.set(UTF_8.decode((ByteBuffer) slice.flip()).toString().trim());
+    boolean done = index(cursor);
+    headerBuf = done ? (ByteBuffer) cursor.duplicate().flip() : null;
+    return done;
+  }
 
-    headerBuf = null;
-    boolean wantsCookies = null != cookies;
-    boolean wantsHeaders = wantsCookies || 0 < headerInterest.get().length;
-
-    if (moveCaretToDoubleEol(cursor)) {
-      headerBuf = (ByteBuffer) (cursor).duplicate().flip();
-      headerStrings().clear();
-      if (wantsHeaders) {
-        Map<String, int[]> headerMap = HttpHeaders.getHeaders((ByteBuffer) headerBuf.rewind());
-        LinkedHashMap<String, String> stringStringLinkedHashMap = new LinkedHashMap<>();
-        headerStrings.set(stringStringLinkedHashMap);// todo: no more linkedhashmaps in parsers
-        for (String o : headerInterest.get()) {
-          int[] o1 = headerMap.get(o);
-          if (null != o1) {
-            String trim =
-                UTF_8.decode(
-                    (ByteBuffer) headerBuf.duplicate().clear().position(o1[0]).limit(o1[1]))
-                    .toString().trim();
-            stringStringLinkedHashMap.put(o, trim);
-          }
-        }
-      }
-      return true;
+  /**
+   * indexes the first line and the {@link #headerInterest} headers without decoding anything, leaves the cursor past
+   * the empty line (or at the limit when there isn't one yet)
+   * 
+   * @return whether the header block is complete
+   */
+  boolean index(ByteBuffer cursor) {
+    HeaderIndex headerIndex = index.get();
+    if (null == headerIndex)
+      index.set(headerIndex = new HeaderIndex());
+    boolean done = headerIndex.interest(headerInterest()).apply(cursor);
+    cursor.position(headerIndex.end());
+    methodProtocol.set(UNPARSED);
+    pathRescode.set(UNPARSED);
+    protocolStatus.set(UNPARSED);
+    headerStrings.set(null);
+    return done;
+  }
 
+  String lazy(AtomicReference<String> ref, int slot) {
+    String s = ref.get();
+    if (UNPARSED == s) {
+      ref.compareAndSet(UNPARSED, index.get().string(slot));
+      s = ref.get();
     }
-    return false;
+    return s;
   }
 
   public Rfc822HeaderState headerInterest(HttpHeaders... replaceInterest) {
@@ -723,6 +752,8 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    */
   public Rfc822HeaderState addHeaderInterest(String... newInterest) {
 
+    if (containsAll(headerInterest(), newInterest))
+      return this;
     // adds a few more instructions than the blind append but does what was desired
     Set<String> theCow = new CopyOnWriteArraySet<>(Arrays.<String> asList(headerInterest.get()));
     theCow.addAll(asList(newInterest));
@@ -732,6 +763,19 @@ public class Rfc822HeaderState implements WantsZeroCopy {
     return this;
   }
 
+  /**
+   * per-request callers keep asking for the same headers, leave the array (and the index's copy of it) alone then
+   */
+  static boolean containsAll(String[] have, String[] want) {
+    outer: for (String s : want) {
+      for (String h : have)
+        if (h.equals(s))
+          continue outer;
+      return false;
+    }
+    return true;
+  }
+
   /**
    * @return
    * @see #headerInterest
@@ -803,8 +847,14 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    *         {@link #headerInterest} not appearing in the {@link ByteBuffer} input will not be in this map.
    */
   public Map<String, String> headerStrings() {
-    headerStrings.compareAndSet(null, new LinkedHashMap<String, String>());
-    return headerStrings.get();
+    Map<String, String> map = headerStrings.get();
+    if (null == map) {
+      HeaderIndex headerIndex = index.get();
+      headerStrings.compareAndSet(null, null == headerIndex ? new LinkedHashMap<String, String>()
+          : headerIndex.toMap());
+      map = headerStrings.get();
+    }
+    return map;
   }
 
   /**
@@ -812,7 +862,7 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    * @see #methodProtocol
    */
   public String methodProtocol() {
-    return methodProtocol.get();
+    return lazy(methodProtocol, HeaderIndex.METHOD);
   }
 
   /**
@@ -834,7 +884,7 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    */
 
   public String pathResCode() {
-    return pathRescode.get();
+    return lazy(pathRescode, HeaderIndex.PATH);
   }
 
   /**
@@ -853,7 +903,7 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    * Contains either the protocol (HttpRequest) or a status line message (HttpResponse)
    */
   public String protocolStatus() {
-    return protocolStatus.get();
+    return lazy(protocolStatus, HeaderIndex.PROTOCOL);
   }
 
   /**
@@ -910,7 +960,10 @@ public class Rfc822HeaderState implements WantsZeroCopy {
    * @return the parsed value from the {@link #headerStrings} map
    */
   public String headerString(String headerKey) {
-    return headerStrings().get(headerKey); // To change body of created methods use File | Settings | File Templates.
+    HeaderIndex headerIndex = index.get();
+    if (null == headerStrings.get() && null != headerIndex)
+      return headerIndex.header(headerKey);
+    return headerStrings().get(headerKey);
   }
 
   /**
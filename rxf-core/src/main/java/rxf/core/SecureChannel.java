@@ -0,0 +1,437 @@
+package rxf.core;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+
+/**
+ * an SSLEngine over a non-blocking SocketChannel, productized from the rxf-sslsandbox SecureIO.
+ * <p/>
+ * {@link #read(ByteBuffer)} and {@link #write(ByteBuffer)} keep Helper.read/write's contract: bytes moved, 0 when the
+ * channel has nothing or no room, -1 at the end of input. ciphertext that didn't fit the socket waits in the net
+ * buffer for {@link #flush()}. net and app buffers come from the {@link BufferPool} and go back on {@link #close()}.
+ * <p/>
+ * delegated handshake tasks run on RXF_TLS_TASKS daemon threads behind a queue of RXF_TLS_TASK_QUEUE, past which the
+ * selector thread runs them itself; the resume callback fires once the engine can go on. the context keeps
+ * RXF_TLS_SESSIONS sessions for RXF_TLS_SESSION_TIMEOUT seconds so a returning client resumes instead of doing the
+ * full handshake, clients resume per host:port.
+ * <p/>
+ * a terminator that hands plaintext to the server over loopback registers each hop with {@link #terminated}, and
+ * {@link #origin} and {@link #secure} answer for the accepted side of it with the real client and scheme.
+ * <p/>
+ * system properties: RXF_TLS_KEYSTORE, RXF_TLS_KEYSTORE_TYPE, RXF_TLS_PASSWORD, RXF_TLS_PROTOCOL. without a keystore
+ * the default SSLContext is used.
+ */
+public class SecureChannel {
+  public static final String TLS_KEYSTORE = Config.get("RXF_TLS_KEYSTORE", "");
+  public static final String TLS_KEYSTORE_TYPE = Config.get("RXF_TLS_KEYSTORE_TYPE", KeyStore
+      .getDefaultType());
+  public static final String TLS_PROTOCOL = Config.get("RXF_TLS_PROTOCOL", "TLS");
+  public static final int TLS_SESSIONS = Integer.parseInt(Config.get("RXF_TLS_SESSIONS", "10000"));
+  public static final int TLS_SESSION_TIMEOUT = Integer.parseInt(Config.get(
+      "RXF_TLS_SESSION_TIMEOUT", "86400"));
+  public static final int TLS_TASKS = Integer.parseInt(Config.get("RXF_TLS_TASKS", String
+      .valueOf(Runtime.getRuntime().availableProcessors())));
+  public static final int TLS_TASK_QUEUE = Integer.parseInt(Config.get("RXF_TLS_TASK_QUEUE",
+      "1024"));
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  public static final AtomicLong handshakes = new AtomicLong();
+  public static final AtomicLong resumed = new AtomicLong();
+  public static final AtomicLong tasks = new AtomicLong();
+  public static final AtomicLong failures = new AtomicLong();
+
+  private static final ThreadPoolExecutor TASKS = new ThreadPoolExecutor(TLS_TASKS, TLS_TASKS, 60,
+      TimeUnit.SECONDS, new ArrayBlockingQueue<>(TLS_TASK_QUEUE), r -> {
+        Thread t = new Thread(r, "rxf-tls-task");
+        t.setDaemon(true);
+        return t;
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+  static {
+    TASKS.allowCoreThreadTimeOut(true);
+  }
+  private static volatile Executor executor = TASKS;
+
+  private static volatile SSLContext context;
+
+  public final SocketChannel channel;
+  public final SSLEngine engine;
+  private final Runnable resume;
+  private final long started = System.currentTimeMillis();
+  /**
+   * net in is filled from the channel and stays in write mode; net out and app in are kept flipped, holding what
+   * hasn't been sent or read yet
+   */
+  private ByteBuffer netIn;
+  private ByteBuffer netOut;
+  private ByteBuffer appIn;
+  private volatile boolean tasking;
+  private boolean established;
+  private boolean eof;
+
+  /**
+   * @param resume fires off a task thread once delegated tasks are done, null runs them in the caller
+   */
+  public SecureChannel(SocketChannel channel, SSLEngine engine, Runnable resume)
+      throws SSLException {
+    this.channel = channel;
+    this.engine = engine;
+    this.resume = resume;
+    SSLSession session = engine.getSession();
+    netIn = BufferPool.acquire(session.getPacketBufferSize());
+    netOut = (ByteBuffer) BufferPool.acquire(session.getPacketBufferSize()).flip();
+    appIn = (ByteBuffer) BufferPool.acquire(session.getApplicationBufferSize()).flip();
+    engine.beginHandshake();
+  }
+
+  /**
+   * local address of a loopback hop to the client whose TLS it carries
+   */
+  private static final Map<SocketAddress, InetSocketAddress> terminated =
+      new ConcurrentHashMap<>();
+
+  /**
+   * records a loopback hop, bound but not necessarily connected yet, until {@link #untrack}
+   */
+  public static void terminated(SocketChannel loopback, InetSocketAddress client)
+      throws IOException {
+    terminated.put(loopback.getLocalAddress(), client);
+  }
+
+  public static void untrack(SocketChannel loopback) {
+    try {
+      SocketAddress local = loopback.getLocalAddress();
+      if (null != local)
+        terminated.remove(local);
+    } catch (IOException e) {
+      // closed already, the accepted side only looks the hop up while it lives
+    }
+  }
+
+  /**
+   * @param accepted a socket the server accepted
+   * @return the client a TLS terminator took it in for, else its own remote address
+   */
+  public static InetSocketAddress origin(SocketChannel accepted) {
+    InetSocketAddress remote = (InetSocketAddress) accepted.socket().getRemoteSocketAddress();
+    InetSocketAddress client = null == remote ? null : terminated.get(remote);
+    return null == client ? remote : client;
+  }
+
+  /**
+   * @return true if accepted carries a request that came in over TLS
+   */
+  public static boolean secure(SocketChannel accepted) {
+    SocketAddress remote = accepted.socket().getRemoteSocketAddress();
+    return null != remote && terminated.containsKey(remote);
+  }
+
+  public static SecureChannel server(SocketChannel channel, Runnable resume) throws SSLException {
+    SSLEngine engine = context().createSSLEngine();
+    engine.setUseClientMode(false);
+    return new SecureChannel(channel, engine, resume);
+  }
+
+  public static SecureChannel client(SocketChannel channel, String host, int port,
+      Runnable resume) throws SSLException {
+    SSLEngine engine = context().createSSLEngine(host, port);
+    engine.setUseClientMode(true);
+    return new SecureChannel(channel, engine, resume);
+  }
+
+  public static SSLContext context() {
+    SSLContext c = context;
+    if (null == c)
+      synchronized (SecureChannel.class) {
+        if (null == (c = context))
+          context = c = sessions(load());
+      }
+    return c;
+  }
+
+  /**
+   * installs a context in place of the RXF_TLS_KEYSTORE one
+   */
+  public static void context(SSLContext c) {
+    context = sessions(c);
+  }
+
+  /**
+   * runs delegated tasks on e in place of the RXF_TLS_TASKS pool, null puts the pool back
+   */
+  public static void executor(Executor e) {
+    executor = null == e ? TASKS : e;
+  }
+
+  private static SSLContext load() {
+    try {
+      if (TLS_KEYSTORE.isEmpty())
+        return SSLContext.getDefault();
+      char[] password = Config.get("RXF_TLS_PASSWORD", "changeit").toCharArray();
+      KeyStore keyStore = KeyStore.getInstance(TLS_KEYSTORE_TYPE);
+      try (InputStream in = new FileInputStream(TLS_KEYSTORE)) {
+        keyStore.load(in, password);
+      }
+      KeyManagerFactory kmf =
+          KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      kmf.init(keyStore, password);
+      TrustManagerFactory tmf =
+          TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      tmf.init(keyStore);
+      SSLContext c = SSLContext.getInstance(TLS_PROTOCOL);
+      c.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+      return c;
+    } catch (IOException | GeneralSecurityException e) {
+      throw new IllegalStateException("RXF_TLS_KEYSTORE " + TLS_KEYSTORE, e);
+    }
+  }
+
+  private static SSLContext sessions(SSLContext c) {
+    for (SSLSessionContext sessions : new SSLSessionContext[] {c.getServerSessionContext(),
+        c.getClientSessionContext()}) {
+      sessions.setSessionCacheSize(TLS_SESSIONS);
+      sessions.setSessionTimeout(TLS_SESSION_TIMEOUT);
+    }
+    return c;
+  }
+
+  /**
+   * moves the handshake on as far as it goes without blocking
+   *
+   * @return the interest it waits on, 0 once it's done or while a delegated task runs
+   */
+  public int handshake() throws IOException {
+    while (true) {
+      if (!flush())
+        return OP_WRITE;
+      if (tasking)
+        return 0;
+      SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+      switch (status) {
+        case NEED_TASK:
+          tasks.incrementAndGet();
+          if (null == resume) {
+            for (Runnable task; null != (task = engine.getDelegatedTask());)
+              task.run();
+            break;
+          }
+          tasking = true;
+          // past the queue the task, and resume with it, runs here before execute() returns
+          executor.execute(() -> {
+            for (Runnable task; null != (task = engine.getDelegatedTask());)
+              task.run();
+            tasking = false;
+            resume.run();
+          });
+          return 0;
+        case NEED_WRAP:
+          wrap(EMPTY);
+          break;
+        case NEED_UNWRAP:
+          boolean unwrapped = unwrap();
+          if (eof && !established) {
+            failures.incrementAndGet();
+            throw new SSLException("closed during handshake");
+          }
+          if (!unwrapped)
+            return OP_READ;
+          break;
+        default:
+          if (!established) {
+            established = true;
+            handshakes.incrementAndGet();
+            if (engine.getSession().getCreationTime() < started)
+              resumed.incrementAndGet();
+          }
+          return 0;
+      }
+    }
+  }
+
+  public boolean handshaking() {
+    return !established || tasking;
+  }
+
+  /**
+   * @return true while a delegated task is out, its resume callback still to come
+   */
+  public boolean tasking() {
+    return tasking;
+  }
+
+  /**
+   * decrypts into dst
+   *
+   * @return bytes read, 0 when a whole record isn't in yet, -1 once the peer has closed
+   */
+  public int read(ByteBuffer dst) throws IOException {
+    while (!appIn.hasRemaining() && !eof && unwrap()) {
+      SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+      if (NOT_HANDSHAKING != status && FINISHED != status)
+        // post-handshake messages: tickets, key updates
+        handshake();
+    }
+    if (!appIn.hasRemaining())
+      return eof ? -1 : 0;
+    int n = Math.min(dst.remaining(), appIn.remaining());
+    ByteBuffer slice = appIn.duplicate();
+    slice.limit(slice.position() + n);
+    dst.put(slice);
+    appIn.position(appIn.position() + n);
+    return n;
+  }
+
+  /**
+   * encrypts from src while the channel takes it
+   *
+   * @return bytes of src consumed, some of which may wait on {@link #flush()}
+   */
+  public int write(ByteBuffer src) throws IOException {
+    int n = 0;
+    while (src.hasRemaining() && flush()) {
+      SSLEngineResult result = wrap(src);
+      if (SSLEngineResult.Status.CLOSED == result.getStatus())
+        throw new ClosedChannelException();
+      n += result.bytesConsumed();
+    }
+    flush();
+    return n;
+  }
+
+  /**
+   * @return true once no ciphertext is left to send
+   */
+  public boolean flush() throws IOException {
+    while (netOut.hasRemaining())
+      if (0 == channel.write(netOut))
+        return false;
+    return true;
+  }
+
+  public boolean pending() {
+    return netOut.hasRemaining();
+  }
+
+  /**
+   * @return true when records already off the channel wait for {@link #read(ByteBuffer)}, which no OP_READ will
+   *         announce
+   */
+  public boolean buffered() {
+    return appIn.hasRemaining() || 0 < netIn.position();
+  }
+
+  /**
+   * sends close_notify if it fits, closes the channel and returns the buffers
+   */
+  public void close() {
+    if (null == netIn)
+      return;
+    try {
+      engine.closeOutbound();
+      if (!tasking) {
+        wrap(EMPTY);
+        flush();
+      }
+    } catch (IOException e) {
+      // the peer is gone already
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    for (ByteBuffer buf : new ByteBuffer[] {netIn, netOut, appIn})
+      BufferPool.release(buf);
+    netIn = netOut = appIn = null;
+  }
+
+  /**
+   * @return false when more has to be read off the channel first
+   */
+  private boolean unwrap() throws IOException {
+    while (true) {
+      netIn.flip();
+      appIn.compact();
+      SSLEngineResult result;
+      try {
+        result = engine.unwrap(netIn, appIn);
+      } finally {
+        netIn.compact();
+        appIn.flip();
+      }
+      switch (result.getStatus()) {
+        case OK:
+          return true;
+        case CLOSED:
+          eof = true;
+          return true;
+        case BUFFER_OVERFLOW:
+          if (appIn.hasRemaining())
+            // the reader drains it first
+            return true;
+          int size =
+              Math.max(appIn.capacity() << 1, engine.getSession().getApplicationBufferSize());
+          BufferPool.release(appIn);
+          appIn = (ByteBuffer) BufferPool.acquire(size).flip();
+          break;
+        default:
+          if (!netIn.hasRemaining())
+            netIn = BufferPool.grow(netIn);
+          int read = channel.read(netIn);
+          if (-1 == read) {
+            eof = true;
+            return false;
+          }
+          if (0 == read)
+            return false;
+      }
+    }
+  }
+
+  private SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+    netOut.compact();
+    try {
+      while (true) {
+        SSLEngineResult result = engine.wrap(src, netOut);
+        if (SSLEngineResult.Status.BUFFER_OVERFLOW != result.getStatus())
+          return result;
+        netOut = BufferPool.grow(netOut);
+      }
+    } finally {
+      netOut.flip();
+    }
+  }
+
+  public static String stats() {
+    return "SecureChannel{handshakes=" + handshakes + ", resumed=" + resumed + ", tasks=" + tasks
+        + ", failures=" + failures + ", queued=" + TASKS.getQueue().size() + ", terminated="
+        + terminated.size() + '}';
+  }
+}
@@ -17,14 +17,15 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.nio.Buffer;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.regex.MatchResult;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static bbcursive.Cursive.pre.*;
@@ -52,6 +53,16 @@ public class Tx implements WantsZeroCopy {
   public static final String ASSIGNMENT_OPERATOR = "=";
   private boolean chunked;
   private boolean noPayload;
+  /**
+   * request bytes accumulated until the headers complete
+   */
+  private ByteBuffer inbound;
+  private ByteBuffer pipelined;
+  /**
+   * the buffer the last complete header block was read into, {@link #recycle} reads the next request into it
+   */
+  private ByteBuffer buffer;
+  private MatchResult match;
 
   public Tx(SelectionKey selectionKey) {
     key(selectionKey);
@@ -80,7 +91,7 @@ public class Tx implements WantsZeroCopy {
     if (attachment instanceof Tx) {
       tx = current((Tx) attachment);
     } else {
-      tx = current().clear();
+      tx = current(new Tx());
       Rfc822HeaderState rfc822HeaderState = tx.hdr().addHeaderInterest(interest);
     }
     entryPoint.attach(tx);
@@ -144,9 +155,10 @@ public class Tx implements WantsZeroCopy {
   private ByteBuffer payload;
 
   /**
-   * threadlocal headers pumped in to outer thread to hold #headers and #key above
+   * threadlocal headers pumped in to outer thread to hold #headers and #key above. not inherited: executor threads
+   * are handed their Tx explicitly, a copy taken whenever a pool thread happens to spawn is never the right one.
    */
-  private static ThreadLocal<Tx> current = new InheritableThreadLocal<>();
+  private static ThreadLocal<Tx> current = new ThreadLocal<>();
 
   /**
    * there can be only one [per thread]
@@ -173,8 +185,8 @@ public class Tx implements WantsZeroCopy {
    * 
    * @param headerInterest
    * @return true if sane. chunked()==true when the response is chunked.
-   *         {@link #decodeChunkedEncoding(java.util.List, one.xio.AsioVisitor.Helper.F)} is an optional for the client
-   *         caller, it may be desirable to get a chunk at a time.
+   *         {@link #streamPayload} is an optional for the client caller, it may be desirable to get a chunk at a
+   *         time.
    * @throws IOException
    */
   public boolean readHttpHeaders(HttpHeaders... headerInterest) throws Exception {
@@ -182,55 +194,129 @@ public class Tx implements WantsZeroCopy {
     Rfc822HeaderState state = hdr();
     if (headerInterest.length > 0)
       state.addHeaderInterest(headerInterest);
-    ByteBuffer byteBuffer = state.headerBuf();
+    ByteBuffer byteBuffer = null == inbound ? state.headerBuf() : inbound;
     if (null == byteBuffer)
-      state.headerBuf(byteBuffer = alloc(4 << 10));
+      byteBuffer = alloc(4 << 10);
     if (!byteBuffer.hasRemaining())
-      state.headerBuf(byteBuffer =
-          alloc(byteBuffer.capacity() << 1).put((ByteBuffer) byteBuffer.flip()));
-    int prior = byteBuffer.position(); // if the headers are extensive, this may be a buffer that has been extended
+      byteBuffer = alloc(byteBuffer.capacity() << 1).put((ByteBuffer) byteBuffer.flip());
+    inbound = byteBuffer;
     assert key != null;
     int read = read(key, byteBuffer);
 
     switch (read) {
       case -1:
         key.cancel();
-      case 0:
         return false;
+      case 0:
+        if (0 == byteBuffer.position()) // nothing pipelined to parse either
+          return false;
       default:
         /*
          * System.err.println("<?? " + StandardCharsets.UTF_8.decode((ByteBuffer) byteBuffer.duplicate().flip()));
          */
-        Buffer flip1 = byteBuffer.flip();
+        ByteBuffer flip1 = (ByteBuffer) byteBuffer.duplicate().flip();
         Rfc822HeaderState rfc822HeaderState =
             noPayload() ? state : state.addHeaderInterest(Content$2dLength).addHeaderInterest(
                 Transfer$2dEncoding);
-        boolean apply = rfc822HeaderState.apply((ByteBuffer) flip1);
-        if (apply) {
-          ByteBuffer slice = ((ByteBuffer) byteBuffer.duplicate().limit(prior + read)).slice();
-
-          String anObject = state.headerString(Transfer$2dEncoding);
-
-          if (!"chunked".equals(anObject))
+        if (!rfc822HeaderState.addHeaderInterest(Connection).apply(flip1))
+          return false; // keep accumulating in inbound
+        inbound = null;
+        buffer = byteBuffer;
+        ByteBuffer slice = flip1.slice();
+
+        String anObject = state.headerString(Transfer$2dEncoding);
+
+        if (!"chunked".equals(anObject)) {
+          int remaining = 0;
+          boolean sized =
+              !noPayload() && null != state.headerString(Content$2dLength.getHeader());
+          if (sized)
             try {
-              if (state.headerStrings().containsKey(Content$2dLength.getHeader())) {
-                int remaining = parseInt(state.headerString(Content$2dLength.getHeader()));
-                payload(alloc(remaining).put(slice));
-              }
+              remaining = parseInt(state.headerString(Content$2dLength.getHeader()));
             } catch (Exception e) {
+              sized = false;
               payload(NIL);
             }
-          else {
-            payload(slice);
-            chunked(true);
+          if (slice.remaining() > remaining) { // the next request is already here
+            pipelined(((ByteBuffer) slice.duplicate().position(remaining)).slice());
+            slice.limit(remaining);
           }
-          break;
+          if (sized)
+            payload(alloc(remaining).put(slice));
+        } else {
+          payload(slice);
+          chunked(true);
         }
         break;
     }
     return true;
   }
 
+  /**
+   * bytes a pipelining client sent behind the current request, they seed the next Tx on this key.
+   */
+  public ByteBuffer pipelined() {
+    return pipelined;
+  }
+
+  public Tx pipelined(ByteBuffer pipelined) {
+    this.pipelined = pipelined;
+    return this;
+  }
+
+  /**
+   * starts the next request on this connection from bytes already read.
+   */
+  public Tx seed(ByteBuffer pipelined) {
+    inbound = alloc(Math.max(4 << 10, pipelined.remaining())).put(pipelined);
+    return this;
+  }
+
+  /**
+   * readies this Tx for the next request on its connection once the response is written: the header state, its
+   * index and views are reset in place and the read buffer is rewound for reuse, holding whatever was pipelined. only
+   * call it when nothing from the finished exchange is referenced anymore.
+   */
+  public Tx recycle() {
+    ByteBuffer rest = pipelined, buf = buffer;
+    payload = pipelined = buffer = null;
+    chunked = noPayload = false;
+    match = null;
+    hdr().recycle();
+    if (null != rest && rest.hasRemaining()) {
+      if (null == buf || buf.capacity() < rest.remaining())
+        return seed(rest);
+      // rest usually lies further along buf itself; put copies forward, so the overlap is harmless
+      buf.clear();
+      buf.put(rest);
+    } else if (null != buf)
+      buf.clear();
+    inbound = buf;
+    return this;
+  }
+
+  /**
+   * what the route matched when the visitor asked for it, see {@link rxf.shared.KeepMatcher}
+   */
+  public MatchResult match() {
+    return match;
+  }
+
+  public Tx match(MatchResult match) {
+    this.match = match;
+    return this;
+  }
+
+  /**
+   * HTTP/1.1 persists unless the client sent Connection: close, HTTP/1.0 only with Connection: keep-alive.
+   */
+  public boolean keepAlive() {
+    String connection = hdr().headerString(Connection);
+    boolean http11 = "HTTP/1.1".equals(hdr().asRequest().protocol());
+    return null == connection ? http11 : "keep-alive".equalsIgnoreCase(connection.trim())
+        || http11 && !"close".equalsIgnoreCase(connection.trim());
+  }
+
   public boolean noPayload() {
     return noPayload;
   }
@@ -283,6 +369,14 @@ public class Tx implements WantsZeroCopy {
     return key;
   }
 
+  /**
+   * @return true if the connection came in over TLS, the terminator hands it over loopback
+   */
+  public boolean secure() {
+    return null != key && key.channel() instanceof SocketChannel
+        && SecureChannel.secure((SocketChannel) key.channel());
+  }
+
   public Tx state(Rfc822HeaderState state) {
     headers.set(state);
     return this;
@@ -325,6 +419,9 @@ public class Tx implements WantsZeroCopy {
   }
 
   public Tx clear() {
+    inbound = pipelined = buffer = null;
+    match = null;
+    chunked = false;
     return payload(null).state(null);
   }
 
@@ -336,22 +433,53 @@ public class Tx implements WantsZeroCopy {
   public void finishPayload(final F success) {
     log(success, "finishPaylaod");
     if (chunked()) {
-      final List<ByteBuffer> res = new ArrayList<>();
-      try {
-        payload().compact();
-        decodeChunkedEncoding(res, key -> {
-          ByteBuffer byteBuffer = cat(res);
-          payload(byteBuffer);
-          success.apply(key());
-        });
-      } catch (Exception e) {
-        key().cancel();
-      }
+      final ChunkedDecoder.Body body =
+          new ChunkedDecoder.Body(Math.max(4 << 10, payload().remaining()));
+      streamPayload(body, key -> {
+        payload(body.body());
+        success.apply(key);
+      });
     } else {
       finishRead(key(), payload(), success);
     }
   }
 
+  /**
+   * hands a chunked payload to sink a chunk at a time as it arrives instead of assembling it, starting with what
+   * {@link #readHttpHeaders} already has in {@link #payload}. bytes past the end of the body become
+   * {@link #pipelined}.
+   *
+   * @param success called once the last chunk is through
+   */
+  public void streamPayload(ChunkedDecoder.Sink sink, final F success) {
+    final ChunkedDecoder decoder = new ChunkedDecoder(sink);
+    try {
+      if (decoder.apply(payload())) {
+        endPayload(payload(), success);
+        return;
+      }
+      final ByteBuffer buf = alloc(16 << 10);
+      toRead(key(), key -> {
+        int read = read(key, (ByteBuffer) buf.clear());
+        if (-1 == read) {
+          bye(key);
+          return;
+        }
+        if (decoder.apply((ByteBuffer) buf.flip()))
+          endPayload(buf, success);
+      });
+    } catch (Exception e) {
+      e.printStackTrace();
+      key().cancel();
+    }
+  }
+
+  void endPayload(ByteBuffer rest, F success) throws Exception {
+    if (rest.hasRemaining())
+      pipelined((ByteBuffer) alloc(rest.remaining()).put(rest).flip());
+    success.apply(key());
+  }
+
   public void decodeChunkedEncoding(final List<ByteBuffer> res, final F success) {
     assert key() != null;
     try {
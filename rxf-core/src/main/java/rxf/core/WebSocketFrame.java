@@ -137,6 +137,7 @@ import java.nio.ByteBuffer;
  */
 
 public class WebSocketFrame {
+  private static final boolean DEBUG_SENDJSON = false;
   public byte[] maskingKey;
   public long payloadLength;
   public boolean isMasked;
@@ -180,7 +181,8 @@ public class WebSocketFrame {
       isFin = (b & 0b1000_0000) != 0;
       int i = b & 0b1111;
       opcode = OpCode.values()[i];
-      System.err.println("<<" + (isFin ? '=' : '+') + " " + opcode.name());
+      if (DEBUG_SENDJSON)
+        System.err.println("<<" + (isFin ? '=' : '+') + " " + opcode.name());
       b = cursor.get();
       isMasked = (b & 0b1000_0000) != 0;
       int payload31 = b & 0b0111_1111;
@@ -0,0 +1,34 @@
+package rxf.web.inf;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * a route's {@link Compression} policy, on the visitor its pattern maps to. routes without one get the RXF_COMPRESS*
+ * defaults.
+ */
+@Target(TYPE)
+@Retention(RUNTIME)
+@Documented
+@Inherited
+public @interface Compress {
+  /**
+   * false keeps the route's bodies as they are
+   */
+  boolean value() default true;
+
+  /**
+   * smallest body worth compressing, -1 for RXF_COMPRESS_MIN
+   */
+  int min() default -1;
+
+  /**
+   * deflate level 1-9, -1 for RXF_COMPRESS_LEVEL
+   */
+  int level() default -1;
+}
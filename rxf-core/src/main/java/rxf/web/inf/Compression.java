@@ -0,0 +1,249 @@
+package rxf.web.inf;
+
+import rxf.core.BufferPool;
+import rxf.core.Config;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static one.xio.HttpHeaders.*;
+
+/**
+ * on-the-fly gzip or deflate for dynamic bodies, the ones with no .gz sibling for {@link ContentRootImpl} to find.
+ * <p/>
+ * a body is compressed when the client's Accept-Encoding takes gzip or deflate (gzip first, q=0 honored), its type
+ * matches RXF_COMPRESS_TYPES, it has at least RXF_COMPRESS_MIN bytes, and it comes out smaller. each route can
+ * override those with {@link Compress} on its visitor, RXF_COMPRESS=false turns it off everywhere but where a route
+ * asks for it.
+ * <p/>
+ * {@link Encoder} streams: every write hands back what deflate produced so far, so a chunked response can send each
+ * as a chunk. deflaters come from a pool and go back reset; output is in pooled buffers.
+ */
+public class Compression {
+  public static final boolean COMPRESS = "true".equals(Config.get("RXF_COMPRESS", "true"));
+  public static final int COMPRESS_MIN = Integer.parseInt(Config.get("RXF_COMPRESS_MIN", "1024"));
+  public static final int COMPRESS_LEVEL = Integer.parseInt(Config.get("RXF_COMPRESS_LEVEL", "6"));
+  /**
+   * content types worth the cpu, everything else (images, archives, fonts, octet-streams) is likely compressed
+   * already
+   */
+  public static final Pattern COMPRESS_TYPES = Pattern.compile(Config.get("RXF_COMPRESS_TYPES",
+      "(?i)(text/.*|.*json.*|.*javascript.*|.*xml.*|.*gwt-rpc.*|image/svg.*)"));
+  private static final int POOL = Integer.parseInt(Config.get("RXF_COMPRESS_POOL", "32"));
+
+  public static final AtomicLong compressed = new AtomicLong();
+  public static final AtomicLong bytesIn = new AtomicLong();
+  public static final AtomicLong bytesOut = new AtomicLong();
+
+  private static final Map<Class<?>, Compress> policies = new ConcurrentHashMap<>();
+  private static final Compress DEFAULT = Default.class.getAnnotation(Compress.class);
+
+  @Compress
+  private static class Default {
+  }
+
+  public enum Coding {
+    gzip(true), deflate(false);
+
+    final boolean nowrap;
+    private final Queue<Deflater> pool = new ConcurrentLinkedQueue<>();
+
+    Coding(boolean nowrap) {
+      this.nowrap = nowrap;
+    }
+
+    Deflater borrow(int level) {
+      Deflater deflater = pool.poll();
+      if (null == deflater)
+        deflater = new Deflater(level, nowrap);
+      else
+        deflater.setLevel(level);
+      return deflater;
+    }
+
+    void giveBack(Deflater deflater) {
+      deflater.reset();
+      if (pool.size() < POOL)
+        pool.offer(deflater);
+      else
+        deflater.end();
+    }
+  }
+
+  /**
+   * @return the route's {@link Compress}, the RXF_COMPRESS* defaults when it has none
+   */
+  public static Compress policy(Class<?> route) {
+    return policies.computeIfAbsent(route, c -> {
+      Compress policy = c.getAnnotation(Compress.class);
+      return null == policy ? DEFAULT : policy;
+    });
+  }
+
+  /**
+   * gzip over deflate, either only when accepted with a q above 0
+   *
+   * @return null for identity
+   */
+  public static Coding negotiate(String acceptEncoding) {
+    if (null == acceptEncoding)
+      return null;
+    boolean deflate = false;
+    for (String token : acceptEncoding.split(",")) {
+      String[] parts = token.split(";");
+      String name = parts[0].trim().toLowerCase();
+      boolean refused = false;
+      for (int i = 1; i < parts.length; i++) {
+        String p = parts[i].trim();
+        if (p.startsWith("q="))
+          try {
+            refused = 0 == Double.parseDouble(p.substring(2));
+          } catch (NumberFormatException e) {
+            refused = true;
+          }
+      }
+      if (refused)
+        continue;
+      if ("gzip".equals(name) || "x-gzip".equals(name))
+        return Coding.gzip;
+      if ("deflate".equals(name))
+        deflate = true;
+    }
+    return deflate ? Coding.deflate : null;
+  }
+
+  /**
+   * the request's Accept-Encoding, indexing its headers again first if they were read without interest in it
+   */
+  public static String accepts(Rfc822HeaderState hdr) {
+    String[] interest = hdr.headerInterest();
+    hdr.addHeaderInterest(Accept$2dEncoding);
+    if (interest != hdr.headerInterest() && null != hdr.headerBuf())
+      hdr.read((ByteBuffer) hdr.headerBuf().rewind());
+    return hdr.headerString(Accept$2dEncoding);
+  }
+
+  /**
+   * the compression stage for a whole body: compresses it when route, client, type and size all allow and it pays
+   * off, and then sets Content-Encoding and Vary on res. the caller sets Content-Length from what comes back.
+   *
+   * @param accepts the request's Accept-Encoding, dropped from res since request and response share header state
+   * @return body, or a pooled buffer holding it compressed for the caller to release once written
+   */
+  public static ByteBuffer encode(Class<?> route, String accepts, HttpResponse res,
+      String contentType, ByteBuffer body) {
+    res.headerStrings().remove(Accept$2dEncoding.getHeader());
+    Compress policy = policy(route);
+    if (!(COMPRESS ? policy.value() : policy != DEFAULT && policy.value()) || null == contentType
+        || !COMPRESS_TYPES.matcher(contentType).matches()
+        || body.remaining() < (-1 == policy.min() ? COMPRESS_MIN : policy.min()))
+      return body;
+    Coding coding = negotiate(accepts);
+    if (null == coding)
+      return body;
+    Encoder encoder = new Encoder(coding, -1 == policy.level() ? COMPRESS_LEVEL : policy.level());
+    int length = body.remaining();
+    ByteBuffer out = encoder.write(body.duplicate(), true);
+    if (out.remaining() >= length) {
+      BufferPool.release(out);
+      return body;
+    }
+    compressed.incrementAndGet();
+    bytesIn.addAndGet(length);
+    bytesOut.addAndGet(out.remaining());
+    res.headerString(Content$2dEncoding, coding.name()).headerString(Vary,
+        Accept$2dEncoding.getHeader());
+    return out;
+  }
+
+  /**
+   * one body's deflate stream, gzip framed or zlib. holds a pooled deflater until the last write.
+   */
+  public static class Encoder {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+        0, 0, (byte) 0xff};
+
+    private final Coding coding;
+    private Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] in = new byte[8 << 10];
+    private final byte[] out = new byte[8 << 10];
+    private boolean started;
+
+    public Encoder(Coding coding, int level) {
+      this.coding = coding;
+      deflater = coding.borrow(level);
+    }
+
+    /**
+     * compresses src, all of it
+     *
+     * @param last finishes the stream and gives the deflater back
+     * @return what the deflater has let out so far, flipped in a pooled buffer, possibly empty
+     */
+    public ByteBuffer write(ByteBuffer src, boolean last) {
+      ByteBuffer sink = BufferPool.acquire(Math.max(4 << 10, src.remaining() / 2 + 64));
+      if (!started) {
+        started = true;
+        if (Coding.gzip == coding)
+          sink.put(GZIP_HEADER);
+      }
+      while (src.hasRemaining()) {
+        int n = Math.min(in.length, src.remaining());
+        src.get(in, 0, n);
+        if (Coding.gzip == coding)
+          crc.update(in, 0, n);
+        deflater.setInput(in, 0, n);
+        while (!deflater.needsInput())
+          sink = drain(sink, deflater.deflate(out, 0, out.length, Deflater.NO_FLUSH));
+      }
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished())
+          sink = drain(sink, deflater.deflate(out));
+        if (Coding.gzip == coding) {
+          sink = room(sink, 8);
+          int c = (int) crc.getValue();
+          int size = (int) deflater.getBytesRead();
+          for (int v : new int[] {c, size})
+            sink.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16)).put((byte) (v >> 24));
+        }
+        coding.giveBack(deflater);
+        deflater = null;
+      } else
+        // what's buffered goes out with this write
+        while (true) {
+          int n = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+          sink = drain(sink, n);
+          if (n < out.length)
+            break;
+        }
+      sink.flip();
+      return sink;
+    }
+
+    private ByteBuffer drain(ByteBuffer sink, int n) {
+      return room(sink, n).put(out, 0, n);
+    }
+
+    private static ByteBuffer room(ByteBuffer sink, int n) {
+      while (sink.remaining() < n)
+        sink = BufferPool.grow(sink);
+      return sink;
+    }
+  }
+
+  public static String stats() {
+    return "Compression{compressed=" + compressed + ", bytesIn=" + bytesIn + ", bytesOut="
+        + bytesOut + '}';
+  }
+}
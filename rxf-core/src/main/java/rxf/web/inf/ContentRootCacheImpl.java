@@ -2,6 +2,7 @@ package rxf.web.inf;
 
 import one.xio.HttpHeaders;
 import rxf.core.DateHeaderParser;
+import rxf.core.Tx;
 
 import java.nio.channels.SelectionKey;
 import java.util.Date;
@@ -14,7 +15,19 @@ public class ContentRootCacheImpl extends ContentRootImpl {
   public static final Pattern CACHE_PATTERN = Pattern
       .compile(".*(clear.cache.gif|[0-9A-F]{32}[.]cache[.]html)$");
 
+  public ContentRootCacheImpl() {
+  }
+
+  public ContentRootCacheImpl(Tx tx) {
+    super(tx);
+  }
+
   public void onWrite(SelectionKey key) throws Exception {
+    HotAssetCache.Asset asset = HotAssetCache.get(requestFname());
+    if (null != asset) {
+      asset.send(key, tx, getReq());
+      return;
+    }
     getReq().headerStrings().put(HttpHeaders.Expires.getHeader(),
         DateHeaderParser.RFC1123.getFormat().format(new Date(new Date().getTime() + YEAR)));
     super.onWrite(key);
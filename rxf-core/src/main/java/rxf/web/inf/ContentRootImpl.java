@@ -1,11 +1,13 @@
 package rxf.web.inf;
 
+import one.xio.AsioVisitor.Helper.F;
 import one.xio.AsioVisitor.Impl;
 import one.xio.HttpStatus;
 import one.xio.MimeType;
 import rxf.core.CouchNamespace;
 import rxf.core.DateHeaderParser;
 import rxf.core.Errors;
+import rxf.core.Rfc822HeaderState;
 import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.core.Rfc822HeaderState.HttpResponse;
 import rxf.core.Tx;
@@ -13,19 +15,22 @@ import rxf.shared.CompressionTypes;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.MatchResult;
 
-import static java.nio.channels.SelectionKey.OP_READ;
-import static java.nio.channels.SelectionKey.OP_WRITE;
 import static one.xio.AsioVisitor.Helper.finishWrite;
-import static one.xio.AsioVisitor.Helper.write;
+import static one.xio.AsioVisitor.Helper.toWrite;
 import static one.xio.HttpHeaders.*;
 
 /**
@@ -41,15 +46,29 @@ public class ContentRootImpl extends Impl {
   private ByteBuffer cursor;
   private MatchResult matchResults;
   /**
-   * threadlocal from creation-time
+   * the connection's Tx, passed in by {@link ProtocolMethodDispatch} or threadlocal from creation-time
    */
-  Tx tx = Tx.current();
+  final Tx tx;
   public static final boolean USE_INVERSE_CHAR = '/' == File.separatorChar;
   public static final char INVERSE_CHAR = USE_INVERSE_CHAR ? '\\' : '/';
 
   public ContentRootImpl() {
-    tx.state(tx.hdr().addHeaderInterest(Accept$2dEncoding, If$2dModified$2dSince,
-        If$2dUnmodified$2dSince).read((ByteBuffer) tx.hdr().headerBuf().rewind()).asRequest());
+    this(Tx.current());
+  }
+
+  /**
+   * the first request on a connection is indexed again for the conditional headers; the interest sticks to the
+   * recycled header state, so later ones come in already indexed for them.
+   */
+  public ContentRootImpl(Tx tx) {
+    this.tx = tx;
+    Rfc822HeaderState hdr = tx.hdr();
+    String[] interest = hdr.headerInterest();
+    hdr.addHeaderInterest(Accept$2dEncoding, If$2dModified$2dSince, If$2dUnmodified$2dSince,
+        If$2dNone$2dMatch);
+    if (interest != hdr.headerInterest())
+      hdr.read((ByteBuffer) hdr.headerBuf().rewind());
+    tx.state(hdr.asRequest());
     assert null != tx.payload() : "Tx.current() returns null, required non-null by ContentRootImpl";
   }
 
@@ -63,118 +82,213 @@ public class ContentRootImpl extends Impl {
   }
 
   public void onWrite(SelectionKey key) throws Exception {
+    write(key, true);
+  }
 
-    String finalFname = fileScrub(getRootPath() + SLASHDOTSLASH + getReq().path().split("\\?")[0]);
-    File file = new File(finalFname);
-    if (file.isDirectory()) {
-      file = new File((finalFname + "/index.html"));
+  /**
+   * @param retry whether an entry the watcher retires between the lookup and the send is looked up again
+   */
+  void write(SelectionKey key, boolean retry) throws Exception {
+    String finalFname = requestFname();
+    StaticContent.Entry entry = StaticContent.lookup(finalFname);
+    if (DEBUG_SENDJSON) {
+      System.err.println("ContentRootImpl write entered: " + finalFname + " -> " + entry);
+    }
+    if (null == entry) {
+      Errors.$404(key, getReq().path(), key1 -> ProtocolMethodDispatch.next(tx));
+      return;
     }
-    finalFname = (file.getCanonicalPath());
-    System.err.println("ContentRootImpl write entered: " + finalFname);
 
-    java.util.Date fdate = new java.util.Date(file.lastModified());
+    java.util.Date fdate = new java.util.Date(entry.lastModified);
+    // http dates carry whole seconds
+    long fsecs = entry.lastModified / 1000 * 1000;
 
+    String match = getReq().headerString(If$2dNone$2dMatch);
     String since = getReq().headerString(If$2dModified$2dSince);
     String accepts = getReq().headerString(Accept$2dEncoding);
+    Map.Entry<CompressionTypes, StaticContent.Entry> variant = entry.variant(accepts);
+    String etag = entry.etag(null == variant ? null : variant.getKey());
 
     final HttpResponse res = getReq().$res();
-    if (null != since) {
-      java.util.Date cachedDate = DateHeaderParser.parseDate(since);
-
-      if (cachedDate.after(fdate)) {
-
-        res.status(HttpStatus.$304).headerString(Connection, "close").headerString(Last$2dModified,
-            DateHeaderParser.formatHttpHeaderDate(fdate));
-        int write = write(key, res.asByteBuffer());
-        key.interestOps(OP_READ).attach(null);
-        return;
-      }
-    } else {
+    if (!entry.variants.isEmpty())
+      res.headerString(Vary, Accept$2dEncoding.getHeader());
+    if (null != match ? match.contains(etag) || "*".equals(match.trim()) : null != since
+        && fsecs <= DateHeaderParser.parseDate(since).getTime()) {
+
+      res.status(HttpStatus.$304).headerString(ETag, etag).headerString(Last$2dModified,
+          DateHeaderParser.formatHttpHeaderDate(fdate));
+      finishWrite(key, key1 -> ProtocolMethodDispatch.next(tx), connection(res).asByteBuffer());
+      return;
+    }
+    if (null == since) {
       since = getReq().headerString(If$2dUnmodified$2dSince);
 
       if (null != since) {
         java.util.Date cachedDate = DateHeaderParser.parseDate(since);
 
-        if (cachedDate.before(fdate)) {
+        if (cachedDate.getTime() < fsecs) {
 
-          res.status(HttpStatus.$412).headerString(Connection, "close").headerString(
-              Last$2dModified, DateHeaderParser.formatHttpHeaderDate(fdate));
-          int write = write(key, res.asByteBuffer());
-          key.interestOps(OP_READ).attach(null);
+          res.status(HttpStatus.$412).headerString(Last$2dModified,
+              DateHeaderParser.formatHttpHeaderDate(fdate));
+          finishWrite(key, key1 -> ProtocolMethodDispatch.next(tx), connection(res)
+              .asByteBuffer());
           return;
         }
       }
     }
-    String ceString = null;
-    if (null != accepts) {
-
-      for (CompressionTypes compType : CompressionTypes.values()) {
-        if (accepts.contains(compType.name())) {
-          File f = new File(file.getAbsoluteFile() + "." + compType.suffix);
-          if (f.isFile() && f.canRead()) {
-            if (DEBUG_SENDJSON) {
-              System.err.println("sending compressed archive: " + f.getAbsolutePath());
-            }
-            ceString = (compType.name());
-            file = f;
-            break;
-          }
+    res.headerString(ETag, etag).headerString(Last$2dModified,
+        DateHeaderParser.formatHttpHeaderDate(fdate));
+    try {
+      if (null == variant)
+        send(key, entry, entry.mimeType, fdate, res, null);
+      else {
+        if (DEBUG_SENDJSON) {
+          System.err.println("sending compressed archive: " + variant.getValue().file);
         }
+        send(key, variant.getValue(), entry.mimeType, fdate, res, variant.getKey().name());
       }
+    } catch (IOException e) {
+      // retiring an entry retires its variants, nothing has been written yet
+      if (!retry || !entry.retired())
+        throw e;
+      write(key, false);
     }
-    boolean send200 = file.canRead() && file.isFile();
-
-    if (send200)
-      sendFile(key, finalFname, file, fdate, res, ceString);
-    else {
-      key.selector().wakeup();
-      key.interestOps(OP_WRITE).attach(new Impl() {
+  }
 
-        public void onWrite(SelectionKey key) throws Exception {
-          Errors.$404(key, res.asRequest().path());
-          key.selector().wakeup();
-          key.interestOps(OP_READ).attach(null);
-        }
-      });
-    }
+  /**
+   * @return the scrubbed file name the request path maps to under {@link #getRootPath}
+   */
+  String requestFname() {
+    return fileScrub(getRootPath() + SLASHDOTSLASH + getReq().path().split("\\?")[0]);
   }
 
+  /**
+   * sends a file outside the {@link StaticContent} cache, e.g. a rendered template
+   */
   public void sendFile(final SelectionKey key, String finalFname, File file, java.util.Date fdate,
       HttpResponse res, String ceString) throws IOException {
-    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-    String substring = finalFname.substring(finalFname.lastIndexOf('.') + 1);
-    MimeType mimeType = MimeType.valueOf(substring);
-    long length = randomAccessFile.length();
-
-    res.status(HttpStatus.$200).headerString(Content$2dType,
-        ((null == mimeType) ? MimeType.bin : mimeType).contentType).headerString(Content$2dLength,
-        String.valueOf(length)).headerString(Connection, "close").headerString(Date,
+    StaticContent.Entry entry = StaticContent.Entry.stat(file.toPath(), false);
+    if (null == entry) {
+      Errors.$404(key, getReq().path(), key1 -> ProtocolMethodDispatch.next(tx));
+      return;
+    }
+    MimeType mimeType = null;
+    try {
+      mimeType = MimeType.valueOf(finalFname.substring(finalFname.lastIndexOf('.') + 1));
+    } catch (Throwable ignored) {
+    }
+    try {
+      send(key, entry, null == mimeType ? MimeType.bin : mimeType, fdate, res, ceString);
+    } finally {
+      entry.retire();
+    }
+  }
+
+  /**
+   * bodies under {@link StaticContent#SENDFILE_THRESHOLD} are read and written with the headers, larger ones are
+   * handed to the socket by {@link FileChannel#transferTo} as it drains.
+   */
+  void send(SelectionKey key, final StaticContent.Entry body, MimeType mimeType,
+      java.util.Date fdate, HttpResponse res, String ceString) throws IOException {
+    res.status(HttpStatus.$200).headerString(Content$2dType, mimeType.contentType).headerString(
+        Content$2dLength, String.valueOf(body.size)).headerString(Date,
         DateHeaderParser.formatHttpHeaderDate(fdate));
     if (null != ceString)
       res.headerString(Content$2dEncoding, ceString);
+    ByteBuffer headers = (ByteBuffer) connection(res).asByteBuffer().rewind();
 
-    try {
-      MappedByteBuffer map = randomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, length);
-      Buffer fileContent = map.rewind();
-      Buffer headers = res.asByteBuffer().rewind();
-      finishWrite(key, () -> {
-        try {
-          randomAccessFile.close();
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-        try {
+    if (body.size < StaticContent.SENDFILE_THRESHOLD)
+      finishWrite(key, key1 -> ProtocolMethodDispatch.next(tx), headers, body.read());
+    else {
+      FileChannel fc = body.acquire();
+      finishWrite(key, new Transfer(key, body, fc, tx), headers);
+    }
+  }
+
+  /**
+   * one transferTo per writable event until the file is out, then the connection moves on to the next request.
+   * <p/>
+   * the reactor says nothing when a key is cancelled or its socket closed under a transfer waiting for OP_WRITE, so the
+   * transfers in flight are swept once a second and those whose key went invalid give their channel back.
+   */
+  static class Transfer implements F {
+    static final Set<Transfer> inflight = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService SWEEP = Executors
+        .newSingleThreadScheduledExecutor(r -> {
+          Thread t = new Thread(r, "rxf-static-sweep");
+          t.setDaemon(true);
+          return t;
+        });
+    static {
+      SWEEP.scheduleWithFixedDelay(Transfer::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    final SelectionKey key;
+    final StaticContent.Entry body;
+    final FileChannel fc;
+    final Tx tx;
+    final AtomicBoolean released = new AtomicBoolean();
+    long position;
+
+    Transfer(SelectionKey key, StaticContent.Entry body, FileChannel fc, Tx tx) {
+      this.key = key;
+      this.body = body;
+      this.fc = fc;
+      this.tx = tx;
+      inflight.add(this);
+    }
+
+    public void apply(SelectionKey key) throws Exception {
+      try {
+        long sent = fc.transferTo(position, body.size - position, (SocketChannel) key.channel());
+        if (0 == sent && position >= fc.size()) {
+          // truncated under the transfer, the Content-Length sent can't be met
+          release();
           key.channel().close();
-        } catch (IOException e) {
-          e.printStackTrace();
+          return;
         }
-      }, (ByteBuffer) headers, (ByteBuffer) fileContent);
+        position += sent;
+      } catch (Exception e) {
+        release();
+        throw e;
+      }
+      if (position < body.size)
+        toWrite(key, this);
+      else {
+        release();
+        ProtocolMethodDispatch.next(tx);
+      }
+    }
 
-    } catch (Exception e) {
-      e.printStackTrace();
+    /**
+     * once, whichever of the last write, a failed one or the sweep gets here first
+     */
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        inflight.remove(this);
+        body.release();
+      }
+    }
+
+    static void sweep() {
+      for (Transfer transfer : inflight)
+        if (!transfer.key.isValid() || !transfer.key.channel().isOpen())
+          transfer.release();
     }
   }
 
+  /**
+   * answers the client's Connection preference, {@link ProtocolMethodDispatch#next} acts on the same answer
+   */
+  HttpResponse connection(HttpResponse res) {
+    boolean keepAlive = tx.keepAlive();
+    if (!keepAlive)
+      res.headerString(Connection, "close");
+    else if (!"HTTP/1.1".equals(getReq().protocol()))
+      res.headerString(Connection, "keep-alive");
+    return res;
+  }
+
   public ByteBuffer getCursor() {
     return cursor;
   }
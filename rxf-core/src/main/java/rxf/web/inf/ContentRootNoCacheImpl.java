@@ -2,6 +2,7 @@ package rxf.web.inf;
 
 import one.xio.HttpHeaders;
 import rxf.core.DateHeaderParser;
+import rxf.core.Tx;
 
 import java.nio.channels.SelectionKey;
 import java.util.Date;
@@ -11,6 +12,13 @@ public class ContentRootNoCacheImpl extends ContentRootImpl {
 
   public static final Pattern NOCACHE_PATTERN = Pattern.compile(".*[.]nocache[.](js|html)$");
 
+  public ContentRootNoCacheImpl() {
+  }
+
+  public ContentRootNoCacheImpl(Tx tx) {
+    super(tx);
+  }
+
   public void onWrite(SelectionKey key) throws Exception {
     getReq().headerStrings().put(HttpHeaders.Expires.getHeader(),
         DateHeaderParser.RFC1123.getFormat().format(new Date()));
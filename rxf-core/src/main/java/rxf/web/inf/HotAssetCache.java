@@ -0,0 +1,267 @@
+package rxf.web.inf;
+
+import com.google.common.hash.Hashing;
+import one.xio.HttpStatus;
+import rxf.core.Config;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpRequest;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+import rxf.core.Tx;
+import rxf.shared.CompressionTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static one.xio.AsioVisitor.Helper.finishWrite;
+import static one.xio.HttpHeaders.*;
+
+/**
+ * off-heap copies of the immutable assets {@link ContentRootCacheImpl} serves (gwt's *.cache.html and friends). each
+ * asset holds its identity, gzip and deflate bodies plus the complete response headers for every encoding and
+ * Connection flavor, so a hit is one gathering write of two read-only views with no copying and no header formatting.
+ * <p/>
+ * gzip comes from the .gz sibling when one was deployed, otherwise it and deflate are compressed once at load. a
+ * variant that doesn't come out smaller than identity isn't kept. entries are dropped when their {@link StaticContent}
+ * entry is invalidated.
+ * <p/>
+ * system properties: RXF_HOT_CACHE_BYTES total off-heap budget, RXF_HOT_ASSET_MAX largest file worth holding.
+ */
+public class HotAssetCache {
+  public static final long HOT_CACHE_BYTES = Long.parseLong(Config.get("RXF_HOT_CACHE_BYTES",
+      String.valueOf(64 << 20)));
+  public static final long HOT_ASSET_MAX = Long.parseLong(Config.get("RXF_HOT_ASSET_MAX", String
+      .valueOf(1 << 20)));
+  public static final long MAX_AGE = TimeUnit.SECONDS.convert(365, TimeUnit.DAYS);
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+  private static final Map<String, Asset> cache = new LinkedHashMap<>(16, .75f, true);
+  private static long bytes;
+
+  public static final AtomicLong hits = new AtomicLong();
+  public static final AtomicLong misses = new AtomicLong();
+  public static final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * content codings kept per asset, ordinal indexes {@link Asset#bodies}
+   */
+  public enum Encoding {
+    identity, gzip, deflate;
+
+    /**
+     * gzip before deflate, same substring test ContentRootImpl uses for the .gz siblings
+     */
+    static Encoding choose(String accepts, ByteBuffer[] bodies) {
+      if (null != accepts) {
+        if (null != bodies[gzip.ordinal()] && accepts.contains(gzip.name()))
+          return gzip;
+        if (null != bodies[deflate.ordinal()] && accepts.contains(deflate.name()))
+          return deflate;
+      }
+      return identity;
+    }
+  }
+
+  /**
+   * @param fname scrubbed file name under the content root
+   * @return the cached asset, null when the file is missing or bigger than {@link #HOT_ASSET_MAX}
+   */
+  public static Asset get(String fname) throws IOException {
+    synchronized (cache) {
+      Asset asset = cache.get(fname);
+      if (null != asset) {
+        if (!asset.source.retired()) {
+          hits.incrementAndGet();
+          return asset;
+        }
+        cache.remove(fname);
+        bytes -= asset.bytes;
+      }
+    }
+    misses.incrementAndGet();
+    StaticContent.Entry entry = StaticContent.lookup(fname);
+    if (null == entry || entry.size > HOT_ASSET_MAX)
+      return null;
+    Asset asset = new Asset(entry);
+    synchronized (cache) {
+      Asset prev = cache.put(fname, asset);
+      if (null != prev)
+        bytes -= prev.bytes;
+      bytes += asset.bytes;
+      for (Iterator<Asset> i = cache.values().iterator(); bytes > HOT_CACHE_BYTES && i.hasNext();) {
+        Asset eldest = i.next();
+        if (eldest == asset)
+          continue;
+        i.remove();
+        bytes -= eldest.bytes;
+        evictions.incrementAndGet();
+      }
+    }
+    return asset;
+  }
+
+  public static long bytes() {
+    synchronized (cache) {
+      return bytes;
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      bytes = 0;
+    }
+  }
+
+  public static class Asset {
+    public final StaticContent.Entry source;
+    /**
+     * strong, from the content rather than the mtime; of the identity body, see {@link #etag(Encoding)}
+     */
+    public final String etag;
+    /**
+     * each coding is its own representation with its own validator
+     */
+    final String[] etags = new String[Encoding.values().length];
+    /**
+     * direct and read-only, null for a coding that didn't pay off
+     */
+    final ByteBuffer[] bodies = new ByteBuffer[Encoding.values().length];
+    /**
+     * [encoding][connection], connection being 0 = default, 1 = close, 2 = keep-alive
+     */
+    final ByteBuffer[][] headers = new ByteBuffer[bodies.length][3];
+    final ByteBuffer[][] notModified = new ByteBuffer[bodies.length][3];
+    final long bytes;
+
+    Asset(StaticContent.Entry source) throws IOException {
+      this.source = source;
+      ByteBuffer raw = source.read();
+      byte[] identity = new byte[raw.remaining()];
+      raw.get(identity);
+      String sha1 = Hashing.sha1().hashBytes(identity).toString();
+      etag = '"' + sha1 + '"';
+      for (Encoding encoding : Encoding.values())
+        etags[encoding.ordinal()] =
+            Encoding.identity == encoding ? etag : '"' + sha1 + '-' + encoding.name() + '"';
+
+      StaticContent.Entry gz = source.variants.get(CompressionTypes.gzip);
+      put(Encoding.identity, identity);
+      if (null != gz) {
+        ByteBuffer read = gz.read();
+        byte[] b = new byte[read.remaining()];
+        read.get(b);
+        put(Encoding.gzip, b);
+      } else
+        put(Encoding.gzip, compress(new ByteArrayOutputStream(), identity, true));
+      put(Encoding.deflate, compress(new ByteArrayOutputStream(), identity, false));
+
+      // max-age alone: an Expires formatted once at load would slide into the past
+      long n = 0;
+      for (int c = 0; c < 3; c++)
+        for (Encoding encoding : Encoding.values()) {
+          ByteBuffer body = bodies[encoding.ordinal()];
+          if (null == body)
+            continue;
+          HttpResponse res = response(HttpStatus.$200, encoding, c);
+          res.headerString(Content$2dType, source.mimeType.contentType).headerString(
+              Content$2dLength, String.valueOf(body.limit()));
+          if (Encoding.identity != encoding)
+            res.headerString(Content$2dEncoding, encoding.name());
+          n += (headers[encoding.ordinal()][c] = direct(res.asByteBuffer())).limit();
+          n +=
+              (notModified[encoding.ordinal()][c] =
+                  direct(response(HttpStatus.$304, encoding, c).asByteBuffer())).limit();
+        }
+      for (ByteBuffer body : bodies)
+        if (null != body)
+          n += body.limit();
+      bytes = n;
+    }
+
+    public String etag(Encoding encoding) {
+      return etags[encoding.ordinal()];
+    }
+
+    HttpResponse response(HttpStatus status, Encoding encoding, int connection) {
+      HttpResponse res = new Rfc822HeaderState().$res().status(status);
+      res.headerString(ETag, etag(encoding)).headerString(Cache$2dControl,
+          "public, max-age=" + MAX_AGE);
+      if (countNull() < bodies.length - 1)
+        res.headerString(Vary, Accept$2dEncoding.getHeader());
+      if (1 == connection)
+        res.headerString(Connection, "close");
+      else if (2 == connection)
+        res.headerString(Connection, "keep-alive");
+      return res;
+    }
+
+    int countNull() {
+      int n = 0;
+      for (ByteBuffer body : bodies)
+        if (null == body)
+          n++;
+      return n;
+    }
+
+    void put(Encoding encoding, byte[] b) {
+      if (Encoding.identity == encoding || b.length < bodies[0].limit())
+        bodies[encoding.ordinal()] = direct(ByteBuffer.wrap(b));
+    }
+
+    static byte[] compress(ByteArrayOutputStream sink, byte[] b, boolean gzip) throws IOException {
+      try (OutputStream out = gzip ? new GZIPOutputStream(sink) : new DeflaterOutputStream(sink)) {
+        out.write(b);
+      }
+      return sink.toByteArray();
+    }
+
+    static ByteBuffer direct(ByteBuffer src) {
+      ByteBuffer buf = ByteBuffer.allocateDirect(src.remaining());
+      buf.put(src).flip();
+      return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * answers the request from memory: the best accepted coding, or 304 when If-None-Match names that coding's ETag.
+     * the two views go out in one gathering write; only a short write falls back to the reactor.
+     */
+    public void send(SelectionKey key, final Tx tx, HttpRequest req) throws Exception {
+      int connection = !tx.keepAlive() ? 1 : "HTTP/1.1".equals(req.protocol()) ? 0 : 2;
+      String match = req.headerString(If$2dNone$2dMatch);
+      int encoding = Encoding.choose(req.headerString(Accept$2dEncoding), bodies).ordinal();
+      ByteBuffer h, b;
+      if (null != match && (match.contains(etags[encoding]) || "*".equals(match.trim()))) {
+        h = notModified[encoding][connection].duplicate();
+        b = EMPTY;
+      } else {
+        h = headers[encoding][connection].duplicate();
+        b = bodies[encoding].duplicate();
+      }
+      ((SocketChannel) key.channel()).write(new ByteBuffer[] {h, b});
+      if (h.hasRemaining() || b.hasRemaining())
+        finishWrite(key, key1 -> ProtocolMethodDispatch.next(tx), h, b);
+      else
+        ProtocolMethodDispatch.next(tx);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(source.file.toString()).append("{etag=").append(etag);
+      for (Encoding encoding : Encoding.values())
+        if (null != bodies[encoding.ordinal()])
+          sb.append(", ").append(encoding).append('=').append(bodies[encoding.ordinal()].limit());
+      return sb.append('}').toString();
+    }
+  }
+}
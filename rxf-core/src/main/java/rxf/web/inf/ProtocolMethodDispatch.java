@@ -2,13 +2,18 @@ package rxf.web.inf;
 
 import one.xio.AsioVisitor.Impl;
 import one.xio.AsyncSingletonServer.SingleThreadSingletonServer;
+import one.xio.HttpMethod;
 import rxf.core.Errors;
+import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.core.Tx;
 import rxf.shared.KeepMatcher;
 import rxf.shared.PreRead;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -17,6 +22,7 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,6 +46,14 @@ public class ProtocolMethodDispatch extends Impl {
   public static final byte[] HEADER_TERMINATOR = "\r\n\r\n".getBytes(StandardCharsets.UTF_8);
   private static final boolean DEBUG_SENDJSON = false;
 
+  /**
+   * where {@link #onAccept} registers new sockets. defaults to the single selector; RelaxFactoryServerImpl swaps in
+   * its shards when started with more than one selector.
+   */
+  public static Acceptor ACCEPTOR = SingleThreadSingletonServer::enqueue;
+
+  private static final Map<HttpMethod, Router<Handler>> ROUTERS = new ConcurrentHashMap<>();
+
   /**
    * the PUT protocol handlers, only static for the sake of javadocs
    */
@@ -92,7 +106,7 @@ public class ProtocolMethodDispatch extends Impl {
     ServerSocketChannel channel = (ServerSocketChannel) key.channel();
     SocketChannel accept = channel.accept();
     accept.configureBlocking(false);
-    SingleThreadSingletonServer.enqueue(accept, OP_READ);
+    ACCEPTOR.enqueue(accept, OP_READ);
 
   }
 
@@ -105,34 +119,122 @@ public class ProtocolMethodDispatch extends Impl {
   public void onRead(SelectionKey key) throws Exception {
     Tx tx = Tx.current(Tx.acquireTx(key));
     if (tx.readHttpHeaders()) {
-      String path = tx.hdr().asRequest().path();
-      for (Entry<Pattern, Class<? extends Impl>> visitorEntry : NAMESPACE.get(
-          tx.hdr().asRequest().httpMethod()).entrySet()) {
-        Matcher matcher = visitorEntry.getKey().matcher(path);
-        if (matcher.matches()) {
-          if (DEBUG_SENDJSON) {
-            System.err.println("+?+?+? using " + matcher.toString());
-          }
-          Class<? extends Impl> aClass = visitorEntry.getValue();
-          Impl impl = aClass.newInstance();
-          boolean keepMatch = aClass.isAnnotationPresent(KeepMatcher.class);
-          Object[] a =
-              keepMatch ? new Object[] {impl, tx.hdr(), tx.payload(), matcher.toMatchResult()}
-                  : new Object[] {impl, tx.hdr(), tx.payload()};
-          OpInterest opInterest = aClass.getAnnotation(OpInterest.class);
-          key.interestOps(opInterest != null ? opInterest.value() : OP_READ).attach(a);
-
-          key.attach(a);
-          if (aClass.isAnnotationPresent(PreRead.class))
-            impl.onRead(key);
-          key.selector().wakeup();
-          return;
+      HttpRequest request = tx.hdr().asRequest();
+      String path = request.path();
+      Router<Handler> router = router(request.httpMethod());
+      int route = null == router ? -1 : router.route(path);
+      if (-1 != route) {
+        Handler handler = router.target(route);
+        if (DEBUG_SENDJSON) {
+          System.err.println("+?+?+? using " + router.pattern(route) + " " + handler.type);
         }
-
+        if (handler.keepMatch) {
+          Matcher matcher = router.matcher(route).reset(path);
+          matcher.matches();
+          tx.match(matcher.toMatchResult());
+        }
+        Impl impl = handler.newInstance(tx);
+        Object[] a;
+        if (handler.keepMatch)
+          a = new Object[] {impl, tx.hdr(), tx.payload(), tx.match()};
+        else
+          a = new Object[] {impl, tx.hdr(), tx.payload()};
+        key.interestOps(handler.ops).attach(a);
+        if (handler.preRead)
+          impl.onRead(key);
+        key.selector().wakeup();
+        return;
       }
       System.err.println(deepToString("!!!1!1!!", "404", path, "using", NAMESPACE));
-      Errors.$404(key, path);
+      Errors.$404(key, path, key1 -> next(tx));
+    }
+  }
+
+  /**
+   * the compiled form of a NAMESPACE map, rebuilt when the map has grown or shrunk since. code that swaps entries
+   * in place after the first request should call {@link #reroute()}.
+   */
+  static Router<Handler> router(HttpMethod method) {
+    Map<Pattern, Class<? extends Impl>> map = NAMESPACE.get(method);
+    if (null == map)
+      return null;
+    Router<Handler> router = ROUTERS.get(method);
+    if (null == router || router.size() != map.size()) {
+      router = new Router<>();
+      for (Entry<Pattern, Class<? extends Impl>> entry : map.entrySet())
+        router.add(entry.getKey(), new Handler(entry.getValue()));
+      ROUTERS.put(method, router);
+    }
+    return router;
+  }
+
+  public static void reroute() {
+    ROUTERS.clear();
+  }
+
+  /**
+   * what onRead used to reflect on per request: the constructor and the dispatch annotations of a visitor class. a
+   * visitor with a (Tx) constructor is handed the connection's Tx through it, others find it in {@link Tx#current()}.
+   */
+  static class Handler {
+    final Class<? extends Impl> type;
+    final Constructor<? extends Impl> constructor;
+    final boolean takesTx;
+    final boolean keepMatch;
+    final boolean preRead;
+    final int ops;
+
+    Handler(Class<? extends Impl> type) {
+      this.type = type;
+      constructor = constructor(type);
+      constructor.setAccessible(true);
+      takesTx = 1 == constructor.getParameterCount();
+      keepMatch = type.isAnnotationPresent(KeepMatcher.class);
+      preRead = type.isAnnotationPresent(PreRead.class);
+      OpInterest opInterest = type.getAnnotation(OpInterest.class);
+      ops = null != opInterest ? opInterest.value() : OP_READ;
+    }
+
+    static Constructor<? extends Impl> constructor(Class<? extends Impl> type) {
+      try {
+        return type.getDeclaredConstructor(Tx.class);
+      } catch (NoSuchMethodException ignored) {
+      }
+      try {
+        return type.getDeclaredConstructor();
+      } catch (NoSuchMethodException e) {
+        throw new IllegalArgumentException(type + " needs a (Tx) or no-arg constructor", e);
+      }
+    }
+
+    Impl newInstance(Tx tx) throws Exception {
+      return takesTx ? constructor.newInstance(tx) : constructor.newInstance();
     }
   }
 
+  /**
+   * ends an exchange once its response is written. closes if the client asked to, otherwise recycles tx and re-arms
+   * the key with it for the next request, so a keep-alive connection reuses one Tx, its header state and its read
+   * buffer for its whole life. bytes a client pipelined behind this request are dispatched right away since no read
+   * event will announce them; requests on one key are served strictly one after another so responses leave in order.
+   *
+   * @param tx the finished exchange
+   */
+  public static void next(Tx tx) throws Exception {
+    SelectionKey key = tx.key();
+    if (!tx.keepAlive()) {
+      key.cancel();
+      key.channel().close();
+      return;
+    }
+    ByteBuffer pipelined = tx.pipelined();
+    boolean more = null != pipelined && pipelined.hasRemaining();
+    key.interestOps(OP_READ).attach(tx.recycle());
+    if (more)
+      new ProtocolMethodDispatch().onRead(key);
+  }
+
+  public interface Acceptor {
+    void enqueue(SelectableChannel channel, int op, Object... s) throws ClosedChannelException;
+  }
 }
@@ -0,0 +1,175 @@
+package rxf.web.inf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ordered regex routes compiled into a prefix trie.
+ * <p/>
+ * each route's regex is split into its literal prefix (up to the first metacharacter, a leading ^ dropped) and the
+ * rest. the prefixes are laid into a trie, so a lookup walks the path once and only runs the regexes of routes whose
+ * prefix the path starts with; a route that is nothing but a literal is compared, never matched. the lowest
+ * registration index among matching routes wins, i.e. the same first-match order as scanning the routes in a
+ * LinkedHashMap with {@link Matcher#matches()}.
+ * <p/>
+ * lookups allocate nothing: each thread keeps one reusable {@link Matcher} per route.
+ *
+ * @param <T> whatever a route dispatches to
+ */
+public class Router<T> {
+  private final List<Pattern> patterns = new ArrayList<>();
+  private final List<T> targets = new ArrayList<>();
+  /**
+   * the whole regex when it's a plain literal, else null
+   */
+  private final List<String> literals = new ArrayList<>();
+  private final Node root = new Node();
+  private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<>();
+
+  static class Node {
+    char[] keys = {};
+    Node[] kids = {};
+    /**
+     * routes whose literal prefix ends here, ascending
+     */
+    int[] routes = {};
+
+    Node kid(char c) {
+      for (int i = 0; i < keys.length; i++)
+        if (keys[i] == c)
+          return kids[i];
+      return null;
+    }
+
+    Node add(char c) {
+      Node kid = kid(c);
+      if (null == kid) {
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        kids = Arrays.copyOf(kids, kids.length + 1);
+        keys[keys.length - 1] = c;
+        kids[kids.length - 1] = kid = new Node();
+      }
+      return kid;
+    }
+  }
+
+  /**
+   * appends a route; earlier routes win
+   */
+  public Router<T> add(Pattern pattern, T target) {
+    int route = patterns.size();
+    patterns.add(pattern);
+    targets.add(target);
+    String regex = pattern.pattern();
+    // flags could make the literal match other text, e.g. CASE_INSENSITIVE
+    String prefix = 0 == pattern.flags() ? literalPrefix(regex) : "";
+    String body = regex.startsWith("^") ? regex.substring(1) : regex;
+    if (body.endsWith("$") && !body.endsWith("\\$"))
+      body = body.substring(0, body.length() - 1);
+    literals.add(0 == pattern.flags() && prefix.equals(body) && !prefix.isEmpty() ? prefix : null);
+
+    Node node = root;
+    for (int i = 0; i < prefix.length(); i++)
+      node = node.add(prefix.charAt(i));
+    node.routes = Arrays.copyOf(node.routes, node.routes.length + 1);
+    node.routes[node.routes.length - 1] = route;
+    return this;
+  }
+
+  public Router<T> add(String regex, T target) {
+    return add(Pattern.compile(regex), target);
+  }
+
+  /**
+   * @return the first route matching the whole path, or -1
+   */
+  public int route(CharSequence path) {
+    int best = Integer.MAX_VALUE;
+    Node node = root;
+    for (int depth = 0; null != node; depth++) {
+      for (int route : node.routes) {
+        if (route >= best)
+          break;
+        if (matches(route, path)) {
+          best = route;
+          break;
+        }
+      }
+      node = depth < path.length() ? node.kid(path.charAt(depth)) : null;
+    }
+    return Integer.MAX_VALUE == best ? -1 : best;
+  }
+
+  boolean matches(int route, CharSequence path) {
+    String literal = literals.get(route);
+    if (null != literal)
+      return literal.contentEquals(path);
+    return matcher(route).reset(path).matches();
+  }
+
+  /**
+   * this thread's matcher for a route, left holding the groups of the last {@link #route} that chose it
+   */
+  public Matcher matcher(int route) {
+    Matcher[] m = matchers.get();
+    if (null == m || m.length < patterns.size()) {
+      m = null == m ? new Matcher[patterns.size()] : Arrays.copyOf(m, patterns.size());
+      matchers.set(m);
+    }
+    Matcher matcher = m[route];
+    if (null == matcher)
+      m[route] = matcher = patterns.get(route).matcher("");
+    return matcher;
+  }
+
+  public T target(int route) {
+    return targets.get(route);
+  }
+
+  public Pattern pattern(int route) {
+    return patterns.get(route);
+  }
+
+  public int size() {
+    return patterns.size();
+  }
+
+  /**
+   * the literal text every match must start with: everything before the first metacharacter, minus a char a
+   * quantifier makes optional, and nothing at all when the regex has a top-level alternation.
+   */
+  static String literalPrefix(String regex) {
+    int depth = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if ('\\' == c)
+        i++;
+      else if ('(' == c || '[' == c)
+        depth++;
+      else if (')' == c || ']' == c)
+        depth--;
+      else if ('|' == c && 0 == depth)
+        return "";
+    }
+    int start = regex.startsWith("^") ? 1 : 0;
+    StringBuilder sb = new StringBuilder();
+    for (int i = start; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if ("\\.[]{}()*+?^$|".indexOf(c) >= 0) {
+        if (0 < sb.length() && "*?{".indexOf(c) >= 0)
+          sb.setLength(sb.length() - 1);
+        break;
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "Router" + patterns;
+  }
+}
@@ -0,0 +1,336 @@
+package rxf.web.inf;
+
+import one.xio.MimeType;
+import rxf.core.Config;
+import rxf.shared.CompressionTypes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * static content engine behind {@link ContentRootImpl}: a bounded LRU of resolved files holding the stat results,
+ * an ETag, the compressed siblings and a lazily opened {@link FileChannel} shared by every request for that file.
+ * <p/>
+ * entries are dropped when a WatchService (the same mechanism rxf-rsync's FileWatcher uses) reports a change in their
+ * directory, so the per-request getCanonicalPath/isDirectory/lastModified calls go away without serving stale files.
+ * misses are not cached.
+ * <p/>
+ * system properties: RXF_STATIC_CACHE_SIZE entries, RXF_SENDFILE_THRESHOLD bytes above which bodies go out by
+ * {@link FileChannel#transferTo}, RXF_STATIC_WATCH=false to trust the cache forever.
+ */
+public class StaticContent {
+  public static final int STATIC_CACHE_SIZE = Integer.parseInt(Config.get("RXF_STATIC_CACHE_SIZE",
+      "1024"));
+  public static final long SENDFILE_THRESHOLD = Long.parseLong(Config.get(
+      "RXF_SENDFILE_THRESHOLD", String.valueOf(64 << 10)));
+  public static final boolean STATIC_WATCH = Boolean.parseBoolean(Config.get("RXF_STATIC_WATCH",
+      "true"));
+  private static final boolean DEBUG_SENDJSON = false;
+
+  private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      boolean b = size() > STATIC_CACHE_SIZE;
+      if (b)
+        eldest.getValue().retire();
+      return b;
+    }
+  };
+  private static final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
+  private static volatile WatchService watcher;
+
+  public static final AtomicLong hits = new AtomicLong();
+  public static final AtomicLong misses = new AtomicLong();
+  public static final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * @param fname scrubbed request path under the content root
+   * @return the file, or index.html for a directory, null when there's nothing readable there
+   */
+  public static Entry lookup(String fname) throws IOException {
+    synchronized (cache) {
+      Entry entry = cache.get(fname);
+      if (null != entry) {
+        hits.incrementAndGet();
+        return entry;
+      }
+    }
+    misses.incrementAndGet();
+    Path path = Paths.get(fname);
+    if (Files.isDirectory(path))
+      path = path.resolve("index.html");
+    Entry entry;
+    try {
+      entry = Entry.stat(path.toRealPath(), true);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (null == entry)
+      return null;
+    watch(entry.file.getParent());
+    synchronized (cache) {
+      Entry prev = cache.get(fname);
+      if (null != prev) {
+        entry.retire();
+        return prev;
+      }
+      cache.put(fname, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * drops every entry living in dir whose file, or a compressed sibling of it, is named by child; a null child drops
+   * the whole directory.
+   */
+  public static void invalidate(Path dir, Path child) {
+    String name = null == child ? null : child.getFileName().toString();
+    synchronized (cache) {
+      for (Iterator<Entry> i = cache.values().iterator(); i.hasNext();) {
+        Entry entry = i.next();
+        if (entry.file.getParent().equals(dir)
+            && (null == name || name.startsWith(entry.file.getFileName().toString()))) {
+          i.remove();
+          entry.retire();
+          invalidations.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      for (Entry entry : cache.values())
+        entry.retire();
+      cache.clear();
+    }
+  }
+
+  public static int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  static void watch(Path dir) {
+    if (!STATIC_WATCH || watched.containsKey(dir))
+      return;
+    try {
+      WatchService w = watcher();
+      watched.putIfAbsent(dir, dir.register(w, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  static synchronized WatchService watcher() throws IOException {
+    if (null == watcher) {
+      watcher = FileSystems.getDefault().newWatchService();
+      Thread thread = new Thread(StaticContent::processEvents, "rxf-static-watch");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return watcher;
+  }
+
+  static void processEvents() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watcher.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      Path dir = (Path) key.watchable();
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW) {
+          clear();
+          continue;
+        }
+        Path child = (Path) event.context();
+        if (DEBUG_SENDJSON)
+          System.err.println("static " + event.kind().name() + ": " + dir.resolve(child));
+        invalidate(dir, child);
+      }
+      if (!key.reset()) {
+        watched.remove(dir);
+        invalidate(dir, null);
+      }
+    }
+  }
+
+  /**
+   * a resolved file. the channel is shared, opened on first use and closed once the entry is retired and the last
+   * sender lets go of it.
+   */
+  public static class Entry {
+    public final Path file;
+    public final long size;
+    public final long lastModified;
+    /**
+     * quoted, derived from size and mtime the way most httpds do it; see {@link #etag(CompressionTypes)} for the
+     * compressed representations
+     */
+    public final String etag;
+    public final MimeType mimeType;
+    /**
+     * compressed siblings (foo.js.gz ...), in {@link CompressionTypes} order
+     */
+    public final Map<CompressionTypes, Entry> variants;
+    /**
+     * the cache's reference plus one per send in flight, guarded by this
+     */
+    private int refs = 1;
+    private volatile boolean retired;
+    private FileChannel channel;
+
+    Entry(Path file, BasicFileAttributes attrs, Map<CompressionTypes, Entry> variants) {
+      this.file = file;
+      size = attrs.size();
+      lastModified = attrs.lastModifiedTime().toMillis();
+      etag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+      String fname = file.getFileName().toString();
+      MimeType mt;
+      try {
+        mt = MimeType.valueOf(fname.substring(fname.lastIndexOf('.') + 1));
+      } catch (Throwable e) {
+        mt = MimeType.bin;
+      }
+      mimeType = mt;
+      this.variants = variants;
+    }
+
+    static Entry stat(Path file, boolean withVariants) throws IOException {
+      BasicFileAttributes attrs;
+      try {
+        attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException e) {
+        return null;
+      }
+      if (!attrs.isRegularFile() || !Files.isReadable(file))
+        return null;
+      Map<CompressionTypes, Entry> variants = new EnumMap<>(CompressionTypes.class);
+      if (withVariants)
+        for (CompressionTypes compType : CompressionTypes.values()) {
+          Entry variant =
+              stat(file.resolveSibling(file.getFileName() + "." + compType.suffix), false);
+          if (null != variant)
+            variants.put(compType, variant);
+        }
+      return new Entry(file, attrs, variants);
+    }
+
+    /**
+     * @param accepts the Accept-Encoding header, may be null
+     * @return the first compressed sibling the client accepts, else null
+     */
+    public Map.Entry<CompressionTypes, Entry> variant(String accepts) {
+      if (null != accepts)
+        for (Map.Entry<CompressionTypes, Entry> e : variants.entrySet())
+          if (accepts.contains(e.getKey().name()))
+            return e;
+      return null;
+    }
+
+    /**
+     * each coding is its own representation, so it gets its own strong validator
+     *
+     * @param coding the Content-Encoding sent, null for identity
+     */
+    public String etag(CompressionTypes coding) {
+      return null == coding ? etag : etag.substring(0, etag.length() - 1) + '-' + coding.name()
+          + '"';
+    }
+
+    /**
+     * pins the channel for one send, pair with {@link #release}
+     */
+    public synchronized FileChannel acquire() throws IOException {
+      if (0 == refs)
+        throw new IOException("retired: " + file);
+      if (null == channel || !channel.isOpen())
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+      refs++;
+      return channel;
+    }
+
+    /**
+     * under the same monitor as acquire, so a send can't pin a channel the last release is closing
+     */
+    public synchronized void release() {
+      assert 0 < refs : file;
+      if (0 == --refs)
+        close();
+    }
+
+    /**
+     * the cache's own reference; the channel closes now or when the last in-flight send releases
+     */
+    void retire() {
+      retired = true;
+      for (Entry variant : variants.values())
+        variant.retire();
+      release();
+    }
+
+    /**
+     * @return true once evicted or invalidated, holders of the entry should look the file up again
+     */
+    public boolean retired() {
+      return retired;
+    }
+
+    /**
+     * small files ride along with the headers in one write, positional so the shared channel is left alone
+     */
+    public ByteBuffer read() throws IOException {
+      FileChannel fc = acquire();
+      try {
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining() && -1 != fc.read(buf, buf.position())) {
+        }
+        return (ByteBuffer) buf.flip();
+      } finally {
+        release();
+      }
+    }
+
+    synchronized void close() {
+      if (null != channel)
+        try {
+          channel.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      channel = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+      List<CompressionTypes> v = new ArrayList<>(variants.keySet());
+      return file + "{size=" + size + ", etag=" + etag + ", variants=" + v + ", refs=" + refs + '}';
+    }
+  }
+}
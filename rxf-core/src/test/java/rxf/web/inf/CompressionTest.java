@@ -0,0 +1,100 @@
+package rxf.web.inf;
+
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+import rxf.web.inf.Compression.Coding;
+import rxf.web.inf.Compression.Encoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static one.xio.HttpHeaders.Content$2dEncoding;
+import static one.xio.HttpHeaders.Vary;
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+  static final String TEXT;
+  static {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++)
+      sb.append("{\"n\":").append(i).append(",\"s\":\"relax\"},");
+    TEXT = sb.toString();
+  }
+
+  @Compress(min = 1 << 20)
+  static class Big {
+  }
+
+  @Compress(false)
+  static class Off {
+  }
+
+  @Test
+  public void testNegotiate() {
+    assertEquals(Coding.gzip, Compression.negotiate("deflate, gzip;q=0.5"));
+    assertEquals(Coding.deflate, Compression.negotiate("gzip;q=0, deflate"));
+    assertNull(Compression.negotiate("gzip;q=0.0, identity"));
+    assertNull(Compression.negotiate(null));
+  }
+
+  @Test
+  public void testGzipWholeBody() throws Exception {
+    HttpResponse res = new Rfc822HeaderState().$res();
+    ByteBuffer body = StandardCharsets.UTF_8.encode(TEXT);
+    ByteBuffer out =
+        Compression.encode(getClass(), "gzip, deflate", res, "application/json", body);
+    assertNotSame(body, out);
+    assertTrue(out.remaining() < body.remaining());
+    assertEquals("gzip", res.headerString(Content$2dEncoding));
+    assertEquals("Accept-Encoding", res.headerString(Vary));
+    assertEquals(TEXT, inflate(new GZIPInputStream(new ByteArrayInputStream(bytes(out)))));
+  }
+
+  @Test
+  public void testDeflateStreamed() throws Exception {
+    Encoder encoder = new Encoder(Coding.deflate, 6);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    byte[] all = TEXT.getBytes(StandardCharsets.UTF_8);
+    int half = all.length / 2;
+    wire.write(bytes(encoder.write(ByteBuffer.wrap(all, 0, half), false)));
+    wire.write(bytes(encoder.write(ByteBuffer.wrap(all, half, all.length - half), true)));
+    assertEquals(TEXT, inflate(new InflaterInputStream(new ByteArrayInputStream(wire
+        .toByteArray()))));
+  }
+
+  @Test
+  public void testSkipped() {
+    ByteBuffer small = StandardCharsets.UTF_8.encode("{\"ok\":true}");
+    assertSame(small, Compression.encode(getClass(), "gzip", new Rfc822HeaderState().$res(),
+        "application/json", small));
+    ByteBuffer body = StandardCharsets.UTF_8.encode(TEXT);
+    assertSame(body, Compression.encode(getClass(), "gzip", new Rfc822HeaderState().$res(),
+        "image/png", body));
+    assertSame(body, Compression.encode(Big.class, "gzip", new Rfc822HeaderState().$res(),
+        "text/plain", body));
+    assertSame(body, Compression.encode(Off.class, "gzip", new Rfc822HeaderState().$res(),
+        "text/plain", body));
+    assertSame(body, Compression.encode(getClass(), "identity", new Rfc822HeaderState().$res(),
+        "text/plain", body));
+  }
+
+  static byte[] bytes(ByteBuffer buf) {
+    byte[] b = new byte[buf.remaining()];
+    buf.duplicate().get(b);
+    return b;
+  }
+
+  static String inflate(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] b = new byte[4096];
+    for (int n; -1 != (n = in.read(b));)
+      out.write(b, 0, n);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,63 @@
+package rxf.web.inf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.web.inf.HotAssetCache.Asset;
+import rxf.web.inf.HotAssetCache.Encoding;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HotAssetCacheTest {
+  Path root;
+  String fname;
+
+  @Before
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("rxf-hot").toRealPath();
+    Path file = root.resolve("0123456789ABCDEF0123456789ABCDEF.cache.html");
+    char[] chars = new char[4096];
+    Arrays.fill(chars, 'x');
+    Files.write(file, new String(chars).getBytes(StandardCharsets.UTF_8));
+    fname = file.toString();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    HotAssetCache.clear();
+    StaticContent.clear();
+    Files.delete(Paths.get(fname));
+    Files.delete(root);
+  }
+
+  @Test
+  public void testVariantsAndHeaders() throws Exception {
+    Asset asset = HotAssetCache.get(fname);
+    assertSame(asset, HotAssetCache.get(fname));
+    assertEquals(4096, asset.bodies[Encoding.identity.ordinal()].limit());
+    assertTrue(asset.bodies[Encoding.gzip.ordinal()].limit() < 4096);
+    assertTrue(asset.bodies[Encoding.deflate.ordinal()].limit() < 4096);
+    assertTrue(asset.bodies[0].isDirect() && asset.bodies[0].isReadOnly());
+
+    assertSame(Encoding.gzip, Encoding.choose("deflate, gzip", asset.bodies));
+    assertSame(Encoding.deflate, Encoding.choose("deflate", asset.bodies));
+    assertSame(Encoding.identity, Encoding.choose(null, asset.bodies));
+
+    String headers =
+        StandardCharsets.UTF_8.decode(asset.headers[Encoding.gzip.ordinal()][1].duplicate())
+            .toString();
+    assertTrue(headers, headers.contains(asset.etag(Encoding.gzip)));
+    assertNotEquals(asset.etag, asset.etag(Encoding.gzip));
+    assertNotEquals(asset.etag(Encoding.deflate), asset.etag(Encoding.gzip));
+    assertFalse(headers, headers.contains("Expires"));
+    assertTrue(headers, headers.contains("gzip"));
+    assertTrue(headers, headers.contains("close"));
+    assertTrue(asset.bytes > 4096);
+  }
+}
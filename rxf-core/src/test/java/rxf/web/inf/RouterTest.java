@@ -0,0 +1,47 @@
+package rxf.web.inf;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.assertEquals;
+
+public class RouterTest {
+
+  @Test
+  public void testLiteralPrefix() {
+    assertEquals("/gwtRequest", Router.literalPrefix("^/gwtRequest"));
+    assertEquals("/i", Router.literalPrefix("^/i(/.*)$"));
+    assertEquals("", Router.literalPrefix(".*"));
+    assertEquals("/api", Router.literalPrefix("/apix?"));
+    assertEquals("", Router.literalPrefix("/a|/b"));
+    assertEquals("/x", Router.literalPrefix("/x(a|b)"));
+  }
+
+  @Test
+  public void testFirstMatchWins() {
+    Router<String> router =
+        new Router<String>().add(ContentRootCacheImpl.CACHE_PATTERN, "cache").add(
+            "^/gwtRequest", "rf").add("^/i(/.*)$", "proxy").add("^/i/special$", "shadowed").add(
+            ".*", "root");
+    assertEquals("rf", router.target(router.route("/gwtRequest")));
+    assertEquals("root", router.target(router.route("/gwtRequest?x")));
+    assertEquals("proxy", router.target(router.route("/i/special")));
+    assertEquals("cache", router.target(router.route(
+        "/i/0123456789ABCDEF0123456789ABCDEF.cache.html")));
+    assertEquals("root", router.target(router.route("/index.html")));
+    assertEquals("root", router.target(router.route("")));
+
+    int route = router.route("/i/foo");
+    Matcher matcher = router.matcher(route);
+    assertEquals("/foo", matcher.group(1));
+  }
+
+  @Test
+  public void testNoMatch() {
+    Router<String> router = new Router<String>().add("^/a$", "a").add("/b.*", "b");
+    assertEquals(-1, router.route("/c"));
+    assertEquals(-1, router.route("/ab"));
+    assertEquals(1, router.route("/bcd"));
+  }
+}
@@ -0,0 +1,187 @@
+package rxf.web.inf;
+
+import one.xio.MimeType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+import rxf.core.Tx;
+import rxf.shared.CompressionTypes;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaticContentTest {
+  Path root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("rxf-static").toRealPath();
+    Files.write(root.resolve("index.html"), "<html/>".getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("app.js"), "var x;".getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("app.js.gz"), new byte[] {31, -117});
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    StaticContent.clear();
+    for (String s : new String[] {"index.html", "app.js", "app.js.gz", "big.bin"})
+      Files.deleteIfExists(root.resolve(s));
+    Files.delete(root);
+  }
+
+  @Test
+  public void testLookupIsCached() throws Exception {
+    StaticContent.Entry entry = StaticContent.lookup(root.toString());
+    assertEquals(root.resolve("index.html"), entry.file);
+    assertSame(entry, StaticContent.lookup(root.toString()));
+    assertNull(StaticContent.lookup(root.resolve("missing.js").toString()));
+    assertEquals("<html/>", StandardCharsets.UTF_8.decode(entry.read()).toString());
+  }
+
+  @Test
+  public void testVariant() throws Exception {
+    StaticContent.Entry entry = StaticContent.lookup(root.resolve("app.js").toString());
+    assertNull(entry.variant("identity"));
+    assertEquals(CompressionTypes.gzip, entry.variant("gzip, deflate").getKey());
+    assertEquals(2, entry.variant("gzip").getValue().size);
+  }
+
+  @Test
+  public void testModifyInvalidates() throws Exception {
+    String fname = root.resolve("app.js").toString();
+    StaticContent.Entry entry = StaticContent.lookup(fname);
+    Files.write(root.resolve("app.js"), "var xyz;".getBytes(StandardCharsets.UTF_8));
+    StaticContent.Entry fresh = entry;
+    for (int i = 0; i < 100 && fresh == entry; i++) {
+      Thread.sleep(100);
+      fresh = StaticContent.lookup(fname);
+    }
+    assertNotSame(entry, fresh);
+    assertEquals(8, fresh.size);
+    assertNotEquals(entry.etag, fresh.etag);
+  }
+
+  @Test
+  public void testRetiredClosesAfterLastSend() throws Exception {
+    StaticContent.Entry entry = StaticContent.lookup(root.resolve("app.js").toString());
+    FileChannel fc = entry.acquire();
+    StaticContent.clear();
+    assertTrue(entry.retired());
+    assertTrue(fc.isOpen());
+    entry.release();
+    assertFalse(fc.isOpen());
+    try {
+      entry.acquire();
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testEtagPerCoding() throws Exception {
+    StaticContent.Entry entry = StaticContent.lookup(root.resolve("app.js").toString());
+    assertEquals(entry.etag, entry.etag(null));
+    String gzip = entry.etag(CompressionTypes.gzip);
+    assertTrue(gzip, gzip.startsWith("\"") && gzip.endsWith("-gzip\""));
+    assertFalse(gzip.contains(entry.etag));
+  }
+
+  @Test
+  public void testTransferReleasedWhenKeyCancelled() throws Exception {
+    StaticContent.Entry entry = StaticContent.lookup(root.resolve("app.js").toString());
+    FileChannel fc = entry.acquire();
+    Pipe pipe = Pipe.open();
+    try (Selector selector = Selector.open()) {
+      pipe.sink().configureBlocking(false);
+      SelectionKey key = pipe.sink().register(selector, SelectionKey.OP_WRITE);
+      ContentRootImpl.Transfer transfer = new ContentRootImpl.Transfer(key, entry, fc, null);
+      ContentRootImpl.Transfer.sweep();
+      assertTrue(ContentRootImpl.Transfer.inflight.contains(transfer));
+      // the client went away while the transfer waited for OP_WRITE
+      pipe.sink().close();
+      ContentRootImpl.Transfer.sweep();
+      assertFalse(ContentRootImpl.Transfer.inflight.contains(transfer));
+      StaticContent.clear();
+      assertFalse(fc.isOpen());
+      // the last write or a failed one after the sweep doesn't release twice
+      transfer.release();
+    } finally {
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void testTransferClosesWhenTruncated() throws Exception {
+    Path big = root.resolve("big.bin");
+    Files.write(big, new byte[100 << 10]);
+    StaticContent.Entry entry = StaticContent.lookup(big.toString());
+    FileChannel fc = entry.acquire();
+    try (ServerSocketChannel server = ServerSocketChannel.open().bind(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel accepted = server.accept();
+        Selector selector = Selector.open()) {
+      accepted.configureBlocking(false);
+      SelectionKey key = accepted.register(selector, SelectionKey.OP_WRITE);
+      ContentRootImpl.Transfer transfer = new ContentRootImpl.Transfer(key, entry, fc, null);
+      try (FileChannel truncate = FileChannel.open(big, StandardOpenOption.WRITE)) {
+        truncate.truncate(10);
+      }
+      // the end of the file comes long before the Content-Length, the connection can't be finished
+      long deadline = System.currentTimeMillis() + 10000;
+      while (accepted.isOpen()) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        transfer.apply(key);
+      }
+      assertEquals(10, transfer.position);
+      assertFalse(ContentRootImpl.Transfer.inflight.contains(transfer));
+      StaticContent.clear();
+      assertFalse(fc.isOpen());
+    }
+  }
+
+  @Test
+  public void testRetiredBeforeSendLookedUpAgain() throws Exception {
+    Tx tx = new Tx().payload(Tx.NIL);
+    tx.hdr().read(ByteBuffer.wrap("GET /app.js HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8)));
+    final List<StaticContent.Entry> sent = new ArrayList<>();
+    ContentRootImpl content = new ContentRootImpl(tx) {
+      public String getRootPath() {
+        return root.toString();
+      }
+
+      void send(SelectionKey key, StaticContent.Entry body, MimeType mimeType, Date fdate,
+          HttpResponse res, String ceString) throws IOException {
+        sent.add(body);
+        if (1 == sent.size()) {
+          // the watcher gets there between the lookup and the send
+          StaticContent.clear();
+          body.read();
+        }
+      }
+    };
+    content.onWrite(null);
+    assertEquals(2, sent.size());
+    assertTrue(sent.get(0).retired());
+    assertFalse(sent.get(1).retired());
+    assertEquals(sent.get(0).file, sent.get(1).file);
+  }
+}
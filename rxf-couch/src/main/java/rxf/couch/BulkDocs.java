@@ -0,0 +1,194 @@
+package rxf.couch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import rxf.core.Config;
+import rxf.core.Tx;
+import rxf.couch.driver.CouchMetaDriver;
+import rxf.couch.gen.CouchDriver.JsonSend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * coalesces the DocPersist calls for one db into _bulk_docs requests.
+ * <p/>
+ * a new-document persist (no docId in the builder, the POST /db form) against a db that opted in joins that db's open
+ * batch instead of going out on its own socket. the batch is sent after RXF_BULK_WINDOW_MS or as soon as it holds
+ * RXF_BULK_MAX docs, whichever is first, and each caller's Tx gets its own row of the response as payload -- the same
+ * {"ok":true,"id":..,"rev":..} a single POST answers, or {"id":..,"error":"conflict","reason":..} for a doc couch
+ * refused, so a conflict is reported to its caller alone. only a failure of the whole request fails every caller.
+ * <p/>
+ * dbs opt in through {@link CouchService.Batched}, {@link #batch(String)} or the comma separated RXF_BULK_DBS.
+ */
+public class BulkDocs {
+  public static final long BULK_WINDOW_MS = Long.parseLong(Config.get("RXF_BULK_WINDOW_MS", "2"));
+  public static final int BULK_MAX = Integer.parseInt(Config.get("RXF_BULK_MAX", "500"));
+
+  private static final Set<String> dbs = ConcurrentHashMap.newKeySet();
+  private static final Map<String, Batch> open = new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService FLUSH = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-couch-bulk");
+        t.setDaemon(true);
+        return t;
+      });
+
+  public static final AtomicLong batches = new AtomicLong();
+  public static final AtomicLong docs = new AtomicLong();
+  /**
+   * rows couch answered with an error
+   */
+  public static final AtomicLong errors = new AtomicLong();
+
+  static {
+    for (String db : Config.get("RXF_BULK_DBS", "").split(","))
+      if (!db.trim().isEmpty())
+        dbs.add(db.trim());
+  }
+
+  public static void batch(String db) {
+    dbs.add(db);
+  }
+
+  public static boolean batched(String db) {
+    return null != db && dbs.contains(db);
+  }
+
+  /**
+   * queues one doc
+   *
+   * @param json the document, sent as is
+   * @return completes with tx, its payload the doc's row of the bulk response
+   */
+  public static CompletableFuture<Tx> add(String db, String json, Tx tx) {
+    CompletableFuture<Tx> done = new CompletableFuture<>();
+    Batch full = null;
+    synchronized (open) {
+      Batch batch = open.get(db);
+      if (null == batch) {
+        open.put(db, batch = new Batch(db));
+        final Batch scheduled = batch;
+        FLUSH.schedule(() -> flush(scheduled), BULK_WINDOW_MS, TimeUnit.MILLISECONDS);
+      }
+      batch.add(json, tx, done);
+      if (batch.size() >= BULK_MAX) {
+        open.remove(db);
+        full = batch;
+      }
+    }
+    if (null != full) {
+      // sent from the flush thread, building a JsonSend moves the caller's threadlocal DbKeysBuilder
+      final Batch send = full;
+      FLUSH.execute(send::send);
+    }
+    return done;
+  }
+
+  static void flush(Batch batch) {
+    synchronized (open) {
+      if (!open.remove(batch.db, batch))
+        return;
+    }
+    batch.send();
+  }
+
+  public static String stats() {
+    return "BulkDocs{batches=" + batches + ", docs=" + docs + ", errors=" + errors + '}';
+  }
+
+  static class Batch {
+    final String db;
+    final List<String> json = new ArrayList<>();
+    final List<Tx> txs = new ArrayList<>();
+    final List<CompletableFuture<Tx>> futures = new ArrayList<>();
+
+    Batch(String db) {
+      this.db = db;
+    }
+
+    void add(String doc, Tx tx, CompletableFuture<Tx> done) {
+      json.add(doc);
+      txs.add(tx);
+      futures.add(done);
+    }
+
+    int size() {
+      return json.size();
+    }
+
+    /**
+     * the docs are spliced in as the callers wrote them, nothing is parsed or reserialized on the way out
+     */
+    String body() {
+      int length = 11;
+      for (String doc : json)
+        length += doc.length() + 1;
+      StringBuilder body = new StringBuilder(length).append("{\"docs\":[");
+      for (int i = 0; i < json.size(); i++)
+        (0 == i ? body : body.append(',')).append(json.get(i));
+      return body.append("]}").toString();
+    }
+
+    void send() {
+      batches.incrementAndGet();
+      docs.addAndGet(size());
+      try {
+        new JsonSend().opaque(db + "/_bulk_docs").validjson(body()).to().fire().future()
+            .whenComplete((payload, e) -> {
+              if (null != e)
+                fail(e);
+              else
+                rows(payload);
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+    }
+
+    void rows(ByteBuffer payload) {
+      JsonArray rows;
+      try {
+        String s = StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        rows = CouchMetaDriver.gson().fromJson(s, JsonArray.class);
+      } catch (RuntimeException e) {
+        fail(e);
+        return;
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        if (null == rows || i >= rows.size()) {
+          futures.get(i).completeExceptionally(new IOException("couch: no _bulk_docs row " + i));
+          continue;
+        }
+        JsonElement row = rows.get(i);
+        if (row.isJsonObject()) {
+          JsonObject o = row.getAsJsonObject();
+          if (o.has("error"))
+            errors.incrementAndGet();
+          if (o.has("id"))
+            DocCache.invalidate(db, o.get("id").getAsString());
+        }
+        Tx tx = txs.get(i);
+        tx.payload(StandardCharsets.UTF_8.encode(row.toString()));
+        futures.get(i).complete(tx);
+      }
+    }
+
+    void fail(Throwable e) {
+      for (CompletableFuture<Tx> future : futures)
+        future.completeExceptionally(e);
+    }
+  }
+}
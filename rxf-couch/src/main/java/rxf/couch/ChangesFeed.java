@@ -0,0 +1,419 @@
+package rxf.couch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import one.xio.AsioVisitor.Helper;
+import one.xio.AsioVisitor.Impl;
+import one.xio.HttpStatus;
+import one.xio.MimeType;
+import rxf.core.BufferPool;
+import rxf.core.ChunkedDecoder;
+import rxf.core.Config;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+import rxf.couch.driver.CouchMetaDriver;
+import rxf.rpc.RpcHelper;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.channels.SelectionKey.*;
+import static one.xio.AsyncSingletonServer.SingleThreadSingletonServer.enqueue;
+import static one.xio.HttpHeaders.*;
+import static one.xio.HttpMethod.GET;
+import static rxf.couch.CouchConnectionFactory.createCouchConnection;
+import static rxf.couch.CouchConnectionFactory.recycleChannel;
+
+/**
+ * follows a db's _changes feed (feed=continuous) on the reactor, one socket per db however many listeners subscribe.
+ * <p/>
+ * every change drops the doc from {@link DocCache}, and while the feed is up the cache trusts that db's documents
+ * without revalidating them. listeners then get the change on {@link RpcHelper#EXECUTOR_SERVICE}, in feed order, one
+ * at a time per feed. the last seq seen is kept and a dropped or silent feed reconnects with since= after
+ * RXF_CHANGES_RETRY_MS, so nothing is missed across reconnects.
+ * <p/>
+ * system properties: RXF_CHANGES_HEARTBEAT ms between couch's keepalive newlines, a feed quiet for twice that is
+ * presumed dead; RXF_CHANGES_RETRY_MS reconnect delay; RXF_CHANGES_SINCE where a new feed starts, "now" by default.
+ */
+public class ChangesFeed {
+  public static final long CHANGES_HEARTBEAT = Long.parseLong(Config.get("RXF_CHANGES_HEARTBEAT",
+      "30000"));
+  public static final long CHANGES_RETRY_MS = Long.parseLong(Config.get("RXF_CHANGES_RETRY_MS",
+      "1000"));
+  public static final String CHANGES_SINCE = Config.get("RXF_CHANGES_SINCE", "now");
+  private static final boolean DEBUG_SENDJSON = false;
+
+  private static final Map<String, ChangesFeed> feeds = new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService TIMERS = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-couch-changes");
+        t.setDaemon(true);
+        return t;
+      });
+
+  public interface Listener {
+    void changed(Change change) throws Exception;
+  }
+
+  /**
+   * one line of the feed
+   */
+  public static class Change {
+    public final String db;
+    public final String seq;
+    public final String id;
+    /**
+     * the winning rev
+     */
+    public final String rev;
+    public final boolean deleted;
+
+    public Change(String db, String seq, String id, String rev, boolean deleted) {
+      this.db = db;
+      this.seq = seq;
+      this.id = id;
+      this.rev = rev;
+      this.deleted = deleted;
+    }
+
+    public String toString() {
+      return "Change{db=" + db + ", seq=" + seq + ", id=" + id + ", rev=" + rev + ", deleted="
+          + deleted + '}';
+    }
+  }
+
+  public final String db;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private volatile String since = CHANGES_SINCE;
+  private volatile boolean closed;
+  private volatile boolean live;
+  private volatile long lastRead;
+  private volatile SocketChannel channel;
+  private ScheduledFuture<?> watchdog;
+
+  public final AtomicLong changes = new AtomicLong();
+  public final AtomicLong reconnects = new AtomicLong();
+
+  ChangesFeed(String db) {
+    this.db = db;
+  }
+
+  /**
+   * starts following db unless something already does
+   *
+   * @return the db's feed
+   */
+  public static ChangesFeed subscribe(String db, Listener listener) {
+    ChangesFeed feed;
+    boolean start = false;
+    synchronized (feeds) {
+      feed = feeds.get(db);
+      if (null == feed) {
+        feeds.put(db, feed = new ChangesFeed(db));
+        start = true;
+      }
+      if (null != listener)
+        feed.listeners.add(listener);
+    }
+    if (start)
+      feed.start();
+    return feed;
+  }
+
+  /**
+   * the feed closes with its last listener
+   */
+  public static void unsubscribe(String db, Listener listener) {
+    synchronized (feeds) {
+      ChangesFeed feed = feeds.get(db);
+      if (null != feed && feed.listeners.remove(listener) && feed.listeners.isEmpty())
+        feed.close();
+    }
+  }
+
+  public static ChangesFeed get(String db) {
+    return feeds.get(db);
+  }
+
+  /**
+   * @return the last seq delivered, where a reconnect resumes
+   */
+  public String since() {
+    return since;
+  }
+
+  /**
+   * connected and past the response headers
+   */
+  public boolean live() {
+    return live;
+  }
+
+  public void close() {
+    closed = true;
+    synchronized (feeds) {
+      feeds.remove(db, this);
+    }
+    if (null != watchdog)
+      watchdog.cancel(false);
+    hangup();
+  }
+
+  void start() {
+    long heartbeat = Math.max(1000, CHANGES_HEARTBEAT);
+    watchdog = TIMERS.scheduleWithFixedDelay(() -> {
+      if (live && System.currentTimeMillis() - lastRead > 2 * heartbeat) {
+        if (DEBUG_SENDJSON)
+          System.err.println("??? _changes " + db + " went quiet");
+        retry();
+      }
+    }, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+    TIMERS.execute(this::connect);
+  }
+
+  /**
+   * leases the socket, the reading is the reactor's
+   */
+  void connect() {
+    if (closed)
+      return;
+    createCouchConnection().whenComplete((channel, e) -> {
+      if (null != e) {
+        e.printStackTrace();
+        retry();
+        return;
+      }
+      if (closed) {
+        recycleChannel(channel);
+        return;
+      }
+      this.channel = channel;
+      try {
+        enqueue(channel, OP_CONNECT | OP_WRITE, new Reader(channel));
+      } catch (IOException x) {
+        x.printStackTrace();
+        retry();
+      }
+    });
+  }
+
+  /**
+   * drops the socket and schedules the reconnect
+   */
+  void retry() {
+    hangup();
+    if (!closed) {
+      reconnects.incrementAndGet();
+      TIMERS.schedule(this::connect, CHANGES_RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void hangup() {
+    live = false;
+    DocCache.follow(db, false);
+    SocketChannel channel = this.channel;
+    this.channel = null;
+    if (null != channel) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      // closed first, so the pool drops it and returns the permit
+      recycleChannel(channel);
+    }
+  }
+
+  String path() {
+    try {
+      return "/" + db + "/_changes?feed=continuous&heartbeat=" + CHANGES_HEARTBEAT + "&since="
+          + URLEncoder.encode(since, "UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * one feed line, a change or the closing last_seq
+   */
+  void line(String line) {
+    JsonObject o = CouchMetaDriver.gson().fromJson(line, JsonObject.class);
+    JsonElement lastSeq = o.get("last_seq");
+    if (null != lastSeq) {
+      since = lastSeq.getAsString();
+      return;
+    }
+    JsonElement id = o.get("id"), seq = o.get("seq");
+    if (null == id || null == seq)
+      return;
+    JsonArray revs = o.getAsJsonArray("changes");
+    String rev =
+        null == revs || 0 == revs.size() ? null : revs.get(0).getAsJsonObject().get("rev")
+            .getAsString();
+    JsonElement deleted = o.get("deleted");
+    Change change =
+        new Change(db, seq.getAsString(), id.getAsString(), rev, null != deleted
+            && deleted.getAsBoolean());
+    DocCache.invalidate(db, change.id);
+    since = change.seq;
+    changes.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      pending.add(change);
+      drain();
+    }
+  }
+
+  /**
+   * serializes the fan-out: at most one pool task per feed, which runs until the queue is empty
+   */
+  void drain() {
+    if (!draining.compareAndSet(false, true))
+      return;
+    RpcHelper.EXECUTOR_SERVICE.submit(() -> {
+      try {
+        for (Change change; null != (change = pending.poll());)
+          for (Listener listener : listeners)
+            try {
+              listener.changed(change);
+            } catch (Exception e) {
+              e.printStackTrace();
+            }
+      } finally {
+        draining.set(false);
+      }
+      if (!pending.isEmpty())
+        drain();
+    });
+  }
+
+  /**
+   * the reactor side of one connection: request, headers, then the chunked body split into lines
+   */
+  class Reader extends Impl implements ChunkedDecoder.Sink {
+    final SocketChannel channel;
+    ByteBuffer header;
+    ByteBuffer cursor;
+    ChunkedDecoder decoder;
+    /**
+     * the current line, grown as needed
+     */
+    ByteBuffer line = ByteBuffer.allocate(512);
+
+    Reader(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    public void onWrite(SelectionKey key) throws Exception {
+      ByteBuffer request =
+          (ByteBuffer) new Rfc822HeaderState().$req().method(GET).path(path()).headerString(
+              Accept, MimeType.json.contentType).asByteBuffer();
+      channel.write(request);
+      assert !request.hasRemaining();
+      key.interestOps(OP_READ);
+    }
+
+    public void onRead(SelectionKey key) throws Exception {
+      if (ChangesFeed.this.channel != channel) {
+        key.cancel();
+        return;
+      }
+      if (null != cursor) {
+        int read = Helper.read(key, (ByteBuffer) cursor.clear());
+        if (-1 == read) {
+          end();
+          return;
+        }
+        lastRead = System.currentTimeMillis();
+        body((ByteBuffer) cursor.flip());
+        return;
+      }
+      header = null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining() ? header
+          : BufferPool.grow(header);
+      int read = Helper.read(key, header);
+      if (-1 == read) {
+        end();
+        return;
+      }
+      ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
+      HttpResponse response = new Rfc822HeaderState(Transfer$2dEncoding.getHeader()).$res();
+      if (!response.apply(flip))
+        return;
+      HttpStatus status = response.statusEnum();
+      if (HttpStatus.$200 != status) {
+        System.err.println("!!! _changes " + db + ": " + status);
+        end();
+        return;
+      }
+      if ("chunked".equals(response.headerString(Transfer$2dEncoding)))
+        decoder = new ChunkedDecoder(this);
+      live = true;
+      lastRead = System.currentTimeMillis();
+      DocCache.follow(db, true);
+      cursor = BufferPool.acquire(16 << 10);
+      body(flip);
+      BufferPool.release(header);
+      header = null;
+    }
+
+    void body(ByteBuffer in) throws Exception {
+      try {
+        if (null == decoder)
+          chunk(in);
+        else if (decoder.apply(in))
+          end();
+      } catch (IOException e) {
+        e.printStackTrace();
+        end();
+      }
+    }
+
+    public void chunk(ByteBuffer data) {
+      while (data.hasRemaining()) {
+        byte b = data.get();
+        if ('\n' != b) {
+          if (!line.hasRemaining())
+            line = ByteBuffer.allocate(line.capacity() << 1).put((ByteBuffer) line.flip());
+          line.put(b);
+        } else if (0 < line.position()) {
+          String s = StandardCharsets.UTF_8.decode((ByteBuffer) line.flip()).toString();
+          line.clear();
+          try {
+            line(s);
+          } catch (RuntimeException e) {
+            System.err.println("!!! _changes " + db + " unparsable: " + s);
+          }
+        }
+      }
+    }
+
+    /**
+     * the feed ended or broke, resume from {@link #since}
+     */
+    void end() {
+      BufferPool.release(cursor);
+      BufferPool.release(header);
+      cursor = header = null;
+      if (ChangesFeed.this.channel == channel)
+        retry();
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package rxf.couch;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import rxf.core.BufferPool;
+import rxf.core.Config;
+import rxf.couch.driver.CouchMetaDriver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the entity codecs {@link rxf.couch.apt.JsonCodecProcessor} generates, one class per entity named
+ * {@link #codecName(Class)}: a gson TypeAdapter that reads and writes the entity's fields by name with plain field
+ * access, no reflection.
+ * <p/>
+ * an entity's codec is picked up when it is registered, which CouchServiceFactory does for the entity of every
+ * service and CouchModuleBuilder.withEntity for its entities. registering also installs it in the driver's
+ * {@link CouchMetaDriver#builder()}, so every gson() user, views, DocsFetch and entities nested in other entities
+ * included, gets it too. an entity without a generated codec stays with reflective gson, and so does every entity
+ * when GSON_FIELDNAMINGPOLICY isn't IDENTITY, since the generated names are the field names.
+ */
+public class Codecs {
+  public static final String SUFFIX = "_JsonCodec";
+  private static final boolean IDENTITY = FieldNamingPolicy.IDENTITY.name().equals(
+      Config.get("GSON_FIELDNAMINGPOLICY", "IDENTITY"));
+  private static final boolean NULLS = "true".equals(Config.get("GSON_NULLS", "false"));
+  private static final boolean NANS = "true".equals(Config.get("GSON_NANS", "false"));
+  /**
+   * the pooled buffer size {@link #encode(Object)} fills, one chunk each when a body needs more than one
+   */
+  public static final int JSON_SEGMENT = Integer.parseInt(Config.get("RXF_JSON_SEGMENT", String
+      .valueOf(64 << 10)));
+
+  private static final Map<Class<?>, TypeAdapter<?>> codecs = new ConcurrentHashMap<>();
+
+  /**
+   * @return the generated codec class for type: its binary name, nesting '$' as '_', plus {@link #SUFFIX}
+   */
+  public static String codecName(Class<?> type) {
+    return type.getName().replace('$', '_') + SUFFIX;
+  }
+
+  /**
+   * loads type's generated codec if there is one
+   *
+   * @return true if type now has a codec
+   */
+  public static synchronized boolean register(Class<?> type) {
+    if (codecs.containsKey(type))
+      return true;
+    if (!IDENTITY)
+      return false;
+    TypeAdapter<?> codec;
+    try {
+      codec = (TypeAdapter<?>) Class.forName(codecName(type), true, type.getClassLoader())
+          .newInstance();
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      e.printStackTrace();
+      return false;
+    }
+    codecs.put(type, codec);
+    CouchMetaDriver.builder().registerTypeAdapter(type, codec);
+    CouchMetaDriver.gson(null);
+    return true;
+  }
+
+  /**
+   * @return the registered codec, null if type has none
+   */
+  public static <T> TypeAdapter<T> codec(Class<T> type) {
+    return (TypeAdapter<T>) codecs.get(type);
+  }
+
+  /**
+   * decodes UTF-8 json straight off a buffer, without a String in between, leaving its position alone
+   */
+  public static <T> T read(ByteBuffer json, Type type) throws IOException {
+    TypeAdapter<T> codec = type instanceof Class ? codec((Class<T>) type) : null;
+    JsonReader reader = CouchMetaDriver.reader(json);
+    return null == codec ? CouchMetaDriver.gson().fromJson(reader, type) : codec.read(reader);
+  }
+
+  /**
+   * encodes as gson() would minus its pretty printing
+   */
+  public static String toJson(Object value) {
+    TypeAdapter<Object> codec =
+        null == value ? null : (TypeAdapter<Object>) codec(value.getClass());
+    if (null == codec)
+      return CouchMetaDriver.gson().toJson(value);
+    StringWriter json = new StringWriter();
+    try {
+      JsonWriter writer = new JsonWriter(json);
+      writer.setSerializeNulls(NULLS);
+      writer.setLenient(NANS);
+      codec.write(writer, value);
+      writer.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return json.toString();
+  }
+
+  /**
+   * an entity that writes its own json, for bodies that are cheaper to stream than to model
+   */
+  public interface Encoder {
+    void write(JsonWriter out) throws IOException;
+  }
+
+  /**
+   * encodes as {@link #toJson(Object)} does, straight into pooled direct buffers of {@link #JSON_SEGMENT} bytes, a
+   * fresh one whenever the last fills, so there's no String, byte[] or regrowth copy in between.
+   *
+   * @return the flipped segments, never empty, for the caller to BufferPool.release once written
+   */
+  public static ByteBuffer[] encode(Object value) throws IOException {
+    Segments segments = new Segments();
+    try {
+      JsonWriter writer =
+          new JsonWriter(new OutputStreamWriter(segments, StandardCharsets.UTF_8));
+      writer.setSerializeNulls(NULLS);
+      writer.setLenient(NANS);
+      if (value instanceof Encoder)
+        ((Encoder) value).write(writer);
+      else {
+        TypeAdapter<Object> codec =
+            null == value ? null : (TypeAdapter<Object>) codec(value.getClass());
+        if (null != codec)
+          codec.write(writer, value);
+        else
+          CouchMetaDriver.gson().toJson(value, null == value ? Object.class : value.getClass(),
+              writer);
+      }
+      writer.flush();
+    } catch (IOException | RuntimeException e) {
+      for (ByteBuffer segment : segments.full)
+        BufferPool.release(segment);
+      throw e;
+    }
+    return segments.flip();
+  }
+
+  private static class Segments extends OutputStream {
+    final List<ByteBuffer> full = new ArrayList<>();
+    ByteBuffer current;
+
+    private ByteBuffer current() {
+      if (null == current || !current.hasRemaining())
+        full.add(current = BufferPool.acquire(JSON_SEGMENT));
+      return current;
+    }
+
+    public void write(int b) {
+      current().put((byte) b);
+    }
+
+    public void write(byte[] b, int off, int len) {
+      while (0 < len) {
+        ByteBuffer buf = current();
+        int n = Math.min(len, buf.remaining());
+        buf.put(b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+
+    ByteBuffer[] flip() {
+      if (full.isEmpty())
+        current();
+      for (ByteBuffer segment : full)
+        segment.flip();
+      return full.toArray(new ByteBuffer[full.size()]);
+    }
+  }
+
+  /**
+   * for the generated codecs: consumes a json null
+   *
+   * @return true if there was one
+   */
+  public static boolean nextNull(JsonReader in) throws IOException {
+    if (JsonToken.NULL != in.peek())
+      return false;
+    in.nextNull();
+    return true;
+  }
+
+  public static String nextString(JsonReader in) throws IOException {
+    return nextNull(in) ? null : in.nextString();
+  }
+
+  public static JsonWriter value(JsonWriter out, Boolean value) throws IOException {
+    return null == value ? out.nullValue() : out.value(value.booleanValue());
+  }
+
+  /**
+   * a char as gson reads one, a string of exactly one
+   */
+  public static char nextChar(JsonReader in) throws IOException {
+    String s = in.nextString();
+    if (1 != s.length())
+      throw new JsonSyntaxException("Expecting character, got: " + s);
+    return s.charAt(0);
+  }
+
+  public static JsonWriter value(JsonWriter out, Character value) throws IOException {
+    return null == value ? out.nullValue() : out.value(String.valueOf(value.charValue()));
+  }
+}
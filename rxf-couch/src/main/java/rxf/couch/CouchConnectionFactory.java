@@ -7,64 +7,218 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * keep-alive pool of couchdb sockets, one {@link Endpoint} per host listed in RXF_COUCH_PREFIX (comma separated).
+ * <p/>
+ * each endpoint caps the sockets it has open at RXF_CONNECTION_POOL_MAX_TOTAL and keeps at most
+ * RXF_CONNECTION_POOL_SIZE of them idle. idle sockets older than RXF_CONNECTION_IDLE_MS are closed, and a socket is
+ * probed for a half-close or stray bytes before it is handed out again.
+ * <p/>
+ * nothing here blocks the caller, which may well be the selector thread: a lease is a future. new sockets connect
+ * non-blocking and finish on the rxf-couch-connect selector; leases over the cap queue on the endpoint in arrival order
+ * and the next socket recycled there goes to the first of them.
+ * <p/>
+ * the driver closes and recycles a socket it gives up on, which hands its permit straight back. a leased socket closed
+ * by anyone else is dropped from the count when an endpoint runs out of permits, and swept every 100ms while leases
+ * wait.
+ */
 public class CouchConnectionFactory {
 
+  /**
+   * max idle sockets per endpoint
+   */
   public static final int CONNECTION_POOL_SIZE = Integer.parseInt(Config.get(
       "RXF_CONNECTION_POOL_SIZE", "20"));
+  /**
+   * max open sockets per endpoint, leased plus idle
+   */
+  public static final int CONNECTION_POOL_MAX_TOTAL = Integer.parseInt(Config.get(
+      "RXF_CONNECTION_POOL_MAX_TOTAL", String.valueOf(CONNECTION_POOL_SIZE * 4)));
+  public static final long CONNECTION_IDLE_MS = Long.parseLong(Config.get(
+      "RXF_CONNECTION_IDLE_MS", "30000"));
+  /**
+   * how long an endpoint that refused a connect is skipped
+   */
+  public static final long CONNECTION_RETRY_MS = Long.parseLong(Config.get(
+      "RXF_CONNECTION_RETRY_MS", "1000"));
 
   public static InetSocketAddress COUCHADDR;
 
+  private static volatile Endpoint[] endpoints;
+  private static final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * connects to finish: {channel, endpoint, lease, start nanos}
+   */
+  private static final Queue<Object[]> connecting = new ConcurrentLinkedQueue<>();
+  private static final Selector CONNECTS = open();
+  private static final ScheduledExecutorService CONNECT_TIMER = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-couch-retry");
+        t.setDaemon(true);
+        return t;
+      });
+
   static {
 
     String rxfcouchprefix = Config.get("RXF_COUCH_PREFIX", "http://localhost:5984");
-    try {
-      URI uri = new URI(rxfcouchprefix);
-      int port = uri.getPort();
-      port = -1 != port ? port : 80;
-      setCOUCHADDR(new InetSocketAddress(uri.getHost(), port));
-    } catch (URISyntaxException e) {
-      e.printStackTrace();
+    List<InetSocketAddress> addrs = new ArrayList<>();
+    for (String prefix : rxfcouchprefix.split(",")) {
+      try {
+        URI uri = new URI(prefix.trim());
+        int port = uri.getPort();
+        port = -1 != port ? port : 80;
+        addrs.add(new InetSocketAddress(uri.getHost(), port));
+      } catch (URISyntaxException e) {
+        e.printStackTrace();
+      }
     }
-
+    setEndpoints(addrs);
+    Thread t = new Thread(CouchConnectionFactory::connects, "rxf-couch-connect");
+    t.setDaemon(true);
+    t.start();
+    CONNECT_TIMER.scheduleWithFixedDelay(() -> {
+      for (Endpoint endpoint : endpoints)
+        endpoint.sweep();
+    }, 100, 100, TimeUnit.MILLISECONDS);
   }
 
-  private static Queue<SocketChannel> pool = new ArrayBlockingQueue<>(CONNECTION_POOL_SIZE);
+  private static Selector open() {
+    try {
+      return Selector.open();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 
-  public static SocketChannel createCouchConnection() {
-    SocketChannel ret = null;
-    while (!AsyncSingletonServer.killswitch.get()) {
-      SocketChannel socketChannel = pool.poll();
-      if (null != socketChannel && socketChannel.isConnected()) {
-        ret = socketChannel;
-        break;
-      }
+  /**
+   * the connect thread: finishes non-blocking connects and hands the sockets to their leases
+   */
+  @SuppressWarnings("unchecked")
+  static void connects() {
+    for (;;)
       try {
-        SocketChannel channel = SocketChannel.open(getCOUCHADDR());
-        channel.configureBlocking(false);
-        ret = channel;
-        break;
-      } catch (Exception e) {
+        for (Object[] o; null != (o = connecting.poll());)
+          ((SocketChannel) o[0]).register(CONNECTS, SelectionKey.OP_CONNECT, o);
+        CONNECTS.select();
+        for (Iterator<SelectionKey> i = CONNECTS.selectedKeys().iterator(); i.hasNext();) {
+          SelectionKey key = i.next();
+          i.remove();
+          key.cancel();
+          Object[] o = (Object[]) key.attachment();
+          SocketChannel channel = (SocketChannel) o[0];
+          Endpoint endpoint = (Endpoint) o[1];
+          CompletableFuture<SocketChannel> lease = (CompletableFuture<SocketChannel>) o[2];
+          try {
+            channel.finishConnect();
+            endpoint.connected(channel, lease, (Long) o[3]);
+          } catch (IOException e) {
+            endpoint.refused(channel, lease, (Long) o[3], e);
+          }
+        }
+      } catch (IOException e) {
         e.printStackTrace();
-      } finally {
       }
+  }
+
+  /**
+   * leases a connected non-blocking socket without blocking the caller: at once from the idle pool, or later from
+   * the connect thread or from whichever thread recycles a socket to an endpoint at max-total.
+   */
+  public static CompletableFuture<SocketChannel> createCouchConnection() {
+    CompletableFuture<SocketChannel> lease = new CompletableFuture<>();
+    acquire(lease, System.nanoTime());
+    return lease;
+  }
+
+  /**
+   * picks an endpoint for the lease, or retries once the first one comes back when all of them refused lately
+   */
+  static void acquire(CompletableFuture<SocketChannel> lease, long start) {
+    if (lease.isDone())
+      return;
+    if (AsyncSingletonServer.killswitch.get()) {
+      lease.completeExceptionally(new IOException("couch: shutting down"));
+      return;
     }
-    return ret;
+    Endpoint[] e = endpoints;
+    long backoff = downFor(e);
+    if (0 < backoff)
+      CONNECT_TIMER.schedule(() -> acquire(lease, start), backoff, TimeUnit.MILLISECONDS);
+    else
+      pick(e).acquire(lease, start);
   }
 
   public static void recycleChannel(SocketChannel channel) {
+    for (Endpoint endpoint : endpoints)
+      if (endpoint.leased.contains(channel)) {
+        endpoint.release(channel);
+        return;
+      }
+    close(channel);
+  }
 
-    if (channel.isConnected())
-      if (!pool.offer(channel))
-        try {
-          channel.close();
+  /**
+   * round-robin over endpoints that haven't refused a connect lately, all of them when none qualify
+   */
+  static Endpoint pick(Endpoint[] e) {
+    int start = next.getAndIncrement() & Integer.MAX_VALUE;
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < e.length; i++) {
+      Endpoint endpoint = e[(start + i) % e.length];
+      if (endpoint.downUntil <= now)
+        return endpoint;
+    }
+    return e[start % e.length];
+  }
 
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
+  /**
+   * @return millis until the first endpoint comes back, 0 while any is up
+   */
+  static long downFor(Endpoint[] e) {
+    long now = System.currentTimeMillis(), min = Long.MAX_VALUE;
+    for (Endpoint endpoint : e)
+      min = Math.min(min, endpoint.downUntil - now);
+    return Math.max(0, min);
+  }
+
+  public static List<Endpoint> getEndpoints() {
+    return Collections.unmodifiableList(Arrays.asList(endpoints));
+  }
+
+  public static void setEndpoints(List<InetSocketAddress> addrs) {
+    Endpoint[] e = new Endpoint[addrs.size()];
+    for (int i = 0; i < e.length; i++)
+      e[i] = new Endpoint(addrs.get(i));
+    COUCHADDR = addrs.get(0);
+    Endpoint[] old = endpoints;
+    endpoints = e;
+    if (null != old)
+      for (Endpoint endpoint : old)
+        endpoint.drain();
   }
 
   public static InetSocketAddress getCOUCHADDR() {
@@ -72,7 +226,250 @@ public class CouchConnectionFactory {
   }
 
   public static void setCOUCHADDR(InetSocketAddress COUCHADDR) {
-    CouchConnectionFactory.COUCHADDR = COUCHADDR;
+    setEndpoints(Collections.singletonList(COUCHADDR));
+  }
+
+  static void close(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * a non-blocking peek: anything but 0 bytes means the peer closed its side or left a response we never consumed.
+   */
+  static boolean stale(SocketChannel channel) {
+    if (!channel.isOpen() || !channel.isConnected())
+      return true;
+    try {
+      return channel.isBlocking() || 0 != channel.read(ByteBuffer.allocate(1));
+    } catch (IOException e) {
+      return true;
+    }
   }
 
+  public static class Endpoint {
+    public final InetSocketAddress addr;
+    private final Deque<Object[]> idle = new ConcurrentLinkedDeque<>();
+    private final Set<SocketChannel> leased = Collections
+        .newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+    /**
+     * leases waiting for a socket in arrival order, and the sockets leased or connecting; both guarded by this
+     */
+    private final ArrayDeque<Object[]> waiters = new ArrayDeque<>();
+    private int open;
+    volatile long downUntil;
+
+    public final AtomicLong acquires = new AtomicLong();
+    /**
+     * acquires served from an idle socket
+     */
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong opened = new AtomicLong();
+    public final AtomicLong evicted = new AtomicLong();
+    /**
+     * idle sockets found half-closed or dirty
+     */
+    public final AtomicLong stale = new AtomicLong();
+    /**
+     * acquires that found the endpoint at max-total
+     */
+    public final AtomicLong waits = new AtomicLong();
+    public final AtomicLong acquireNanos = new AtomicLong();
+
+    Endpoint(InetSocketAddress addr) {
+      this.addr = addr;
+    }
+
+    /**
+     * leases a socket when under max-total, otherwise queues the lease behind the ones already waiting
+     */
+    void acquire(CompletableFuture<SocketChannel> lease, long start) {
+      acquires.incrementAndGet();
+      synchronized (this) {
+        if (waiters.isEmpty() && CONNECTION_POOL_MAX_TOTAL <= open)
+          open -= sweepLeased();
+        if (!waiters.isEmpty() || CONNECTION_POOL_MAX_TOTAL <= open) {
+          waits.incrementAndGet();
+          waiters.add(new Object[] {lease, start});
+          return;
+        }
+        open++;
+      }
+      lease(lease, start);
+    }
+
+    /**
+     * fills a lease that holds one of the endpoint's permits, from the idle pool or a fresh connect
+     */
+    private void lease(CompletableFuture<SocketChannel> lease, long start) {
+      evictIdle();
+      for (Object[] o; null != (o = idle.pollFirst());) {
+        SocketChannel channel = (SocketChannel) o[0];
+        if (stale(channel)) {
+          stale.incrementAndGet();
+          close(channel);
+          continue;
+        }
+        hits.incrementAndGet();
+        leased(channel, lease, start);
+        return;
+      }
+      SocketChannel channel = null;
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        if (channel.connect(addr))
+          connected(channel, lease, start);
+        else {
+          connecting.add(new Object[] {channel, this, lease, start});
+          CONNECTS.wakeup();
+        }
+      } catch (IOException e) {
+        refused(channel, lease, start, e);
+      }
+    }
+
+    void connected(SocketChannel channel, CompletableFuture<SocketChannel> lease, long start) {
+      opened.incrementAndGet();
+      leased(channel, lease, start);
+    }
+
+    private void leased(SocketChannel channel, CompletableFuture<SocketChannel> lease, long start) {
+      leased.add(channel);
+      acquireNanos.addAndGet(System.nanoTime() - start);
+      if (!lease.complete(channel))
+        // gave up waiting meanwhile
+        release(channel);
+    }
+
+    /**
+     * marks the endpoint down and sends this lease and the queued ones back to pick another
+     */
+    @SuppressWarnings("unchecked")
+    void refused(SocketChannel channel, CompletableFuture<SocketChannel> lease, long start,
+        IOException e) {
+      e.printStackTrace();
+      if (null != channel)
+        close(channel);
+      downUntil = System.currentTimeMillis() + CONNECTION_RETRY_MS;
+      List<Object[]> requeue;
+      synchronized (this) {
+        open--;
+        requeue = new ArrayList<>(waiters);
+        waiters.clear();
+      }
+      CouchConnectionFactory.acquire(lease, start);
+      for (Object[] o : requeue)
+        CouchConnectionFactory.acquire((CompletableFuture<SocketChannel>) o[0], (Long) o[1]);
+    }
+
+    void release(SocketChannel channel) {
+      if (!leased.remove(channel))
+        return;
+      if (channel.isConnected() && idle.size() < CONNECTION_POOL_SIZE)
+        idle.addFirst(new Object[] {channel, System.currentTimeMillis()});
+      else
+        close(channel);
+      evictIdle();
+      handOff();
+    }
+
+    /**
+     * a permit came back: the longest waiter still waiting gets it, else the count drops
+     */
+    @SuppressWarnings("unchecked")
+    private void handOff() {
+      Object[] next;
+      synchronized (this) {
+        while (null != (next = waiters.poll()) && ((CompletableFuture<?>) next[0]).isDone());
+        if (null == next) {
+          open--;
+          return;
+        }
+      }
+      lease((CompletableFuture<SocketChannel>) next[0], (Long) next[1]);
+    }
+
+    /**
+     * closes idle sockets past {@link #CONNECTION_IDLE_MS}, oldest sit at the tail
+     */
+    void evictIdle() {
+      long cutoff = System.currentTimeMillis() - CONNECTION_IDLE_MS;
+      for (Object[] o; null != (o = idle.peekLast()) && (Long) o[1] < cutoff;)
+        if (idle.removeLastOccurrence(o)) {
+          evicted.incrementAndGet();
+          close((SocketChannel) o[0]);
+        }
+    }
+
+    /**
+     * drops leased sockets the driver closed on its error paths without recycling them
+     *
+     * @return permits recovered, for the caller to account for
+     */
+    private int sweepLeased() {
+      int n = 0;
+      for (Iterator<SocketChannel> i = leased.iterator(); i.hasNext();) {
+        SocketChannel channel = i.next();
+        if (!channel.isOpen() && leased.remove(channel))
+          n++;
+      }
+      return n;
+    }
+
+    /**
+     * recovers the permits of sockets closed under a full endpoint and hands them to its waiters
+     */
+    void sweep() {
+      int n;
+      synchronized (this) {
+        if (waiters.isEmpty())
+          return;
+        n = sweepLeased();
+      }
+      for (int i = 0; i < n; i++)
+        handOff();
+    }
+
+    void drain() {
+      for (Object[] o; null != (o = idle.pollFirst());)
+        close((SocketChannel) o[0]);
+    }
+
+    public int getIdle() {
+      return idle.size();
+    }
+
+    public int getLeased() {
+      return leased.size();
+    }
+
+    public synchronized int getWaiting() {
+      return waiters.size();
+    }
+
+    public double getHitRatio() {
+      long a = acquires.get();
+      return 0 == a ? 0 : (double) hits.get() / a;
+    }
+
+    /**
+     * @return mean acquire latency in micros
+     */
+    public long getAcquireMicros() {
+      long a = acquires.get();
+      return 0 == a ? 0 : TimeUnit.NANOSECONDS.toMicros(acquireNanos.get() / a);
+    }
+
+    @Override
+    public String toString() {
+      return addr + "{idle=" + idle.size() + ", leased=" + leased.size() + ", acquires=" + acquires
+          + ", hitRatio=" + getHitRatio() + ", opened=" + opened + ", evicted=" + evicted
+          + ", stale=" + stale + ", waits=" + waits + ", waiting=" + getWaiting()
+          + ", acquireMicros=" + getAcquireMicros() + '}';
+    }
+  }
 }
@@ -84,8 +84,10 @@ public abstract class CouchLocator<T> extends Locator<T, String> implements Couc
     String pathPrefix = getEntityName();
     String id = getId(domainObject);
     final DocPersist.DocPersistTerminalBuilder fire =
-        new DocPersist().db(pathPrefix).validjson(gson().toJson(domainObject)).to().fire();
+        new DocPersist().db(pathPrefix).entity(domainObject).to().fire();
     ret = fire.tx();
+    if (null != ret)
+      DocCache.invalidate(pathPrefix, ret.getId());
 
     return ret;
   }
@@ -109,6 +111,15 @@ public abstract class CouchLocator<T> extends Locator<T, String> implements Couc
     this.entityName = entityName;
   }
 
+  /**
+   * follows the entity's db, see {@link ChangesFeed}
+   * 
+   * @return the feed, {@link ChangesFeed#unsubscribe} stops listening
+   */
+  public ChangesFeed changes(ChangesFeed.Listener listener) {
+    return ChangesFeed.subscribe(getEntityName(), listener);
+  }
+
   /**
    * tbd -- longpolling feed rf token
    * 
@@ -14,6 +14,8 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.annotation.*;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Declares a generated service that can be implemented automatically by CouchServiceFactory. Specific to a single
@@ -27,6 +29,13 @@ import java.lang.annotation.*;
 public interface CouchService<E> {
   E find(String key);
 
+  /**
+   * fetches many docs in one request rather than a find per key
+   *
+   * @return one slot per key in the same order, null where there is no such doc
+   */
+  List<E> findAll(Collection<String> keys);
+
   CouchTx persist(E entity);
 
   Attachments attachments(E entity);
@@ -125,11 +134,37 @@ public interface CouchService<E> {
     }
   }
 
+  /**
+   * Opts the service's database into {@link DocCache}: find(), and any other document fetch against that database,
+   * reads through the cache and revalidates by ETag.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.TYPE)
+  @Documented
+  public @interface Cached {
+    /**
+     * Follow the database's {@link ChangesFeed} too, so cached documents are dropped as they change instead of being
+     * revalidated.
+     */
+    boolean changes() default false;
+  }
+
+  /**
+   * Opts the service's database into {@link BulkDocs}: concurrent persist() calls of new entities are sent together
+   * as _bulk_docs, each still getting its own CouchTx.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.TYPE)
+  @Documented
+  public @interface Batched {
+  }
+
   /**
    * Describes the JavaScript view to run in CouchDB when this method is invoked. The map function is required, but the
    * reduce function is optional.
    * <p/>
-   * Methods decorated with this should return List or CouchResultSet
+   * Methods decorated with this should return List or CouchResultSet, or Stream, Iterator or Iterable to read the rows a
+   * page at a time as they are consumed, see {@link ViewRows}.
    */
   @Retention(RetentionPolicy.RUNTIME)
   @Target(ElementType.METHOD)
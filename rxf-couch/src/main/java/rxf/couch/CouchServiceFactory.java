@@ -5,6 +5,8 @@ import com.google.gson.internal.Primitives;
 import rxf.core.CouchNamespace;
 import rxf.couch.CouchResultSet.tuple;
 import rxf.couch.CouchService.AttachmentsImpl;
+import rxf.couch.CouchService.Batched;
+import rxf.couch.CouchService.Cached;
 import rxf.couch.CouchService.CouchRequestParam;
 import rxf.couch.CouchService.View;
 import rxf.couch.driver.CouchMetaDriver;
@@ -17,13 +19,17 @@ import rxf.rpc.RpcHelper;
 import rxf.shared.CouchTx;
 import rxf.shared.KouchTx;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static rxf.rpc.RpcHelper.getDefaultOrgName;
 import static rxf.web.inf.ProtocolMethodDispatch.deepToString;
@@ -65,6 +71,7 @@ public class CouchServiceFactory {
       assert CouchService.class.isAssignableFrom((Class<?>) genericInterface.getRawType()) : genericInterface;
 
       entityType = (Class<E>) genericInterface.getActualTypeArguments()[0];
+      Codecs.register(entityType);
 
       init(serviceInterface, ns);
     }
@@ -76,6 +83,14 @@ public class CouchServiceFactory {
           String n = initNs[i];
           ns.values()[i].setMe(CouchServiceHandler.this, n);
         }
+        Cached cached = serviceInterface.getAnnotation(Cached.class);
+        if (null != cached) {
+          DocCache.cache(getPathPrefix());
+          if (cached.changes())
+            ChangesFeed.subscribe(getPathPrefix(), null);
+        }
+        if (serviceInterface.isAnnotationPresent(Batched.class))
+          BulkDocs.batch(getPathPrefix());
         try {
           // verify the DB exists
           ensureDbExists(getPathPrefix());
@@ -200,20 +215,30 @@ public class CouchServiceFactory {
       init.get();
 
       if (viewMethods.containsKey(method.getName())) {
+        Class<?> returns = method.getReturnType();
+        if (Stream.class == returns || Iterator.class == returns || Iterable.class == returns) {
+          // read lazily a page at a time, nothing is fetched until the caller starts reading
+          Type valueType = method.getGenericReturnType() instanceof ParameterizedType
+              ? ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0]
+              : entityType;
+          final String view;
+          try {
+            view = view(method.getName(), args);
+          } catch (UnsupportedEncodingException e) {
+            throw new ExecutionException(e);
+          }
+          if (Stream.class == returns)
+            return ViewRows.stream(getPathPrefix(), view, valueType);
+          if (Iterator.class == returns)
+            return new ViewRows<>(getPathPrefix(), view, valueType);
+          return (Iterable<?>) () -> new ViewRows<>(getPathPrefix(), view, valueType);
+        }
         // view methods have several types they can returns, based per whether or not they use
         // reduce, if they return the key (simple or composite) as part of the data in a map
         // or just a list of data items, and how they return the data, as the full document,
         // or some simplified format.
 
         return RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-          String name = method.getName();
-          String[] jsonArgs = null;
-          if (args != null) {// apparently args is null for a zero-arg method
-            jsonArgs = new String[args.length];
-            for (int i = 0; i < args.length; i++) {
-              jsonArgs[i] = URLEncoder.encode(CouchMetaDriver.gson().toJson(args[i]), "UTF-8");
-            }
-          }
           Type keyType = Object.class;
           Type valueType;
 
@@ -241,10 +266,7 @@ public class CouchServiceFactory {
             }
           }
 
-          /* dont forget to uncomment this after new CouchResult gen */
-          final Map<String, String> stringStringMap = viewMethods;
-          // Object[] cast to make varargs behave
-          String format = String.format(stringStringMap.get(name), (Object[]) jsonArgs);
+          String format = view(method.getName(), args);
           final ViewFetchTerminalBuilder fire =
               new ViewFetch().db(getPathPrefix()).type(valueType).keyType(keyType).view(format)
                   .to().fire();
@@ -287,12 +309,19 @@ public class CouchServiceFactory {
         // persist or find by key
         if ("persist".equals(method.getName())) {
           // again, no point, see above with DocPersist
-          String stringParam = CouchMetaDriver.gson().toJson(args[0]);
           final DocPersistActionBuilder to =
-              new DocPersist().db(getPathPrefix()).validjson(stringParam).to();
+              new DocPersist().db(getPathPrefix()).entity(args[0]).to();
           DocPersistTerminalBuilder fire = to.fire();
           KouchTx tx = fire.tx();
+          if (null != tx)
+            DocCache.invalidate(getPathPrefix(), tx.getId());
           return tx;
+        } else if ("findAll".equals(method.getName())) {
+          Collection<String> keys = (Collection<String>) args[0];
+          if (keys.isEmpty())
+            return new ArrayList<E>();
+          return new DocsFetch().db(getPathPrefix()).keys(keys).type(entityType).to().fire()
+              .docs();
         } else if ("attachments".equals(method.getName())) {
           try {
             return new AttachmentsImpl(getPathPrefix(), (E) args[0]);
@@ -304,11 +333,31 @@ public class CouchServiceFactory {
           return null;
         } else {
           assert "find" == (method.getName().intern());
-          String doc =
-              new DocFetch().db(getPathPrefix()).docId((String) args[0]).to().fire().json();
-          return (E) CouchMetaDriver.gson().fromJson(doc, entityType);
+          ByteBuffer doc =
+              new DocFetch().db(getPathPrefix()).docId((String) args[0]).to().fire().pojo();
+          try {
+            return null == doc ? null : Codecs.read(doc, entityType);
+          } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the view path and query for a call, its args json encoded into the method's query template
+     */
+    private String view(String name, Object[] args) throws UnsupportedEncodingException {
+      String[] jsonArgs = null;
+      if (args != null) {// apparently args is null for a zero-arg method
+        jsonArgs = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+          jsonArgs[i] = URLEncoder.encode(CouchMetaDriver.gson().toJson(args[i]), "UTF-8");
         }
       }
+      // Object[] cast to make varargs behave
+      return String.format(viewMethods.get(name), (Object[]) jsonArgs);
     }
 
     public String getEntityName() {
@@ -0,0 +1,304 @@
+package rxf.couch;
+
+import one.xio.HttpStatus;
+import rxf.core.Config;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static one.xio.HttpHeaders.*;
+
+/**
+ * read-through cache of raw documents behind {@link rxf.couch.driver.CouchMetaDriver#DocFetch}, keyed by db and docId,
+ * holding the body as couch sent it along with its ETag and Content-Type.
+ * <p/>
+ * only dbs that opted in are cached: those of a CouchService annotated {@link CouchService.Cached}, those passed to
+ * {@link #cache(String)}, and those named in RXF_DOC_CACHE_DBS. an entry younger than RXF_DOC_CACHE_FRESH ms is served
+ * without asking couch; an older one is revalidated by sending its ETag as If-None-Match, a 304 renews it and a 200
+ * replaces it.
+ * <p/>
+ * bodies are kept as heap copies and handed out read-only. the total is bounded by RXF_DOC_CACHE_BYTES, least recently
+ * used first out, and documents over RXF_DOC_CACHE_MAX_DOC aren't kept at all. writes through the driver drop the
+ * entries they touch; writes from elsewhere are seen at the next revalidation, or right away on a db whose
+ * {@link ChangesFeed} is up -- its documents validated since the feed came up are then trusted regardless of age.
+ * <p/>
+ * entries are stamped with the time their request went out, not when the answer came back, and a fill whose request
+ * predates the last invalidation of its doc is refused: a change line can overtake the GET that read the old rev.
+ */
+public class DocCache {
+  public static final long DOC_CACHE_BYTES = Long.parseLong(Config.get("RXF_DOC_CACHE_BYTES", String
+      .valueOf(16 << 20)));
+  public static final int DOC_CACHE_MAX_DOC = Integer.parseInt(Config.get("RXF_DOC_CACHE_MAX_DOC",
+      String.valueOf(256 << 10)));
+  public static final long DOC_CACHE_FRESH = Long.parseLong(Config.get("RXF_DOC_CACHE_FRESH",
+      "1000"));
+
+  private static final Set<String> dbs = ConcurrentHashMap.newKeySet();
+  /**
+   * db to when its feed came up, entries validated before that may have missed a write
+   */
+  private static final Map<String, Long> followed = new ConcurrentHashMap<>();
+  private static final Map<String, Entry> cache = new LinkedHashMap<>(16, .75f, true);
+  private static long bytes;
+  /**
+   * when a doc was last invalidated, by key hash; a collision only costs a fill
+   */
+  private static final AtomicLongArray dropped = new AtomicLongArray(1 << 12);
+
+  /**
+   * served without a round trip
+   */
+  public static final AtomicLong hits = new AtomicLong();
+  /**
+   * answered 304 by couch
+   */
+  public static final AtomicLong revalidations = new AtomicLong();
+  public static final AtomicLong misses = new AtomicLong();
+  public static final AtomicLong evictions = new AtomicLong();
+  /**
+   * fills refused for a write seen while their GET was out
+   */
+  public static final AtomicLong stale = new AtomicLong();
+
+  static {
+    for (String db : Config.get("RXF_DOC_CACHE_DBS", "").split(","))
+      if (!db.trim().isEmpty())
+        dbs.add(db.trim());
+  }
+
+  /**
+   * opts a db in
+   */
+  public static void cache(String db) {
+    dbs.add(db);
+  }
+
+  /**
+   * a live changes feed invalidates every write to db as it happens, see {@link ChangesFeed}
+   */
+  public static void follow(String db, boolean live) {
+    if (live)
+      followed.put(db, System.currentTimeMillis());
+    else
+      followed.remove(db);
+  }
+
+  public static boolean cached(String db) {
+    return null != db && dbs.contains(db);
+  }
+
+  /**
+   * @return the entry for a doc, fresh or not, null when there is none or the db isn't cached
+   */
+  public static Entry get(String db, String docId) {
+    if (!cached(db) || null == docId)
+      return null;
+    synchronized (cache) {
+      return cache.get(key(db, docId));
+    }
+  }
+
+  /**
+   * {@link #put(String, String, long, String, String, ByteBuffer)} for an untyped body no invalidation can have
+   * overtaken
+   */
+  public static ByteBuffer put(String db, String docId, String etag, ByteBuffer body) {
+    return put(db, docId, System.currentTimeMillis(), false, etag, null, body);
+  }
+
+  /**
+   * keeps a copy of a 200 body, evicting as needed
+   *
+   * @param sent when the GET went out
+   * @param type the Content-Type couch sent, null for none
+   * @return the copy, read-only, or body itself when there is no ETag, it's too big to keep, or the doc was
+   *         invalidated after sent
+   */
+  public static ByteBuffer put(String db, String docId, long sent, String etag, String type,
+      ByteBuffer body) {
+    return put(db, docId, sent, true, etag, type, body);
+  }
+
+  private static ByteBuffer put(String db, String docId, long sent, boolean raced, String etag,
+      String type, ByteBuffer body) {
+    if (!cached(db) || null == docId)
+      return body;
+    misses.incrementAndGet();
+    if (null == etag || body.remaining() > DOC_CACHE_MAX_DOC)
+      return body;
+    Entry entry =
+        new Entry(db, -1 == docId.indexOf('/'), sent, etag, type, ByteBuffer.allocate(
+            body.remaining()).put(body.duplicate()));
+    String key = key(db, docId);
+    synchronized (cache) {
+      if (raced && dropped.get(slot(key)) >= sent) {
+        stale.incrementAndGet();
+        return entry.body();
+      }
+      Entry prev = cache.put(key, entry);
+      if (null != prev)
+        bytes -= prev.size();
+      bytes += entry.size();
+      for (Iterator<Entry> i = cache.values().iterator(); bytes > DOC_CACHE_BYTES && i.hasNext();) {
+        Entry eldest = i.next();
+        i.remove();
+        bytes -= eldest.size();
+        evictions.incrementAndGet();
+      }
+    }
+    return entry.body();
+  }
+
+  /**
+   * drops a doc, or an attachment when docId has a path below it, for writes
+   */
+  public static void invalidate(String db, String docId) {
+    if (!cached(db) || null == docId)
+      return;
+    String key = key(db, docId);
+    synchronized (cache) {
+      dropped.set(slot(key), System.currentTimeMillis());
+      Entry entry = cache.remove(key);
+      if (null != entry)
+        bytes -= entry.size();
+    }
+  }
+
+  /**
+   * {@link #invalidate(String, String)} for a request path like /db/docId/attachment?rev=x, which drops the
+   * attachment and the doc whose _rev it bumps
+   */
+  public static void invalidatePath(String path) {
+    int end = path.length();
+    for (int i = 0; i < end; i++)
+      if ('?' == path.charAt(i) || '#' == path.charAt(i))
+        end = i;
+    int start = path.startsWith("/") ? 1 : 0;
+    int slash = path.indexOf('/', start);
+    if (-1 == slash || slash >= end - 1)
+      return;
+    String db = path.substring(start, slash), docId = path.substring(slash + 1, end);
+    invalidate(db, docId);
+    int below = docId.indexOf('/');
+    if (-1 != below)
+      invalidate(db, docId.substring(0, below));
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      bytes = 0;
+    }
+  }
+
+  public static int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public static long bytes() {
+    synchronized (cache) {
+      return bytes;
+    }
+  }
+
+  public static String stats() {
+    return "DocCache{hits=" + hits + ", revalidations=" + revalidations + ", misses=" + misses
+        + ", evictions=" + evictions + ", stale=" + stale + ", size=" + size() + ", bytes="
+        + bytes() + '}';
+  }
+
+  static String key(String db, String docId) {
+    return db + '/' + docId;
+  }
+
+  static int slot(String key) {
+    int h = key.hashCode();
+    return (h ^ h >>> 16) & dropped.length() - 1;
+  }
+
+  public static class Entry {
+    public final String etag;
+    /**
+     * Content-Type as couch sent it, null when it sent none
+     */
+    public final String type;
+    private final String db;
+    /**
+     * a document rather than an attachment, only documents show up in the changes feed
+     */
+    private final boolean doc;
+    private final ByteBuffer body;
+    /**
+     * when the request that last validated it went out
+     */
+    private volatile long validated;
+
+    Entry(String db, boolean doc, long validated, String etag, String type, ByteBuffer body) {
+      this.db = db;
+      this.validated = validated;
+      this.doc = doc;
+      this.etag = etag;
+      this.type = type;
+      this.body = (ByteBuffer) body.flip();
+    }
+
+    /**
+     * whether couch needs asking first
+     */
+    public boolean fresh() {
+      long now = System.currentTimeMillis();
+      if (now - validated < DOC_CACHE_FRESH)
+        return true;
+      Long since = doc ? followed.get(db) : null;
+      return null != since && validated >= since;
+    }
+
+    /**
+     * @return the body, counted as a hit
+     */
+    public ByteBuffer hit() {
+      hits.incrementAndGet();
+      return body();
+    }
+
+    /**
+     * couch answered 304 to our ETag
+     *
+     * @param sent when the conditional GET went out
+     * @return the body
+     */
+    public ByteBuffer revalidated(long sent) {
+      validated = Math.max(validated, sent);
+      revalidations.incrementAndGet();
+      return body();
+    }
+
+    public ByteBuffer body() {
+      return body.asReadOnlyBuffer();
+    }
+
+    /**
+     * answers res with the 200 couch sent the body with, for a response served from the entry
+     */
+    public HttpResponse headers(HttpResponse res) {
+      res.status(HttpStatus.$200).headerString(ETag, etag).headerString(Content$2dLength,
+          String.valueOf(size()));
+      if (null != type)
+        res.headerString(Content$2dType, type);
+      return res;
+    }
+
+    int size() {
+      return body.capacity();
+    }
+  }
+}
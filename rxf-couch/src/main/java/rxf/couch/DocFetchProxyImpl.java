@@ -4,12 +4,14 @@ package rxf.couch;
 
 import com.google.gwt.safehtml.shared.UriUtils;
 import one.xio.HttpStatus;
+import rxf.core.BufferPool;
 import rxf.core.Errors;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Tx;
 import rxf.couch.driver.CouchMetaDriver;
 import rxf.rpc.RpcHelper;
 import rxf.shared.KeepMatcher;
+import rxf.web.inf.Compression;
 import rxf.web.inf.ContentRootImpl;
 
 import java.nio.ByteBuffer;
@@ -81,12 +83,22 @@ public class DocFetchProxyImpl extends ContentRootImpl {
               }
               HttpResponse outerResponse = outerRequest.$res();
               String ctype = innerResponse.headerString(Content$2dType);
-              String clen = innerResponse.headerString(Content$2dLength);
+              ByteBuffer payload = tx.payload();
+              ByteBuffer body =
+                  Compression.encode(getClass(), Compression.accepts(outerRequest),
+                      outerResponse, ctype, payload);
+              String clen =
+                  body == payload ? innerResponse.headerString(Content$2dLength) : String
+                      .valueOf(body.remaining());
               ByteBuffer responseHeaders = outerResponse.status(innerStatus)//
                   .headerString(Content$2dType, ctype)//
                   .headerString(Content$2dLength, clen)//
                   .asByteBuffer();
-              finishWrite(() -> outerKey.interestOps(OP_READ).attach(null), responseHeaders, tx.payload());
+              finishWrite(() -> {
+                if (body != payload)
+                  BufferPool.release(body);
+                outerKey.interestOps(OP_READ).attach(null);
+              }, responseHeaders, body);
             } catch (Exception e) {
               Errors.$500(outerKey);
               e.printStackTrace();
@@ -0,0 +1,17 @@
+package rxf.couch;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * asks {@link rxf.couch.apt.JsonCodecProcessor} for a generated codec for an entity that isn't the E of any
+ * {@link CouchService} being compiled, those get one anyway. see {@link Codecs}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Documented
+public @interface JsonCodec {
+}
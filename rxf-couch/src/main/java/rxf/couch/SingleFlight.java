@@ -0,0 +1,91 @@
+package rxf.couch;
+
+import rxf.core.Config;
+import rxf.core.Tx;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * collapses identical couch reads in flight at the same time into one request.
+ * <p/>
+ * the first caller for a key (the verb and the path it reads) sends; whoever asks for the same key before that answer
+ * is in waits on it instead of leasing a socket of its own. every waiter, the sender included, gets its own copy of
+ * the response headers and its own read-only duplicate of the one payload buffer, so positions and headers are private
+ * but the bytes aren't writable. a failure fails them all, and the key is released before anyone is completed so a later read goes out
+ * fresh.
+ * <p/>
+ * RXF_SINGLE_FLIGHT=false sends every read on its own.
+ */
+public class SingleFlight {
+  public static final boolean SINGLE_FLIGHT = Boolean.parseBoolean(Config.get(
+      "RXF_SINGLE_FLIGHT", "true"));
+
+  private static final Map<String, CompletableFuture<Tx>> inflight = new ConcurrentHashMap<>();
+
+  /**
+   * reads that went upstream
+   */
+  public static final AtomicLong sent = new AtomicLong();
+  /**
+   * reads answered by another caller's request
+   */
+  public static final AtomicLong collapsed = new AtomicLong();
+
+  /**
+   * @param key verb and path, equal keys must expect equal answers
+   * @param tx the caller's, completed with the shared response
+   * @param send issues the request on tx, called only when no identical one is in flight
+   */
+  public static CompletableFuture<Tx> join(String key, final Tx tx,
+      Callable<CompletableFuture<Tx>> send) throws Exception {
+    if (!SINGLE_FLIGHT)
+      return send.call();
+    final CompletableFuture<Tx> mine = new CompletableFuture<>();
+    CompletableFuture<Tx> leader = inflight.putIfAbsent(key, mine);
+    if (null != leader) {
+      collapsed.incrementAndGet();
+      return leader.thenApply(shared -> share(shared, tx));
+    }
+    sent.incrementAndGet();
+    CompletableFuture<Tx> upstream;
+    try {
+      upstream = send.call();
+    } catch (Exception e) {
+      inflight.remove(key, mine);
+      mine.completeExceptionally(e);
+      throw e;
+    }
+    upstream.whenComplete((shared, e) -> {
+      inflight.remove(key, mine);
+      if (null != e)
+        mine.completeExceptionally(e);
+      else {
+        // a snapshot nobody holds, tx's own payload moves as soon as its caller reads it
+        ByteBuffer payload = shared.payload();
+        mine.complete(new Tx().state(shared.hdr().snapshot()).payload(
+            null == payload ? null : payload.asReadOnlyBuffer()));
+      }
+    });
+    return mine.thenApply(shared -> share(shared, tx));
+  }
+
+  static Tx share(Tx shared, Tx tx) {
+    ByteBuffer payload = shared.payload();
+    return tx.state(shared.hdr().snapshot()).payload(
+        null == payload ? null : payload.duplicate());
+  }
+
+  public static int inflight() {
+    return inflight.size();
+  }
+
+  public static String stats() {
+    return "SingleFlight{sent=" + sent + ", collapsed=" + collapsed + ", inflight=" + inflight()
+        + '}';
+  }
+}
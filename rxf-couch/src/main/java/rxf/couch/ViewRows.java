@@ -0,0 +1,249 @@
+package rxf.couch;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import rxf.core.Config;
+import rxf.couch.driver.CouchMetaDriver;
+import rxf.couch.gen.CouchDriver.ViewFetch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * the values of a view, read a page at a time.
+ * <p/>
+ * a page is RXF_VIEW_PAGE rows plus one: the extra row is not returned, its key and id become the startkey and
+ * startkey_docid of the next page, so there's no skip to scan past. the query's own limit caps the total and its skip
+ * only applies to the first page; key=k is asked as startkey=k&endkey=k so it pages too. a keys=[..] query can't be
+ * combined with startkey and goes out as one request.
+ * <p/>
+ * rows are decoded one at a time off the page's buffer as the caller advances, so no more than one page of raw rows
+ * and one decoded value are held whatever the size of the view.
+ */
+public class ViewRows<T> implements Iterator<T> {
+  public static final int VIEW_PAGE = Integer.parseInt(Config.get("RXF_VIEW_PAGE", "1000"));
+
+  private final String db;
+  private final String view;
+  private final Type type;
+  /**
+   * the query without limit, skip and where to start
+   */
+  private final List<String> params = new ArrayList<>();
+  /**
+   * skip, startkey and startkey_docid as given, for the first page only
+   */
+  private final List<String> first = new ArrayList<>();
+  private final boolean pages;
+  private long left = Long.MAX_VALUE;
+  private String startkey;
+  private String startkeyDocid;
+
+  private JsonReader reader;
+  /**
+   * rows the current page may still return
+   */
+  private long rows;
+  private boolean done;
+  private boolean ready;
+  private T next;
+
+  /**
+   * @param view the design doc view path and its query, as CouchServiceFactory formats it
+   * @param type the row value type
+   */
+  public ViewRows(String db, String view, Type type) {
+    this.db = db;
+    this.type = type;
+    int q = view.indexOf('?');
+    this.view = -1 == q ? view : view.substring(0, q);
+    boolean keys = false;
+    if (-1 != q)
+      for (String param : view.substring(q + 1).split("&")) {
+        int eq = param.indexOf('=');
+        String name = -1 == eq ? param : param.substring(0, eq);
+        String value = -1 == eq ? "" : param.substring(eq + 1);
+        switch (name) {
+          case "":
+            break;
+          case "limit":
+            try {
+              long limit = Long.parseLong(value);
+              if (0 <= limit)
+                left = limit;
+            } catch (NumberFormatException e) {
+              // null or an unset @Limit, no cap
+            }
+            break;
+          case "skip":
+          case "startkey":
+          case "startkey_docid":
+            first.add(param);
+            break;
+          case "key":
+            first.add("startkey=" + value);
+            params.add("endkey=" + value);
+            break;
+          case "keys":
+            keys = true;
+            // fall through, sent as is
+          default:
+            params.add(param);
+        }
+      }
+    pages = !keys;
+  }
+
+  public static <T> Stream<T> stream(String db, String view, Type type) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ViewRows<T>(db, view, type),
+        Spliterator.ORDERED), false);
+  }
+
+  public boolean hasNext() {
+    if (!ready) {
+      try {
+        next = advance();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      ready = true;
+    }
+    return !done;
+  }
+
+  public T next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    ready = false;
+    T r = next;
+    next = null;
+    return r;
+  }
+
+  private T advance() throws IOException {
+    while (!done) {
+      if (null == reader && (!fetch() || null == reader))
+        break;
+      if (0 < rows && reader.hasNext()) {
+        rows--;
+        left--;
+        return row(false);
+      }
+      // the row past the page, if couch had one, is where the next page starts
+      boolean more = pages && 0 < left && reader.hasNext();
+      if (more)
+        row(true);
+      reader.close();
+      reader = null;
+      if (!more)
+        done = true;
+    }
+    done = true;
+    return null;
+  }
+
+  /**
+   * @return false when there's nothing left to ask for
+   */
+  private boolean fetch() throws IOException {
+    if (0 >= left)
+      return false;
+    StringBuilder query = new StringBuilder(view).append('?');
+    for (String param : params)
+      query.append(param).append('&');
+    if (null != startkey) {
+      query.append("startkey=").append(URLEncoder.encode(startkey, "UTF-8")).append('&');
+      if (null != startkeyDocid)
+        query.append("startkey_docid=").append(URLEncoder.encode(startkeyDocid, "UTF-8"))
+            .append('&');
+    } else
+      for (String param : first)
+        query.append(param).append('&');
+    if (pages) {
+      rows = Math.min(VIEW_PAGE, left);
+      query.append("limit=").append(rows + 1);
+    } else {
+      rows = left;
+      if (Long.MAX_VALUE != left)
+        query.append("limit=").append(left);
+    }
+    ByteBuffer page = page(query.toString());
+    reader = null == page ? null : rows(page);
+    return true;
+  }
+
+  ByteBuffer page(String query) throws IOException {
+    try {
+      return new ViewFetch().db(db).view(query).to().fire().future().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * positions a reader at the first row of a view response
+   *
+   * @return null when there are no rows
+   */
+  static JsonReader rows(ByteBuffer payload) throws IOException {
+    JsonReader reader = CouchMetaDriver.reader(payload);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("rows".equals(reader.nextName())) {
+        reader.beginArray();
+        return reader;
+      }
+      reader.skipValue();
+    }
+    return null;
+  }
+
+  /**
+   * @param start only keep the key and id, as the next page's start
+   */
+  private T row(boolean start) throws IOException {
+    T value = null;
+    String id = null;
+    String key = null;
+    reader.beginObject();
+    while (reader.hasNext())
+      switch (reader.nextName()) {
+        case "id":
+          id = reader.nextString();
+          break;
+        case "key":
+          key = CouchMetaDriver.gson().fromJson(reader, JsonElement.class).toString();
+          break;
+        case "value":
+          if (!start && JsonToken.NULL != reader.peek())
+            value = CouchMetaDriver.gson().fromJson(reader, type);
+          else
+            reader.skipValue();
+          break;
+        default:
+          reader.skipValue();
+      }
+    reader.endObject();
+    if (start) {
+      startkey = key;
+      startkeyDocid = id;
+    }
+    return value;
+  }
+}
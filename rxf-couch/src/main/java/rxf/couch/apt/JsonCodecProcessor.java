@@ -0,0 +1,332 @@
+package rxf.couch.apt;
+
+import com.google.gson.annotations.SerializedName;
+import rxf.couch.Codecs;
+import rxf.couch.JsonCodec;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * writes a {@link Codecs} codec for the entity E of every interface extending CouchService&lt;E&gt; in the compilation,
+ * and for every type annotated {@link JsonCodec}.
+ * <p/>
+ * the codec is generated in the entity's package and touches its fields directly, so it only exists for what that
+ * allows: a non-generic class with a non-private no-arg constructor whose serialized fields, its own and its
+ * superclasses', are neither private nor final and are visible from its package. anything else is noted and left to
+ * gson. String, primitive and boxed fields are read and written inline; other fields, and how @SerializedName is
+ * honored on them, are handed to the driver's gson for that field's declared type.
+ */
+@SupportedAnnotationTypes("*")
+public class JsonCodecProcessor extends AbstractProcessor {
+  private static final String SERVICE = "rxf.couch.CouchService";
+
+  private final Set<String> generated = new HashSet<>();
+
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    Set<TypeElement> entities = new LinkedHashSet<>();
+    for (Element e : round.getElementsAnnotatedWith(JsonCodec.class))
+      if (e instanceof TypeElement)
+        entities.add((TypeElement) e);
+    TypeElement service = processingEnv.getElementUtils().getTypeElement(SERVICE);
+    if (null != service)
+      for (TypeElement type : ElementFilter.typesIn(round.getRootElements()))
+        services(type, service, entities);
+    for (TypeElement entity : entities)
+      if (generated.add(entity.getQualifiedName().toString()))
+        generate(entity);
+    return false;
+  }
+
+  /**
+   * collects the E of type and its nested types where they extend CouchService&lt;E&gt;
+   */
+  private void services(TypeElement type, TypeElement service, Set<TypeElement> entities) {
+    if (ElementKind.INTERFACE == type.getKind())
+      entity(type.asType(), service, entities);
+    for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements()))
+      services(nested, service, entities);
+  }
+
+  private void entity(TypeMirror type, TypeElement service, Set<TypeElement> entities) {
+    for (TypeMirror up : processingEnv.getTypeUtils().directSupertypes(type)) {
+      DeclaredType declared = (DeclaredType) up;
+      if (service.equals(declared.asElement())) {
+        List<? extends TypeMirror> args = declared.getTypeArguments();
+        if (1 == args.size() && TypeKind.DECLARED == args.get(0).getKind())
+          entities.add((TypeElement) ((DeclaredType) args.get(0)).asElement());
+      } else
+        entity(up, service, entities);
+    }
+  }
+
+  static class Field {
+    final String name;
+    final String json;
+    final String[] alternate;
+    final TypeMirror type;
+
+    Field(VariableElement field) {
+      name = field.getSimpleName().toString();
+      type = field.asType();
+      SerializedName serializedName = field.getAnnotation(SerializedName.class);
+      json = null == serializedName ? name : serializedName.value();
+      alternate = null == serializedName ? new String[0] : serializedName.alternate();
+    }
+  }
+
+  private void generate(TypeElement entity) {
+    String why = unsupported(entity);
+    List<Field> fields = new ArrayList<>();
+    if (null == why)
+      why = fields(entity, fields);
+    if (null != why) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+          "no generated json codec, gson stays in charge: " + why, entity);
+      return;
+    }
+    PackageElement pkg = processingEnv.getElementUtils().getPackageOf(entity);
+    String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    String name = entity.getQualifiedName().toString();
+    String simple =
+        (packageName.isEmpty() ? name : name.substring(packageName.length() + 1)).replace('.', '_')
+            + Codecs.SUFFIX;
+    try (PrintWriter out =
+        new PrintWriter(processingEnv.getFiler().createSourceFile(
+            packageName.isEmpty() ? simple : packageName + '.' + simple, entity).openWriter())) {
+      write(out, packageName, simple, name, fields);
+    } catch (FilerException e) {
+      // generated in an earlier pass
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), entity);
+    }
+  }
+
+  /**
+   * @return why there can't be a codec for the class itself, null if there can
+   */
+  private String unsupported(TypeElement entity) {
+    if (ElementKind.CLASS != entity.getKind() || entity.getModifiers().contains(Modifier.ABSTRACT))
+      return "not a concrete class";
+    if (!entity.getTypeParameters().isEmpty())
+      return "generic";
+    if (entity.getEnclosingElement() instanceof TypeElement
+        && !entity.getModifiers().contains(Modifier.STATIC))
+      return "an inner class";
+    for (Element e = entity; e instanceof TypeElement; e = e.getEnclosingElement())
+      if (e.getModifiers().contains(Modifier.PRIVATE))
+        return "private";
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements()))
+      if (constructor.getParameters().isEmpty())
+        return constructor.getModifiers().contains(Modifier.PRIVATE) ? "private constructor" : null;
+    return "no no-arg constructor";
+  }
+
+  /**
+   * gathers the fields gson would, the class's first then each superclass's
+   *
+   * @return why they can't be set directly, null if they can
+   */
+  private String fields(TypeElement entity, List<Field> fields) {
+    PackageElement pkg = processingEnv.getElementUtils().getPackageOf(entity);
+    Set<String> names = new HashSet<>();
+    for (TypeElement type = entity; null != type
+        && !"java.lang.Object".equals(type.getQualifiedName().toString()); type =
+        TypeKind.DECLARED == type.getSuperclass().getKind() ? (TypeElement) ((DeclaredType) type
+            .getSuperclass()).asElement() : null) {
+      boolean samePackage = pkg.equals(processingEnv.getElementUtils().getPackageOf(type));
+      for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+          continue;
+        String at = type.getSimpleName() + "." + field.getSimpleName();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL))
+          return at + " is private or final";
+        if (!samePackage && !modifiers.contains(Modifier.PUBLIC))
+          return at + " isn't visible from " + pkg;
+        if (!visible(field.asType()))
+          return at + "'s type isn't visible";
+        if (field.asType().getKind().isPrimitive() && null == inline(field.asType()))
+          // a TypeToken can't take a primitive
+          return at + "'s primitive type has no inline codec";
+        Field f = new Field(field);
+        if (!names.add(f.json))
+          return at + " repeats the json name " + f.json;
+        for (String alternate : f.alternate)
+          if (!names.add(alternate))
+            return at + " repeats the json name " + alternate;
+        fields.add(f);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the generated code may name type
+   */
+  private boolean visible(TypeMirror type) {
+    switch (type.getKind()) {
+      case ARRAY:
+        return visible(((ArrayType) type).getComponentType());
+      case DECLARED:
+        for (Element e = ((DeclaredType) type).asElement(); e instanceof TypeElement; e =
+            e.getEnclosingElement())
+          if (e.getModifiers().contains(Modifier.PRIVATE))
+            return false;
+        for (TypeMirror arg : ((DeclaredType) type).getTypeArguments())
+          if (!visible(arg))
+            return false;
+        return true;
+      case TYPEVAR:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  private static final String[][] INLINE = {
+      // type, read, write
+      {"java.lang.String", "Codecs.nextString(in)", "out.name(%s).value(%s)"},
+      {"boolean", "in.nextBoolean()", "out.name(%s).value(%s)"},
+      {"int", "in.nextInt()", "out.name(%s).value(%s)"},
+      {"long", "in.nextLong()", "out.name(%s).value(%s)"},
+      {"short", "(short) in.nextInt()", "out.name(%s).value(%s)"},
+      {"byte", "(byte) in.nextInt()", "out.name(%s).value(%s)"},
+      {"double", "in.nextDouble()", "out.name(%s).value(%s)"},
+      // gson's one-char strings
+      {"char", "Codecs.nextChar(in)", "out.name(%s).value(String.valueOf(%s))"},
+      // as Float.toString, the way gson writes them
+      {"float", "(float) in.nextDouble()", "out.name(%s).value((Number) %s)"},
+      {"java.lang.Boolean", "Codecs.nextNull(in) ? null : in.nextBoolean()",
+          "Codecs.value(out.name(%s), %s)"},
+      {"java.lang.Integer", "Codecs.nextNull(in) ? null : in.nextInt()",
+          "out.name(%s).value(%s)"},
+      {"java.lang.Long", "Codecs.nextNull(in) ? null : in.nextLong()", "out.name(%s).value(%s)"},
+      {"java.lang.Short", "Codecs.nextNull(in) ? null : (short) in.nextInt()",
+          "out.name(%s).value(%s)"},
+      {"java.lang.Byte", "Codecs.nextNull(in) ? null : (byte) in.nextInt()",
+          "out.name(%s).value(%s)"},
+      {"java.lang.Double", "Codecs.nextNull(in) ? null : in.nextDouble()",
+          "out.name(%s).value(%s)"},
+      {"java.lang.Float", "Codecs.nextNull(in) ? null : (float) in.nextDouble()",
+          "out.name(%s).value(%s)"},
+      {"java.lang.Character", "Codecs.nextNull(in) ? null : Codecs.nextChar(in)",
+          "Codecs.value(out.name(%s), %s)"}};
+
+  private static String[] inline(TypeMirror type) {
+    String name = type.toString();
+    for (String[] inline : INLINE)
+      if (inline[0].equals(name))
+        return inline;
+    return null;
+  }
+
+  private static String quote(String s) {
+    return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+
+  private static void write(PrintWriter out, String packageName, String simple, String entity,
+      List<Field> fields) {
+    if (!packageName.isEmpty())
+      out.println("package " + packageName + ";");
+    out.println();
+    out.println("import com.google.gson.TypeAdapter;");
+    out.println("import com.google.gson.reflect.TypeToken;");
+    out.println("import com.google.gson.stream.JsonReader;");
+    out.println("import com.google.gson.stream.JsonToken;");
+    out.println("import com.google.gson.stream.JsonWriter;");
+    out.println("import rxf.couch.Codecs;");
+    out.println("import rxf.couch.driver.CouchMetaDriver;");
+    out.println();
+    out.println("import java.io.IOException;");
+    out.println("import java.lang.reflect.Type;");
+    out.println();
+    out.println("/**");
+    out.println(" * generated by " + JsonCodecProcessor.class.getName() + " for " + entity);
+    out.println(" */");
+    out.println("public final class " + simple + " extends TypeAdapter<" + entity + "> {");
+    for (Field f : fields)
+      if (null == inline(f.type))
+        out.println("  private static final Type T_" + f.name + " = new TypeToken<" + f.type
+            + ">() {\n  }.getType();");
+    out.println();
+    out.println("  public void write(JsonWriter out, " + entity + " value) throws IOException {");
+    out.println("    if (null == value) {");
+    out.println("      out.nullValue();");
+    out.println("      return;");
+    out.println("    }");
+    out.println("    out.beginObject();");
+    for (Field f : fields) {
+      String[] inline = inline(f.type);
+      if (null != inline)
+        out.println("    " + String.format(inline[2], quote(f.json), "value." + f.name) + ";");
+      else {
+        out.println("    out.name(" + quote(f.json) + ");");
+        out.println("    CouchMetaDriver.gson().toJson(value." + f.name + ", T_" + f.name
+            + ", out);");
+      }
+    }
+    out.println("    out.endObject();");
+    out.println("  }");
+    out.println();
+    out.println("  public " + entity + " read(JsonReader in) throws IOException {");
+    out.println("    if (JsonToken.NULL == in.peek()) {");
+    out.println("      in.nextNull();");
+    out.println("      return null;");
+    out.println("    }");
+    out.println("    " + entity + " value = new " + entity + "();");
+    out.println("    in.beginObject();");
+    out.println("    while (in.hasNext())");
+    out.println("      switch (in.nextName()) {");
+    for (Field f : fields) {
+      out.println("        case " + quote(f.json) + ":");
+      for (String alternate : f.alternate)
+        out.println("        case " + quote(alternate) + ":");
+      String[] inline = inline(f.type);
+      if (null == inline)
+        out.println("          value." + f.name + " = CouchMetaDriver.gson().fromJson(in, T_"
+            + f.name + ");");
+      else if (f.type.getKind().isPrimitive())
+        // gson leaves a primitive alone on null
+        out.println("          if (!Codecs.nextNull(in))\n            value." + f.name + " = "
+            + inline[1] + ";");
+      else
+        out.println("          value." + f.name + " = " + inline[1] + ";");
+      out.println("          break;");
+    }
+    out.println("        default:");
+    out.println("          in.skipValue();");
+    out.println("      }");
+    out.println("    in.endObject();");
+    out.println("    return value;");
+    out.println("  }");
+    out.println("}");
+  }
+}
@@ -1,14 +1,19 @@
 package rxf.couch.daemon;
 
 import one.xio.AsioVisitor;
+import rxf.core.BufferPool;
 import rxf.core.Config;
 import rxf.shared.PreRead;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import static java.nio.channels.SelectionKey.OP_READ;
 import static java.nio.channels.SelectionKey.OP_WRITE;
@@ -16,79 +21,271 @@ import static java.nio.channels.SelectionKey.OP_WRITE;
 /**
  * this visitor shovels data from the outward selector to the inward selector, and vice versa. once the headers are sent
  * inward the only state monitored is when one side of the connections close.
+ * <p/>
+ * each direction of a pipe is a visitor reading its own channel into a lane of pooled segments that its peer, the
+ * visitor on the other key, drains with one gathering write. interest only changes on the edges: the writer drops
+ * OP_WRITE once the lane is empty and the reader wakes it when bytes arrive; the reader drops OP_READ once
+ * RXF_PIPE_SEGMENTS are full and the writer wakes it when one drains, so an idle or stalled pipe costs no selects.
+ * <p/>
+ * an end of input is passed on as shutdownOutput once the lane has drained, and both channels close when both
+ * directions have, or at once when either fails.
  */
 @PreRead
 public class HttpPipeVisitor extends AsioVisitor.Impl {
   public static final boolean PROXY_DEBUG = "true".equals(Config.get("PROXY_DEBUG", String
       .valueOf(false)));
-  final private ByteBuffer[] b;
+  public static final int PIPE_SEGMENT = Integer.parseInt(Config.get("RXF_PIPE_SEGMENT", String
+      .valueOf(8 << 10)));
+  public static final int PIPE_SEGMENTS = Integer.parseInt(Config.get("RXF_PIPE_SEGMENTS", "4"));
+  /**
+   * all pipes: bytes read, and the times a reader waited on a full lane
+   */
+  public static final AtomicLong piped = new AtomicLong();
+  public static final AtomicLong stalled = new AtomicLong();
+
   protected String name;
-  // public AtomicInteger remaining;
   SelectionKey otherKey;
-  private boolean limit;
+  /**
+   * read off this visitor's channel and not yet written to the other; every segment is flipped but the last, which
+   * is still being filled
+   */
+  private final ArrayDeque<ByteBuffer> lane = new ArrayDeque<>();
+  private HttpPipeVisitor peer;
+  /**
+   * shared by both directions of a pipe, 0 once it's closed and the buffers are back in the {@link BufferPool}
+   */
+  private final AtomicInteger open;
+  private boolean eof;
+  private boolean closed;
+  /**
+   * this direction: bytes read, and the times its reader waited on a full lane
+   */
+  private long bytes;
+  private long stalls;
+  /**
+   * sees what's read until it returns false
+   */
+  private Predicate<ByteBuffer> tee;
 
-  public HttpPipeVisitor(String name, SelectionKey otherKey, ByteBuffer... b) {
+  /**
+   * @param in the first segment of this direction, may already hold bytes to send
+   */
+  public HttpPipeVisitor(String name, SelectionKey otherKey, AtomicInteger open, ByteBuffer in) {
     this.name = name;
     this.otherKey = otherKey;
-    this.b = b;
+    this.open = open;
+    lane.add(in);
+  }
+
+  /**
+   * the two directions of a pipe write each other's lanes
+   */
+  public static void join(HttpPipeVisitor a, HttpPipeVisitor b) {
+    a.peer = b;
+    b.peer = a;
   }
 
   public void onRead(SelectionKey key) throws Exception {
-    SocketChannel channel = (SocketChannel) key.channel();
-    if (otherKey.isValid()) {
-      int read = Helper.read(key, getInBuffer());
-      if (read == -1) /* key.cancel(); */{
-        channel.shutdownInput();
-        key.interestOps(OP_WRITE);
-        Helper.write(key, ByteBuffer.allocate(0));
+    ByteBuffer tail = lane.peekLast();
+    if (!tail.hasRemaining()) {
+      if (lane.size() >= PIPE_SEGMENTS) {
+        off(key, OP_READ);
+        return;
+      }
+      // woken by a writer that drained the head, the room is a new segment
+      tail.flip();
+      lane.add(tail = BufferPool.acquire(PIPE_SEGMENT));
+    }
+    int read;
+    try {
+      read = Helper.read(key, tail);
+    } catch (IOException e) {
+      if (0 == bytes && replay(key))
+        return;
+      abort(key);
+      return;
+    }
+    if (-1 == read) {
+      if (0 == bytes && replay(key))
+        return;
+      eof = true;
+      off(key, OP_READ);
+      // the peer's writer passes it on once the lane is drained
+      on(otherKey, OP_WRITE);
+      return;
+    }
+    if (0 < read) {
+      bytes += read;
+      piped.addAndGet(read);
+      if (null != tee) {
+        ByteBuffer seen = tail.duplicate();
+        seen.limit(seen.position()).position(seen.position() - read);
+        if (!tee.test(seen))
+          tee = null;
+      }
+      on(otherKey, OP_WRITE);
+    }
+    if (!tail.hasRemaining()) {
+      if (lane.size() < PIPE_SEGMENTS) {
+        tail.flip();
+        lane.add(BufferPool.acquire(PIPE_SEGMENT));
       } else {
-        // if buffer fills up, stop the read option for a bit
-        otherKey.interestOps(OP_READ | OP_WRITE);
-        Helper.write(key, ByteBuffer.allocate(0));
+        stalls++;
+        stalled.incrementAndGet();
+        off(key, OP_READ);
       }
-    } else {
-      key.cancel();
     }
   }
 
+  /**
+   * writes the peer's lane to this visitor's channel
+   */
   public void onWrite(SelectionKey key) throws Exception {
     SocketChannel channel = (SocketChannel) key.channel();
-    ByteBuffer flip = (ByteBuffer) getOutBuffer().flip();
+    ArrayDeque<ByteBuffer> out = peer.lane;
+    ByteBuffer tail = out.peekLast();
+    boolean full = out.size() == PIPE_SEGMENTS && !tail.hasRemaining();
+    tail.flip();
+    ByteBuffer[] bufs = out.toArray(new ByteBuffer[out.size()]);
     if (PROXY_DEBUG) {
-      CharBuffer decode = StandardCharsets.UTF_8.decode(flip.duplicate());
+      StringBuilder decode = new StringBuilder();
+      for (ByteBuffer buf : bufs)
+        decode.append(StandardCharsets.UTF_8.decode(buf.duplicate()));
       System.err.println("writing to " + name + ": " + decode + "-");
     }
-    int write = channel.write(flip);
-
-    if (-1 == write || isLimit() /* && null != remaining && 0 == remaining.get() */) {
-      key.cancel();
-    } else {
-      // if (isLimit() /*&& null != remaining*/) {
-      // /*this.remaining.getAndAdd(-write);*//*
-      // if (1 > remaining.get()) */{
-      // key.channel().close();
-      // otherKey.channel().close();
-      // return;
-      // }
-      // }
-      key.interestOps(OP_READ | OP_WRITE);// (getOutBuffer().hasRemaining() ? OP_WRITE : 0));
-      getOutBuffer().compact();
+    try {
+      channel.write(bufs);
+    } catch (IOException e) {
+      tail.compact();
+      if (0 == bytes && replay(key))
+        return;
+      abort(key);
+      return;
     }
+    tail.compact();
+    while (1 < out.size() && !out.peekFirst().hasRemaining())
+      BufferPool.release(out.pollFirst());
+    if (full && !peer.eof && (out.size() < PIPE_SEGMENTS || tail.hasRemaining()))
+      on(otherKey, OP_READ);
+    if (1 == out.size() && 0 == tail.position()) {
+      off(key, OP_WRITE);
+      if (peer.eof)
+        peer.done(channel);
+    }
+  }
+
+  /**
+   * the peer's lane is delivered: passes its end of input on, closes the pipe if this direction is done too
+   */
+  private void done(SocketChannel to) {
+    if (closed)
+      return;
+    closed = true;
+    if (PROXY_DEBUG)
+      System.err.println(name + " done: " + bytes + " bytes, " + stalls + " stalls");
+    // this visitor's own key is the one its peer writes for
+    if (peer.closed)
+      close(peer.otherKey);
+    else
+      try {
+        to.shutdownOutput();
+      } catch (IOException e) {
+        close(peer.otherKey);
+      }
+  }
+
+  /**
+   * a chance to redo the exchange elsewhere when this direction's channel failed before a byte came in off it
+   *
+   * @return true when the pipe was {@link #abandon(SelectionKey)}ed for another
+   */
+  protected boolean replay(SelectionKey key) {
+    return false;
+  }
+
+  /**
+   * called on both directions once the pipe is closed or abandoned
+   */
+  protected void onClose() {
+  }
+
+  /**
+   * gives the pipe up for a new one on the other key: closes only this visitor's channel and returns the buffers
+   */
+  protected void abandon(SelectionKey key) {
+    if (null != open && 0 == open.getAndSet(0))
+      return;
+    closed = true;
+    peer.closed = true;
+    off(otherKey, OP_READ | OP_WRITE);
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    release();
+  }
+
+  private void abort(SelectionKey key) {
+    closed = true;
+    peer.closed = true;
+    close(key);
+  }
+
+  /**
+   * closes both channels of the pipe, once
+   */
+  protected void close(SelectionKey key) {
+    if (null != open && 0 == open.getAndSet(0))
+      return;
+    for (SelectionKey k : new SelectionKey[] {key, otherKey})
+      try {
+        k.channel().close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    release();
+  }
+
+  private void release() {
+    for (HttpPipeVisitor v : new HttpPipeVisitor[] {this, peer}) {
+      while (!v.lane.isEmpty())
+        BufferPool.release(v.lane.poll());
+      v.onClose();
+    }
+  }
+
+  private static void on(SelectionKey key, int op) {
+    if (key.isValid() && 0 == (key.interestOps() & op))
+      key.interestOps(key.interestOps() | op);
+  }
+
+  private static void off(SelectionKey key, int op) {
+    if (key.isValid() && 0 != (key.interestOps() & op))
+      key.interestOps(key.interestOps() & ~op);
+  }
+
+  public void tee(Predicate<ByteBuffer> tee) {
+    this.tee = tee;
+  }
+
+  public HttpPipeVisitor getPeer() {
+    return peer;
   }
 
   public ByteBuffer getInBuffer() {
-    return b[0];
+    return lane.peekLast();
   }
 
-  public ByteBuffer getOutBuffer() {
-    return b[1];
+  public long getBytes() {
+    return bytes;
   }
 
-  public boolean isLimit() {
-    return limit;
+  public long getStalls() {
+    return stalls;
   }
 
-  public void setLimit(boolean limit) {
-    this.limit = limit;
+  public static String stats() {
+    return "HttpPipeVisitor{piped=" + piped + ", stalled=" + stalled + '}';
   }
 }
@@ -0,0 +1,379 @@
+package rxf.couch.daemon;
+
+import one.xio.HttpHeaders;
+import one.xio.HttpStatus;
+import rxf.core.Config;
+import rxf.core.DateHeaderParser;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpRequest;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static one.xio.HttpHeaders.*;
+
+/**
+ * the GET responses {@link ProxyDaemon} may answer itself, RXF_PROXY_CACHE=true to enable. keyed by method, Host and
+ * path, an entry is the upstream's 200 verbatim, header and body off-heap, plus a 304 for its validators. a hit is a
+ * 304 when If-None-Match, or If-Modified-Since without it, matches and the stored response otherwise, either way one
+ * gathering write of read-only views.
+ * <p/>
+ * only a 200 with a Content-Length, an ETag or Last-Modified, no Set-Cookie, no Vary and no no-store, private or
+ * no-cache is kept, and only for a request without Authorization or Cookie. it's fresh for its max-age, or
+ * RXF_PROXY_CACHE_TTL ms without one. a stale entry is still served while one conditional GET to the node it came from
+ * revalidates it in the background: a 304 refreshes it, a 200 replaces it, anything else drops it.
+ * <p/>
+ * least recently used entries are evicted past RXF_PROXY_CACHE_BYTES; nothing over RXF_PROXY_CACHE_ENTRY is kept.
+ */
+public class ProxyCache {
+  public static final boolean PROXY_CACHE = "true".equals(Config.get("RXF_PROXY_CACHE", "false"));
+  public static final long PROXY_CACHE_BYTES = Long.parseLong(Config.get("RXF_PROXY_CACHE_BYTES",
+      String.valueOf(64 << 20)));
+  public static final long PROXY_CACHE_ENTRY = Long.parseLong(Config.get("RXF_PROXY_CACHE_ENTRY",
+      String.valueOf(1 << 20)));
+  public static final long PROXY_CACHE_TTL = Long.parseLong(Config.get("RXF_PROXY_CACHE_TTL",
+      "10000"));
+  private static final int TIMEOUT_MS = 5000;
+  private static final Pattern MAX_AGE = Pattern.compile("(?:s-maxage|max-age)\\s*=\\s*(\\d+)");
+  private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+  private static final Map<String, Entry> cache = new LinkedHashMap<>(16, .75f, true);
+  private static long bytes;
+
+  public static final AtomicLong hits = new AtomicLong();
+  public static final AtomicLong stale = new AtomicLong();
+  public static final AtomicLong notModified = new AtomicLong();
+  public static final AtomicLong misses = new AtomicLong();
+  public static final AtomicLong stores = new AtomicLong();
+  public static final AtomicLong evictions = new AtomicLong();
+  public static final AtomicLong revalidations = new AtomicLong();
+
+  private static final ScheduledExecutorService TIMERS = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-proxy-cache");
+        t.setDaemon(true);
+        return t;
+      });
+
+  /**
+   * the request headers a lookup needs, for the reader's headerInterest
+   */
+  public static final HttpHeaders[] REQUEST_HEADERS = {
+      If$2dNone$2dMatch, If$2dModified$2dSince, Authorization, Cookie, Cache$2dControl,
+      Connection};
+
+  /**
+   * @return the cache key when the request may be answered from the cache or fill it, else null
+   */
+  public static String key(HttpRequest req, String host) {
+    if (!PROXY_CACHE || !"GET".equals(req.method()) || null != req.headerString(Authorization)
+        || null != req.headerString(Cookie))
+      return null;
+    String cc = req.headerString(Cache$2dControl);
+    if (null != cc && cc.contains("no-store"))
+      return null;
+    return req.method() + ' ' + host + req.path();
+  }
+
+  /**
+   * @return the entry for key, null on a miss or when the request asks past the cache. a stale entry is returned and
+   *         revalidated in the background.
+   */
+  public static Entry get(String key, HttpRequest req) {
+    String cc = req.headerString(Cache$2dControl);
+    Entry entry = null;
+    if (null == cc || !cc.contains("no-cache"))
+      synchronized (cache) {
+        entry = cache.get(key);
+      }
+    if (null == entry) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    if (entry.expires < System.currentTimeMillis()) {
+      stale.incrementAndGet();
+      if (entry.revalidating.compareAndSet(false, true))
+        TIMERS.execute(entry::revalidate);
+    }
+    return entry;
+  }
+
+  static void put(Entry entry) {
+    stores.incrementAndGet();
+    synchronized (cache) {
+      Entry prev = cache.put(entry.key, entry);
+      if (null != prev)
+        bytes -= prev.bytes;
+      bytes += entry.bytes;
+      for (Iterator<Entry> i = cache.values().iterator(); bytes > PROXY_CACHE_BYTES
+          && i.hasNext();) {
+        Entry eldest = i.next();
+        if (eldest == entry)
+          continue;
+        i.remove();
+        bytes -= eldest.bytes;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  static void remove(Entry entry) {
+    synchronized (cache) {
+      if (cache.remove(entry.key, entry))
+        bytes -= entry.bytes;
+    }
+  }
+
+  public static long bytes() {
+    synchronized (cache) {
+      return bytes;
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      bytes = 0;
+    }
+  }
+
+  /**
+   * @return the Content-Length of a response that may be kept, -1 if it may not
+   */
+  static long storable(HttpResponse res) {
+    String cc = res.headerString(Cache$2dControl);
+    if (HttpStatus.$200 != res.statusEnum() || null != res.headerString(Transfer$2dEncoding)
+        || null != res.headerString(Set$2dCookie) || null != res.headerString(Vary)
+        || null == res.headerString(ETag) && null == res.headerString(Last$2dModified)
+        || null != cc
+        && (cc.contains("no-store") || cc.contains("private") || cc.contains("no-cache")))
+      return -1;
+    try {
+      long length = Long.parseLong(res.headerString(Content$2dLength).trim());
+      return length <= PROXY_CACHE_ENTRY ? length : -1;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  static Rfc822HeaderState responseState() {
+    return new Rfc822HeaderState().headerInterest(ETag, Last$2dModified, Cache$2dControl,
+        Content$2dLength, Transfer$2dEncoding, Set$2dCookie, Vary);
+  }
+
+  static long freshness(String cacheControl) {
+    if (null != cacheControl) {
+      Matcher m = MAX_AGE.matcher(cacheControl);
+      if (m.find())
+        return Long.parseLong(m.group(1)) * 1000;
+    }
+    return PROXY_CACHE_TTL;
+  }
+
+  public static class Entry {
+    final String key;
+    /**
+     * what revalidation sends: the upstream's Host and the path, to the node the response came from
+     */
+    final String host;
+    final String path;
+    final InetSocketAddress origin;
+    final String etag;
+    final String lastModified;
+    final String cacheControl;
+    /**
+     * direct and read-only
+     */
+    final ByteBuffer header;
+    final ByteBuffer body;
+    final ByteBuffer notModified;
+    final long bytes;
+    volatile long expires;
+    final AtomicBoolean revalidating = new AtomicBoolean();
+
+    /**
+     * @param raw a complete response, positioned at its body
+     */
+    Entry(String key, String host, String path, InetSocketAddress origin, HttpResponse res,
+        ByteBuffer raw, long length) {
+      this.key = key;
+      this.host = host;
+      this.path = path;
+      this.origin = origin;
+      etag = res.headerString(ETag);
+      lastModified = res.headerString(Last$2dModified);
+      int start = raw.position();
+      header = direct((ByteBuffer) raw.duplicate().position(0).limit(start));
+      body = direct((ByteBuffer) raw.duplicate().limit(start + (int) length));
+      HttpResponse nm = new Rfc822HeaderState().$res().status(HttpStatus.$304);
+      if (null != etag)
+        nm.headerString(ETag, etag);
+      if (null != lastModified)
+        nm.headerString(Last$2dModified, lastModified);
+      cacheControl = res.headerString(Cache$2dControl);
+      if (null != cacheControl)
+        nm.headerString(Cache$2dControl, cacheControl);
+      notModified = direct(nm.asByteBuffer());
+      bytes = header.limit() + body.limit() + notModified.limit();
+      expires = System.currentTimeMillis() + freshness(cacheControl);
+    }
+
+    /**
+     * @return the views to write for req, 304 or the stored response
+     */
+    public ByteBuffer[] answer(HttpRequest req) {
+      String match = req.headerString(If$2dNone$2dMatch);
+      String since = req.headerString(If$2dModified$2dSince);
+      boolean unchanged;
+      if (null != match)
+        unchanged = null != etag && (match.contains(etag) || "*".equals(match.trim()));
+      else if (null != since && null != lastModified) {
+        Date client = DateHeaderParser.parseDate(since);
+        Date ours = DateHeaderParser.parseDate(lastModified);
+        unchanged = null != client && null != ours && !ours.after(client);
+      } else
+        unchanged = false;
+      if (unchanged) {
+        ProxyCache.notModified.incrementAndGet();
+        return new ByteBuffer[] {notModified.duplicate(), EMPTY};
+      }
+      return new ByteBuffer[] {header.duplicate(), body.duplicate()};
+    }
+
+    /**
+     * one conditional GET, blocking, off the selector
+     */
+    void revalidate() {
+      revalidations.incrementAndGet();
+      try (Socket socket = new Socket()) {
+        socket.connect(origin, TIMEOUT_MS);
+        socket.setSoTimeout(TIMEOUT_MS);
+        StringBuilder req =
+            new StringBuilder("GET ").append(path).append(" HTTP/1.1\r\nHost: ").append(host)
+                .append("\r\nConnection: close\r\n");
+        if (null != etag)
+          req.append(If$2dNone$2dMatch.getHeader()).append(": ").append(etag).append("\r\n");
+        if (null != lastModified)
+          req.append(If$2dModified$2dSince.getHeader()).append(": ").append(lastModified)
+              .append("\r\n");
+        OutputStream out = socket.getOutputStream();
+        out.write(req.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        InputStream in = socket.getInputStream();
+        byte[] b = new byte[8 << 10];
+        for (int n; -1 != (n = in.read(b)) && sink.size() <= PROXY_CACHE_ENTRY + (64 << 10);)
+          sink.write(b, 0, n);
+        ByteBuffer raw = ByteBuffer.wrap(sink.toByteArray());
+        Rfc822HeaderState state = responseState();
+        if (!state.apply(raw))
+          throw new IOException("incomplete response from " + origin);
+        HttpResponse res = state.$res();
+        if (HttpStatus.$304 == res.statusEnum()) {
+          String cc = res.headerString(Cache$2dControl);
+          expires = System.currentTimeMillis() + freshness(null == cc ? cacheControl : cc);
+          return;
+        }
+        long length = storable(res);
+        if (-1 != length && raw.remaining() >= length)
+          put(new Entry(key, host, path, origin, res, raw, length));
+        else
+          remove(this);
+      } catch (IOException | RuntimeException e) {
+        // can't tell, let the next request through to the node
+        remove(this);
+      } finally {
+        revalidating.set(false);
+      }
+    }
+
+    static ByteBuffer direct(ByteBuffer src) {
+      ByteBuffer buf = ByteBuffer.allocateDirect(src.remaining());
+      buf.put(src).flip();
+      return buf.asReadOnlyBuffer();
+    }
+  }
+
+  /**
+   * tees the first response off an upstream connection, keeping it if it may be kept. fed what the pipe reads, it
+   * stops as soon as the response is whole or turns out not to be storable.
+   */
+  public static class Fill implements Predicate<ByteBuffer> {
+    final String key;
+    final String host;
+    final String path;
+    InetSocketAddress origin;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    private HttpResponse res;
+    private int start;
+    private long length;
+
+    public Fill(String key, String host, String path) {
+      this.key = key;
+      this.host = host;
+      this.path = path;
+    }
+
+    /**
+     * @param origin the node this response comes from
+     */
+    public Fill from(InetSocketAddress origin) {
+      this.origin = origin;
+      return this;
+    }
+
+    /**
+     * @return false once done with the stream
+     */
+    public boolean test(ByteBuffer read) {
+      int n = read.remaining();
+      if (sink.size() + n > PROXY_CACHE_ENTRY + (64 << 10))
+        return false;
+      byte[] b = new byte[n];
+      read.get(b);
+      sink.write(b, 0, n);
+      if (null == res) {
+        ByteBuffer raw = ByteBuffer.wrap(sink.toByteArray());
+        Rfc822HeaderState state = responseState();
+        if (!state.apply(raw))
+          return true;
+        res = state.$res();
+        start = raw.position();
+        length = storable(res);
+        if (-1 == length)
+          return false;
+      }
+      if (sink.size() < start + length)
+        return true;
+      ByteBuffer raw = ByteBuffer.wrap(sink.toByteArray());
+      raw.position(start);
+      put(new Entry(key, host, path, origin, res, raw, length));
+      return false;
+    }
+  }
+
+  public static String stats() {
+    return "ProxyCache{hits=" + hits + ", stale=" + stale + ", notModified=" + notModified
+        + ", misses=" + misses + ", stores=" + stores + ", evictions=" + evictions
+        + ", revalidations=" + revalidations + ", bytes=" + bytes() + '}';
+  }
+}
@@ -3,9 +3,12 @@ package rxf.couch.daemon;
 import one.xio.AsioVisitor;
 import one.xio.AsyncSingletonServer;
 import one.xio.HttpHeaders;
+import rxf.core.BufferPool;
 import rxf.core.Config;
 import rxf.core.Rfc822HeaderState;
+import rxf.core.SecureChannel;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
@@ -15,9 +18,14 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static java.nio.channels.SelectionKey.*;
 
@@ -44,13 +52,19 @@ public class ProxyDaemon extends AsioVisitor.Impl {
   public static final String PROXY_HOST = Config.get("PROXY_HOST", "127.0.0.1");
   private static final boolean RPS_SHOW = "true".equals(Config.get("RPS_SHOW", "true"));
   private static final boolean PROXY_DEBUG = "true".equals(Config.get("PROXY_DEBUG", "false"));
+  /**
+   * Host, plus what the {@link ProxyCache} looks at when it's on
+   */
+  private static final HttpHeaders[] REQUEST_INTEREST = ProxyCache.PROXY_CACHE ? Stream.concat(
+      Stream.of(HttpHeaders.Host), Stream.of(ProxyCache.REQUEST_HEADERS)).toArray(
+      HttpHeaders[]::new) : new HttpHeaders[] {HttpHeaders.Host};
   /**
    * master counter for stats per inbound requests
    */
   public static int counter = 0;
   public FileChannel hdrStream;
   /**
-   * request lead-in data is placed in this buffer.
+   * request lead-in data is placed in this buffer, one per accepted connection.
    */
   ByteBuffer cursor;
 
@@ -69,56 +83,187 @@ public class ProxyDaemon extends AsioVisitor.Impl {
       }
   }
 
+  /**
+   * the visitor of one accepted connection, sharing the listener's settings
+   */
+  private ProxyDaemon(ProxyDaemon listener) {
+    proxyTask = listener.proxyTask;
+    preallocAddr = listener.preallocAddr;
+    hdrStream = listener.hdrStream;
+  }
+
   /**
    * creates a http-specific socket proxy to move bytes between innerKey and outerKey in the async framework.
    * 
    * @param outerKey connection to the f5
    * @param innerKey connection to the Distributor
-   * @param b the DMA ByteBuffers where applicable
+   * @param b the DMA ByteBuffers where applicable, inward then outward, owned by the pipe from here on; pooled ones go
+   *          back to the {@link BufferPool} once it has closed. the inward buffer may already hold the request lead-in.
    */
-  public static void pipe(SelectionKey innerKey, final SelectionKey outerKey, final ByteBuffer... b) {
+  public static HttpPipeVisitor pipe(SelectionKey innerKey, final SelectionKey outerKey,
+      final ByteBuffer... b) {
     String s = "pipe-" + counter;
-    final ByteBuffer ob = b.length > 1 ? b[1] : ByteBuffer.allocate(4 << 10);
-    final HttpPipeVisitor ib = new HttpPipeVisitor(s + "-in", innerKey, b[0], ob);
-    outerKey.interestOps(OP_READ | OP_WRITE).attach(ib);
-    innerKey.interestOps(OP_WRITE);
-    innerKey.attach(new HttpPipeVisitor(s + "-out", outerKey, ob, b[0]) {
-      public boolean fail;
-
-      public void onRead(SelectionKey key) throws Exception {
-        if (!ib.isLimit() || fail) {
-          SocketChannel channel = (SocketChannel) key.channel();
-          int read = Helper.read(key, getInBuffer());
-          switch (read) {
-            case -1:
-              channel.close();
-            case 0:
+    final ByteBuffer ob = b.length > 1 ? b[1] : BufferPool.acquire(HttpPipeVisitor.PIPE_SEGMENT);
+    AtomicInteger open = new AtomicInteger(2);
+    HttpPipeVisitor out = new HttpPipeVisitor(s + "-out", outerKey, open, ob);
+    pipe(innerKey, outerKey, new HttpPipeVisitor(s + "-in", innerKey, open, b[0]), out);
+    return out;
+  }
+
+  /**
+   * @param in reads outerKey, the request direction
+   * @param out reads innerKey, the response direction
+   */
+  static void pipe(SelectionKey innerKey, SelectionKey outerKey, HttpPipeVisitor in,
+      HttpPipeVisitor out) {
+    HttpPipeVisitor.join(in, out);
+    outerKey.interestOps(OP_READ).attach(in);
+    innerKey.interestOps(0 < in.getInBuffer().position() ? OP_READ | OP_WRITE : OP_READ).attach(
+        out);
+  }
+
+  /**
+   * pipes a request to the backend {@link Upstreams} picks for it, over one of its idle connections if it has one. a
+   * node that refuses the connection is ejected and the next one tried; a GET or HEAD whose node hangs up before
+   * answering is sent again to another, up to RXF_PROXY_RETRIES times.
+   *
+   * @param inwardBuffer the request lead-in, owned by the pipe from here on
+   * @param replay a copy of the lead-in to send again, null if the request can't be
+   * @param tried the nodes this request has failed on
+   * @param fill tees the response into the {@link ProxyCache}, null if it isn't wanted there
+   */
+  static void upstream(final SelectionKey outerKey, final ByteBuffer inwardBuffer,
+      final String path, final byte[] replay, final List<Upstreams.Node> tried,
+      final ProxyCache.Fill fill) throws IOException {
+    final Upstreams.Node node = Upstreams.pick(path, tried);
+    if (null == node) {
+      BufferPool.release(inwardBuffer);
+      outerKey.channel().close();
+      return;
+    }
+    SocketChannel idle = node.take();
+    if (null != idle) {
+      connected(idle.register(outerKey.selector(), 0), outerKey, inwardBuffer, path, replay,
+          tried, node, fill);
+      return;
+    }
+    final SocketChannel innerChannel;
+    try {
+      innerChannel = SocketChannel.open();
+    } catch (IOException e) {
+      // pick() counted a pipe that won't open
+      node.release();
+      throw e;
+    }
+    try {
+      innerChannel.configureBlocking(false);
+      innerChannel.connect(node.address);
+      innerChannel.register(outerKey.selector(), OP_CONNECT, new Impl() {
+
+        public void onConnect(SelectionKey key) throws Exception {
+          try {
+            if (!innerChannel.finishConnect())
               return;
-            default:
-              Rfc822HeaderState.HttpResponse httpResponse =
-                  new Rfc822HeaderState().headerInterest(HttpHeaders.Content$2dLength).read(
-                      (ByteBuffer) getInBuffer().duplicate().flip()).$res();
-              // if (BlobAntiPatternObject.suffixMatchChunks(TERMINATOR, httpResponse.headerBuf()
-              // .duplicate())) ;
-              break;
+          } catch (IOException e) {
+            refused(innerChannel, outerKey, inwardBuffer, path, replay, tried, node, fill);
+            return;
           }
+          connected(key, outerKey, inwardBuffer, path, replay, tried, node, fill);
         }
-        super.onRead(key);
+      });
+    } catch (IOException | UnresolvedAddressException e) {
+      refused(innerChannel, outerKey, inwardBuffer, path, replay, tried, node, fill);
+    }
+  }
+
+  /**
+   * the node didn't take the connection, at once or later: ejects it and tries the next
+   */
+  private static void refused(SocketChannel innerChannel, SelectionKey outerKey,
+      ByteBuffer inwardBuffer, String path, byte[] replay, List<Upstreams.Node> tried,
+      Upstreams.Node node, ProxyCache.Fill fill) throws IOException {
+    innerChannel.close();
+    node.eject();
+    node.release();
+    tried.add(node);
+    upstream(outerKey, inwardBuffer, path, replay, tried, fill);
+  }
+
+  private static void connected(SelectionKey innerKey, final SelectionKey outerKey,
+      ByteBuffer inwardBuffer, final String path, final byte[] replay,
+      final List<Upstreams.Node> tried, final Upstreams.Node node, final ProxyCache.Fill fill) {
+    String s = "pipe-" + counter;
+    AtomicInteger open = new AtomicInteger(2);
+    HttpPipeVisitor in = new HttpPipeVisitor(s + "-in", innerKey, open, inwardBuffer);
+    HttpPipeVisitor out =
+        new HttpPipeVisitor(s + "-out", outerKey, open, BufferPool
+            .acquire(HttpPipeVisitor.PIPE_SEGMENT)) {
+
+          protected boolean replay(SelectionKey key) {
+            if (null == replay || 0 < getPeer().getBytes()
+                || tried.size() >= Upstreams.PROXY_RETRIES)
+              return false;
+            abandon(key);
+            tried.add(node);
+            Upstreams.retries.incrementAndGet();
+            try {
+              upstream(outerKey, BufferPool.acquire(
+                  Math.max(HttpPipeVisitor.PIPE_SEGMENT, replay.length)).put(replay), path, replay,
+                  tried, fill);
+            } catch (IOException e) {
+              e.printStackTrace();
+              try {
+                outerKey.channel().close();
+              } catch (IOException e1) {
+                e1.printStackTrace();
+              }
+            }
+            return true;
+          }
+
+          protected void onClose() {
+            node.release();
+          }
+        };
+    if (null != fill)
+      out.tee(fill.from(node.address));
+    pipe(innerKey, outerKey, in, out);
+  }
+
+  /**
+   * writes a response the proxy answered itself, then goes back to reading the connection's next request
+   */
+  private void serve(SelectionKey outerKey, final ByteBuffer[] response, final boolean close)
+      throws Exception {
+    Helper.F next = key -> {
+      if (close)
+        key.channel().close();
+      else
+        key.interestOps(OP_READ).attach(this);
+    };
+    ((SocketChannel) outerKey.channel()).write(response);
+    for (ByteBuffer buf : response)
+      if (buf.hasRemaining()) {
+        Helper.finishWrite(outerKey, next, response);
+        return;
       }
-    });
+    next.apply(outerKey);
   }
 
   public void onAccept(SelectionKey key) throws Exception {
     ServerSocketChannel c = (ServerSocketChannel) key.channel();
     final SocketChannel accept = c.accept();
     accept.configureBlocking(false);
-    AsyncSingletonServer.SingleThreadSingletonServer.enqueue(accept, OP_READ, this);
+    AsyncSingletonServer.SingleThreadSingletonServer.enqueue(accept, OP_READ,
+        new ProxyDaemon(this));
   }
 
   public void onRead(final SelectionKey outerKey) throws Exception {
 
     if (cursor == null)
-      cursor = ByteBuffer.allocate(4 << 10);
+      cursor = BufferPool.acquire(4 << 10);
+    else if (!cursor.hasRemaining())
+      cursor = BufferPool.grow(cursor);
     final SocketChannel outterChannel = (SocketChannel) outerKey.channel();
     int read = Helper.read(outterChannel, cursor);
     if (-1 != read) {
@@ -129,9 +274,12 @@ public class ProxyDaemon extends AsioVisitor.Impl {
         l = System.nanoTime();
       Rfc822HeaderState.HttpRequest req =
           (Rfc822HeaderState.HttpRequest) new Rfc822HeaderState().$req().headerInterest(
-              HttpHeaders.Host).read((ByteBuffer) cursor.duplicate().flip());
+              REQUEST_INTEREST).read((ByteBuffer) cursor.duplicate().flip());
       ByteBuffer headersBuf = req.headerBuf();
       if (Rfc822HeaderState.suffixMatchChunks(TERMINATOR, headersBuf)) {
+        String method = req.method();
+        String path = req.path();
+        String cacheKey = ProxyCache.key(req, req.headerString(HttpHeaders.Host));
 
         int climit = cursor.position();
         if (PROXY_DEBUG) {
@@ -142,24 +290,42 @@ public class ProxyDaemon extends AsioVisitor.Impl {
           System.err.println(Arrays.deepToString(split));
         }
         req.headerString(HttpHeaders.Host, proxyTask.prefix);
-        InetSocketAddress address =
-            (InetSocketAddress) outterChannel.socket().getRemoteSocketAddress();
+        // the client's, not the loopback's, when the request came in through the TLS terminator
+        InetSocketAddress address = SecureChannel.origin(outterChannel);
 
         // grab a frame of int offsets
         Map<String, int[]> headers = HttpHeaders.getHeaders((ByteBuffer) headersBuf.flip());
         int[] hosts = headers.get("Host");
 
+        // a lone GET the cache can answer doesn't go upstream at all
+        if (null != cacheKey && climit == headersBuf.limit()) {
+          ProxyCache.Entry hit = ProxyCache.get(cacheKey, req);
+          if (null != hit) {
+            BufferPool.release(cursor);
+            cursor = null;
+            counter++;
+            String connection = req.headerString(HttpHeaders.Connection);
+            serve(outerKey, hit.answer(req), null == connection ? !"HTTP/1.1".equals(req
+                .protocol()) : !"keep-alive".equalsIgnoreCase(connection.trim()));
+            return;
+          }
+        }
+        final ProxyCache.Fill fill =
+            null == cacheKey ? null : new ProxyCache.Fill(cacheKey, proxyTask.prefix, path);
+
         ByteBuffer slice2 =
             StandardCharsets.UTF_8.encode("Host: " + proxyTask.prefix + "\r\nX-Origin-Host: "
-                + address.toString() + "\r\n");
+                + address.toString() + "\r\n"
+                + (SecureChannel.secure(outterChannel) ? "X-Forwarded-Proto: https\r\n" : ""));
 
         Buffer position = cursor.limit(climit).position(headersBuf.limit());
 
         final ByteBuffer inwardBuffer =
-            ByteBuffer.allocateDirect(8 << 10).put(
+            BufferPool.acquire(8 << 10).put(
                 (ByteBuffer) cursor.clear().limit(1 + hosts[0] - HOSTPREFIXLEN)).put(
                 (ByteBuffer) cursor.limit(headersBuf.limit() - 2).position(hosts[1])).put(slice2)
                 .put((ByteBuffer) position);
+        BufferPool.release(cursor);
         cursor = null;
 
         if (PROXY_DEBUG) {
@@ -169,7 +335,19 @@ public class ProxyDaemon extends AsioVisitor.Impl {
             System.err.println("header decode (ns):" + (System.nanoTime() - l));
         }
         counter++;
+        if (PROXY_DEBUG && timeHeaders)
+          System.err.println(BufferPool.stats() + " " + HttpPipeVisitor.stats() + " "
+              + Upstreams.stats() + " " + ProxyCache.stats());
 
+        if (Upstreams.configured()) {
+          byte[] replay = null;
+          if ("GET".equals(method) || "HEAD".equals(method)) {
+            replay = new byte[inwardBuffer.position()];
+            ((ByteBuffer) inwardBuffer.duplicate().flip()).get(replay);
+          }
+          upstream(outerKey, inwardBuffer, path, replay, new ArrayList<Upstreams.Node>(), fill);
+          return;
+        }
         final SocketChannel innerChannel =
             (SocketChannel) SocketChannel.open().configureBlocking(false);
         InetSocketAddress remote;
@@ -186,18 +364,25 @@ public class ProxyDaemon extends AsioVisitor.Impl {
             remote = preallocAddr;
             break;
         }
+        final InetSocketAddress origin = remote;
         innerChannel.connect(remote);
         innerChannel.register(outerKey.selector().wakeup(), OP_CONNECT, new Impl() {
 
           public void onConnect(SelectionKey key) throws Exception {
-            if (innerChannel.finishConnect())
-              pipe(key, outerKey, inwardBuffer, (ByteBuffer) ByteBuffer.allocateDirect(8 << 10)
-                  .clear());
+            if (innerChannel.finishConnect()) {
+              HttpPipeVisitor out = pipe(key, outerKey, inwardBuffer);
+              if (null != fill)
+                out.tee(fill.from(origin));
+            }
           }
         });
       }
-    } else
+    } else {
+      BufferPool.release(cursor);
+      cursor = null;
       outerKey.cancel();
+      outterChannel.close();
+    }
   }
 
   public void onWrite(SelectionKey key) throws Exception {
@@ -0,0 +1,282 @@
+package rxf.couch.daemon;
+
+import rxf.core.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the backends {@link ProxyDaemon} balances over, RXF_PROXY_BACKENDS=host:port,host:port. without any it keeps to
+ * PROXY_HOST:PROXY_PORT as before.
+ * <p/>
+ * RXF_PROXY_BALANCE=least sends a connection to the node with the fewest open pipes, hash to the node owning the
+ * request path on a consistent hash ring, so a node coming or going only moves its own share of paths. a node that
+ * refuses a connection or fails its health check, a GET / every RXF_PROXY_HEALTH_MS, is ejected locally for
+ * RXF_PROXY_EJECT_MS or until a check passes; while ejected it's only picked when every node is.
+ * <p/>
+ * each node keeps RXF_PROXY_IDLE connections open ahead of demand, so a request doesn't wait on a connect. the pipe
+ * owns its upstream connection for the life of the client's, every request a keep-alive client sends on it included.
+ */
+public class Upstreams {
+  public static final String PROXY_BACKENDS = Config.get("RXF_PROXY_BACKENDS", "");
+  public static final boolean PROXY_HASH = "hash".equals(Config.get("RXF_PROXY_BALANCE", "least"));
+  public static final int PROXY_IDLE = Integer.parseInt(Config.get("RXF_PROXY_IDLE", "2"));
+  public static final long PROXY_HEALTH_MS = Long.parseLong(Config.get("RXF_PROXY_HEALTH_MS",
+      "5000"));
+  public static final long PROXY_EJECT_MS = Long.parseLong(Config.get("RXF_PROXY_EJECT_MS",
+      "10000"));
+  /**
+   * the times a GET that found its node gone goes to another
+   */
+  public static final int PROXY_RETRIES = Integer.parseInt(Config.get("RXF_PROXY_RETRIES", "2"));
+  /**
+   * ring points per node
+   */
+  private static final int REPLICAS = 100;
+  private static final int CONNECT_MS = 1000;
+
+  public static final AtomicLong warm = new AtomicLong();
+  public static final AtomicLong cold = new AtomicLong();
+  public static final AtomicLong ejections = new AtomicLong();
+  public static final AtomicLong retries = new AtomicLong();
+
+  private static final List<Node> nodes = new ArrayList<>();
+  private static final TreeMap<Integer, Node> ring = new TreeMap<>();
+  private static final AtomicInteger rotor = new AtomicInteger();
+  private static final ScheduledExecutorService TIMERS = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-proxy-health");
+        t.setDaemon(true);
+        return t;
+      });
+
+  static {
+    configure(PROXY_BACKENDS);
+    if (!nodes.isEmpty())
+      TIMERS.scheduleWithFixedDelay(Upstreams::check, 0, PROXY_HEALTH_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * replaces the nodes and the ring with backends, host:port,host:port
+   */
+  static void configure(String backends) {
+    nodes.clear();
+    ring.clear();
+    for (String backend : backends.split(",")) {
+      backend = backend.trim();
+      if (backend.isEmpty())
+        continue;
+      int colon = backend.lastIndexOf(':');
+      Node node =
+          new Node(new InetSocketAddress(backend.substring(0, colon), Integer.parseInt(backend
+              .substring(colon + 1))));
+      nodes.add(node);
+      for (int i = 0; i < REPLICAS; i++)
+        ring.put(hash(backend + '#' + i), node);
+    }
+  }
+
+  public static class Node {
+    public final InetSocketAddress address;
+    /**
+     * pipes open to this node
+     */
+    final AtomicInteger outstanding = new AtomicInteger();
+    final Queue<SocketChannel> idle = new ConcurrentLinkedQueue<>();
+    volatile long ejectedUntil;
+
+    Node(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    boolean healthy() {
+      return ejectedUntil <= System.currentTimeMillis();
+    }
+
+    /**
+     * @return a connected non-blocking channel off the idle pool, null if there's none still open
+     */
+    public SocketChannel take() {
+      ByteBuffer probe = ByteBuffer.allocate(1);
+      for (SocketChannel channel; null != (channel = idle.poll());) {
+        try {
+          // an idle connection has nothing to say, unless the node has hung up on it
+          if (0 == channel.read(probe)) {
+            warm.incrementAndGet();
+            TIMERS.execute(this::fill);
+            return channel;
+          }
+        } catch (IOException e) {
+          // closed under us
+        }
+        close(channel);
+        probe.clear();
+      }
+      cold.incrementAndGet();
+      TIMERS.execute(this::fill);
+      return null;
+    }
+
+    /**
+     * a pipe to this node has closed
+     */
+    public void release() {
+      outstanding.decrementAndGet();
+    }
+
+    public void eject() {
+      if (healthy())
+        ejections.incrementAndGet();
+      ejectedUntil = System.currentTimeMillis() + PROXY_EJECT_MS;
+      for (SocketChannel channel; null != (channel = idle.poll());)
+        close(channel);
+    }
+
+    private void fill() {
+      while (healthy() && idle.size() < PROXY_IDLE) {
+        SocketChannel channel = null;
+        try {
+          channel = SocketChannel.open();
+          channel.socket().connect(address, CONNECT_MS);
+          channel.configureBlocking(false);
+          idle.add(channel);
+        } catch (IOException e) {
+          close(channel);
+          eject();
+        }
+      }
+    }
+
+    /**
+     * GET / answered below 500
+     */
+    private void check() {
+      try (Socket socket = new Socket()) {
+        socket.connect(address, CONNECT_MS);
+        socket.setSoTimeout(CONNECT_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET / HTTP/1.0\r\nHost: " + address.getHostString() + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        byte[] status = new byte[12];
+        int n = 0;
+        for (int r; n < status.length && -1 != (r = in.read(status, n, status.length - n));)
+          n += r;
+        String line = new String(status, 0, n, StandardCharsets.US_ASCII);
+        if (n < status.length || !line.startsWith("HTTP/1.") || '5' == line.charAt(9))
+          throw new IOException(address + ": " + line);
+        ejectedUntil = 0;
+        fill();
+      } catch (IOException | RuntimeException e) {
+        eject();
+      }
+    }
+
+    public String toString() {
+      return address + "{outstanding=" + outstanding + ", idle=" + idle.size() + ", healthy="
+          + healthy() + '}';
+    }
+  }
+
+  public static boolean configured() {
+    return !nodes.isEmpty();
+  }
+
+  public static List<Node> nodes() {
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * picks the node for a request and counts a pipe open to it, which {@link Node#release()} takes back
+   *
+   * @param tried nodes that already failed this request
+   * @return null when every node has been tried
+   */
+  public static Node pick(String path, Collection<Node> tried) {
+    return pick(PROXY_HASH, path, tried);
+  }
+
+  /**
+   * @param hash the ring rather than the fewest outstanding
+   */
+  static Node pick(boolean hash, String path, Collection<Node> tried) {
+    Node node = pick(hash, path, tried, true);
+    if (null == node)
+      // all ejected, try them anyway rather than fail
+      node = pick(hash, path, tried, false);
+    if (null != node)
+      node.outstanding.incrementAndGet();
+    return node;
+  }
+
+  private static Node pick(boolean hash, String path, Collection<Node> tried, boolean healthy) {
+    if (hash) {
+      Map.Entry<Integer, Node> at = ring.ceilingEntry(hash(path));
+      for (int i = 0; i < ring.size(); i++) {
+        if (null == at)
+          at = ring.firstEntry();
+        Node node = at.getValue();
+        if (!tried.contains(node) && (!healthy || node.healthy()))
+          return node;
+        at = ring.higherEntry(at.getKey());
+      }
+      return null;
+    }
+    Node best = null;
+    int start = rotor.getAndIncrement() & Integer.MAX_VALUE;
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get((start + i) % nodes.size());
+      if (!tried.contains(node) && (!healthy || node.healthy())
+          && (null == best || node.outstanding.get() < best.outstanding.get()))
+        best = node;
+    }
+    return best;
+  }
+
+  private static void check() {
+    for (Node node : nodes)
+      node.check();
+  }
+
+  /**
+   * spreads String.hashCode over the ring
+   */
+  static int hash(String s) {
+    int h = s.hashCode() * 0x9E3779B9;
+    return h ^ h >>> 16;
+  }
+
+  private static void close(SocketChannel channel) {
+    if (null != channel)
+      try {
+        channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+  }
+
+  public static String stats() {
+    return "Upstreams{warm=" + warm + ", cold=" + cold + ", ejections=" + ejections + ", retries="
+        + retries + ", nodes=" + nodes + '}';
+  }
+}
@@ -3,20 +3,30 @@ package rxf.couch.driver;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import one.xio.AsioVisitor.Impl;
 import one.xio.HttpMethod;
 import one.xio.HttpStatus;
 import one.xio.MimeType;
+import rxf.core.BufferPool;
+import rxf.core.ChunkedDecoder;
 import rxf.core.Config;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.core.Rfc822HeaderState.HttpResponse;
 import rxf.core.Tx;
+import rxf.couch.BulkDocs;
+import rxf.couch.Codecs;
 import rxf.couch.DbKeysBuilder;
+import rxf.couch.DocCache;
+import rxf.couch.SingleFlight;
 import rxf.rpc.RpcHelper;
 import rxf.web.inf.ProtocolMethodDispatch;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
@@ -24,14 +34,20 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.Phaser;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static java.nio.channels.SelectionKey.*;
 import static one.xio.AsioVisitor.Helper.toRead;
@@ -77,10 +93,10 @@ public enum CouchMetaDriver {
   // @DbTask( {tx, oneWay})
   // @DbKeys( {db})
   DbCreate {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final Phaser phaser = new Phaser(2);
-      final SocketChannel channel = createCouchConnection();
-      enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
         // *******************************
         // pathological buffersize traits
         // *******************************
@@ -102,9 +118,8 @@ public enum CouchMetaDriver {
             if (null == tx.payload()) {
               // geometric, vulnerable to dev/null if not max'd here.
               header =
-                  null == header ? ByteBuffer.allocateDirect(4 << 10) : header.hasRemaining()
-                      ? header : ByteBuffer.allocateDirect(header.capacity() * 2).put(
-                          (ByteBuffer) header.flip());
+                  null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining()
+                      ? header : BufferPool.grow(header);
 
               int read = Helper.read(key1, header);
               ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
@@ -127,21 +142,20 @@ public enum CouchMetaDriver {
                     if (remaining == tx.payload().remaining()) {
                       deliver();
                     } else {
-                      tx.payload(ByteBuffer.allocateDirect(remaining).put(tx.payload()));
+                      tx.payload(BufferPool.acquire(remaining).put(tx.payload()));
                     }
                     break;
                   default: // error
-                    phaser.forceTermination();
-                    channel.close();
+                    done.completeExceptionally(failure(httpStatus));
+                    abandon(channel);
                 }
               }
             } else {
               int read = Helper.read(key1, tx.payload());
               switch (read) {
                 case -1:
-                  phaser.forceTermination();
-
-                  channel.close();
+                  done.completeExceptionally(failure("hangup"));
+                  abandon(channel);
                   return;
               }
               if (!tx.payload().hasRemaining()) {
@@ -155,29 +169,21 @@ public enum CouchMetaDriver {
         private void deliver() {
           tx.payload(tx.payload());
           recycleChannel(channel);
-          phaser.arrive();
+          done.complete(tx);
         }
 
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      }));
+      return done;
     }
 
   },
   // @DbTask( {tx, oneWay})
   // @DbKeys( {db})
   DbDelete {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final Phaser phaser = new Phaser(2);
-      final SocketChannel channel = createCouchConnection();
-
-      enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
         ByteBuffer header = (ByteBuffer) tx.hdr().$req().method(DELETE).pathResCode(
             "/" + dbKeysBuilder.get(db)).asByteBuffer();
         public HttpResponse response;
@@ -195,9 +201,8 @@ public enum CouchMetaDriver {
           if (null == tx.payload()) {
             // geometric, vulnerable to dev/null if not max'd here.
             header =
-                null == header ? ByteBuffer.allocateDirect(4 << 10) : header.hasRemaining()
-                    ? header : ByteBuffer.allocateDirect(header.capacity() * 2).put(
-                        (ByteBuffer) header.flip());
+                null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining()
+                    ? header : BufferPool.grow(header);
 
             int read = Helper.read(key, header);
             ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
@@ -222,21 +227,20 @@ public enum CouchMetaDriver {
                   if (remaining == tx.payload().remaining()) {
                     deliver();
                   } else {
-                    tx.payload(ByteBuffer.allocateDirect(remaining).put(tx.payload()));
+                    tx.payload(BufferPool.acquire(remaining).put(tx.payload()));
                   }
                   break;
                 default: // error
-                  phaser.forceTermination();
-                  channel.close();
+                  done.completeExceptionally(failure(httpStatus));
+                  abandon(channel);
               }
             }
           } else {
             int read = Helper.read(key, tx.payload());
             switch (read) {
               case -1:
-                phaser.forceTermination();
-
-                channel.close();
+                done.completeExceptionally(failure("hangup"));
+                abandon(channel);
                 return;
             }
             if (!tx.payload().hasRemaining()) {
@@ -249,39 +253,59 @@ public enum CouchMetaDriver {
         private void deliver() {
           recycleChannel(channel);
           tx.payload(tx.payload());
-          phaser.arrive();
+          done.complete(tx);
         }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      }));
+      return done;
     }
   },
 
   // @DbTask( {pojo, future, json})
   // @DbKeys( {db, docId})
   DocFetch {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final SocketChannel channel = createCouchConnection();
-      final Phaser phaser = new Phaser(2);
-      enqueue(channel, OP_CONNECT | OP_WRITE, new Impl() {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      String path = dbKeysBuilder.get(etype.db) + "/" + dbKeysBuilder.get(docId);
+      return SingleFlight.join(name() + ' ' + path, tx, () -> send(dbKeysBuilder, tx));
+    }
+
+    /**
+     * consults {@link DocCache} first for dbs that opted in: a fresh entry completes without a round trip, a stale one
+     * is sent as If-None-Match.
+     */
+    CompletableFuture<Tx> send(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
+      final String db = (String) dbKeysBuilder.get(etype.db);
+      final String id = (String) dbKeysBuilder.get(docId);
+      final DocCache.Entry cached = DocCache.get(db, id);
+      if (null != cached && cached.fresh()) {
+        cached.headers(tx.hdr().$res());
+        return CompletableFuture.completedFuture(tx.payload(cached.hit()));
+      }
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      // stamps the cache fill, a write seen from here on makes it stale
+      final long sent = System.currentTimeMillis();
+      lease(done, channel -> enqueue(channel, OP_CONNECT | OP_WRITE, new Impl() {
         // *******************************
         // *******************************
         // pathological buffersize traits
         // *******************************
         // *******************************
 
-        String db = (String) dbKeysBuilder.get(etype.db);
-        String id = (String) dbKeysBuilder.get(docId);
-        HttpRequest request = tx.hdr().$req();
+        /**
+         * a revalidation goes out on a private copy, the caller's headers never see If-None-Match; tx takes it on with
+         * the response
+         */
+        final Rfc822HeaderState state = null == cached ? tx.hdr() : tx.hdr().snapshot()
+            .headerString(If$2dNone$2dMatch, cached.etag);
+        HttpRequest request = state.$req();
         ByteBuffer header = (ByteBuffer) request.path(
             scrub("/" + db + (null == id ? "" : "/" + id))).method(GET).addHeaderInterest(
             STATIC_CONTENT_LENGTH_ARR).asByteBuffer();
+        String etag;
+        /**
+         * the body buffer came from the pool rather than being a slice of the header buffer
+         */
+        boolean pooled;
 
         public void onWrite(SelectionKey key) throws Exception {
           int write = channel.write(header);
@@ -297,21 +321,19 @@ public enum CouchMetaDriver {
           if (null == cursor) { // haven't started body yet
             // geometric, vulnerable to dev/null if not max'd here.
             if (null == header)
-              header = ByteBuffer.allocateDirect(4 << 10);
+              header = BufferPool.acquire(4 << 10);
             else
-              header =
-                  header.hasRemaining() ? header : ByteBuffer.allocateDirect(header.capacity() * 2)
-                      .put((ByteBuffer) header.flip());
+              header = header.hasRemaining() ? header : BufferPool.grow(header);
 
             int read = Helper.read(key, header);
             if (-1 == read) {// nothing else to read from the header, never started body, something is wrong
-              phaser.forceTermination();
-              key.cancel();
-              channel.close();
+              done.completeExceptionally(failure("hangup"));
+              abandon(channel);
               return;
             }
             ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
-            HttpResponse response = request.headerInterest(STATIC_JSON_SEND_HEADERS).$res();
+            // added to, the caller may be after headers of its own
+            HttpResponse response = request.addHeaderInterest(STATIC_DOC_FETCH_HEADERS).$res();
             response.read((ByteBuffer) flip);
 
             if (Rfc822HeaderState.suffixMatchChunks(ProtocolMethodDispatch.HEADER_TERMINATOR,
@@ -329,16 +351,31 @@ public enum CouchMetaDriver {
               switch (httpStatus) {
                 case $200:
                   int remaining = Integer.parseInt(response.headerString(Content$2dLength));
+                  etag = response.headerString(ETag);
 
                   if (remaining == cursor.remaining()) {// we have all of the body already, just deliver
                     deliver();
                   } else { // we need more, allocate a buffer the size we need, and put what we already have
-                    cursor = ByteBuffer.allocateDirect(remaining).put(cursor);
+                    cursor = BufferPool.acquire(remaining).put(cursor);
+                    pooled = true;
                   }
                   break;
+                case $304:
+                  if (null == cached)
+                    // the caller's own If-None-Match matched, the 304 is theirs
+                    tx.state(state).payload(ByteBuffer.allocate(0));
+                  else {
+                    // the caller asked for the doc, answer with the 200 the 304 stands for
+                    cached.headers(response);
+                    tx.state(state).payload(cached.revalidated(sent));
+                  }
+                  recycleChannel(channel);
+                  done.complete(tx);
+                  break;
                 default: // error
-                  phaser.forceTermination();
-                  channel.close();
+                  DocCache.invalidate(db, id);
+                  done.completeExceptionally(failure(httpStatus));
+                  abandon(channel);
               }
             }
           } else {// we've already begun the body, but didn't finish, and may do so now
@@ -346,8 +383,8 @@ public enum CouchMetaDriver {
             int read = Helper.read(key, cursor);
             switch (read) {// if we didn't actually read, something is wrong
               case -1:
-                phaser.forceTermination();
-                channel.close();
+                done.completeExceptionally(failure("hangup"));
+                abandon(channel);
                 return;
             }
             if (!cursor.hasRemaining()) {// we've read to the end, flip to beginning and deliver
@@ -359,19 +396,17 @@ public enum CouchMetaDriver {
 
         private void deliver() {
           assert null != cursor;
-          tx.payload((ByteBuffer) cursor.rewind());
-          phaser.arrive();
+          ByteBuffer body = (ByteBuffer) cursor.rewind();
+          ByteBuffer payload =
+              DocCache.put(db, id, sent, etag, state.headerString(Content$2dType), body);
+          if (pooled && payload != body)
+            BufferPool.release(body);
+          tx.state(state).payload(payload);
           recycleChannel(channel);
+          done.complete(tx);
         }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (TimeoutException | InterruptedException e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      }));
+      return done;
     }
 
   },
@@ -379,11 +414,16 @@ public enum CouchMetaDriver {
   // @DbTask( {json, future})
   // @DbKeys( {db, docId})
   RevisionFetch {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      String path = dbKeysBuilder.get(etype.db) + "/" + dbKeysBuilder.get(docId);
+      return SingleFlight.join(name() + ' ' + path, tx, () -> send(dbKeysBuilder, tx));
+    }
+
+    CompletableFuture<Tx> send(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
 
-      final SocketChannel channel = createCouchConnection();
-      final Phaser phaser = new Phaser(2);
-      enqueue(channel, OP_CONNECT | OP_WRITE, new Impl() {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      lease(done, channel -> enqueue(channel, OP_CONNECT | OP_WRITE, new Impl() {
         // *******************************
         // *******************************
         // pathological buffersize traits
@@ -412,9 +452,8 @@ public enum CouchMetaDriver {
           if (null == cursor) {
             // geometric, vulnerable to dev/null if not max'd here.
             header =
-                null == header ? ByteBuffer.allocateDirect(4 << 10) : header.hasRemaining()
-                    ? header : ByteBuffer.allocateDirect(header.capacity() * 2).put(
-                        (ByteBuffer) header.flip());
+                null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining()
+                    ? header : BufferPool.grow(header);
 
             int read = Helper.read(key, header);
             if (-1 != read) {
@@ -447,47 +486,49 @@ public enum CouchMetaDriver {
                 }
                 recycleChannel(channel);
                 // assumes quoted
-                phaser.arrive();
+                done.complete(tx);
               }
             } else {
-              phaser.forceTermination();
-              channel.close();
+              done.completeExceptionally(failure("hangup"));
+              abandon(channel);
             }
           }
         }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      }));
+      return done;
     }
   },
   // @DbTask( {tx, oneWay, future})
   // @DbKeys(value = {db, validjson}, optional = {docId, rev})
   DocPersist {
-    public void visit(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
+    /**
+     * a new doc for a db that opted into {@link BulkDocs} goes out with whatever else is persisted there meanwhile
+     */
+    public CompletableFuture<Tx> visitAsync(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
 
       String db = (String) dbKeysBuilder.get(etype.db);
       String docId = (String) dbKeysBuilder.get(etype.docId);
+      if (null == docId && BulkDocs.batched(db)) {
+        Object entity = dbKeysBuilder.get(etype.entity);
+        return BulkDocs.add(db, null == entity ? (String) dbKeysBuilder.get(validjson) : Codecs
+            .toJson(entity), tx);
+      }
       String rev = (String) dbKeysBuilder.get(etype.rev);
       String sb =
           scrub('/' + db + (null == docId ? "" : '/' + docId + (null == rev ? "" : "?rev=" + rev)));
       dbKeysBuilder.put(opaque, sb);
       tx.hdr().$req().headerString(Content$2dType, MimeType.json.contentType);
-      JsonSend.visit(dbKeysBuilder, tx);
+      return JsonSend.visitAsync(dbKeysBuilder, tx);
     }
   },
   // @DbTask( {tx, oneWay, future})
   // @DbKeys(value = {db, docId, rev})
   DocDelete {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final Phaser phaser = new Phaser(2);
-      final SocketChannel channel = createCouchConnection();
-      enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      DocCache.invalidatePath(dbKeysBuilder.get(db) + "/" + dbKeysBuilder.get(docId));
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
 
         // *******************************
         // *******************************
@@ -516,16 +557,14 @@ public enum CouchMetaDriver {
           if (null == cursor) {
             // geometric, vulnerable to dev/null if not max'd here.
             header =
-                null == header ? ByteBuffer.allocateDirect(4 << 10) : header.hasRemaining()
-                    ? header : ByteBuffer.allocateDirect(header.capacity() * 2).put(
-                        (ByteBuffer) header.flip());
+                null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining()
+                    ? header : BufferPool.grow(header);
 
             int read = Helper.read(key, header);
-            switch (read) {
-              case -1:
-                phaser.forceTermination();
-                channel.close();
-                break;
+            if (-1 == read) {
+              done.completeExceptionally(failure("hangup"));
+              abandon(channel);
+              return;
             }
             ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
             response.read((ByteBuffer) flip);
@@ -546,11 +585,16 @@ public enum CouchMetaDriver {
               if (remaining == cursor.remaining()) {
                 deliver();
               } else {
-                cursor = ByteBuffer.allocateDirect(remaining).put(cursor);
+                cursor = BufferPool.acquire(remaining).put(cursor);
               }
             }
           } else {
             int read = Helper.read(key, cursor);
+            if (-1 == read) {
+              done.completeExceptionally(failure("hangup"));
+              abandon(channel);
+              return;
+            }
             if (!cursor.hasRemaining()) {
               cursor.flip();
               deliver();
@@ -561,263 +605,77 @@ public enum CouchMetaDriver {
         private void deliver() {
           tx.payload(cursor);
           recycleChannel(channel);
-          phaser.arrive();
-        }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
+          done.complete(tx);
         }
-      }
+      }));
+      return done;
 
     }
   },
   // @DbTask( {pojo, future, json})
   // @DbKeys( {db, designDocId})
   DesignDocFetch {
-    public void visit(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
+    public CompletableFuture<Tx> visitAsync(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
       dbKeysBuilder.put(docId, dbKeysBuilder.remove(designDocId));
-      DocFetch.visit(dbKeysBuilder, tx);
+      return DocFetch.visitAsync(dbKeysBuilder, tx);
     }
   },
 
   /**
-   * a statistically imperfect chunked encoding reader which searches the end of current input for a token.
-   * <p/>
-   * <u> statistically imperfect </u>means that data containing said token {@link #CE_TERMINAL} delivered per a packet
-   * boundary or byte-at-a-time will false trigger the suffix.
+   * reads a view. couch streams these chunked; the chunks go through a {@link ChunkedDecoder} as they are read, so
+   * the raw response is never held, only the decoded body the caller gets as {@link Tx#payload}.
    */
   // @DbTask( {rows, future, continuousFeed})
   // @DbKeys(value = {db, view}, optional = {type, keyType})
   ViewFetch {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final AtomicReference<ByteBuffer> payload = new AtomicReference<>();
-      final AtomicReference<List<ByteBuffer>> cePayload = new AtomicReference<>();
-      final Phaser phaser = new Phaser(2);
-      final String db = scrub('/' + (String) dbKeysBuilder.get(etype.db));
-
-      final SocketChannel channel = createCouchConnection();
-      enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
-
-        /**
-         * holds un-rewound raw buffers. must potentially be backtracked to fulfill CE_TERMINAL.length token check under
-         * pathological fragmentation
-         */
-
-        List<ByteBuffer> list = new ArrayList<>();
-        final Impl prev = this;
-
-        private ByteBuffer header;
-        private ByteBuffer cursor;
-
-        private void simpleDeploy(ByteBuffer buffer) {
-          payload.set((ByteBuffer) buffer);
-          phaser.arrive();
-          recycleChannel(channel);
-        }
-
-        public void onWrite(SelectionKey key) throws Exception {
-
-          HttpRequest request = tx.hdr().$req();
-
-          ByteBuffer header =
-              (ByteBuffer) request.method(GET)
-                  .path(scrub('/' + db + '/' + dbKeysBuilder.get(view))).headerString(Accept,
-                      MimeType.json.contentType).asByteBuffer();
-          int wrote = channel.write(header);
-          assert !header.hasRemaining() : "Failed to complete write in one pass, need to re-interest(READ)";
-          key.interestOps(OP_READ);
-        }
-
-        public void onRead(SelectionKey key) throws Exception {
-          if (null != cursor) {
-            try {
-              int read = Helper.read(key, cursor);
-              if (-1 == read) {
-                // we were asked to read again, but no more content to read, just deliver what we already saw
-                if (0 < cursor.position()) {
-                  list.add(cursor);
-                }
-                cePayload.set(list);
-                phaser.arrive();
-                recycleChannel(channel);
-                return;
-              }
-            } catch (Throwable e) {
-              e.printStackTrace();
-            }
-            // token suffix check, see if we're at the end
-            boolean suffixMatches =
-                Rfc822HeaderState.suffixMatchChunks(CE_TERMINAL, cursor, list
-                    .toArray(new ByteBuffer[list.size()]));
-
-            if (suffixMatches) {
-              if (0 < cursor.position()) {
-                list.add(cursor);
-              }
-              cePayload.set(list);
-              phaser.arrive();
-              recycleChannel(channel);
-              return;
-            }
-            if (!cursor.hasRemaining()) {
-              list.add(cursor);
-              cursor = ByteBuffer.allocateDirect(4 << 10);
-            }
-          } else {
-            // geometric, vulnerable to dev/null if not max'd here.
-            // can only happen if couch returns pathologically large headers
-            if (null == header)
-              header = ByteBuffer.allocateDirect(4 << 10);
-            else if (!header.hasRemaining()) {
-              header =
-                  ByteBuffer.allocateDirect(header.capacity() * 2).put((ByteBuffer) header.flip());
-            }
-
-            int read = Helper.read(key, header);
-            ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
-            HttpResponse response =
-                (HttpResponse) new Rfc822HeaderState().$res().headerInterest(STATIC_VF_HEADERS);
-            response.read((ByteBuffer) flip);
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      String path = dbKeysBuilder.get(etype.db) + "/" + dbKeysBuilder.get(view);
+      return SingleFlight.join(name() + ' ' + path, tx, () -> send(dbKeysBuilder, tx));
+    }
 
-            ByteBuffer currentBuff = response.headerBuf();
-            if (!Rfc822HeaderState.suffixMatchChunks(ProtocolMethodDispatch.HEADER_TERMINATOR,
-                currentBuff)) {
-              // not enough content to finish loading headers, wait for more
-              Helper.getSelector().wakeup();
-              return;
-            }
-            cursor = (ByteBuffer) flip.slice();
-            tx.state(response);
-            if (RpcHelper.DEBUG_SENDJSON) {
-              System.err.println(ProtocolMethodDispatch
-                  .deepToString(response.statusEnum(), response, StandardCharsets.UTF_8
-                      .decode((ByteBuffer) cursor.duplicate().rewind())));
-            }
+    CompletableFuture<Tx> send(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      final String db = scrub('/' + (String) dbKeysBuilder.get(etype.db));
 
-            HttpStatus httpStatus = response.statusEnum();
-            switch (httpStatus) {
-              case $200:
-                if (response.headerStrings().containsKey(Content$2dLength.getHeader())) { // rarity but for empty
-                  // rowsets
-                  String remainingString = response.headerString(Content$2dLength);
-                  final int remaining = Integer.parseInt(remainingString);
-                  if (cursor.remaining() == remaining) {
-                    // No chunked encoding, all read in one pass, deploy the body without ce-parsing
-                    simpleDeploy(cursor.slice());
-                  } else {
-                    // windows workaround?
-                    key.attach(new Impl() {
-                      private ByteBuffer cursor1 = cursor.capacity() > remaining
-                          ? (ByteBuffer) cursor.limit(remaining) : ByteBuffer.allocateDirect(
-                              remaining).put(cursor);
-
-                      public void onRead(SelectionKey key) throws Exception {
-                        int read1 = Helper.read(key, cursor1);
-                        switch (read1) {
-                          case -1:
-                            phaser.forceTermination();
-                            channel.close();
-                            break;
-                        }
-                        if (!cursor1.hasRemaining()) {
-                          ByteBuffer flip1 = (ByteBuffer) cursor1.flip();
-                          simpleDeploy(flip1);
-                        }
-                      }
-                    });
-                  }
-                } else {
-                  // if we're in this block it means that there was no content-length set, which means
-                  // we're reading chunked data.
-
-                  // since we sliced above to get the reference to cursor, we need to move the cursor to the end
-                  boolean suffixMatches =
-                      Rfc822HeaderState.suffixMatchChunks(CE_TERMINAL, (ByteBuffer) cursor
-                          .duplicate().position(cursor.limit()));
-                  if (suffixMatches) {
-                    // 'fast forward' to the end of the cursor, since deliver will flip() which will end at current
-                    // position, instead of just copying as is. A cleaner fix might be to change the first loop
-                    // in deliver
-                    cursor.position(cursor.limit());
-                    list.add(cursor);
-                    cePayload.set(list);
-                    phaser.arrive();
-                    recycleChannel(channel);
-                  } else {
-                    cursor.compact();
-                  }
-                }
-                break;
-              default:
-                phaser.forceTermination();
-                recycleChannel(channel);
-            }
-          }
-        }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
-      ByteBuffer simple = payload.get();
-      if (null != simple) {
-        tx.payload(simple);
-        return;
-      }
-      List<ByteBuffer> list = cePayload.get();
-      if (null == list) {
-        tx.payload(null);
-        return;
-      }
-      int sum = 0;
-      for (ByteBuffer byteBuffer : list) {
-        sum += byteBuffer.flip().limit();
-      }
-      ByteBuffer outbound = ByteBuffer.allocate(sum);
-      for (ByteBuffer byteBuffer : list) {
-        ByteBuffer put = outbound.put(byteBuffer);
-      }
-      if (RpcHelper.DEBUG_SENDJSON) {
-        System.err.println(StandardCharsets.UTF_8.decode((ByteBuffer) outbound.duplicate().flip()));
-      }
-      ByteBuffer src = ((ByteBuffer) outbound.rewind()).duplicate();
-      int endl = 0;
-      while (0 < sum && src.hasRemaining()) {
-        if (RpcHelper.DEBUG_SENDJSON)
-          System.err.println("outbound:----\n"
-              + StandardCharsets.UTF_8.decode(outbound.duplicate()).toString() + "\n----");
-
-        byte b = 0;
-        boolean first = true;
-        while (src.hasRemaining() && ('\n' != (b = src.get()) || first))
-          if (first && !Character.isWhitespace(b)) {
-            first = false;
-          }
+      HttpRequest request = tx.hdr().$req();
+      ByteBuffer header =
+          (ByteBuffer) request.method(GET).path(scrub('/' + db + '/' + dbKeysBuilder.get(view)))
+              .headerString(Accept, MimeType.json.contentType).asByteBuffer();
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Rows(channel, tx, done,
+          header)));
+      return done;
+    }
+  },
 
-        int i =
-            Integer.parseInt(StandardCharsets.UTF_8.decode((ByteBuffer) src.duplicate().flip())
-                .toString().trim(), 0x10);
-        src = ((ByteBuffer) src.compact().position(i)).slice();
-        endl += i;
-        sum -= i;
-        if (0 == i)
-          break;
-      }
+  /**
+   * many docs by id in one request: POST /db/_all_docs?include_docs=true with {"keys":[..]}. the response is read by the
+   * same {@link Rows} reader as ViewFetch, {@link #docs(ByteBuffer, Type, Consumer)} walks it a row at a time.
+   */
+  // @DbTask( {docs, future})
+  // @DbKeys(value = {db, keys}, optional = {type})
+  DocsFetch {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
+      final String db = scrub('/' + (String) dbKeysBuilder.get(etype.db));
+      Collection<?> keys = (Collection<?>) dbKeysBuilder.get(etype.keys);
+      byte[] outbound =
+          gson().toJson(Collections.singletonMap("keys", keys)).getBytes(StandardCharsets.UTF_8);
 
-      ByteBuffer retval = (ByteBuffer) outbound.clear().limit(endl);
+      HttpRequest request = tx.hdr().$req();
+      ByteBuffer header =
+          (ByteBuffer) request.method(POST).path(scrub(db + "/_all_docs?include_docs=true"))
+              .headerString(Content$2dType, MimeType.json.contentType).headerString(
+                  Content$2dLength, String.valueOf(outbound.length)).headerString(Accept,
+                  MimeType.json.contentType).asByteBuffer();
+      ByteBuffer send =
+          (ByteBuffer) ByteBuffer.allocate(header.remaining() + outbound.length).put(header).put(
+              outbound).flip();
 
-      if (RpcHelper.DEBUG_SENDJSON) {
-        System.err.println(StandardCharsets.UTF_8.decode(retval.duplicate()));
-      }
-      tx.payload(retval);
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Rows(channel, tx, done,
+          send)));
+      return done;
     }
   },
   // training day for the Terminal rewrites
@@ -825,9 +683,10 @@ public enum CouchMetaDriver {
   // @DbTask( {tx, oneWay, rows, json, future, continuousFeed})
   // @DbKeys(value = {opaque, validjson}, optional = {keyType, type})
   JsonSend {
-    public void visit(final DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
+    public CompletableFuture<Tx> visitAsync(final DbKeysBuilder dbKeysBuilder, final Tx tx)
+        throws Exception {
 
-      final Phaser phaser = new Phaser(2);
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
       String opaque = scrub('/' + (String) dbKeysBuilder.get(etype.opaque));
 
       int slashCounter = 0;
@@ -849,10 +708,19 @@ public enum CouchMetaDriver {
       if (opaque.length() - 1 == lastSlashIndex) {
         opaque = opaque.substring(0, opaque.length() - 1);
       }
-      String validjson = (String) dbKeysBuilder.get(etype.validjson);
-      validjson = null == validjson ? "{}" : validjson;
-
-      final byte[] outbound = validjson.getBytes(StandardCharsets.UTF_8);
+      DocCache.invalidatePath(opaque);
+      final Object entity = dbKeysBuilder.get(etype.entity);
+      String validjson = null;
+      final ByteBuffer[] body;
+      if (null != entity)
+        // pooled segments, more than one goes out chunked
+        body = Codecs.encode(entity);
+      else {
+        validjson = (String) dbKeysBuilder.get(etype.validjson);
+        validjson = null == validjson ? "{}" : validjson;
+        body = new ByteBuffer[] {ByteBuffer.wrap(validjson.getBytes(StandardCharsets.UTF_8))};
+      }
+      boolean chunked = 1 < body.length;
 
       HttpMethod method =
           1 == slashCounter
@@ -862,17 +730,21 @@ public enum CouchMetaDriver {
       if (null == request.headerString(Content$2dType)) {
         request.headerString(Content$2dType, MimeType.json.contentType);
       }
-      ByteBuffer header =
-          (ByteBuffer) request.method(method).path(opaque).headerInterest(STATIC_JSON_SEND_HEADERS)
-              .headerString(Content$2dLength, String.valueOf(outbound.length)).headerString(Accept,
-                  MimeType.json.contentType).asByteBuffer();
+      request.method(method).path(opaque).headerInterest(STATIC_JSON_SEND_HEADERS).headerString(
+          Accept, MimeType.json.contentType);
+      if (chunked)
+        request.headerString(Transfer$2dEncoding, "chunked");
+      else
+        request.headerString(Content$2dLength, String.valueOf(body[0].remaining()));
+      final ByteBuffer head = request.asByteBuffer();
       if (RpcHelper.DEBUG_SENDJSON) {
-        System.err.println(ProtocolMethodDispatch.deepToString(opaque, validjson,
-            StandardCharsets.UTF_8.decode(header.duplicate()), tx.hdr()));
+        System.err.println(ProtocolMethodDispatch.deepToString(opaque, null == validjson ? entity
+            : validjson, StandardCharsets.UTF_8.decode(head.duplicate()), tx.hdr()));
       }
-      final SocketChannel channel = createCouchConnection();
-      final String finalOpaque = opaque;
-      enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
+      // header and body leave in one gathering write
+      final ByteBuffer[] outbound =
+          chunked ? chunked(head, body) : new ByteBuffer[] {head, body[0]};
+      lease(done, channel -> enqueue(channel, OP_WRITE | OP_CONNECT, new Impl() {
 
         // *******************************
         // *******************************
@@ -880,18 +752,14 @@ public enum CouchMetaDriver {
         // *******************************
         // *******************************
 
-        ByteBuffer header = (ByteBuffer) tx.hdr().$req().path(finalOpaque).headerInterest(
-            STATIC_JSON_SEND_HEADERS).headerString(Content$2dLength,
-            String.valueOf(outbound.length)).headerString(Accept, MimeType.json.contentType).as(
-            ByteBuffer.class);
+        ByteBuffer header = head;
 
         public void onWrite(SelectionKey key) throws Exception {
-          if (null == tx.payload()) {
-            int write = channel.write(header);
-            tx.payload(ByteBuffer.wrap(outbound));
-          }
-          int write = channel.write(tx.payload());
-          if (!tx.payload().hasRemaining()) {
+          channel.write(outbound);
+          if (!outbound[outbound.length - 1].hasRemaining()) {
+            if (null != entity)
+              for (ByteBuffer segment : body)
+                BufferPool.release(segment);
             header.clear();
             final HttpResponse response = tx.hdr().$res();
             tx.payload(null);
@@ -901,16 +769,22 @@ public enum CouchMetaDriver {
                 if (null == tx.payload()) {
                   // geometric, vulnerable to /dev/zero if not max'd here.
                   header =
-                      null == header ? ByteBuffer.allocateDirect(4 << 10) : header.hasRemaining()
-                          ? header : ByteBuffer.allocateDirect(header.capacity() * 2).put(
-                              (ByteBuffer) header.flip());
+                      null == header ? BufferPool.acquire(4 << 10) : header.hasRemaining()
+                          ? header : BufferPool.grow(header);
 
+                  int read;
                   try {
-                    int read = Helper.read(key, header);
+                    read = Helper.read(key, header);
                   } catch (IOException e) {
-                    phaser.forceTermination();// .reset();
+                    done.completeExceptionally(e);
                     ProtocolMethodDispatch.deepToString(this, e);
-                    channel.close();
+                    abandon(channel);
+                    return;
+                  }
+                  if (-1 == read) {
+                    done.completeExceptionally(failure("hangup"));
+                    abandon(channel);
+                    return;
                   }
                   ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
                   response.read((ByteBuffer) flip);
@@ -935,20 +809,19 @@ public enum CouchMetaDriver {
                         if (remaining == tx.payload().remaining()) {
                           deliver();
                         } else {
-                          tx.payload(ByteBuffer.allocateDirect(remaining).put(tx.payload()));
+                          tx.payload(BufferPool.acquire(remaining).put(tx.payload()));
                         }
                         break;
                       default: // error
-                        phaser.forceTermination();
-                        channel.close();
+                        done.completeExceptionally(failure(httpStatus));
+                        abandon(channel);
                     }
                   }
                 } else {
                   int read = Helper.read(key, tx.payload());
                   if (-1 == read) {
-                    phaser.forceTermination();
-
-                    channel.close();
+                    done.completeExceptionally(failure("hangup"));
+                    abandon(channel);
                     return;
                   }
                   if (!tx.payload().hasRemaining()) {
@@ -963,24 +836,17 @@ public enum CouchMetaDriver {
 
         void deliver() {
           tx.payload(tx.payload());
-          phaser.arrive();
           recycleChannel(channel);
+          done.complete(tx);
         }
-      });
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (TimeoutException | InterruptedException e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      }));
+      return done;
     }
   },
 
   BlobSend {
-    public void visit(DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
-      final Phaser phaser = new Phaser(2);
+    public CompletableFuture<Tx> visitAsync(DbKeysBuilder dbKeysBuilder, final Tx tx) throws Exception {
+      final CompletableFuture<Tx> done = new CompletableFuture<>();
       final HttpRequest request = tx.hdr().$req();
       final ByteBuffer payload = (ByteBuffer) dbKeysBuilder.<ByteBuffer> get(etype.blob).rewind();
       String x = null;
@@ -1006,9 +872,7 @@ public enum CouchMetaDriver {
               + URLEncoder.encode(attachname, StandardCharsets.UTF_8.displayName()) + "?rev=" + rev);
 
       final String ctype = x;
-      final SocketChannel channel = createCouchConnection();
-
-      enqueue(channel, OP_WRITE, new Impl() {
+      lease(done, channel -> enqueue(channel, OP_WRITE, new Impl() {
 
         public void onWrite(SelectionKey key) throws Exception {
 
@@ -1022,12 +886,17 @@ public enum CouchMetaDriver {
         }
 
         public void onRead(SelectionKey key) throws Exception {
-          ByteBuffer[] byteBuffer = {ByteBuffer.allocateDirect(4 << 10)};
+          ByteBuffer[] byteBuffer = {BufferPool.acquire(4 << 10)};
           int read = Helper.read(key, byteBuffer[0]);
           HttpResponse httpResponse = request.$res();
 
           Rfc822HeaderState apply = httpResponse.read((ByteBuffer) byteBuffer[0].flip());
           HttpStatus httpStatus = httpResponse.statusEnum();
+          if (-1 == read || null == httpStatus) {
+            done.completeExceptionally(failure(-1 == read ? "hangup" : "no status"));
+            abandon(channel);
+            return;
+          }
           switch (httpStatus) {
             case $100:
               key.interestOps(OP_WRITE).attach(new Impl() {
@@ -1047,18 +916,18 @@ public enum CouchMetaDriver {
                 void deliver() throws InterruptedException, BrokenBarrierException {
 
                   tx.payload().rewind();
-                  phaser.arrive();
                   recycleChannel(channel);
+                  done.complete(tx);
                 }
 
                 public void onRead(SelectionKey key) throws Exception {
 
                   if (null == tx.payload())
-                    tx.payload(ByteBuffer.allocateDirect(4 << 10));
+                    tx.payload(BufferPool.acquire(4 << 10));
                   int read = Helper.read(key, tx.payload());
                   if (-1 == read) {
-                    phaser.forceTermination();
-                    key.cancel();
+                    done.completeExceptionally(failure("hangup"));
+                    abandon(channel);
                     return;
                   }
                   if (finish) {
@@ -1081,28 +950,26 @@ public enum CouchMetaDriver {
                           tx.payload(flip.slice());
                           deliver();
                         } else
-                          tx.payload(ByteBuffer.allocateDirect(i).put(flip));
+                          tx.payload(BufferPool.acquire(i).put(flip));
                         return;
                       default:
-                        phaser.forceTermination();
-                        key.cancel();
+                        done.completeExceptionally(failure(response.statusEnum()));
+                        abandon(channel);
                     }
                   }
                 }
 
               });
+              break;
+            default:
+              // anything but the go-ahead fails now rather than at the cutoff
+              done.completeExceptionally(failure(httpStatus));
+              abandon(channel);
           }
         }
-      });
+      }));
 
-      try {
-        phaser.awaitAdvanceInterruptibly(phaser.arrive(), REALTIME_CUTOFF, REALTIME_UNIT);
-      } catch (Exception e) {
-        if (RpcHelper.DEBUG_SENDJSON) {
-          System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
-          dbKeysBuilder.trace().printStackTrace();
-        }
-      }
+      return done;
     }
 
   };
@@ -1112,6 +979,8 @@ public enum CouchMetaDriver {
       Content$2dLength, Transfer$2dEncoding);
   public static final String[] STATIC_JSON_SEND_HEADERS = Rfc822HeaderState.staticHeaderStrings(
       ETag, Content$2dLength, Content$2dEncoding);
+  public static final String[] STATIC_DOC_FETCH_HEADERS = Rfc822HeaderState.staticHeaderStrings(
+      ETag, Content$2dLength, Content$2dEncoding, Content$2dType);
   public static final String[] STATIC_CONTENT_LENGTH_ARR = Rfc822HeaderState
       .staticHeaderStrings(Content$2dLength);
   public static final TimeUnit REALTIME_UNIT = TimeUnit.valueOf(Config.get("RXF_REALTIME_UNIT",
@@ -1124,6 +993,12 @@ public enum CouchMetaDriver {
   public static final String IFACE_FIRE_TARGETS = "/*fire interface ijnoifnj453oijnfiojn h*/";
   public static final String FIRE_METHODS = "/*embedded fire terminals j63l4k56jn4k3jn5l63l456jn*/";
   private static GsonBuilder BUILDER;
+  private static final ScheduledExecutorService TIMEOUTS = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rxf-couch-cutoff");
+        t.setDaemon(true);
+        return t;
+      });
 
   static {
     GsonBuilder gsonBuilder =
@@ -1190,6 +1065,302 @@ public enum CouchMetaDriver {
     CouchMetaDriver.BUILDER = BUILDER;
   }
 
+  /**
+   * a verb's work once its socket is leased
+   */
+  interface Leased {
+    void apply(SocketChannel channel) throws Exception;
+  }
+
+  /**
+   * leases a couch socket and starts the verb on it, from whichever thread fills the lease; the caller never waits.
+   * done fails with the lease, or with the verb when it throws before it is under way.
+   */
+  static void lease(final CompletableFuture<Tx> done, final Leased verb) {
+    final CompletableFuture<SocketChannel> lease = createCouchConnection();
+    within(done, lease);
+    lease.whenComplete((channel, e) -> {
+      if (null != e)
+        done.completeExceptionally(e);
+      else if (done.isDone())
+        recycleChannel(channel);
+      else
+        try {
+          verb.apply(channel);
+        } catch (Exception x) {
+          done.completeExceptionally(x);
+          abandon(channel);
+        }
+    });
+  }
+
+  /**
+   * arms the {@link #REALTIME_CUTOFF} for a verb in flight so an unanswered request still completes. a lease still
+   * waiting for a socket is cancelled, the socket of one under way is closed and recycled; either gives its pool permit
+   * back.
+   */
+  static CompletableFuture<Tx> within(final CompletableFuture<Tx> done,
+      final CompletableFuture<SocketChannel> lease) {
+    final ScheduledFuture<?> cutoff = TIMEOUTS.schedule(() -> {
+      if (done.completeExceptionally(new TimeoutException())) {
+        if (lease.cancel(false))
+          return;
+        if (!lease.isCompletedExceptionally())
+          abandon(lease.join());
+      }
+    }, REALTIME_CUTOFF, REALTIME_UNIT);
+    done.whenComplete((tx, e) -> cutoff.cancel(false));
+    return done;
+  }
+
+  /**
+   * a socket left mid-exchange can't be reused
+   */
+  static void abandon(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    recycleChannel(channel);
+  }
+
+  static IOException failure(Object why) {
+    return new IOException("couch: " + why);
+  }
+
+  /**
+   * frames body segments as the chunks of a Transfer-Encoding: chunked request behind its header
+   */
+  public static ByteBuffer[] chunked(ByteBuffer header, ByteBuffer[] segments) {
+    ByteBuffer[] framed = new ByteBuffer[2 * segments.length + 2];
+    framed[0] = header;
+    for (int i = 0; i < segments.length; i++) {
+      framed[2 * i + 1] =
+          StandardCharsets.US_ASCII.encode((0 == i ? "" : "\r\n")
+              + Integer.toHexString(segments[i].remaining()) + "\r\n");
+      framed[2 * i + 2] = segments[i];
+    }
+    framed[framed.length - 1] = StandardCharsets.US_ASCII.encode("\r\n0\r\n\r\n");
+    return framed;
+  }
+
+  /**
+   * reads a rows response, ViewFetch's and DocsFetch's: a Content-Length body is deployed as is, a chunked one is
+   * decoded into a pooled {@link ChunkedDecoder.Body}.
+   */
+  static class Rows extends Impl {
+    final SocketChannel channel;
+    final Tx tx;
+    final CompletableFuture<Tx> done;
+    /**
+     * the request, header and any body, may take more than one write
+     */
+    final ByteBuffer request;
+    final ChunkedDecoder.Body body = new ChunkedDecoder.Body();
+    final ChunkedDecoder decoder = new ChunkedDecoder(body);
+
+    private ByteBuffer header;
+    private ByteBuffer cursor;
+    /**
+     * the pooled buffer cursor moves to once the headers are done, cursor starts as a slice of header
+     */
+    private ByteBuffer chunks;
+
+    Rows(SocketChannel channel, Tx tx, CompletableFuture<Tx> done, ByteBuffer request) {
+      this.channel = channel;
+      this.tx = tx;
+      this.done = done;
+      this.request = request;
+    }
+
+    private void simpleDeploy(ByteBuffer buffer) {
+      tx.payload(buffer);
+      recycleChannel(channel);
+      done.complete(tx);
+    }
+
+    private void ceDeploy() {
+      tx.payload(body.body());
+      BufferPool.release(chunks);
+      recycleChannel(channel);
+      done.complete(tx);
+    }
+
+    /**
+     * @return true when the body is complete and has been deployed
+     */
+    private boolean dechunk(ByteBuffer in) throws IOException {
+      try {
+        if (!decoder.apply(in))
+          return false;
+        ceDeploy();
+      } catch (IOException e) {
+        BufferPool.release(chunks);
+        done.completeExceptionally(e);
+        abandon(channel);
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+      return true;
+    }
+
+    public void onWrite(SelectionKey key) throws Exception {
+      channel.write(request);
+      if (!request.hasRemaining())
+        key.interestOps(OP_READ);
+    }
+
+    public void onRead(SelectionKey key) throws Exception {
+      if (null != cursor) {
+        int read = Helper.read(key, (ByteBuffer) cursor.clear());
+        if (-1 == read) {
+          // we were asked to read again, but no more content to read, just deliver what we already saw
+          ceDeploy();
+          return;
+        }
+        dechunk((ByteBuffer) cursor.flip());
+      } else {
+        // geometric, vulnerable to dev/null if not max'd here.
+        // can only happen if couch returns pathologically large headers
+        if (null == header)
+          header = BufferPool.acquire(4 << 10);
+        else if (!header.hasRemaining()) {
+          header = BufferPool.grow(header);
+        }
+
+        int read = Helper.read(key, header);
+        ByteBuffer flip = (ByteBuffer) header.duplicate().flip();
+        HttpResponse response =
+            (HttpResponse) new Rfc822HeaderState().$res().headerInterest(STATIC_VF_HEADERS);
+        response.read((ByteBuffer) flip);
+
+        ByteBuffer currentBuff = response.headerBuf();
+        if (!Rfc822HeaderState.suffixMatchChunks(ProtocolMethodDispatch.HEADER_TERMINATOR,
+            currentBuff)) {
+          // not enough content to finish loading headers, wait for more
+          Helper.getSelector().wakeup();
+          return;
+        }
+        cursor = (ByteBuffer) flip.slice();
+        tx.state(response);
+        if (RpcHelper.DEBUG_SENDJSON) {
+          System.err.println(ProtocolMethodDispatch.deepToString(response.statusEnum(), response,
+              StandardCharsets.UTF_8.decode((ByteBuffer) cursor.duplicate().rewind())));
+        }
+
+        HttpStatus httpStatus = response.statusEnum();
+        switch (httpStatus) {
+          case $200:
+            if (response.headerStrings().containsKey(Content$2dLength.getHeader())) { // rarity but for empty
+              // rowsets
+              String remainingString = response.headerString(Content$2dLength);
+              final int remaining = Integer.parseInt(remainingString);
+              if (cursor.remaining() == remaining) {
+                // No chunked encoding, all read in one pass, deploy the body without ce-parsing
+                simpleDeploy(cursor.slice());
+              } else {
+                // windows workaround?
+                key.attach(new Impl() {
+                  private ByteBuffer cursor1 = cursor.capacity() > remaining
+                      ? (ByteBuffer) cursor.limit(remaining) : BufferPool.acquire(remaining).put(
+                          cursor);
+
+                  public void onRead(SelectionKey key) throws Exception {
+                    int read1 = Helper.read(key, cursor1);
+                    switch (read1) {
+                      case -1:
+                        done.completeExceptionally(failure("hangup"));
+                        abandon(channel);
+                        return;
+                    }
+                    if (!cursor1.hasRemaining()) {
+                      ByteBuffer flip1 = (ByteBuffer) cursor1.flip();
+                      simpleDeploy(flip1);
+                    }
+                  }
+                });
+              }
+            } else {
+              // if we're in this block it means that there was no content-length set, which means
+              // we're reading chunked data.
+
+              // whatever followed the headers in this read, then one reused buffer for the rest
+              if (!dechunk(cursor))
+                cursor = chunks = BufferPool.acquire(4 << 10);
+            }
+            break;
+          default:
+            // the error body is still on the socket, it mustn't go back to the pool
+            done.completeExceptionally(failure(httpStatus));
+            abandon(channel);
+        }
+      }
+    }
+  }
+
+  /**
+   * json straight off a response buffer, the payload's own position is left alone
+   */
+  public static JsonReader reader(ByteBuffer payload) {
+    final ByteBuffer in = payload.duplicate();
+    return new JsonReader(new InputStreamReader(new InputStream() {
+      public int read() {
+        return in.hasRemaining() ? in.get() & 0xff : -1;
+      }
+
+      public int read(byte[] b, int off, int len) {
+        if (!in.hasRemaining())
+          return -1;
+        len = Math.min(len, in.remaining());
+        in.get(b, off, len);
+        return len;
+      }
+    }, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * walks an _all_docs?include_docs=true response a row at a time, each doc is decoded straight off the payload and
+   * nothing else in the row is kept.
+   *
+   * @param type the doc type, Object (maps) when null
+   * @param each gets one doc per requested key in request order, null for a missing or deleted one
+   */
+  public static void docs(ByteBuffer payload, Type type, Consumer<Object> each) throws IOException {
+    Type docType = null == type ? Object.class : type;
+    JsonReader reader = reader(payload);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!"rows".equals(reader.nextName())) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        Object doc = null;
+        reader.beginObject();
+        while (reader.hasNext())
+          if ("doc".equals(reader.nextName()) && JsonToken.NULL != reader.peek())
+            doc = gson().fromJson(reader, docType);
+          else
+            reader.skipValue();
+        reader.endObject();
+        each.accept(doc);
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+  }
+
+  /**
+   * @return the docs of {@link #docs(ByteBuffer, Type, Consumer)} as a list, one slot per requested key
+   */
+  public static <T> List<T> docs(ByteBuffer payload, Type type) throws IOException {
+    List<T> docs = new ArrayList<>();
+    docs(payload, type, doc -> docs.add((T) doc));
+    return docs;
+  }
+
   public void visit() throws Exception {
     DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
     Tx tx = Tx.current();
@@ -1201,11 +1372,57 @@ public enum CouchMetaDriver {
     visit(dbKeysBuilder, tx);
   }
 
-  /* abstract */
+  /**
+   * the blocking form, waits out {@link #visitAsync(DbKeysBuilder, Tx)} and leaves the response in tx.payload().
+   * failures are swallowed as before, tx.hdr() still holds whatever status couch answered.
+   */
   public void visit(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
+    await(visitAsync(dbKeysBuilder, tx), dbKeysBuilder);
+  }
+
+  /**
+   * starts the verb on the reactor without parking a thread. the future is completed from the selector callback with
+   * the same tx, its payload() holding the response body, or exceptionally for a couch error status, a hangup, or
+   * {@link #REALTIME_CUTOFF}.
+   */
+  /* abstract */
+  public CompletableFuture<Tx> visitAsync(DbKeysBuilder dbKeysBuilder, Tx tx) throws Exception {
     throw new AbstractMethodError();
   }
 
+  /**
+   * what the CouchDriver terminal builders hold: {@link #visitAsync(DbKeysBuilder, Tx)} narrowed to the payload, a
+   * failure to even open the connection lands in the future too.
+   */
+  public CompletableFuture<ByteBuffer> future(DbKeysBuilder dbKeysBuilder, Tx tx) {
+    try {
+      return visitAsync(dbKeysBuilder, tx).thenApply(Tx::payload);
+    } catch (Exception e) {
+      CompletableFuture<ByteBuffer> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
+  /**
+   * blocks per a verb future and swallows failures the way the Phaser based verbs always have.
+   *
+   * @return the result, null on failure
+   */
+  public <T> T await(Future<T> future, DbKeysBuilder dbKeysBuilder) {
+    try {
+      return future.get();
+    } catch (Exception e) {
+      if (RpcHelper.DEBUG_SENDJSON) {
+        System.err.println("!!! " + ProtocolMethodDispatch.deepToString(this, e) + "\n\tfrom");
+        Throwable trace = null == dbKeysBuilder ? null : dbKeysBuilder.trace();
+        if (null != trace)
+          trace.printStackTrace();
+      }
+    }
+    return null;
+  }
+
   public static enum etype {
 
     opaque, db, docId, rev {
@@ -1223,7 +1440,17 @@ public enum CouchMetaDriver {
         return 0 < t.toString().length() && !t.startsWith("\"") && !t.endsWith("\"");
       }
     },
-    attachname, designDocId, view, validjson, mimetype, mimetypeEnum {
+    attachname, designDocId, view, validjson, entity {
+      {
+        clazz = Object.class;
+      }
+    },
+    keys {
+      {
+        clazz = Collection.class;
+      }
+    },
+    mimetype, mimetypeEnum {
       {
         clazz = MimeType.class;
       }
@@ -18,8 +18,9 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static rxf.core.Rfc822HeaderState.avoidStarvation;
@@ -48,27 +49,26 @@ public interface CouchDriver {
 
       @Deprecated
       void oneWay();
+
+      CompletableFuture<ByteBuffer> future();
     }
 
     public class DbCreateActionBuilder extends Tx {
       public DbCreateTerminalBuilder fire() {
         return new DbCreateTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DbCreate.future(dbKeysBuilder, DbCreateActionBuilder.this);
 
-              CouchMetaDriver.DbCreate.visit(dbKeysBuilder, DbCreateActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DbCreate.await(future, dbKeysBuilder);
+          }
 
           public CouchTx tx() {
             CouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (RpcHelper.DEBUG_SENDJSON)
@@ -79,19 +79,15 @@ public interface CouchDriver {
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
+
+          public CompletableFuture<ByteBuffer> future() {
+            return future;
+          }
         };
       }
 
@@ -123,29 +119,27 @@ public interface CouchDriver {
 
       @Deprecated
       void oneWay();
+
+      CompletableFuture<ByteBuffer> future();
     }
 
     public class DbDeleteActionBuilder extends Tx {
 
       public DbDeleteTerminalBuilder fire() {
         return new DbDeleteTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-              CouchMetaDriver.DbDelete.visit(dbKeysBuilder, DbDeleteActionBuilder.this);
-              return payload();
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DbDelete.future(dbKeysBuilder, DbDeleteActionBuilder.this);
 
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DbDelete.await(future, dbKeysBuilder);
+          }
 
           public KouchTx tx() {
             KouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (!RpcHelper.DEBUG_SENDJSON)
@@ -157,19 +151,15 @@ public interface CouchDriver {
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
+
+          public CompletableFuture<ByteBuffer> future() {
+            return future;
+          }
         };
       }
 
@@ -204,7 +194,7 @@ public interface CouchDriver {
     public interface DocFetchTerminalBuilder extends TerminalBuilder {
       ByteBuffer pojo();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
 
       String json();
     }
@@ -213,35 +203,32 @@ public interface CouchDriver {
 
       public DocFetchTerminalBuilder fire() {
         return new DocFetchTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DocFetch.future(dbKeysBuilder, DocFetchActionBuilder.this);
 
-              CouchMetaDriver.DocFetch.visit(dbKeysBuilder, DocFetchActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DocFetch.await(future, dbKeysBuilder);
+          }
 
           public ByteBuffer pojo() {
             ByteBuffer r = null;
             try {
-              r = future.get();
+              r = await();
             } catch (Exception e) {
               e.printStackTrace();
             }
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
 
           public String json() {
             String r = null;
             try {
-              ByteBuffer visit = future.get();
+              ByteBuffer visit = await();
               r = null == visit ? null : UTF_8.decode(avoidStarvation(visit)).toString();
             } catch (Exception e) {
               e.printStackTrace();
@@ -283,28 +270,25 @@ public interface CouchDriver {
     public interface RevisionFetchTerminalBuilder extends TerminalBuilder {
       String json();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
     }
 
     public class RevisionFetchActionBuilder extends Tx {
 
       public RevisionFetchTerminalBuilder fire() {
         return new RevisionFetchTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.RevisionFetch.future(dbKeysBuilder, RevisionFetchActionBuilder.this);
 
-              CouchMetaDriver.RevisionFetch.visit(dbKeysBuilder, RevisionFetchActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.RevisionFetch.await(future, dbKeysBuilder);
+          }
 
           public String json() {
             String r = null;
             try {
-              ByteBuffer visit = future.get();
+              ByteBuffer visit = await();
               r = null == visit ? null : UTF_8.decode(avoidStarvation(visit)).toString();
             } catch (Exception e) {
               e.printStackTrace();
@@ -312,7 +296,7 @@ public interface CouchDriver {
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
         };
@@ -346,6 +330,14 @@ public interface CouchDriver {
       return this;
     }
 
+    /**
+     * in place of validjson: encoded straight into pooled buffers as it's sent, see Codecs.encode
+     */
+    public DocPersist entity(Object objectParam) {
+      parms.put(etype.entity, objectParam);
+      return this;
+    }
+
     public DocPersist docId(String stringParam) {
       parms.put(etype.docId, stringParam);
       return this;
@@ -362,29 +354,26 @@ public interface CouchDriver {
       @Deprecated
       void oneWay();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
     }
 
     public class DocPersistActionBuilder extends Tx {
 
       public DocPersistTerminalBuilder fire() {
         return new DocPersistTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DocPersist.future(dbKeysBuilder, DocPersistActionBuilder.this);
 
-              CouchMetaDriver.DocPersist.visit(dbKeysBuilder, DocPersistActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DocPersist.await(future, dbKeysBuilder);
+          }
 
           public CouchTx tx() {
             CouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (RpcHelper.DEBUG_SENDJSON)
@@ -395,21 +384,13 @@ public interface CouchDriver {
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
         };
@@ -455,29 +436,26 @@ public interface CouchDriver {
       @Deprecated
       void oneWay();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
     }
 
     public class DocDeleteActionBuilder extends Tx {
 
       public DocDeleteTerminalBuilder fire() {
         return new DocDeleteTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DocDelete.future(dbKeysBuilder, DocDeleteActionBuilder.this);
 
-              CouchMetaDriver.DocDelete.visit(dbKeysBuilder, DocDeleteActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DocDelete.await(future, dbKeysBuilder);
+          }
 
           public CouchTx tx() {
             CouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (RpcHelper.DEBUG_SENDJSON)
@@ -488,21 +466,13 @@ public interface CouchDriver {
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
         };
@@ -539,7 +509,7 @@ public interface CouchDriver {
     public interface DesignDocFetchTerminalBuilder extends TerminalBuilder {
       ByteBuffer pojo();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
 
       String json();
     }
@@ -548,35 +518,33 @@ public interface CouchDriver {
 
       public DesignDocFetchTerminalBuilder fire() {
         return new DesignDocFetchTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DesignDocFetch.future(dbKeysBuilder,
+                  DesignDocFetchActionBuilder.this);
 
-              CouchMetaDriver.DesignDocFetch.visit(dbKeysBuilder, DesignDocFetchActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.DesignDocFetch.await(future, dbKeysBuilder);
+          }
 
           public ByteBuffer pojo() {
             ByteBuffer r = null;
             try {
-              r = future.get();
+              r = await();
             } catch (Exception e) {
               e.printStackTrace();
             }
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
 
           public String json() {
             String r = null;
             try {
-              ByteBuffer visit = future.get();
+              ByteBuffer visit = await();
               r = null == visit ? null : UTF_8.decode(avoidStarvation(visit)).toString();
             } catch (Exception e) {
               e.printStackTrace();
@@ -630,7 +598,7 @@ public interface CouchDriver {
     public interface ViewFetchTerminalBuilder extends TerminalBuilder {
       CouchResultSet rows();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
 
       void continuousFeed();
 
@@ -641,21 +609,18 @@ public interface CouchDriver {
       public ViewFetchTerminalBuilder fire() {
 
         return new ViewFetchTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.ViewFetch.future(dbKeysBuilder, ViewFetchActionBuilder.this);
 
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-              CouchMetaDriver.ViewFetch.visit(dbKeysBuilder, ViewFetchActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.ViewFetch.await(future, dbKeysBuilder);
+          }
 
           public CouchResultSet rows() {
             CouchResultSet r = null;
             try {
-              ByteBuffer buf = future.get();
+              ByteBuffer buf = await();
               // System.err.println("???? "+ HttpMethod.UTF8.decode(buf));
               r =
                   CouchMetaDriver.gson().fromJson(UTF_8.decode(avoidStarvation(buf)).toString(),
@@ -680,7 +645,7 @@ public interface CouchDriver {
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
 
@@ -701,6 +666,75 @@ public interface CouchDriver {
 
   }
 
+  class DocsFetch extends DbKeysBuilder {
+
+    public DocsFetchActionBuilder to() {
+      assert 2 <= parms.size() : "required parameters are: [db, keys]";
+      return new DocsFetchActionBuilder();
+    }
+
+    public DocsFetch db(String stringParam) {
+      parms.put(etype.db, stringParam);
+      return this;
+    }
+
+    public DocsFetch keys(Collection<String> collectionParam) {
+      parms.put(etype.keys, collectionParam);
+      return this;
+    }
+
+    public DocsFetch type(Type typeParam) {
+      parms.put(etype.type, typeParam);
+      return this;
+    }
+
+    public interface DocsFetchTerminalBuilder extends TerminalBuilder {
+      List docs();
+
+      CompletableFuture<ByteBuffer> future();
+    }
+
+    public class DocsFetchActionBuilder extends Tx {
+
+      public DocsFetchTerminalBuilder fire() {
+
+        return new DocsFetchTerminalBuilder() {
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.DocsFetch.future(dbKeysBuilder, DocsFetchActionBuilder.this);
+
+          ByteBuffer await() {
+            return CouchMetaDriver.DocsFetch.await(future, dbKeysBuilder);
+          }
+
+          public List docs() {
+            List r = null;
+            try {
+              ByteBuffer buf = await();
+              r = null == buf ? null : CouchMetaDriver.docs(buf, (Type) get(etype.type));
+            } catch (Exception e) {
+              e.printStackTrace();
+            }
+            return r;
+          }
+
+          public CompletableFuture<ByteBuffer> future() {
+            return future;
+          }
+        };
+      }
+
+      public DocsFetchActionBuilder state(Rfc822HeaderState state) {
+        return (DocsFetchActionBuilder) super.state(state);
+      }
+
+      public DocsFetchActionBuilder key(SelectionKey key) {
+        return (DocsFetchActionBuilder) super.key(key);
+      }
+    }
+
+  }
+
   class JsonSend extends DbKeysBuilder {
 
     public JsonSendActionBuilder to() {
@@ -718,6 +752,14 @@ public interface CouchDriver {
       return this;
     }
 
+    /**
+     * in place of validjson: encoded straight into pooled buffers as it's sent, see Codecs.encode
+     */
+    public JsonSend entity(Object objectParam) {
+      parms.put(etype.entity, objectParam);
+      return this;
+    }
+
     public JsonSend type(Type typeParam) {
       parms.put(etype.type, typeParam);
       return this;
@@ -738,7 +780,7 @@ public interface CouchDriver {
 
       String json();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
 
       void continuousFeed();
 
@@ -748,22 +790,19 @@ public interface CouchDriver {
 
       public JsonSendTerminalBuilder fire() {
         return new JsonSendTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
-
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.JsonSend.future(dbKeysBuilder, JsonSendActionBuilder.this);
 
-              CouchMetaDriver.JsonSend.visit(dbKeysBuilder, JsonSendActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.JsonSend.await(future, dbKeysBuilder);
+          }
 
           public CouchTx tx() {
             CouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (RpcHelper.DEBUG_SENDJSON)
@@ -774,17 +813,9 @@ public interface CouchDriver {
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
 
@@ -793,7 +824,7 @@ public interface CouchDriver {
             try {
               r =
                   CouchMetaDriver.gson().fromJson(
-                      UTF_8.decode(avoidStarvation(future.get())).toString(),
+                      UTF_8.decode(avoidStarvation(await())).toString(),
                       new ParameterizedType() {
                         public Type getRawType() {
                           return CouchResultSet.class;
@@ -818,7 +849,7 @@ public interface CouchDriver {
           public String json() {
             String r = null;
             try {
-              ByteBuffer visit = future.get();
+              ByteBuffer visit = await();
               r = null == visit ? null : UTF_8.decode(avoidStarvation(visit)).toString();
             } catch (Exception e) {
               e.printStackTrace();
@@ -826,7 +857,7 @@ public interface CouchDriver {
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
 
@@ -891,7 +922,7 @@ public interface CouchDriver {
     public interface BlobSendTerminalBuilder extends TerminalBuilder {
       KouchTx tx();
 
-      Future<ByteBuffer> future();
+      CompletableFuture<ByteBuffer> future();
 
       @Deprecated
       void oneWay();
@@ -901,22 +932,19 @@ public interface CouchDriver {
 
       public BlobSendTerminalBuilder fire() {
         return new BlobSendTerminalBuilder() {
-          Future<ByteBuffer> future = RpcHelper.EXECUTOR_SERVICE.submit(new Callable<ByteBuffer>() {
-            final DbKeysBuilder dbKeysBuilder = (DbKeysBuilder) DbKeysBuilder.get();
+          final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
+          final CompletableFuture<ByteBuffer> future =
+              CouchMetaDriver.BlobSend.future(dbKeysBuilder, BlobSendActionBuilder.this);
 
-            public ByteBuffer call() throws Exception {
-              DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-              CouchMetaDriver.BlobSend.visit(dbKeysBuilder, BlobSendActionBuilder.this);
-              return payload();
-            }
-          });
+          ByteBuffer await() {
+            return CouchMetaDriver.BlobSend.await(future, dbKeysBuilder);
+          }
 
           public KouchTx tx() {
             KouchTx r = null;
             try {
               r =
-                  CouchMetaDriver.gson().fromJson(UTF_8.decode(future.get()).toString(),
+                  CouchMetaDriver.gson().fromJson(UTF_8.decode(await()).toString(),
                       CouchTx.class);
             } catch (Exception e) {
               if (!RpcHelper.DEBUG_SENDJSON)
@@ -926,22 +954,15 @@ public interface CouchDriver {
             return r;
           }
 
-          public Future<ByteBuffer> future() {
+          public CompletableFuture<ByteBuffer> future() {
             return future;
           }
 
           @Deprecated
           public void oneWay() {
-            final DbKeysBuilder dbKeysBuilder = DbKeysBuilder.get();
-
-            RpcHelper.EXECUTOR_SERVICE.submit(() -> {
-              try {
-                DbKeysBuilder.currentKeys.set(dbKeysBuilder);
-
-                future.get();
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
+            future.exceptionally(e -> {
+              e.printStackTrace();
+              return null;
             });
           }
         };
@@ -4,6 +4,7 @@ import one.xio.AsyncSingletonServer;
 import org.junit.Test;
 
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertNotNull;
 import static rxf.couch.CouchConnectionFactory.createCouchConnection;
@@ -11,9 +12,9 @@ import static rxf.couch.CouchConnectionFactory.recycleChannel;
 
 public class BapoTest {
   @Test
-  public void testCreateCouchChannel() {
+  public void testCreateCouchChannel() throws Exception {
     AsyncSingletonServer.killswitch.set(false);
-    SocketChannel channel = createCouchConnection();
+    SocketChannel channel = createCouchConnection().get(1, TimeUnit.SECONDS);
     assertNotNull(channel);
     recycleChannel(channel);
     AsyncSingletonServer.killswitch.set(true);
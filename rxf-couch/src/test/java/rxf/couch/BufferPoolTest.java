@@ -0,0 +1,104 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.core.BufferPool;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testSizeClasses() {
+    ByteBuffer buf = BufferPool.acquire(3000);
+    assertTrue(buf.isDirect());
+    assertEquals(4 << 10, buf.capacity());
+    assertEquals(3000, buf.limit());
+    assertEquals(0, buf.position());
+    assertEquals(1 << 10, BufferPool.acquire(1).capacity());
+    int huge = BufferPool.POOL_MAX_BUFFER + 1;
+    assertEquals(huge, BufferPool.acquire(huge).capacity());
+  }
+
+  @Test
+  public void testReleaseReuses() {
+    ByteBuffer buf = BufferPool.acquire(8 << 10);
+    buf.put((byte) 1);
+    BufferPool.release(buf);
+    long hits = BufferPool.hits.get();
+    ByteBuffer again = BufferPool.acquire(5 << 10);
+    assertSame(buf, again);
+    assertEquals(hits + 1, BufferPool.hits.get());
+    assertEquals(0, again.position());
+    assertEquals(5 << 10, again.limit());
+  }
+
+  @Test
+  public void testForeignBuffersIgnored() {
+    long pooled = BufferPool.pooled.get();
+    BufferPool.release(ByteBuffer.allocate(4 << 10));
+    BufferPool.release(ByteBuffer.allocateDirect(3000));
+    BufferPool.release(ByteBuffer.allocateDirect(4 << 10).asReadOnlyBuffer());
+    BufferPool.release(null);
+    assertEquals(pooled, BufferPool.pooled.get());
+  }
+
+  @Test
+  public void testGrow() {
+    ByteBuffer buf = BufferPool.acquire(2 << 10);
+    while (buf.hasRemaining())
+      buf.put((byte) (buf.position() & 0x7f));
+    ByteBuffer grown = BufferPool.grow(buf);
+    assertNotSame(buf, grown);
+    assertEquals(4 << 10, grown.capacity());
+    assertEquals(2 << 10, grown.position());
+    assertTrue(grown.hasRemaining());
+    assertEquals(5, grown.get(5));
+    assertSame(buf, BufferPool.acquire(2 << 10));
+  }
+
+  @Test
+  public void testDoubleReleaseRefused() {
+    ByteBuffer buf = BufferPool.acquire(2 << 10);
+    BufferPool.release(buf);
+    try {
+      BufferPool.release(buf);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    ByteBuffer other = BufferPool.acquire(2 << 10);
+    assertSame(buf, other);
+    if (BufferPool.POOL_CHECK) {
+      // no longer on top of the thread's stack, only the idle set knows
+      ByteBuffer second = BufferPool.acquire(2 << 10);
+      BufferPool.release(other);
+      BufferPool.release(second);
+      try {
+        BufferPool.release(other);
+        fail();
+      } catch (IllegalStateException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void testDeadThreadsStackNotCounted() throws Exception {
+    // bigger than a slab, so each miss carves just the one buffer
+    final int size = BufferPool.POOL_SLAB << 1;
+    long pooled = BufferPool.pooled.get();
+    long drops = BufferPool.drops.get();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread(() -> BufferPool.release(BufferPool.acquire(size)));
+      thread.start();
+      thread.join();
+    }
+    // what the threads kept went with them, it never held the budget
+    assertTrue(BufferPool.pooled.get() <= pooled);
+    assertEquals(drops, BufferPool.drops.get());
+  }
+}
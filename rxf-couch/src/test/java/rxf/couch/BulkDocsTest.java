@@ -0,0 +1,44 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.core.Tx;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static junit.framework.Assert.*;
+
+public class BulkDocsTest {
+
+  static String string(ByteBuffer buf) {
+    return StandardCharsets.UTF_8.decode(buf.duplicate()).toString();
+  }
+
+  @Test
+  public void testBody() {
+    BulkDocs.Batch batch = new BulkDocs.Batch("db");
+    batch.add("{\"a\":1}", new Tx(), new CompletableFuture<>());
+    batch.add("{\"_id\":\"b\"}", new Tx(), new CompletableFuture<>());
+    assertEquals("{\"docs\":[{\"a\":1},{\"_id\":\"b\"}]}", batch.body());
+  }
+
+  @Test
+  public void testRowsGoToTheirCallers() throws Exception {
+    BulkDocs.Batch batch = new BulkDocs.Batch("db");
+    CompletableFuture<Tx> first = new CompletableFuture<>(), second = new CompletableFuture<>();
+    CompletableFuture<Tx> third = new CompletableFuture<>();
+    batch.add("{}", new Tx(), first);
+    batch.add("{\"_id\":\"b\"}", new Tx(), second);
+    batch.add("{}", new Tx(), third);
+    long errors = BulkDocs.errors.get();
+
+    batch.rows(StandardCharsets.UTF_8.encode("[{\"ok\":true,\"id\":\"a\",\"rev\":\"1-x\"},"
+        + "{\"id\":\"b\",\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}]"));
+
+    assertEquals("{\"ok\":true,\"id\":\"a\",\"rev\":\"1-x\"}", string(first.get().payload()));
+    assertTrue(string(second.get().payload()).contains("\"error\":\"conflict\""));
+    assertEquals(errors + 1, BulkDocs.errors.get());
+    assertTrue(third.isCompletedExceptionally());
+  }
+}
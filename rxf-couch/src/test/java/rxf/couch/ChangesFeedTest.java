@@ -0,0 +1,49 @@
+package rxf.couch;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.*;
+
+public class ChangesFeedTest {
+
+  static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testLinesAcrossChunks() {
+    ChangesFeed feed = new ChangesFeed("feedtest");
+    ChangesFeed.Reader reader = feed.new Reader(null);
+    String body =
+        "{\"seq\":1,\"id\":\"a\",\"changes\":[{\"rev\":\"1-x\"}]}\n\n"
+            + "{\"seq\":\"2-g1AAAA\",\"id\":\"b\",\"changes\":[{\"rev\":\"2-y\"}],\"deleted\":true}\n"
+            + "{\"last_seq\":\"3-g1AAAA\"}\n";
+    for (int i = 0; i < body.length(); i += 7)
+      reader.chunk(bytes(body.substring(i, Math.min(body.length(), i + 7))));
+    assertEquals(2, feed.changes.get());
+    assertEquals("3-g1AAAA", feed.since());
+  }
+
+  @Test
+  public void testInvalidatesAndTrusts() throws Exception {
+    DocCache.cache("feedtest");
+    DocCache.put("feedtest", "a", "\"1-x\"", bytes("{}"));
+    assertNotNull(DocCache.get("feedtest", "a"));
+
+    new ChangesFeed("feedtest").line("{\"seq\":5,\"id\":\"a\",\"changes\":[{\"rev\":\"2-x\"}]}");
+    assertNull(DocCache.get("feedtest", "a"));
+
+    DocCache.follow("feedtest", true);
+    try {
+      DocCache.put("feedtest", "b", "\"1-x\"", bytes("{}"));
+      Thread.sleep(DocCache.DOC_CACHE_FRESH + 10);
+      assertTrue(DocCache.get("feedtest", "b").fresh());
+    } finally {
+      DocCache.follow("feedtest", false);
+    }
+    assertFalse(DocCache.get("feedtest", "b").fresh());
+  }
+}
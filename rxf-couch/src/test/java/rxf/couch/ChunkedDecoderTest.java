@@ -0,0 +1,91 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.core.ChunkedDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ChunkedDecoderTest {
+  static final String BODY =
+      "{\"total_rows\":1,\"offset\":0,\"rows\":[{\"id\":\"a\",\"key\":\"a\",\"value\":1}]}";
+
+  static String chunked(String body, int chunk) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < body.length(); i += chunk) {
+      String s = body.substring(i, Math.min(body.length(), i + chunk));
+      sb.append(Integer.toHexString(s.length())).append("\r\n").append(s).append("\r\n");
+    }
+    return sb.append("0\r\n\r\n").toString();
+  }
+
+  static ByteBuffer buf(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String string(ChunkedDecoder.Body body) {
+    return StandardCharsets.UTF_8.decode(body.body()).toString();
+  }
+
+  @Test
+  public void testWhole() throws Exception {
+    ChunkedDecoder.Body body = new ChunkedDecoder.Body(8);
+    ChunkedDecoder decoder = new ChunkedDecoder(body);
+    ByteBuffer in = buf(chunked(BODY, 10) + "GET / HTTP/1.1\r\n");
+    assertTrue(decoder.apply(in));
+    assertEquals(BODY, string(body));
+    assertEquals(BODY.length(), decoder.total());
+    assertEquals("GET / HTTP/1.1\r\n", StandardCharsets.UTF_8.decode(in).toString());
+  }
+
+  @Test
+  public void testByteAtATime() throws Exception {
+    ChunkedDecoder.Body body = new ChunkedDecoder.Body();
+    ChunkedDecoder decoder = new ChunkedDecoder(body);
+    ByteBuffer in = buf(chunked(BODY, 7));
+    while (in.hasRemaining()) {
+      assertFalse(decoder.done());
+      ByteBuffer one = (ByteBuffer) in.duplicate().limit(in.position() + 1);
+      decoder.apply(one);
+      assertFalse(one.hasRemaining());
+      in.position(in.position() + 1);
+    }
+    assertTrue(decoder.done());
+    assertEquals(BODY, string(body));
+  }
+
+  @Test
+  public void testExtensionsAndTrailers() throws Exception {
+    ChunkedDecoder.Body body = new ChunkedDecoder.Body();
+    ChunkedDecoder decoder = new ChunkedDecoder(body);
+    assertTrue(decoder.apply(buf("5;name=value\r\nhello\r\nA \r\n, world!!!\r\n0\r\n"
+        + "X-Trailer: 1\r\n\r\n")));
+    assertEquals("hello, world!!!", string(body));
+  }
+
+  @Test
+  public void testIncomplete() throws Exception {
+    ChunkedDecoder.Body body = new ChunkedDecoder.Body();
+    ChunkedDecoder decoder = new ChunkedDecoder(body);
+    assertFalse(decoder.apply(buf("5\r\nhel")));
+    assertEquals("hel", string(body));
+    assertFalse(decoder.apply(buf("lo\r\n0\r\n")));
+    assertTrue(decoder.apply(buf("\r\n")));
+    assertEquals("hello", string(body));
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+    try {
+      new ChunkedDecoder(new ChunkedDecoder.Body()).apply(buf("zz\r\nhello\r\n"));
+      fail();
+    } catch (IOException e) {
+    }
+  }
+}
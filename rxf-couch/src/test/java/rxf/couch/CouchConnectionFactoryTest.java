@@ -0,0 +1,59 @@
+package rxf.couch;
+
+import one.xio.AsyncSingletonServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.couch.CouchConnectionFactory.Endpoint;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static rxf.couch.CouchConnectionFactory.createCouchConnection;
+import static rxf.couch.CouchConnectionFactory.recycleChannel;
+
+public class CouchConnectionFactoryTest {
+  ServerSocketChannel server;
+
+  @Before
+  public void setUp() throws Exception {
+    AsyncSingletonServer.killswitch.set(false);
+    server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+    CouchConnectionFactory.setCOUCHADDR((InetSocketAddress) server.getLocalAddress());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    SocketChannel channel = createCouchConnection().get(1, TimeUnit.SECONDS);
+    assertNotNull(channel);
+    server.accept();
+    recycleChannel(channel);
+
+    assertSame(channel, createCouchConnection().get(1, TimeUnit.SECONDS));
+    Endpoint endpoint = CouchConnectionFactory.getEndpoints().get(0);
+    assertEquals(2, endpoint.acquires.get());
+    assertEquals(1, endpoint.hits.get());
+    assertEquals(1, endpoint.opened.get());
+  }
+
+  @Test
+  public void testHalfClosedIsNotReused() throws Exception {
+    SocketChannel channel = createCouchConnection().get(1, TimeUnit.SECONDS);
+    server.accept().close();
+    recycleChannel(channel);
+    Thread.sleep(100);
+
+    SocketChannel second = createCouchConnection().get(1, TimeUnit.SECONDS);
+    assertNotSame(channel, second);
+    assertFalse(channel.isOpen());
+    assertEquals(1, CouchConnectionFactory.getEndpoints().get(0).stale.get());
+  }
+}
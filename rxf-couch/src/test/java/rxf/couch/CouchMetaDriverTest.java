@@ -0,0 +1,188 @@
+package rxf.couch;
+
+import one.xio.AsioVisitor;
+import one.xio.AsyncSingletonServer;
+import one.xio.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+import rxf.core.Tx;
+import rxf.couch.CouchConnectionFactory.Endpoint;
+import rxf.couch.driver.CouchMetaDriver;
+import rxf.couch.driver.CouchMetaDriver.etype;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+import static one.xio.HttpHeaders.*;
+
+/**
+ * the driver's error paths against a couch that answers every request with one canned response, or hangs up. each
+ * must fail the call well before the RXF_REALTIME_CUTOFF and give the socket's permit back without pooling it.
+ */
+public class CouchMetaDriverTest {
+  ServerSocketChannel couch;
+  Thread serving;
+  volatile String answer;
+
+  @Before
+  public void setUp() throws Exception {
+    AsyncSingletonServer.killswitch.set(false);
+    serving = new Thread(() -> {
+      try {
+        AsyncSingletonServer.SingleThreadSingletonServer.init(new AsioVisitor.Impl());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }, "rxf-test-selector");
+    serving.setDaemon(true);
+    serving.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (null == AsioVisitor.Helper.getSelector()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    couch = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+    CouchConnectionFactory.setCOUCHADDR((InetSocketAddress) couch.getLocalAddress());
+    Thread accepting = new Thread(() -> {
+      try {
+        for (;;) {
+          Socket socket = couch.accept().socket();
+          InputStream in = socket.getInputStream();
+          StringBuilder head = new StringBuilder();
+          for (int c; !head.toString().endsWith("\r\n\r\n") && -1 != (c = in.read());)
+            head.append((char) c);
+          if (null == answer)
+            socket.close();
+          else
+            // left open, as couch would keep it
+            socket.getOutputStream().write(answer.getBytes(StandardCharsets.US_ASCII));
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }, "rxf-test-couch");
+    accepting.setDaemon(true);
+    accepting.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    couch.close();
+    AsyncSingletonServer.killswitch.set(true);
+    serving.join(10000);
+  }
+
+  static DbKeysBuilder keys(Object... pairs) {
+    DbKeysBuilder keys = new DbKeysBuilder() {
+      protected Tx to() {
+        return null;
+      }
+    };
+    for (int i = 0; i < pairs.length; i += 2)
+      keys.put((etype) pairs[i], pairs[i + 1]);
+    return keys;
+  }
+
+  /**
+   * @return the message of the failure call ended with
+   */
+  static String failure(CompletableFuture<Tx> call) throws Exception {
+    try {
+      call.get(2, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+      Endpoint endpoint = CouchConnectionFactory.getEndpoints().get(0);
+      long deadline = System.currentTimeMillis() + 2000;
+      while (0 != endpoint.getLeased())
+        assertTrue(System.currentTimeMillis() < deadline);
+      assertEquals(0, endpoint.getIdle());
+      return e.getCause().getMessage();
+    }
+    fail("completed");
+    return null;
+  }
+
+  @Test
+  public void testRowsErrorNotPooled() throws Exception {
+    answer =
+        "HTTP/1.1 404 Object Not Found\r\nContent-Length: 41\r\n\r\n"
+            + "{\"error\":\"not_found\",\"reason\":\"missing\"}";
+    assertEquals("couch: $404", failure(CouchMetaDriver.ViewFetch.visitAsync(keys(etype.db, "db",
+        etype.view, "_design/d/_view/v"), new Tx())));
+  }
+
+  @Test
+  public void testDeleteHangup() throws Exception {
+    answer = null;
+    assertEquals("couch: hangup", failure(CouchMetaDriver.DocDelete.visitAsync(keys(etype.db,
+        "db", etype.docId, "doc", etype.rev, "1-a"), new Tx())));
+  }
+
+  @Test
+  public void testBlobRefused() throws Exception {
+    // a stale rev, refused before the body is sent
+    answer = "HTTP/1.1 409 Conflict\r\nContent-Length: 0\r\n\r\n";
+    assertEquals("couch: $409", failure(CouchMetaDriver.BlobSend.visitAsync(keys(etype.db, "db",
+        etype.docId, "doc", etype.rev, "1-a", etype.attachname, "a.bin", etype.blob, ByteBuffer
+            .wrap(new byte[] {1, 2, 3})), new Tx())));
+  }
+
+  @Test
+  public void testNotModifiedPassedOn() throws Exception {
+    // not a cached db, the If-None-Match is the caller's own
+    answer = "HTTP/1.1 304 Not Modified\r\nETag: \"1-a\"\r\n\r\n";
+    Tx tx = new Tx();
+    tx.hdr().headerString(If$2dNone$2dMatch, "\"1-a\"");
+    tx = CouchMetaDriver.DocFetch.visitAsync(keys(etype.db, "db", etype.docId, "doc"), tx).get(2,
+        TimeUnit.SECONDS);
+    assertEquals(HttpStatus.$304, tx.hdr().$res().statusEnum());
+    assertEquals(0, tx.payload().remaining());
+    // nothing was left unread, the socket goes back to the pool
+    Endpoint endpoint = CouchConnectionFactory.getEndpoints().get(0);
+    assertEquals(0, endpoint.getLeased());
+    assertEquals(1, endpoint.getIdle());
+  }
+
+  @Test
+  public void testRevalidatedAsCached() throws Exception {
+    DocCache.cache("cachedb");
+    DocCache.put("cachedb", "doc", System.currentTimeMillis() - DocCache.DOC_CACHE_FRESH - 1,
+        "\"1-a\"", "application/json", ByteBuffer.wrap("{}".getBytes(StandardCharsets.UTF_8)));
+    try {
+      answer = "HTTP/1.1 304 Not Modified\r\nETag: \"1-a\"\r\n\r\n";
+      long revalidations = DocCache.revalidations.get();
+      cachedHeaders(CouchMetaDriver.DocFetch.visitAsync(keys(etype.db, "cachedb", etype.docId,
+          "doc"), new Tx()).get(2, TimeUnit.SECONDS));
+      assertEquals(revalidations + 1, DocCache.revalidations.get());
+
+      // fresh again, couch would hang up if it were asked
+      answer = null;
+      long hits = DocCache.hits.get();
+      cachedHeaders(CouchMetaDriver.DocFetch.visitAsync(keys(etype.db, "cachedb", etype.docId,
+          "doc"), new Tx()).get(2, TimeUnit.SECONDS));
+      assertEquals(hits + 1, DocCache.hits.get());
+    } finally {
+      DocCache.clear();
+    }
+  }
+
+  static void cachedHeaders(Tx tx) {
+    HttpResponse res = tx.hdr().$res();
+    assertEquals(HttpStatus.$200, res.statusEnum());
+    assertEquals("\"1-a\"", res.headerString(ETag));
+    assertEquals("2", res.headerString(Content$2dLength));
+    assertEquals("application/json", res.headerString(Content$2dType));
+    assertEquals("{}", StandardCharsets.UTF_8.decode(tx.payload()).toString());
+  }
+}
@@ -0,0 +1,102 @@
+package rxf.couch;
+
+import one.xio.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.*;
+import static one.xio.HttpHeaders.*;
+
+public class DocCacheTest {
+
+  static ByteBuffer json(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Before
+  public void setUp() {
+    DocCache.clear();
+    DocCache.cache("cached");
+  }
+
+  @Test
+  public void testOptIn() {
+    ByteBuffer body = json("{\"_id\":\"a\"}");
+    assertSame(body, DocCache.put("other", "a", "\"1-x\"", body));
+    assertNull(DocCache.get("other", "a"));
+
+    ByteBuffer copy = DocCache.put("cached", "a", "\"1-x\"", body);
+    assertNotSame(body, copy);
+    assertTrue(copy.isReadOnly());
+    assertEquals(body, copy);
+
+    DocCache.Entry entry = DocCache.get("cached", "a");
+    assertEquals("\"1-x\"", entry.etag);
+    assertTrue(entry.fresh());
+    assertEquals(body, entry.hit());
+  }
+
+  @Test
+  public void testInvalidatePath() {
+    DocCache.put("cached", "a", "\"1-x\"", json("{}"));
+    DocCache.put("cached", "a/logo.png", "\"md5\"", json("png"));
+    DocCache.put("cached", "b", "\"1-y\"", json("{}"));
+
+    DocCache.invalidatePath("/cached/a/logo.png?rev=1-x");
+    assertNull(DocCache.get("cached", "a"));
+    assertNull(DocCache.get("cached", "a/logo.png"));
+    assertNotNull(DocCache.get("cached", "b"));
+
+    DocCache.invalidatePath("/cached");
+    assertNotNull(DocCache.get("cached", "b"));
+    assertEquals(2, DocCache.bytes());
+  }
+
+  @Test
+  public void testBounds() {
+    DocCache.put("cached", "big", "\"1-x\"", ByteBuffer.allocate(DocCache.DOC_CACHE_MAX_DOC + 1));
+    assertNull(DocCache.get("cached", "big"));
+
+    int doc = DocCache.DOC_CACHE_MAX_DOC;
+    long n = DocCache.DOC_CACHE_BYTES / doc;
+    long evictions = DocCache.evictions.get();
+    for (int i = 0; i <= n; i++)
+      DocCache.put("cached", "d" + i, "\"1-x\"", ByteBuffer.allocate(doc));
+    assertEquals(evictions + 1, DocCache.evictions.get());
+    assertNull(DocCache.get("cached", "d0"));
+    assertNotNull(DocCache.get("cached", "d" + n));
+    assertTrue(DocCache.bytes() <= DocCache.DOC_CACHE_BYTES);
+  }
+
+  @Test
+  public void testStaleFillRefused() throws Exception {
+    long sent = System.currentTimeMillis();
+    // the change line for a write overtakes the GET that read the old rev
+    DocCache.invalidate("cached", "raced");
+    long stale = DocCache.stale.get();
+    ByteBuffer body = json("{\"_rev\":\"1-x\"}");
+    assertEquals(body, DocCache.put("cached", "raced", sent, "\"1-x\"", null, body));
+    assertNull(DocCache.get("cached", "raced"));
+    assertEquals(stale + 1, DocCache.stale.get());
+
+    Thread.sleep(2);
+    DocCache.put("cached", "raced", System.currentTimeMillis(), "\"2-y\"", null, body);
+    assertEquals("\"2-y\"", DocCache.get("cached", "raced").etag);
+  }
+
+  @Test
+  public void testHeadersKept() {
+    DocCache.put("cached", "a", System.currentTimeMillis(), "\"1-x\"", "application/json",
+        json("{}"));
+    HttpResponse res = DocCache.get("cached", "a").headers(new Rfc822HeaderState().$res());
+    assertEquals(HttpStatus.$200, res.statusEnum());
+    assertEquals("\"1-x\"", res.headerString(ETag));
+    assertEquals("2", res.headerString(Content$2dLength));
+    assertEquals("application/json", res.headerString(Content$2dType));
+  }
+}
@@ -0,0 +1,46 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.couch.driver.CouchMetaDriver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.*;
+
+public class DocsFetchTest {
+
+  public static class Doc {
+    String _id;
+    int n;
+  }
+
+  static final String ROWS =
+      "{\"total_rows\":3,\"offset\":0,\"rows\":[\r\n"
+          + "{\"id\":\"a\",\"key\":\"a\",\"value\":{\"rev\":\"1-x\"},"
+          + "\"doc\":{\"_id\":\"a\",\"n\":1}},\r\n"
+          + "{\"key\":\"zz\",\"error\":\"not_found\"},\r\n"
+          + "{\"id\":\"b\",\"key\":\"b\",\"value\":{\"rev\":\"2-y\",\"deleted\":true},"
+          + "\"doc\":null},\r\n"
+          + "{\"id\":\"c\",\"key\":\"c\",\"value\":{\"rev\":\"1-z\"},"
+          + "\"doc\":{\"n\":3,\"_id\":\"c\"}}\r\n"
+          + "]}\n";
+
+  @Test
+  public void testDocsInKeyOrder() throws Exception {
+    List<Doc> docs = CouchMetaDriver.docs(StandardCharsets.UTF_8.encode(ROWS), Doc.class);
+    assertEquals(4, docs.size());
+    assertEquals("a", docs.get(0)._id);
+    assertEquals(1, docs.get(0).n);
+    assertNull(docs.get(1));
+    assertNull(docs.get(2));
+    assertEquals(3, docs.get(3).n);
+  }
+
+  @Test
+  public void testUntyped() throws Exception {
+    List<Map> docs = CouchMetaDriver.docs(StandardCharsets.UTF_8.encode(ROWS), null);
+    assertEquals("c", docs.get(3).get("_id"));
+  }
+}
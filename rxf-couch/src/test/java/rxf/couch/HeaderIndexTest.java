@@ -0,0 +1,65 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.core.HeaderIndex;
+import rxf.core.Rfc822HeaderState;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class HeaderIndexTest {
+  static final String REQUEST = "GET /index.html?x=1 HTTP/1.1\r\n" + "Host: localhost:8080\r\n"
+      + "content-length:  12 \r\n" + "X-Folded: one\r\n two\r\n" + "Content-Length: 99\r\n"
+      + "\r\n" + "body follows";
+
+  static ByteBuffer buf(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRequest() {
+    HeaderIndex index = new HeaderIndex().interest("Content-Length", "Host", "X-Folded", "Accept");
+    ByteBuffer buf = buf(REQUEST);
+    assertTrue(index.apply(buf));
+    assertEquals(0, buf.position());
+    assertEquals("GET", index.string(HeaderIndex.METHOD));
+    assertEquals("/index.html?x=1", index.string(HeaderIndex.PATH));
+    assertTrue(index.equalsIgnoreCase(HeaderIndex.PROTOCOL, "http/1.1"));
+    assertEquals("12", index.header("Content-Length"));
+    assertEquals("localhost:8080", index.header("Host"));
+    String folded = index.header("X-Folded");
+    assertTrue(folded, folded.startsWith("one") && folded.endsWith("two"));
+    assertNull(index.header("Accept"));
+    assertEquals("body follows", StandardCharsets.UTF_8.decode(
+        (ByteBuffer) buf.duplicate().position(index.end())).toString());
+  }
+
+  @Test
+  public void testIncomplete() {
+    HeaderIndex index = new HeaderIndex().interest("Host");
+    ByteBuffer buf = buf(REQUEST.substring(0, 60));
+    assertFalse(index.apply(buf));
+    assertEquals("localhost:8080", index.header("Host"));
+    assertEquals(buf.limit(), index.end());
+  }
+
+  @Test
+  public void testLazyState() {
+    Rfc822HeaderState state = new Rfc822HeaderState("Content-Length");
+    ByteBuffer buf = buf(REQUEST);
+    assertTrue(state.apply(buf));
+    assertEquals("body follows", StandardCharsets.UTF_8.decode(buf.slice()).toString());
+    assertEquals("12", state.headerString("Content-Length"));
+    Rfc822HeaderState.HttpRequest req = state.$req();
+    assertEquals("/index.html?x=1", req.path());
+    assertEquals("HTTP/1.1", req.protocol());
+    req.headerString("Expires", "never");
+    assertEquals("12", req.headerStrings().get("Content-Length"));
+    assertEquals("never", state.headerString("Expires"));
+  }
+}
@@ -0,0 +1,201 @@
+package rxf.couch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.core.BufferPool;
+import rxf.couch.daemon.HttpPipeVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+import static junit.framework.Assert.*;
+import static rxf.couch.daemon.HttpPipeVisitor.PIPE_SEGMENT;
+import static rxf.couch.daemon.HttpPipeVisitor.PIPE_SEGMENTS;
+
+/**
+ * a pipe between two loopback socket pairs, the visitors driven by hand: a1 is the client writing into the pipe's
+ * inward key a2, b2 the pipe's outward key writing to the server b1
+ */
+public class HttpPipeVisitorTest {
+  ServerSocketChannel server;
+  Selector selector;
+  SocketChannel a1, a2, b1, b2;
+  SelectionKey inKey, outKey;
+  HttpPipeVisitor in, out;
+
+  @Before
+  public void setUp() throws Exception {
+    server = ServerSocketChannel.open();
+    // small receive buffers on the accepted ends, so a slow reader backs writes up quickly
+    server.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 10);
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    selector = Selector.open();
+    a1 = SocketChannel.open(server.getLocalAddress());
+    a2 = server.accept();
+    b2 = SocketChannel.open();
+    b2.setOption(StandardSocketOptions.SO_SNDBUF, 4 << 10);
+    b2.connect(server.getLocalAddress());
+    b1 = server.accept();
+    a1.configureBlocking(false);
+    a2.configureBlocking(false);
+    b2.configureBlocking(false);
+    b1.configureBlocking(false);
+    inKey = a2.register(selector, OP_READ);
+    outKey = b2.register(selector, OP_READ);
+    AtomicInteger open = new AtomicInteger(2);
+    in = new HttpPipeVisitor("in", outKey, open, BufferPool.acquire(PIPE_SEGMENT));
+    out = new HttpPipeVisitor("out", inKey, open, BufferPool.acquire(PIPE_SEGMENT));
+    HttpPipeVisitor.join(in, out);
+    inKey.attach(in);
+    outKey.attach(out);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (SocketChannel c : new SocketChannel[] {a1, a2, b1, b2})
+      c.close();
+    selector.close();
+    server.close();
+  }
+
+  static byte[] pattern(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = (byte) (i * 31 + (i >> 8));
+    return bytes;
+  }
+
+  static boolean interested(SelectionKey key, int op) {
+    return 0 != (key.interestOps() & op);
+  }
+
+  @Test
+  public void testFullLaneStallsAndWakes() throws Exception {
+    int lane = PIPE_SEGMENT * PIPE_SEGMENTS;
+    byte[] sent = pattern(lane + PIPE_SEGMENT);
+    ByteBuffer src = ByteBuffer.wrap(sent);
+    long stalled = HttpPipeVisitor.stalled.get();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (interested(inKey, OP_READ)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      a1.write(src);
+      in.onRead(inKey);
+    }
+    assertEquals(lane, in.getBytes());
+    assertEquals(1, in.getStalls());
+    assertEquals(stalled + 1, HttpPipeVisitor.stalled.get());
+    assertTrue(interested(outKey, OP_WRITE));
+
+    // a read while stalled is refused without touching the channel
+    in.onRead(inKey);
+    assertEquals(lane, in.getBytes());
+
+    // draining the head of the lane wakes the reader
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    ByteBuffer dst = ByteBuffer.allocate(PIPE_SEGMENT);
+    while (!interested(inKey, OP_READ)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      out.onWrite(outKey);
+      dst.clear();
+      b1.read(dst);
+      received.write(dst.array(), 0, dst.position());
+    }
+    while (received.size() < sent.length) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      a1.write(src);
+      if (interested(inKey, OP_READ))
+        in.onRead(inKey);
+      if (interested(outKey, OP_WRITE))
+        out.onWrite(outKey);
+      dst.clear();
+      b1.read(dst);
+      received.write(dst.array(), 0, dst.position());
+    }
+    assertTrue(Arrays.equals(sent, received.toByteArray()));
+    assertFalse(interested(outKey, OP_WRITE));
+  }
+
+  @Test
+  public void testPartialGatheringWrites() throws Exception {
+    byte[] sent = pattern(PIPE_SEGMENT * PIPE_SEGMENTS * 3 + 123);
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    ByteBuffer src = ByteBuffer.wrap(sent);
+    // a slow server, reading less each turn than the pipe has for it
+    ByteBuffer dst = ByteBuffer.allocate(1000);
+    int partial = 0;
+    long deadline = System.currentTimeMillis() + 10000;
+    while (received.size() < sent.length) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      a1.write(src);
+      if (interested(inKey, OP_READ))
+        in.onRead(inKey);
+      if (interested(outKey, OP_WRITE)) {
+        out.onWrite(outKey);
+        if (interested(outKey, OP_WRITE))
+          partial++;
+      }
+      dst.clear();
+      b1.read(dst);
+      received.write(dst.array(), 0, dst.position());
+    }
+    assertTrue(partial > 0);
+    assertTrue(Arrays.equals(sent, received.toByteArray()));
+    assertEquals(sent.length, in.getBytes());
+    assertFalse(interested(outKey, OP_WRITE));
+    assertTrue(interested(inKey, OP_READ));
+  }
+
+  @Test
+  public void testHalfClosePassedOn() throws Exception {
+    a1.write(StandardCharsets.UTF_8.encode("ping"));
+    a1.shutdownOutput();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (interested(inKey, OP_READ)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      in.onRead(inKey);
+    }
+    out.onWrite(outKey);
+    assertFalse(interested(outKey, OP_WRITE));
+    assertEquals("ping", drain(b1, deadline));
+    // the server sees the end of the request but the pipe stays open for its answer
+    assertTrue(b2.isOpen());
+    assertTrue(a2.isOpen());
+
+    b1.write(StandardCharsets.UTF_8.encode("pong"));
+    b1.shutdownOutput();
+    while (interested(outKey, OP_READ)) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      out.onRead(outKey);
+    }
+    in.onWrite(inKey);
+    assertFalse(a2.isOpen());
+    assertFalse(b2.isOpen());
+    assertEquals("pong", drain(a1, deadline));
+  }
+
+  /**
+   * everything up to the end of input
+   */
+  static String drain(SocketChannel channel, long deadline) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ByteBuffer dst = ByteBuffer.allocate(64);
+    for (int read; -1 != (read = channel.read(dst)); dst.clear()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      bytes.write(dst.array(), 0, read);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,75 @@
+package rxf.couch;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class JsonCodecTest {
+
+  public static class Doc {
+    public String _id;
+    public int n;
+    public Integer boxed;
+    public float f;
+    @SerializedName(value = "when", alternate = "at")
+    public Long timestamp;
+    public Boolean ok;
+    public char grade;
+    public Character initial;
+    public List<String> tags;
+    public transient String skipped;
+  }
+
+  public interface DocService extends CouchService<Doc> {
+  }
+
+  @JsonCodec
+  public static class Annotated {
+    String name;
+  }
+
+  static class Private {
+    private String hidden;
+  }
+
+  @Test
+  public void testGenerated() {
+    assertTrue(Codecs.register(Doc.class));
+    assertEquals(Codecs.codecName(Doc.class), Codecs.codec(Doc.class).getClass().getName());
+    assertTrue(Codecs.register(Annotated.class));
+    assertFalse(Codecs.register(Private.class));
+  }
+
+  @Test
+  public void testLikeGson() throws Exception {
+    Codecs.register(Doc.class);
+    Doc doc = new Doc();
+    doc._id = "a";
+    doc.n = 3;
+    doc.f = 1.1f;
+    doc.timestamp = 7L;
+    doc.ok = true;
+    doc.grade = 'A';
+    doc.tags = Arrays.asList("x", "y");
+    doc.skipped = "no";
+    assertEquals(new Gson().toJson(doc), Codecs.toJson(doc));
+
+    Doc read =
+        Codecs.read(StandardCharsets.UTF_8.encode("{\"_id\":\"b\",\"n\":null,\"boxed\":null,"
+            + "\"at\":9,\"grade\":\"B\",\"initial\":\"c\",\"tags\":[\"z\"],\"other\":{\"x\":[1]},\"skipped\":\"s\"}"), Doc.class);
+    assertEquals("b", read._id);
+    assertEquals(0, read.n);
+    assertNull(read.boxed);
+    assertEquals(9L, (long) read.timestamp);
+    assertEquals('B', read.grade);
+    assertEquals('c', (char) read.initial);
+    assertEquals(Arrays.asList("z"), read.tags);
+    assertNull(read.skipped);
+  }
+}
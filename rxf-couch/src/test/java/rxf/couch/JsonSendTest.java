@@ -0,0 +1,52 @@
+package rxf.couch;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import rxf.couch.driver.CouchMetaDriver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static junit.framework.Assert.*;
+
+public class JsonSendTest {
+
+  @Test
+  public void testOneSegment() throws Exception {
+    ByteBuffer[] body = Codecs.encode(Collections.singletonMap("a", 1));
+    assertEquals(1, body.length);
+    assertEquals("{\"a\":1}", StandardCharsets.UTF_8.decode(body[0]).toString());
+  }
+
+  @Test
+  public void testChunked() throws Exception {
+    final String big = new String(new char[Codecs.JSON_SEGMENT + 10]).replace('\0', 'x');
+    ByteBuffer[] body =
+        Codecs.encode((Codecs.Encoder) out -> out.beginArray().value(big).endArray());
+    assertEquals(2, body.length);
+    assertEquals(Codecs.JSON_SEGMENT, body[0].remaining());
+
+    ByteBuffer[] framed =
+        CouchMetaDriver.chunked(StandardCharsets.US_ASCII.encode("head\r\n\r\n"), body);
+    StringBuilder wire = new StringBuilder();
+    for (ByteBuffer buf : framed)
+      wire.append(StandardCharsets.UTF_8.decode(buf));
+    assertEquals("head\r\n\r\n" + Integer.toHexString(Codecs.JSON_SEGMENT) + "\r\n", wire
+        .substring(0, 10 + Integer.toHexString(Codecs.JSON_SEGMENT).length()));
+    assertTrue(wire.toString().endsWith("\r\n0\r\n\r\n"));
+
+    // unframed, the chunks are the document
+    String chunks = wire.substring("head\r\n\r\n".length());
+    StringBuilder json = new StringBuilder();
+    for (int at = 0;;) {
+      int eol = chunks.indexOf("\r\n", at);
+      int size = Integer.parseInt(chunks.substring(at, eol), 16);
+      if (0 == size)
+        break;
+      json.append(chunks, eol + 2, eol + 2 + size);
+      at = eol + 4 + size;
+    }
+    assertEquals(new Gson().toJson(Collections.singletonList(big)), json.toString());
+  }
+}
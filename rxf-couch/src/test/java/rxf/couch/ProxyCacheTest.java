@@ -0,0 +1,63 @@
+package rxf.couch;
+
+import org.junit.After;
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState;
+import rxf.core.Rfc822HeaderState.HttpRequest;
+import rxf.couch.daemon.ProxyCache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.*;
+
+public class ProxyCacheTest {
+  static final String RESPONSE =
+      "HTTP/1.1 200 OK\r\nETag: \"1-abc\"\r\nCache-Control: max-age=60\r\n"
+          + "Content-Length: 5\r\n\r\nhello";
+
+  @After
+  public void clear() {
+    ProxyCache.clear();
+  }
+
+  static HttpRequest req(String headers) {
+    return (HttpRequest) new Rfc822HeaderState().$req().headerInterest(
+        ProxyCache.REQUEST_HEADERS).read(
+        StandardCharsets.UTF_8.encode("GET /db/doc/att HTTP/1.1\r\n" + headers + "\r\n"));
+  }
+
+  static String string(ByteBuffer[] bufs) {
+    StringBuilder sb = new StringBuilder();
+    for (ByteBuffer buf : bufs)
+      sb.append(StandardCharsets.UTF_8.decode(buf));
+    return sb.toString();
+  }
+
+  @Test
+  public void testFillAndAnswer() {
+    ProxyCache.Fill fill = new ProxyCache.Fill("GET host/db/doc/att", "couch", "/db/doc/att");
+    // the response arrives split, and keeps the tee on until it's whole
+    assertTrue(fill.test(StandardCharsets.UTF_8.encode(RESPONSE.substring(0, 20))));
+    assertFalse(fill.test(StandardCharsets.UTF_8.encode(RESPONSE.substring(20))));
+
+    ProxyCache.Entry entry = ProxyCache.get("GET host/db/doc/att", req(""));
+    assertNotNull(entry);
+    assertEquals(RESPONSE, string(entry.answer(req(""))));
+
+    String notModified = string(entry.answer(req("If-None-Match: \"1-abc\"\r\n")));
+    assertTrue(notModified, notModified.startsWith("HTTP/1.1 304"));
+    assertTrue(notModified, notModified.contains("\"1-abc\""));
+    assertTrue(notModified.endsWith("\r\n\r\n"));
+
+    assertNull(ProxyCache.get("GET host/db/doc/att", req("Cache-Control: no-cache\r\n")));
+  }
+
+  @Test
+  public void testNotStored() {
+    ProxyCache.Fill fill = new ProxyCache.Fill("GET host/x", "couch", "/x");
+    assertFalse(fill.test(StandardCharsets.UTF_8.encode(RESPONSE.replace("Content-Length",
+        "Set-Cookie: a=b\r\nContent-Length"))));
+    assertNull(ProxyCache.get("GET host/x", req("")));
+  }
+}
@@ -0,0 +1,144 @@
+package rxf.couch;
+
+import one.xio.AsioVisitor;
+import one.xio.AsyncSingletonServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.rpc.RelaxFactoryServerImpl;
+import rxf.rpc.SelectorShard;
+import rxf.web.inf.ProtocolMethodDispatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static junit.framework.Assert.*;
+
+/**
+ * a whole server on loopback, its accepted sockets echoed back by whichever selector they land on
+ */
+public class RelaxFactoryServerTest {
+  RelaxFactoryServerImpl server;
+  Thread serving;
+
+  /**
+   * accepts through {@link ProtocolMethodDispatch#ACCEPTOR} like the dispatcher does, then echoes
+   */
+  static final AsioVisitor ECHO = new AsioVisitor.Impl() {
+    public void onAccept(SelectionKey key) throws Exception {
+      SocketChannel accept = ((ServerSocketChannel) key.channel()).accept();
+      if (null == accept)
+        return;
+      accept.configureBlocking(false);
+      ProtocolMethodDispatch.ACCEPTOR.enqueue(accept, OP_READ);
+    }
+
+    public void onRead(SelectionKey key) throws Exception {
+      SocketChannel channel = (SocketChannel) key.channel();
+      ByteBuffer buf = ByteBuffer.allocate(256);
+      if (-1 == channel.read(buf)) {
+        channel.close();
+        return;
+      }
+      buf.flip();
+      while (buf.hasRemaining())
+        channel.write(buf);
+    }
+  };
+
+  @Before
+  public void setUp() {
+    AsyncSingletonServer.killswitch.set(false);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (null != server)
+      server.stop();
+    if (null != serving)
+      serving.join(10000);
+    AsyncSingletonServer.killswitch.set(false);
+  }
+
+  /**
+   * starts a server on its own thread and waits for its listeners
+   *
+   * @param tlsPort -1 for none, 0 for any
+   */
+  static RelaxFactoryServerImpl serve(int shards, int tlsPort, Thread[] serving) throws Exception {
+    final RelaxFactoryServerImpl server = new RelaxFactoryServerImpl();
+    server.init("127.0.0.1", 0, ECHO);
+    server.setShards(shards);
+    server.setTlsPort(tlsPort);
+    serving[0] = new Thread(() -> {
+      try {
+        server.start();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }, "rxf-test-server");
+    serving[0].setDaemon(true);
+    serving[0].start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (0 == server.getPort() || 0 == server.getTlsPort() || 1 < shards
+        && null == RelaxFactoryServerImpl.getReactor()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    return server;
+  }
+
+  RelaxFactoryServerImpl serve(int shards) throws Exception {
+    Thread[] thread = new Thread[1];
+    server = serve(shards, -1, thread);
+    serving = thread[0];
+    return server;
+  }
+
+  static String echo(Socket socket, String text) throws IOException {
+    socket.setSoTimeout(10000);
+    socket.getOutputStream().write(text.getBytes(StandardCharsets.US_ASCII));
+    InputStream in = socket.getInputStream();
+    byte[] b = new byte[text.length()];
+    for (int n = 0, r; n < b.length; n += r)
+      assertTrue(-1 != (r = in.read(b, n, b.length - n)));
+    return new String(b, StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testShardsServeAndStop() throws Exception {
+    ProtocolMethodDispatch.Acceptor single = ProtocolMethodDispatch.ACCEPTOR;
+    serve(2);
+    for (int i = 0; i < 4; i++)
+      try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+        assertEquals("ping " + i, echo(socket, "ping " + i));
+      }
+    // round robin
+    for (SelectorShard shard : RelaxFactoryServerImpl.getReactor().getShards()) {
+      assertEquals(2, shard.handoffs.get());
+      assertTrue(0 < shard.events.get());
+    }
+    assertNotSame(single, ProtocolMethodDispatch.ACCEPTOR);
+
+    server.stop();
+    serving.join(10000);
+    server = null;
+    assertNull(RelaxFactoryServerImpl.getReactor());
+    assertSame(single, ProtocolMethodDispatch.ACCEPTOR);
+
+    // the next server in this vm keeps to its single selector
+    AsyncSingletonServer.killswitch.set(false);
+    serve(1);
+    try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+      assertEquals("pong", echo(socket, "pong"));
+    }
+    assertNull(RelaxFactoryServerImpl.getReactor());
+  }
+}
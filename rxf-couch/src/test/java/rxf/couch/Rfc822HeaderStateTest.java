@@ -2,6 +2,7 @@ package rxf.couch;
 
 import org.junit.Assert;
 import org.junit.Test;
+import one.xio.HttpStatus;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Tx;
 
@@ -9,6 +10,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 public class Rfc822HeaderStateTest {
@@ -107,4 +109,18 @@ public class Rfc822HeaderStateTest {
 
   }
 
+
+  @Test
+  public void testSnapshotSharesNothing() {
+    Rfc822HeaderState state = new Rfc822HeaderState("ETag");
+    state.$res().read(
+        StandardCharsets.UTF_8.encode("HTTP/1.1 304 Not Modified\r\nETag: \"1-x\"\r\n\r\n"));
+    Rfc822HeaderState copy = state.snapshot();
+    copy.$res().status(HttpStatus.$200);
+    copy.headerString("If-None-Match", "\"1-x\"");
+    assertEquals(HttpStatus.$304, state.$res().statusEnum());
+    assertEquals(HttpStatus.$200, copy.$res().statusEnum());
+    assertNull(state.headerString("If-None-Match"));
+    assertEquals("\"1-x\"", copy.headerString("ETag"));
+  }
 }
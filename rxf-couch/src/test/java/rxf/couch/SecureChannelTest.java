@@ -0,0 +1,169 @@
+package rxf.couch;
+
+import one.xio.AsyncSingletonServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import rxf.core.SecureChannel;
+import rxf.rpc.RelaxFactoryServerImpl;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SecureChannelTest {
+  static File keystore;
+  static ServerSocketChannel server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    keystore = File.createTempFile("rxf-tls", ".p12");
+    keystore.delete();
+    String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+    Process process =
+        new ProcessBuilder(keytool, "-genkeypair", "-alias", "rxf", "-keyalg", "RSA", "-keysize",
+            "2048", "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12",
+            "-keystore", keystore.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+            .inheritIO().start();
+    assertEquals(0, process.waitFor());
+    char[] password = "changeit".toCharArray();
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream in = new FileInputStream(keystore)) {
+      keyStore.load(in, password);
+    }
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, password);
+    TrustManagerFactory tmf =
+        TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(keyStore);
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    SecureChannel.context(context);
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+    Files.deleteIfExists(keystore.toPath());
+  }
+
+  @Test
+  public void testExchangeAndResume() throws Exception {
+    long handshakes = SecureChannel.handshakes.get();
+    long resumed = SecureChannel.resumed.get();
+    assertEquals("pong ping", exchange("ping"));
+    Thread.sleep(10);
+    assertEquals("pong again", exchange("again"));
+    assertEquals(handshakes + 4, SecureChannel.handshakes.get());
+    assertTrue(resumed < SecureChannel.resumed.get());
+  }
+
+  @Test
+  public void testLargerThanARecord() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 100 << 10)
+      sb.append("0123456789abcdef");
+    String big = sb.toString();
+    assertEquals("pong " + big, exchange(big));
+  }
+
+  @Test
+  public void testOriginOfTerminatedHop() throws Exception {
+    InetSocketAddress client = new InetSocketAddress(InetAddress.getByName("192.0.2.7"), 4433);
+    try (SocketChannel loopback = SocketChannel.open()) {
+      loopback.configureBlocking(false);
+      loopback.bind(new InetSocketAddress(server.socket().getInetAddress(), 0));
+      SecureChannel.terminated(loopback, client);
+      loopback.connect(server.socket().getLocalSocketAddress());
+      try (SocketChannel accepted = server.accept()) {
+        assertEquals(client, SecureChannel.origin(accepted));
+        assertTrue(SecureChannel.secure(accepted));
+        SecureChannel.untrack(loopback);
+        assertEquals(accepted.getRemoteAddress(), SecureChannel.origin(accepted));
+        assertFalse(SecureChannel.secure(accepted));
+      }
+    }
+  }
+
+  @Test
+  public void testTerminatedWithTasksRunByCaller() throws Exception {
+    // what the pool's CallerRunsPolicy does once its queue is full: the task and resume() finish inside execute()
+    SecureChannel.executor(Runnable::run);
+    AsyncSingletonServer.killswitch.set(false);
+    Thread[] serving = new Thread[1];
+    RelaxFactoryServerImpl relax = RelaxFactoryServerTest.serve(2, 0, serving);
+    try (Socket socket =
+        SecureChannel.context().getSocketFactory().createSocket("localhost", relax.getTlsPort())) {
+      assertEquals("ping", RelaxFactoryServerTest.echo(socket, "ping"));
+      assertEquals("again", RelaxFactoryServerTest.echo(socket, "again"));
+    } finally {
+      SecureChannel.executor(null);
+      relax.stop();
+      serving[0].join(10000);
+      AsyncSingletonServer.killswitch.set(false);
+    }
+  }
+
+  /**
+   * both ends non-blocking on this thread, tasks run inline
+   */
+  static String exchange(String request) throws Exception {
+    SocketChannel c = SocketChannel.open(server.socket().getLocalSocketAddress());
+    SocketChannel s = server.accept();
+    c.configureBlocking(false);
+    s.configureBlocking(false);
+    SecureChannel client =
+        SecureChannel.client(c, "localhost", server.socket().getLocalPort(), null);
+    SecureChannel secure = SecureChannel.server(s, null);
+    try {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (client.handshaking() || secure.handshaking()) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        client.handshake();
+        secure.handshake();
+      }
+      assertEquals(request, transfer(client, secure, request));
+      String response = "pong " + request;
+      assertEquals(response, transfer(secure, client, response));
+      return response;
+    } finally {
+      client.close();
+      secure.close();
+    }
+  }
+
+  static String transfer(SecureChannel from, SecureChannel to, String text) throws Exception {
+    ByteBuffer src = StandardCharsets.UTF_8.encode(text);
+    int length = src.remaining();
+    ByteBuffer dst = ByteBuffer.allocate(length);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (dst.hasRemaining()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      if (src.hasRemaining() || from.pending())
+        from.write(src);
+      from.flush();
+      assertTrue(-1 != to.read(dst));
+    }
+    dst.flip();
+    return StandardCharsets.UTF_8.decode(dst).toString();
+  }
+}
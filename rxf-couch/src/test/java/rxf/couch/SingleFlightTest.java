@@ -0,0 +1,61 @@
+package rxf.couch;
+
+import one.xio.HttpStatus;
+import org.junit.Test;
+import rxf.core.Tx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class SingleFlightTest {
+
+  @Test
+  public void testCollapses() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final CompletableFuture<Tx> upstream = new CompletableFuture<>();
+    final Tx leader = new Tx(), follower = new Tx();
+    CompletableFuture<Tx> first = SingleFlight.join("DocFetch db/a", leader, () -> {
+      calls.incrementAndGet();
+      return upstream;
+    });
+    CompletableFuture<Tx> second = SingleFlight.join("DocFetch db/a", follower, () -> {
+      calls.incrementAndGet();
+      return new CompletableFuture<>();
+    });
+    assertEquals(1, calls.get());
+    assertFalse(second.isDone());
+
+    leader.hdr().$res().status(HttpStatus.$200);
+    leader.payload(ByteBuffer.wrap("{\"_id\":\"a\"}".getBytes(StandardCharsets.UTF_8)));
+    upstream.complete(leader);
+    assertEquals(0, SingleFlight.inflight());
+
+    ByteBuffer one = first.get().payload(), two = second.get().payload();
+    assertTrue(one.isReadOnly());
+    assertTrue(two.isReadOnly());
+    assertNotSame(one, two);
+    assertNotSame(leader.hdr(), follower.hdr());
+    assertEquals(HttpStatus.$200, follower.hdr().$res().statusEnum());
+    // one caller rewriting its headers leaves the other's alone
+    leader.hdr().$res().status(HttpStatus.$404);
+    assertEquals(HttpStatus.$200, follower.hdr().$res().statusEnum());
+    StandardCharsets.UTF_8.decode(one);
+    assertEquals("{\"_id\":\"a\"}", StandardCharsets.UTF_8.decode(two).toString());
+  }
+
+  @Test
+  public void testFailureReleasesKey() throws Exception {
+    CompletableFuture<Tx> upstream = new CompletableFuture<>();
+    CompletableFuture<Tx> first = SingleFlight.join("ViewFetch db/v", new Tx(), () -> upstream);
+    CompletableFuture<Tx> second = SingleFlight.join("ViewFetch db/v", new Tx(), () -> upstream);
+    upstream.completeExceptionally(new IOException("couch: $500"));
+    assertTrue(first.isCompletedExceptionally());
+    assertTrue(second.isCompletedExceptionally());
+    assertEquals(0, SingleFlight.inflight());
+  }
+}
@@ -0,0 +1,54 @@
+package rxf.couch;
+
+import org.junit.Test;
+import rxf.core.Rfc822HeaderState.HttpRequest;
+import rxf.core.Tx;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class TxTest {
+
+  static Tx request(String headers) {
+    Tx tx = new Tx();
+    tx.hdr().headerInterest("Connection").read(
+        ByteBuffer.wrap(headers.getBytes(StandardCharsets.UTF_8)));
+    return tx;
+  }
+
+  @Test
+  public void testKeepAliveDefaults() {
+    assertTrue(request("GET / HTTP/1.1\r\nHost: x\r\n\r\n").keepAlive());
+    assertFalse(request("GET / HTTP/1.0\r\nHost: x\r\n\r\n").keepAlive());
+  }
+
+  @Test
+  public void testKeepAliveConnectionHeader() {
+    assertFalse(request("GET / HTTP/1.1\r\nConnection: close\r\n\r\n").keepAlive());
+    assertTrue(request("GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n").keepAlive());
+  }
+
+  @Test
+  public void testRecycle() {
+    Tx tx = request("GET /a HTTP/1.1\r\nConnection: close\r\n\r\n");
+    HttpRequest req = tx.hdr().asRequest();
+    assertSame(req, tx.hdr().asRequest());
+    assertEquals("/a", req.path());
+
+    tx.recycle();
+    assertNull(tx.hdr().headerString("Connection"));
+    assertNull(tx.hdr().asRequest().path());
+
+    tx.hdr().read(ByteBuffer.wrap("GET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8)));
+    assertSame(req, tx.hdr().asRequest());
+    assertEquals("/b", req.path());
+    assertNull(req.headerString("Connection"));
+    assertTrue(tx.keepAlive());
+  }
+}
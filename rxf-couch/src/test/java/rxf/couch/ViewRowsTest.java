@@ -0,0 +1,71 @@
+package rxf.couch;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class ViewRowsTest {
+
+  /**
+   * serves rows n.. of a view of 0..total-1 keyed by number, ids "d" + n
+   */
+  static class Canned extends ViewRows<Integer> {
+    final int total;
+    final List<String> queries = new ArrayList<>();
+
+    Canned(String view, int total) {
+      super("db", view, Integer.class);
+      this.total = total;
+    }
+
+    ByteBuffer page(String query) {
+      queries.add(query);
+      int from = 0, limit = total;
+      for (String param : query.substring(query.indexOf('?') + 1).split("&"))
+        if (param.startsWith("startkey="))
+          from = Integer.parseInt(param.substring(9));
+        else if (param.startsWith("limit="))
+          limit = Integer.parseInt(param.substring(6));
+      StringBuilder json =
+          new StringBuilder("{\"total_rows\":" + total + ",\"offset\":0,\"rows\":[");
+      for (int i = from; i < Math.min(total, from + limit); i++)
+        json.append(i == from ? "" : ",").append("\r\n{\"id\":\"d").append(i).append("\",\"key\":")
+            .append(i).append(",\"value\":").append(i).append('}');
+      return StandardCharsets.UTF_8.encode(json.append("\r\n]}\n").toString());
+    }
+  }
+
+  @Test
+  public void testPages() {
+    Canned rows = new Canned("_design/x/_view/all?", ViewRows.VIEW_PAGE * 2 + 3);
+    int n = 0;
+    while (rows.hasNext())
+      assertEquals(n++, (int) rows.next());
+    assertEquals(rows.total, n);
+    assertEquals(3, rows.queries.size());
+    assertEquals("_design/x/_view/all?limit=" + (ViewRows.VIEW_PAGE + 1), rows.queries.get(0));
+    assertEquals("_design/x/_view/all?startkey=" + ViewRows.VIEW_PAGE + "&startkey_docid=d"
+        + ViewRows.VIEW_PAGE + "&limit=" + (ViewRows.VIEW_PAGE + 1), rows.queries.get(1));
+  }
+
+  @Test
+  public void testLimitAndKey() {
+    Canned rows = new Canned("_design/x/_view/all?key=5&limit=3&", 100);
+    List<Integer> values = new ArrayList<>();
+    rows.forEachRemaining(values::add);
+    assertEquals(3, values.size());
+    assertEquals(5, (int) values.get(0));
+    assertEquals(1, rows.queries.size());
+    assertEquals("_design/x/_view/all?endkey=5&startkey=5&limit=4", rows.queries.get(0));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertFalse(new Canned("_design/x/_view/all", 0).hasNext());
+  }
+}
@@ -0,0 +1,199 @@
+package rxf.couch.daemon;
+
+import one.xio.AsioVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.core.BufferPool;
+import rxf.couch.daemon.Upstreams.Node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static junit.framework.Assert.*;
+
+/**
+ * replays through {@link ProxyDaemon#upstream}, its selector run by hand, against backends that hang up on every
+ * connection or answer one request on each
+ */
+public class ProxyDaemonTest {
+  static final String REQUEST = "GET /db/doc HTTP/1.0\r\nHost: couch\r\n\r\n";
+  static final String RESPONSE = "HTTP/1.0 200 OK\r\nContent-Length: 2\r\n\r\nok";
+
+  Selector selector;
+  ServerSocketChannel front;
+  SocketChannel client;
+  SelectionKey outerKey;
+  final List<ServerSocketChannel> backends = new ArrayList<>();
+  final Queue<Socket> accepted = new ConcurrentLinkedQueue<>();
+
+  @Before
+  public void setUp() throws Exception {
+    selector = Selector.open();
+    front = ServerSocketChannel.open();
+    front.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    client = SocketChannel.open(front.getLocalAddress());
+    client.configureBlocking(false);
+    SocketChannel outer = front.accept();
+    outer.configureBlocking(false);
+    outerKey = outer.register(selector, OP_READ);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Upstreams.configure("");
+    for (Socket socket : accepted)
+      socket.close();
+    for (ServerSocketChannel backend : backends)
+      backend.close();
+    client.close();
+    front.close();
+    selector.close();
+  }
+
+  /**
+   * @return host:port of a backend that closes every connection it accepts, or answers the first request on it
+   */
+  String backend(final boolean answers) throws IOException {
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    backends.add(server);
+    Thread thread = new Thread(() -> {
+      try {
+        for (;;) {
+          Socket socket = server.accept().socket();
+          if (!answers) {
+            socket.close();
+            continue;
+          }
+          accepted.add(socket);
+          Thread serve = new Thread(() -> {
+            try {
+              InputStream in = socket.getInputStream();
+              StringBuilder head = new StringBuilder();
+              for (int c; !head.toString().endsWith("\r\n\r\n") && -1 != (c = in.read());)
+                head.append((char) c);
+              if (REQUEST.contentEquals(head)) {
+                socket.getOutputStream().write(RESPONSE.getBytes(StandardCharsets.US_ASCII));
+                socket.close();
+              }
+            } catch (IOException e) {
+              // the test is over
+            }
+          });
+          serve.setDaemon(true);
+          serve.start();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+    return address.getHostString() + ':' + address.getPort();
+  }
+
+  void upstream() throws IOException {
+    byte[] replay = REQUEST.getBytes(StandardCharsets.US_ASCII);
+    ProxyDaemon.upstream(outerKey, BufferPool.acquire(HttpPipeVisitor.PIPE_SEGMENT).put(replay),
+        "/db/doc", replay, new ArrayList<Node>(), null);
+  }
+
+  /**
+   * runs the selector until the client has read everything up to the end of input
+   */
+  String response() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ByteBuffer dst = ByteBuffer.allocate(256);
+    long deadline = System.currentTimeMillis() + 10000;
+    for (int read; -1 != (read = client.read(dst)); dst.clear()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      bytes.write(dst.array(), 0, read);
+      select();
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  void select() throws Exception {
+    selector.select(10);
+    for (SelectionKey key : selector.selectedKeys()) {
+      AsioVisitor visitor = (AsioVisitor) key.attachment();
+      if (key.isValid() && key.isConnectable())
+        visitor.onConnect(key);
+      if (key.isValid() && key.isReadable())
+        visitor.onRead(key);
+      if (key.isValid() && key.isWritable())
+        visitor.onWrite(key);
+    }
+    selector.selectedKeys().clear();
+  }
+
+  @Test
+  public void testReplayedOnAnotherNode() throws Exception {
+    Upstreams.configure(backend(false) + ',' + backend(true));
+    Node gone = Upstreams.nodes().get(0);
+    Node answers = Upstreams.nodes().get(1);
+    // the least busy node is the one that hangs up
+    answers.outstanding.set(1);
+    long retries = Upstreams.retries.get();
+    upstream();
+    assertEquals(RESPONSE, response());
+    assertEquals(retries + 1, Upstreams.retries.get());
+    assertEquals(0, gone.outstanding.get());
+    assertEquals(2, answers.outstanding.get());
+  }
+
+  @Test
+  public void testUnresolvedNodeReleased() throws Exception {
+    // connect() throws before the selector ever sees the channel
+    Upstreams.configure("rxf-no-such-host.invalid:80," + backend(true));
+    Node unresolved = Upstreams.nodes().get(0);
+    Node answers = Upstreams.nodes().get(1);
+    answers.outstanding.set(1);
+    upstream();
+    assertEquals(RESPONSE, response());
+    assertEquals(0, unresolved.outstanding.get());
+    assertFalse(unresolved.healthy());
+    assertEquals(2, answers.outstanding.get());
+  }
+
+  @Test
+  public void testRetriesCapped() throws Exception {
+    Upstreams.configure(backend(false) + ',' + backend(false) + ',' + backend(false) + ','
+        + backend(true));
+    Node answers = Upstreams.nodes().get(3);
+    answers.outstanding.set(100);
+    long retries = Upstreams.retries.get();
+    upstream();
+    // the third node to hang up is passed on to the client
+    assertEquals("", response());
+    assertEquals(retries + Upstreams.PROXY_RETRIES, Upstreams.retries.get());
+    assertEquals(100, answers.outstanding.get());
+
+    client.close();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (outerKey.channel().isOpen()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      select();
+    }
+    for (Node node : Upstreams.nodes())
+      if (answers != node)
+        assertEquals(0, node.outstanding.get());
+  }
+}
@@ -0,0 +1,95 @@
+package rxf.couch.daemon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rxf.couch.daemon.Upstreams.Node;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.*;
+
+public class UpstreamsTest {
+  List<Node> nodes;
+
+  @Before
+  public void setUp() {
+    // nothing listens there, and nothing here connects
+    Upstreams.configure("127.0.0.1:5001, 127.0.0.1:5002, 127.0.0.1:5003");
+    nodes = Upstreams.nodes();
+  }
+
+  @After
+  public void tearDown() {
+    Upstreams.configure("");
+  }
+
+  static Node pick(boolean hash, String path, Node... tried) {
+    Node node = Upstreams.pick(hash, path, Arrays.asList(tried));
+    if (null != node)
+      node.release();
+    return node;
+  }
+
+  @Test
+  public void testRing() {
+    Map<String, Node> owners = new HashMap<>();
+    for (int i = 0; i < 300; i++) {
+      String path = "/db/doc" + i;
+      owners.put(path, pick(true, path));
+      assertSame(owners.get(path), pick(true, path));
+    }
+    assertEquals(new HashSet<>(nodes), new HashSet<>(owners.values()));
+
+    // the second node going away only moves its own share
+    Node gone = nodes.get(1);
+    for (Map.Entry<String, Node> owner : owners.entrySet()) {
+      Node node = pick(true, owner.getKey(), gone);
+      assertNotSame(gone, node);
+      if (gone != owner.getValue())
+        assertSame(owner.getValue(), node);
+    }
+  }
+
+  @Test
+  public void testLeastOutstanding() {
+    nodes.get(0).outstanding.set(3);
+    nodes.get(1).outstanding.set(1);
+    nodes.get(2).outstanding.set(2);
+    Node node = Upstreams.pick(false, "/", Collections.<Node> emptyList());
+    assertSame(nodes.get(1), node);
+    assertEquals(2, node.outstanding.get());
+    node = Upstreams.pick(false, "/", Collections.<Node> emptyList());
+    assertNotSame(nodes.get(0), node);
+    assertEquals(3, node.outstanding.get());
+    node.release();
+    assertEquals(2, node.outstanding.get());
+    assertSame(nodes.get(2), pick(false, "/", nodes.get(1)));
+  }
+
+  @Test
+  public void testEjectedPickedLast() {
+    long ejections = Upstreams.ejections.get();
+    nodes.get(0).eject();
+    nodes.get(1).eject();
+    nodes.get(1).eject();
+    assertEquals(ejections + 2, Upstreams.ejections.get());
+    nodes.get(2).outstanding.set(10);
+    for (int i = 0; i < 20; i++) {
+      assertSame(nodes.get(2), pick(false, "/"));
+      assertSame(nodes.get(2), pick(true, "/db/doc" + i));
+    }
+
+    // every node ejected, they're tried anyway rather than fail the request
+    nodes.get(2).eject();
+    assertNotNull(pick(false, "/", nodes.get(0)));
+    assertNotNull(pick(true, "/db/doc", nodes.get(0), nodes.get(1)));
+    assertNull(pick(false, "/", nodes.toArray(new Node[0])));
+    assertNull(pick(true, "/db/doc", nodes.toArray(new Node[0])));
+  }
+}
@@ -4,6 +4,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.name.Names;
+import rxf.couch.Codecs;
 import rxf.couch.CouchService;
 import rxf.couch.CouchServiceFactory;
 
@@ -38,8 +39,12 @@ public class CouchModuleBuilder {
     this.ns = namespace;
   }
 
+  /**
+   * declares an entity, and installs its generated json codec if it has one, see {@link Codecs}
+   */
   public CouchModuleBuilder withEntity(Class<?> entityType) {
     entities.add(entityType);
+    Codecs.register(entityType);
     return this;
   }
 
@@ -3,11 +3,13 @@ package rxf.couch.guice;
 import com.google.inject.*;
 import one.xio.AsioVisitor;
 import one.xio.HttpMethod;
+import rxf.core.BufferPool;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.rpc.RelaxFactoryServerImpl;
 import rxf.shared.PreRead;
 import rxf.web.inf.ProtocolMethodDispatch;
+import rxf.web.inf.Router;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -19,7 +21,6 @@ import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import static java.nio.channels.SelectionKey.OP_READ;
 import static java.nio.channels.SelectionKey.OP_WRITE;
@@ -30,6 +31,12 @@ public class InjectedTopLevelVisitor extends AsioVisitor.Impl {
   private final Map<HttpMethod, Map<String, Key<? extends AsioVisitor>>> bindings = new EnumMap(
       HttpMethod.class);
 
+  /**
+   * {@link #bindings} compiled, with the providers looked up once
+   */
+  private final Map<HttpMethod, Router<Provider<? extends AsioVisitor>>> routers =
+      new EnumMap<>(HttpMethod.class);
+
   private Injector injector;
 
   @Inject
@@ -45,6 +52,12 @@ public class InjectedTopLevelVisitor extends AsioVisitor.Impl {
       method.put(def.getPattern(), def.getVisitorKey());
     }
     System.out.println(bindings);
+    for (Entry<HttpMethod, Map<String, Key<? extends AsioVisitor>>> entry : bindings.entrySet()) {
+      Router<Provider<? extends AsioVisitor>> router = new Router<>();
+      for (Entry<String, Key<? extends AsioVisitor>> def : entry.getValue().entrySet())
+        router.add(def.getKey(), injector.getProvider(def.getValue()));
+      routers.put(entry.getKey(), router);
+    }
     this.injector = injector;
   }
 
@@ -52,19 +65,29 @@ public class InjectedTopLevelVisitor extends AsioVisitor.Impl {
     ServerSocketChannel channel = (ServerSocketChannel) key.channel();
     SocketChannel accept = channel.accept();
     accept.configureBlocking(false);
-    RelaxFactoryServerImpl.enqueue(accept, OP_READ, this);
+    RelaxFactoryServerImpl.handoff(accept, OP_READ, this);
 
   }
 
   public void onRead(SelectionKey key) throws Exception {
     final SocketChannel channel = (SocketChannel) key.channel();
 
-    ByteBuffer cursor = ByteBuffer.allocateDirect(4 << 10);
+    // a ByteBuffer attachment is a request whose headers haven't completed yet
+    Object attachment = key.attachment();
+    ByteBuffer cursor =
+        attachment instanceof ByteBuffer ? (ByteBuffer) attachment : BufferPool.acquire(4 << 10);
+    if (!cursor.hasRemaining())
+      cursor = BufferPool.grow(cursor);
     int read = Helper.read(key, cursor);
     if (-1 == read) {
+      BufferPool.release(cursor);
       ((SocketChannel) key.channel()).socket().close();// cancel();
       return;
     }
+    if (!Rfc822HeaderState.moveCaretToDoubleEol((ByteBuffer) cursor.duplicate().flip())) {
+      key.attach(cursor);
+      return;
+    }
 
     HttpMethod method = null;
     HttpRequest httpRequest = null;
@@ -83,32 +106,33 @@ public class InjectedTopLevelVisitor extends AsioVisitor.Impl {
     }
 
     if (null == method) {
+      BufferPool.release(cursor);
       ((SocketChannel) key.channel()).socket().close();// cancel();
 
       return;
     }
 
-    Set<Entry<String, Key<? extends AsioVisitor>>> entries = bindings.get(method).entrySet();
+    Router<Provider<? extends AsioVisitor>> router = routers.get(method);
     String path = httpRequest.path();
-    for (Entry<String, Key<? extends AsioVisitor>> visitorEntry : entries) {
-      if (path.matches(visitorEntry.getKey())) {
-        if (isDEBUG_SENDJSON()) {
-          System.err.println("+?+?+? using " + visitorEntry.getValue());
-        }
-        AsioVisitor visitor = injector.getInstance(visitorEntry.getValue());
-
-        Object a[] = {visitor, httpRequest, cursor};
-        key.attach(a);
-        if (visitor.getClass().isAnnotationPresent(PreRead.class)) {
-          visitor.onRead(key);
-        }
-
-        key.selector().wakeup();
+    int route = null == router ? -1 : router.route(path);
+    if (-1 != route) {
+      if (isDEBUG_SENDJSON()) {
+        System.err.println("+?+?+? using " + router.pattern(route));
+      }
+      AsioVisitor visitor = router.target(route).get();
 
-        return;
+      Object a[] = {visitor, httpRequest, cursor};
+      key.attach(a);
+      if (visitor.getClass().isAnnotationPresent(PreRead.class)) {
+        visitor.onRead(key);
       }
+
+      key.selector().wakeup();
+
+      return;
     }
     // Failed to find a matching visitor, 404
+    BufferPool.release(cursor);
     key.selector().wakeup();
     key.interestOps(OP_WRITE).attach(new Impl() {
 
@@ -55,11 +55,19 @@ public class RxfModule extends AbstractModule {
   @Singleton
   protected RelaxFactoryServer provideServer(@Named("port") Integer port,
       @Named("hostname") String hostname) throws UnknownHostException {
-    RelaxFactoryServer server = new RelaxFactoryServerImpl();
+    RelaxFactoryServerImpl server = new RelaxFactoryServerImpl();
+    server.setShards(selectorShards());
     server.init(hostname, port, topLevel);
     return server;
   }
 
+  /**
+   * selector threads for accepted sockets, override to pin a width; 1 runs on the single selector.
+   */
+  protected int selectorShards() {
+    return RelaxFactoryServerImpl.RXF_SELECTOR_SHARDS;
+  }
+
   protected void configureHttpVisitors() {
 
   }
@@ -7,9 +7,11 @@ import one.xio.AsioVisitor.Impl;
 import one.xio.HttpHeaders;
 import one.xio.HttpStatus;
 import one.xio.MimeType;
+import rxf.core.BufferPool;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.shared.PreRead;
+import rxf.web.inf.Compression;
 import rxf.web.inf.ProtocolMethodDispatch;
 
 import java.nio.Buffer;
@@ -29,6 +31,11 @@ public class GwtRequestFactoryVisitor extends Impl {
       ServiceLayer.create());
   private HttpRequest req;
   private ByteBuffer cursor = null;
+  /**
+   * pooled buffers handed back once the response is written: the one the request was read into, and the one the
+   * response went out of when it didn't fit behind the request
+   */
+  private ByteBuffer lease, reply;
   private SocketChannel channel;
   private String payload;
 
@@ -50,17 +57,19 @@ public class GwtRequestFactoryVisitor extends Impl {
       key.attach(this);
     }
     cursor =
-        null == cursor ? ByteBuffer.allocateDirect(4 << 10) : cursor.hasRemaining() ? cursor
-            : ByteBuffer.allocateDirect(cursor.capacity() << 1).put((ByteBuffer) cursor.rewind());
+        null == cursor ? BufferPool.acquire(4 << 10) : cursor.hasRemaining() ? cursor : BufferPool
+            .grow(cursor);
     int read = Helper.read(key, cursor);
     if (read == -1)
       key.cancel();
     Buffer flip = cursor.duplicate().flip();
-    req = (HttpRequest) req.headerInterest(HttpHeaders.Content$2dLength).read((ByteBuffer) flip);
+    req = (HttpRequest) req.headerInterest(HttpHeaders.Content$2dLength,
+        HttpHeaders.Accept$2dEncoding).read((ByteBuffer) flip);
     if (!Rfc822HeaderState.suffixMatchChunks(ProtocolMethodDispatch.HEADER_TERMINATOR, req
         .headerBuf())) {
       return;
     }
+    lease = cursor;
     cursor = cursor.slice();
     int remaining = Integer.parseInt(req.headerString(HttpHeaders.Content$2dLength));
     final GwtRequestFactoryVisitor prev = this;
@@ -92,19 +101,26 @@ public class GwtRequestFactoryVisitor extends Impl {
             payload =
                 SIMPLE_REQUEST_PROCESSOR.process(StandardCharsets.UTF_8.decode(
                     (ByteBuffer) cursor.rewind()).toString());
-            ByteBuffer pbuf = (ByteBuffer) StandardCharsets.UTF_8.encode(payload).rewind();
-            final int limit = pbuf.rewind().limit();
+            ByteBuffer body = (ByteBuffer) StandardCharsets.UTF_8.encode(payload).rewind();
+            String accepts = req.headerString(HttpHeaders.Accept$2dEncoding);
             Rfc822HeaderState.HttpResponse res = req.$res();
             res.status(HttpStatus.$200);
+            ByteBuffer pbuf =
+                Compression.encode(getClass(), accepts, res, MimeType.json.contentType, body);
+            final int limit = pbuf.limit();
             ByteBuffer as =
                 res.headerString(HttpHeaders.Content$2dType, MimeType.json.contentType)
                     .headerString(HttpHeaders.Content$2dLength, String.valueOf(limit)).as(
                         ByteBuffer.class);
             int needed = as.rewind().limit() + limit;
 
+            if (cursor.capacity() < needed)
+              cursor = reply = BufferPool.acquire(needed);
             cursor =
-                (ByteBuffer) ((ByteBuffer) (cursor.capacity() >= needed ? cursor.clear().limit(
-                    needed) : ByteBuffer.allocateDirect(needed))).put(as).put(pbuf).rewind();
+                (ByteBuffer) ((ByteBuffer) cursor.clear().limit(needed)).put(as).put(pbuf)
+                    .rewind();
+            if (pbuf != body)
+              BufferPool.release(pbuf);
 
             key1.interestOps(SelectionKey.OP_WRITE);
           } catch (Exception e) {
@@ -121,6 +137,9 @@ public class GwtRequestFactoryVisitor extends Impl {
        * Socket socket = channel.socket(); socket.getOutputStream().flush(); socket.close();
        */
       key.interestOps(SelectionKey.OP_READ).attach(null);
+      BufferPool.release(lease);
+      BufferPool.release(reply);
+      lease = reply = null;
     }
 
   }
@@ -9,8 +9,10 @@ import com.google.gwt.user.server.rpc.*;
 import one.xio.AsioVisitor.Impl;
 import one.xio.HttpHeaders;
 import one.xio.HttpStatus;
+import rxf.core.BufferPool;
 import rxf.core.CouchNamespace;
 import rxf.core.Tx;
+import rxf.web.inf.Compression;
 import rxf.web.inf.OpInterest;
 
 import java.io.FileInputStream;
@@ -110,13 +112,22 @@ public class GwtRpcVisitor extends Impl implements SerializationPolicyProvider {
         }
       }
       ByteBuffer bb = bb(payload, Cursive.pre.debug);
-      tx.payload(bb);
+      String accepts = Compression.accepts(tx.hdr());
+      String contentType = "text/x-gwt-rpc; charset=UTF-8";
+      ByteBuffer body =
+          Compression.encode(getClass(), accepts, tx.hdr().asResponse(), contentType,
+              (ByteBuffer) bb.rewind());
+      tx.payload(body);
 
       tx.hdr().asResponse().status(HttpStatus.$200).headerString(HttpHeaders.Content$2dType,
-          "text/x-gwt-rpc; charset=UTF-8").headerString(HttpHeaders.Content$2dLength,
+          contentType).headerString(HttpHeaders.Content$2dLength,
           "" + ((tx.payload()).limit()));
 
-      finishWrite(tx.key(), key -> bye(key), (ByteBuffer) tx.hdr().asResponse().asByteBuffer().rewind(), (ByteBuffer) tx.payload()
+      finishWrite(tx.key(), key -> {
+        if (body != bb)
+          BufferPool.release(body);
+        bye(key);
+      }, (ByteBuffer) tx.hdr().asResponse().asByteBuffer().rewind(), (ByteBuffer) tx.payload()
           .rewind());
     }
   }
@@ -2,6 +2,8 @@ package rxf.rpc;
 
 import one.xio.AsioVisitor;
 import one.xio.AsyncSingletonServer;
+import rxf.core.Config;
+import rxf.web.inf.ProtocolMethodDispatch;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -16,13 +18,28 @@ import static java.nio.channels.SelectionKey.OP_ACCEPT;
 
 public class RelaxFactoryServerImpl implements RelaxFactoryServer {
 
+  /**
+   * selector threads serving accepted sockets. 1 keeps everything on the single selector.
+   */
+  public static final int RXF_SELECTOR_SHARDS = Integer.parseInt(Config.get("RXF_SELECTOR_SHARDS",
+      String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+  private static volatile ShardedReactor reactor;
+
   private int port = 8080;
+  private int tlsPort = TlsTerminator.TLS_PORT;
+  private int shards = RXF_SELECTOR_SHARDS;
   private AsioVisitor topLevel;
   private InetAddress hostname;
 
   private ServerSocketChannel serverSocketChannel;
+  private ServerSocketChannel tlsSocketChannel;
 
   private volatile boolean isRunning;
+  /**
+   * what {@link ProtocolMethodDispatch#ACCEPTOR} was before this server's shards took over, put back on stop
+   */
+  private ProtocolMethodDispatch.Acceptor acceptor;
 
   /**
    * handles the threadlocal ugliness if any to registering user threads into the selector/reactor pattern
@@ -37,6 +54,25 @@ public class RelaxFactoryServerImpl implements RelaxFactoryServer {
     AsyncSingletonServer.SingleThreadSingletonServer.enqueue(channel, op, s);
   }
 
+  /**
+   * registers an accepted socket on a selector shard when sharded, otherwise on the single selector.
+   */
+  public static void handoff(SelectableChannel channel, int op, Object... s)
+      throws ClosedChannelException {
+    ShardedReactor r = reactor;
+    if (null == r)
+      enqueue(channel, op, s);
+    else
+      r.enqueue(channel, op, s);
+  }
+
+  /**
+   * @return the running shards, null when serving from the single selector
+   */
+  public static ShardedReactor getReactor() {
+    return reactor;
+  }
+
   public static String wheresWaldo(int... depth) {
     int d = depth.length > 0 ? depth[0] : 2;
     Throwable throwable = new Throwable();
@@ -58,6 +94,14 @@ public class RelaxFactoryServerImpl implements RelaxFactoryServer {
     AsyncSingletonServer.SingleThreadSingletonServer.init(protocoldecoder);
   }
 
+  public void setShards(int shards) {
+    this.shards = shards;
+  }
+
+  public int getShards() {
+    return shards;
+  }
+
   public void setPort(int port) {
     this.port = port;
   }
@@ -81,7 +125,25 @@ public class RelaxFactoryServerImpl implements RelaxFactoryServer {
       System.out.println(hostname.getHostAddress() + ":" + getPort());
       serverSocketChannel.configureBlocking(false);
 
+      if (shards > 1) {
+        reactor = new ShardedReactor(shards, topLevel);
+        reactor.start();
+        acceptor = ProtocolMethodDispatch.ACCEPTOR;
+        ProtocolMethodDispatch.ACCEPTOR = RelaxFactoryServerImpl::handoff;
+      }
       enqueue(serverSocketChannel, OP_ACCEPT, topLevel);
+      if (-1 < tlsPort) {
+        tlsSocketChannel = ServerSocketChannel.open();
+        tlsSocketChannel.socket().bind(new InetSocketAddress(hostname, tlsPort));
+        setTlsPort(tlsSocketChannel.socket().getLocalPort());
+        System.out.println(hostname.getHostAddress() + ":" + getTlsPort() + " (tls)");
+        tlsSocketChannel.configureBlocking(false);
+        // the plaintext goes back in through the plain listener
+        InetAddress loopback =
+            hostname.isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : hostname;
+        enqueue(tlsSocketChannel, OP_ACCEPT, new TlsTerminator(new InetSocketAddress(loopback,
+            getPort())));
+      }
       init(topLevel);
     } finally {
       isRunning = false;
@@ -92,9 +154,30 @@ public class RelaxFactoryServerImpl implements RelaxFactoryServer {
     return port;
   }
 
+  /**
+   * -1 serves no TLS, the default being RXF_TLS_PORT
+   */
+  public void setTlsPort(int tlsPort) {
+    this.tlsPort = tlsPort;
+  }
+
+  public int getTlsPort() {
+    return tlsPort;
+  }
+
   public void stop() throws IOException {
     AsyncSingletonServer.killswitch.set(true);
     serverSocketChannel.close();
+    if (null != tlsSocketChannel)
+      tlsSocketChannel.close();
+    if (null != acceptor) {
+      // a later single-selector server in this vm mustn't hand sockets to stopped shards
+      ShardedReactor r = reactor;
+      reactor = null;
+      ProtocolMethodDispatch.ACCEPTOR = acceptor;
+      acceptor = null;
+      r.stop();
+    }
   }
 
   public boolean isRunning() {
@@ -9,9 +9,11 @@ import one.xio.AsioVisitor.Impl;
 import one.xio.HttpHeaders;
 import one.xio.HttpStatus;
 import one.xio.MimeType;
+import rxf.core.BufferPool;
 import rxf.core.Rfc822HeaderState;
 import rxf.core.Rfc822HeaderState.HttpRequest;
 import rxf.shared.PreRead;
+import rxf.web.inf.Compression;
 import rxf.web.inf.ProtocolMethodDispatch;
 
 import java.io.File;
@@ -37,6 +39,11 @@ public class RequestQueueVisitor extends Impl implements SerializationPolicyProv
 
   private HttpRequest req;
   private ByteBuffer cursor = null;
+  /**
+   * pooled buffers handed back once the response is written: the one the request was read into, and the one the
+   * response went out of when it didn't fit behind the request
+   */
+  private ByteBuffer lease, reply;
   private SocketChannel channel;
   private String payload;
 
@@ -72,17 +79,19 @@ public class RequestQueueVisitor extends Impl implements SerializationPolicyProv
       key.attach(this);
     }
     cursor =
-        null == cursor ? ByteBuffer.allocateDirect(4 << 10) : cursor.hasRemaining() ? cursor
-            : ByteBuffer.allocateDirect(cursor.capacity() << 1).put((ByteBuffer) cursor.rewind());
+        null == cursor ? BufferPool.acquire(4 << 10) : cursor.hasRemaining() ? cursor : BufferPool
+            .grow(cursor);
     int read = read(key, cursor);
     if (-1 == read)
       key.cancel();
     Buffer flip = cursor.duplicate().flip();
-    req = (HttpRequest) req.headerInterest(HttpHeaders.Content$2dLength).read((ByteBuffer) flip);
+    req = (HttpRequest) req.headerInterest(HttpHeaders.Content$2dLength,
+        HttpHeaders.Accept$2dEncoding).read((ByteBuffer) flip);
     if (!Rfc822HeaderState.suffixMatchChunks(ProtocolMethodDispatch.HEADER_TERMINATOR, req
         .headerBuf())) {
       return;
     }
+    lease = cursor;
     cursor = cursor.slice();
     int remaining = Integer.parseInt(req.headerString(HttpHeaders.Content$2dLength));
     final RequestQueueVisitor prev = this;
@@ -125,19 +134,26 @@ public class RequestQueueVisitor extends Impl implements SerializationPolicyProv
             } catch (RpcTokenException ex) {
               payload = RPC.encodeResponseForFailure(null, ex);
             }
-            ByteBuffer pbuf = (ByteBuffer) StandardCharsets.UTF_8.encode(payload).rewind();
-            final int limit = pbuf.rewind().limit();
+            ByteBuffer body = (ByteBuffer) StandardCharsets.UTF_8.encode(payload).rewind();
+            String accepts = req.headerString(HttpHeaders.Accept$2dEncoding);
             Rfc822HeaderState.HttpResponse res = req.$res();
             res.status(HttpStatus.$200);
+            ByteBuffer pbuf =
+                Compression.encode(getClass(), accepts, res, MimeType.json.contentType, body);
+            final int limit = pbuf.limit();
             ByteBuffer as =
                 res.headerString(HttpHeaders.Content$2dType, MimeType.json.contentType)
                     .headerString(HttpHeaders.Content$2dLength, String.valueOf(limit)).as(
                         ByteBuffer.class);
             int needed = as.rewind().limit() + limit;
 
+            if (cursor.capacity() < needed)
+              cursor = reply = BufferPool.acquire(needed);
             cursor =
-                (ByteBuffer) ((ByteBuffer) (cursor.capacity() >= needed ? cursor.clear().limit(
-                    needed) : ByteBuffer.allocateDirect(needed))).put(as).put(pbuf).rewind();
+                (ByteBuffer) ((ByteBuffer) cursor.clear().limit(needed)).put(as).put(pbuf)
+                    .rewind();
+            if (pbuf != body)
+              BufferPool.release(pbuf);
 
             key1.interestOps(SelectionKey.OP_WRITE);
           } catch (Exception e) {
@@ -154,6 +170,9 @@ public class RequestQueueVisitor extends Impl implements SerializationPolicyProv
        * Socket socket = channel.socket(); socket.getOutputStream().flush(); socket.close();
        */
       key.interestOps(SelectionKey.OP_READ).attach(null);
+      BufferPool.release(lease);
+      BufferPool.release(reply);
+      lease = reply = null;
     }
 
   }
@@ -0,0 +1,156 @@
+package rxf.rpc;
+
+import one.xio.AsioVisitor;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static one.xio.AsyncSingletonServer.killswitch;
+
+/**
+ * one selector and the thread that spins it. accepted sockets are handed over by {@link ShardedReactor} and stay on
+ * this shard until closed, so visitors should keep steering their keys with interestOps/attach as they already do.
+ * <p/>
+ * productized from the hcbench ShardNode2 experiment.
+ */
+public class SelectorShard implements Runnable {
+
+  public final int id;
+  public final Selector selector;
+  private final AsioVisitor protocoldecoder;
+  private final ConcurrentLinkedQueue<Object[]> q = new ConcurrentLinkedQueue<>();
+
+  /**
+   * sockets handed to this shard
+   */
+  public final AtomicLong handoffs = new AtomicLong();
+  /**
+   * selects that returned at least one key
+   */
+  public final AtomicLong wakeups = new AtomicLong();
+  /**
+   * ready keys dispatched to a visitor
+   */
+  public final AtomicLong events = new AtomicLong();
+  /**
+   * visitors that threw and got their channel closed
+   */
+  public final AtomicLong errors = new AtomicLong();
+
+  public SelectorShard(int id, AsioVisitor protocoldecoder) throws IOException {
+    this.id = id;
+    this.protocoldecoder = protocoldecoder;
+    selector = Selector.open();
+  }
+
+  /**
+   * handles the threadlocal ugliness if any to registering user threads into the selector/reactor pattern
+   *
+   * @param channel the socketchanel
+   * @param op int ChannelSelector.operator
+   * @param s the payload: grammar {enum,data1,data..n}
+   */
+  public void enqueue(SelectableChannel channel, int op, Object... s) {
+    assert channel != null && !killswitch.get() : "Server appears to have shut down, cannot enqueue";
+    handoffs.incrementAndGet();
+    q.add(new Object[] {channel, op, s});
+    selector.wakeup();
+  }
+
+  /**
+   * @return live keys plus pending registrations, what least-loaded balancing compares
+   */
+  public int load() {
+    return selector.keys().size() + q.size();
+  }
+
+  public void run() {
+    try {
+      while (!killswitch.get()) {
+        for (Object[] s; null != (s = q.poll());) {
+          SelectableChannel x = (SelectableChannel) s[0];
+          Object[] att = (Object[]) s[2];
+          try {
+            x.configureBlocking(false);
+            x.register(selector, (Integer) s[1], att.length == 0 ? null : att.length == 1 ? att[0]
+                : att);
+          } catch (Throwable e) {
+            e.printStackTrace();
+          }
+        }
+        if (0 != selector.select(1000)) {
+          wakeups.incrementAndGet();
+          innerloop();
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  void innerloop() throws IOException {
+    Set<SelectionKey> keys = selector.selectedKeys();
+    for (Iterator<SelectionKey> i = keys.iterator(); i.hasNext();) {
+      SelectionKey key = i.next();
+      i.remove();
+      if (!key.isValid())
+        continue;
+      events.incrementAndGet();
+      SelectableChannel channel = key.channel();
+      try {
+        AsioVisitor m = inferAsioVisitor(protocoldecoder, key);
+        if (key.isValid() && key.isWritable()) {
+          if (((SocketChannel) channel).socket().isOutputShutdown())
+            key.cancel();
+          else
+            m.onWrite(key);
+        }
+        if (key.isValid() && key.isReadable()) {
+          if (((SocketChannel) channel).socket().isInputShutdown())
+            key.cancel();
+          else
+            m.onRead(key);
+        }
+        if (key.isValid() && key.isConnectable())
+          m.onConnect(key);
+      } catch (Throwable e) {
+        errors.incrementAndGet();
+        Object attachment = key.attachment();
+        System.err.println("BadHandler: "
+            + (attachment instanceof Object[] ? Arrays.deepToString((Object[]) attachment) : String
+                .valueOf(attachment)));
+        e.printStackTrace();
+        key.attach(null);
+        channel.close();
+      }
+    }
+  }
+
+  public static AsioVisitor inferAsioVisitor(AsioVisitor default$, SelectionKey key) {
+    Object attachment = key.attachment();
+    if (attachment instanceof Object[] && ((Object[]) attachment).length > 0)
+      attachment = ((Object[]) attachment)[0];
+    return attachment instanceof AsioVisitor ? (AsioVisitor) attachment : default$;
+  }
+
+  @Override
+  public String toString() {
+    return "shard" + id + "{keys=" + selector.keys().size() + ", pending=" + q.size()
+        + ", handoffs=" + handoffs + ", wakeups=" + wakeups + ", events=" + events + ", errors="
+        + errors + '}';
+  }
+}
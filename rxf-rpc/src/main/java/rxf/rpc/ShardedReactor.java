@@ -0,0 +1,81 @@
+package rxf.rpc;
+
+import one.xio.AsioVisitor;
+import rxf.core.Config;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * N {@link SelectorShard}s fed by the acceptor. the acceptor stays on the
+ * {@link one.xio.AsyncSingletonServer.SingleThreadSingletonServer} selector and only does accept(), every accepted
+ * socket is handed to one shard, round-robin or least-loaded.
+ * <p/>
+ * system property: {@value #RXF_SHARD_BALANCE} = roundrobin|leastloaded
+ */
+public class ShardedReactor {
+  public static final String RXF_SHARD_BALANCE = "RXF_SHARD_BALANCE";
+  public static final boolean LEAST_LOADED = "leastloaded".equals(Config.get(RXF_SHARD_BALANCE,
+      "roundrobin"));
+
+  private final SelectorShard[] shards;
+  private final AtomicInteger next = new AtomicInteger();
+  private final boolean leastLoaded;
+
+  public ShardedReactor(int width, AsioVisitor protocoldecoder) throws IOException {
+    this(width, protocoldecoder, LEAST_LOADED);
+  }
+
+  public ShardedReactor(int width, AsioVisitor protocoldecoder, boolean leastLoaded)
+      throws IOException {
+    this.leastLoaded = leastLoaded;
+    shards = new SelectorShard[Math.max(1, width)];
+    for (int i = 0; i < shards.length; i++)
+      shards[i] = new SelectorShard(i, protocoldecoder);
+  }
+
+  public void start() {
+    for (SelectorShard shard : shards) {
+      Thread thread = new Thread(shard, "rxf-shard-" + shard.id);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * wakes every shard so it notices the killswitch
+   */
+  public void stop() {
+    for (SelectorShard shard : shards)
+      shard.selector.wakeup();
+  }
+
+  public SelectorShard pick() {
+    if (!leastLoaded)
+      return shards[(next.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+    SelectorShard best = shards[0];
+    for (int i = 1; i < shards.length; i++)
+      if (shards[i].load() < best.load())
+        best = shards[i];
+    return best;
+  }
+
+  /**
+   * registers an accepted socket on the next shard
+   */
+  public void enqueue(SelectableChannel channel, int op, Object... s) {
+    pick().enqueue(channel, op, s);
+  }
+
+  public List<SelectorShard> getShards() {
+    return Arrays.asList(shards);
+  }
+
+  @Override
+  public String toString() {
+    return (leastLoaded ? "leastloaded" : "roundrobin") + Arrays.toString(shards);
+  }
+}
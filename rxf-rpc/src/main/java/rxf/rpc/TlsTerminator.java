@@ -0,0 +1,303 @@
+package rxf.rpc;
+
+import one.xio.AsioVisitor;
+import rxf.core.BufferPool;
+import rxf.core.Config;
+import rxf.core.SecureChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+
+/**
+ * TLS in the reactor. accepts on RXF_TLS_PORT, runs the handshake and record layer through a {@link SecureChannel} on
+ * the selector the socket lands on, and passes the plaintext to the server's own listener over a loopback connection
+ * registered on that same selector. ProtocolMethodDispatch, Tx.readHttpHeaders, the visitors and ProxyDaemon serve
+ * the loopback side with Helper.read/write as ever; each hop is registered with {@link SecureChannel#terminated} so
+ * they can still learn the real client and the scheme, see {@link SecureChannel#origin} and
+ * {@link SecureChannel#secure}.
+ * <p/>
+ * Helper.read/write go straight to the key's SocketChannel and a selector only takes its provider's own channels, so
+ * the visitors can't be handed a decrypting channel; the hop that's left stays in-process and on the selector thread.
+ * <p/>
+ * each direction holds one pooled RXF_TLS_SEGMENT buffer. a side stops reading while its buffer is full and the other
+ * side wakes it when it drains, the same edge-triggered backpressure as the proxy pipes.
+ */
+public class TlsTerminator extends AsioVisitor.Impl {
+  /**
+   * -1 serves no TLS, 0 picks a free port
+   */
+  public static final int TLS_PORT = Integer.parseInt(Config.get("RXF_TLS_PORT", "-1"));
+  public static final int TLS_SEGMENT = Integer.parseInt(Config.get("RXF_TLS_SEGMENT", String
+      .valueOf(16 << 10)));
+
+  public static final AtomicLong accepted = new AtomicLong();
+  public static final AtomicLong decrypted = new AtomicLong();
+  public static final AtomicLong encrypted = new AtomicLong();
+  public static final AtomicLong aborted = new AtomicLong();
+
+  private final InetSocketAddress plain;
+
+  /**
+   * @param plain the server's own listener
+   */
+  public TlsTerminator(InetSocketAddress plain) {
+    this.plain = plain;
+  }
+
+  public void onAccept(SelectionKey key) throws IOException {
+    SocketChannel accept = ((ServerSocketChannel) key.channel()).accept();
+    if (null == accept)
+      return;
+    accept.configureBlocking(false);
+    accepted.incrementAndGet();
+    RelaxFactoryServerImpl.handoff(accept, OP_READ, new Session(accept).secure);
+  }
+
+  /**
+   * one client: the TLS key and the loopback key, both on the selector the client was handed to
+   */
+  class Session {
+    final SecureChannel tls;
+    /**
+     * decrypted, for the loopback; and read off the loopback, to encrypt. both in write mode
+     */
+    ByteBuffer toPlain = BufferPool.acquire(TLS_SEGMENT);
+    ByteBuffer toTls = BufferPool.acquire(TLS_SEGMENT);
+    SelectionKey tlsKey;
+    SelectionKey plainKey;
+    boolean tlsEof;
+    boolean plainEof;
+
+    final AsioVisitor secure = new Impl() {
+      public void onRead(SelectionKey key) throws Exception {
+        if (closed())
+          return;
+        try {
+          tlsKey = key;
+          if (null == plainKey)
+            connect(key);
+          if (tls.handshaking())
+            handshake();
+          else
+            decrypt();
+        } catch (IOException e) {
+          abort();
+        }
+      }
+
+      public void onWrite(SelectionKey key) throws Exception {
+        if (closed())
+          return;
+        try {
+          if (tls.handshaking())
+            handshake();
+          else
+            encrypt();
+        } catch (IOException e) {
+          abort();
+        }
+      }
+    };
+
+    final AsioVisitor loopback = new Impl() {
+      public void onConnect(SelectionKey key) throws Exception {
+        if (closed())
+          return;
+        try {
+          if (((SocketChannel) key.channel()).finishConnect())
+            key.interestOps(OP_READ | (0 < toPlain.position() ? OP_WRITE : 0));
+        } catch (IOException e) {
+          abort();
+        }
+      }
+
+      public void onRead(SelectionKey key) throws Exception {
+        if (closed())
+          return;
+        try {
+          if (!toTls.hasRemaining()) {
+            off(key, OP_READ);
+            return;
+          }
+          int read = Helper.read(key, toTls);
+          if (-1 == read) {
+            plainEof = true;
+            off(key, OP_READ);
+          }
+          if (0 != read && !tls.handshaking())
+            on(tlsKey, OP_WRITE);
+        } catch (IOException e) {
+          abort();
+        }
+      }
+
+      public void onWrite(SelectionKey key) throws Exception {
+        if (closed())
+          return;
+        try {
+          toPlain.flip();
+          try {
+            Helper.write(key, toPlain);
+          } finally {
+            toPlain.compact();
+          }
+          if (0 < toPlain.position())
+            return;
+          off(key, OP_WRITE);
+          if (tls.buffered())
+            // records already off the socket won't raise another OP_READ
+            decrypt();
+          else if (tlsEof)
+            ((SocketChannel) key.channel()).shutdownOutput();
+          else
+            on(tlsKey, OP_READ);
+        } catch (IOException e) {
+          abort();
+        }
+      }
+    };
+
+    final InetSocketAddress client;
+
+    Session(SocketChannel client) throws IOException {
+      tls = SecureChannel.server(client, this::resume);
+      this.client = (InetSocketAddress) client.getRemoteAddress();
+    }
+
+    /**
+     * opens the loopback on the client's selector, from its thread
+     */
+    void connect(SelectionKey key) throws IOException {
+      SocketChannel channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      // bound up front, so the hop's address is known before the listener accepts it
+      channel.bind(new InetSocketAddress(plain.getAddress(), 0));
+      SecureChannel.terminated(channel, client);
+      boolean connected = channel.connect(plain);
+      plainKey = channel.register(key.selector(), connected ? OP_READ : OP_CONNECT, loopback);
+    }
+
+    void handshake() throws IOException {
+      int op = tls.handshake();
+      if (tls.handshaking()) {
+        tlsKey.interestOps(op);
+        if (0 == op && !tls.tasking())
+          // the task and its resume() finished before the 0 above, which wiped the OP_WRITE resume() set
+          tlsKey.interestOps(OP_WRITE);
+      } else {
+        tlsKey.interestOps(OP_READ | (0 < toTls.position() || tls.pending() ? OP_WRITE : 0));
+        // the client's first request may have come in with its Finished
+        decrypt();
+      }
+    }
+
+    /**
+     * a delegated task finished off the selector thread
+     */
+    void resume() {
+      SelectionKey key = tlsKey;
+      if (null != key && key.isValid()) {
+        key.interestOps(OP_WRITE);
+        key.selector().wakeup();
+      }
+    }
+
+    void decrypt() throws IOException {
+      if (!toPlain.hasRemaining()) {
+        off(tlsKey, OP_READ);
+        return;
+      }
+      int read = tls.read(toPlain);
+      if (tls.pending())
+        on(tlsKey, OP_WRITE);
+      if (-1 == read) {
+        tlsEof = true;
+        off(tlsKey, OP_READ);
+        if (0 == toPlain.position() && connected())
+          ((SocketChannel) plainKey.channel()).shutdownOutput();
+      } else if (0 < read) {
+        decrypted.addAndGet(read);
+        if (connected())
+          on(plainKey, OP_WRITE);
+      }
+    }
+
+    boolean connected() {
+      return plainKey.isValid() && 0 == (plainKey.interestOps() & OP_CONNECT);
+    }
+
+    void encrypt() throws IOException {
+      if (!tls.flush())
+        return;
+      toTls.flip();
+      try {
+        encrypted.addAndGet(tls.write(toTls));
+      } finally {
+        toTls.compact();
+      }
+      if (tls.pending())
+        return;
+      if (0 == toTls.position()) {
+        off(tlsKey, OP_WRITE);
+        if (plainEof) {
+          close();
+          return;
+        }
+      }
+      if (!plainEof && toTls.hasRemaining())
+        on(plainKey, OP_READ);
+    }
+
+    /**
+     * the other key of a closed session can still be in the same select's ready set
+     */
+    boolean closed() {
+      return null == toPlain;
+    }
+
+    void abort() {
+      aborted.incrementAndGet();
+      close();
+    }
+
+    void close() {
+      if (closed())
+        return;
+      tls.close();
+      if (null != plainKey)
+        try {
+          SecureChannel.untrack((SocketChannel) plainKey.channel());
+          plainKey.channel().close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      BufferPool.release(toPlain);
+      BufferPool.release(toTls);
+      toPlain = toTls = null;
+    }
+  }
+
+  private static void on(SelectionKey key, int op) {
+    if (null != key && key.isValid() && 0 == (key.interestOps() & op))
+      key.interestOps(key.interestOps() | op);
+  }
+
+  private static void off(SelectionKey key, int op) {
+    if (null != key && key.isValid() && 0 != (key.interestOps() & op))
+      key.interestOps(key.interestOps() & ~op);
+  }
+
+  public static String stats() {
+    return "TlsTerminator{accepted=" + accepted + ", decrypted=" + decrypted + ", encrypted="
+        + encrypted + ", aborted=" + aborted + ", " + SecureChannel.stats() + '}';
+  }
+}